@@ -0,0 +1,118 @@
+package org.angelfg.ejemplos.benchmark;
+
+import org.angelfg.ejemplos.models.Banco;
+import org.angelfg.ejemplos.models.Cuenta;
+import org.openjdk.jmh.annotations.*;
+
+import java.math.BigDecimal;
+import java.util.Optional;
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+
+// Altas de cuentas y busquedas por id y por persona
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class BancoBenchmark {
+
+    // Cada cuantas altas se empieza con un banco vacio, para no medir el crecimiento sin limite del heap
+    private static final int ALTAS_POR_BANCO = 100_000;
+
+    @Param({ "UNIFORME", "SESGADA" })
+    private Distribucion distribucion;
+
+    @Param("100000")
+    private int cuentas;
+
+    private Banco banco;
+    private String[] personas;
+
+    @State(Scope.Thread)
+    public static class Hilo {
+
+        final SplittableRandom random = Semillas.nuevo();
+
+    }
+
+    @State(Scope.Thread)
+    public static class Altas {
+
+        Banco banco;
+        int total;
+
+        @Setup(Level.Iteration)
+        public void setUp() {
+            banco = new Banco();
+            total = 0;
+        }
+
+        Banco siguiente() {
+            if (++total % ALTAS_POR_BANCO == 0) {
+                banco = new Banco();
+            }
+            return banco;
+        }
+
+    }
+
+    @State(Scope.Benchmark)
+    public static class AltasCompartidas {
+
+        volatile Banco banco;
+
+        @Setup(Level.Iteration)
+        public void setUp() {
+            banco = new Banco();
+        }
+
+        Banco siguiente() {
+            Banco actual = banco;
+            if (actual.getCuentas().size() >= ALTAS_POR_BANCO) {
+                banco = actual = new Banco(); // si dos hilos lo cambian a la vez solo se pierde un banco de prueba
+            }
+            return actual;
+        }
+
+    }
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        banco = new Banco();
+        personas = new String[cuentas];
+        for (int i = 0; i < cuentas; i++) {
+            personas[i] = "Persona " + i;
+            banco.addCuenta(new Cuenta(personas[i], BigDecimal.TEN));
+        }
+    }
+
+    @Benchmark
+    public void addCuenta(Altas altas) {
+        altas.siguiente().addCuenta(new Cuenta("Persona", BigDecimal.TEN));
+    }
+
+    @Benchmark
+    @Threads(4)
+    public void addCuentaConcurrente(AltasCompartidas altas) {
+        altas.siguiente().addCuenta(new Cuenta("Persona", BigDecimal.TEN));
+    }
+
+    @Benchmark
+    public Optional<Cuenta> buscarPorId(Hilo hilo) {
+        return banco.buscarPorId(distribucion.elegir(hilo.random, cuentas) + 1L);
+    }
+
+    @Benchmark
+    public Optional<Cuenta> buscarPorPersona(Hilo hilo) {
+        return banco.buscarPorPersona(personas[distribucion.elegir(hilo.random, cuentas)]);
+    }
+
+    @Benchmark
+    @Threads(4)
+    public Optional<Cuenta> buscarPorIdConcurrente(Hilo hilo) {
+        return banco.buscarPorId(distribucion.elegir(hilo.random, cuentas) + 1L);
+    }
+
+}
@@ -0,0 +1,63 @@
+package org.angelfg.ejemplos.benchmark;
+
+import org.angelfg.ejemplos.models.Cuenta;
+import org.angelfg.ejemplos.services.BancoParticionado;
+import org.openjdk.jmh.annotations.*;
+
+import java.math.BigDecimal;
+import java.util.SplittableRandom;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+// Transferencias por segundo segun la cantidad de particiones, cada invocacion espera un lote completo
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class BancoParticionadoBenchmark {
+
+    private static final int LOTE = 10_000;
+
+    @Param({ "1", "4", "16", "64" })
+    private int particiones;
+
+    @Param({ "UNIFORME", "SESGADA" })
+    private Distribucion distribucion;
+
+    @Param("10000")
+    private int cuentas;
+
+    private BancoParticionado banco;
+    private Cuenta[] arreglo;
+    private SplittableRandom random;
+    private final CompletableFuture<?>[] futuros = new CompletableFuture<?>[LOTE];
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        banco = new BancoParticionado(particiones);
+        arreglo = new Cuenta[cuentas];
+        for (int i = 0; i < cuentas; i++) {
+            arreglo[i] = new Cuenta("Persona " + i, BigDecimal.valueOf(1_000_000_000L));
+            banco.addCuenta(arreglo[i]);
+        }
+        random = Semillas.nuevo();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        banco.close();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(LOTE)
+    public void transferir() {
+        for (int i = 0; i < LOTE; i++) {
+            futuros[i] = banco.transferir(arreglo[distribucion.elegir(random, cuentas)],
+                    arreglo[distribucion.elegir(random, cuentas)], BigDecimal.ONE);
+        }
+        CompletableFuture.allOf(futuros).join();
+    }
+
+}
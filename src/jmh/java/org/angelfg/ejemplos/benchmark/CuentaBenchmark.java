@@ -0,0 +1,71 @@
+package org.angelfg.ejemplos.benchmark;
+
+import org.angelfg.ejemplos.models.Cuenta;
+import org.angelfg.ejemplos.models.CuentaPuntoFijo;
+import org.openjdk.jmh.annotations.*;
+
+import java.math.BigDecimal;
+import java.util.concurrent.TimeUnit;
+
+// Debito y credito sobre una sola cuenta, con un hilo y con cuatro hilos peleando por el mismo lock
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class CuentaBenchmark {
+
+    private static final BigDecimal SALDO_INICIAL = BigDecimal.valueOf(1_000_000_000_000L);
+    private static final BigDecimal MONTO = new BigDecimal("12.34");
+
+    private Cuenta cuenta;
+    private CuentaPuntoFijo cuentaPuntoFijo;
+    private long unidades;
+
+    @Setup(Level.Iteration)
+    public void setUp() {
+        cuenta = new Cuenta("Luis", SALDO_INICIAL);
+        cuentaPuntoFijo = new CuentaPuntoFijo("Angel", SALDO_INICIAL);
+        unidades = MONTO.movePointRight(cuentaPuntoFijo.getEscala()).longValueExact();
+    }
+
+    @Benchmark
+    public void debito() {
+        cuenta.debito(MONTO);
+    }
+
+    @Benchmark
+    public void credito() {
+        cuenta.credito(MONTO);
+    }
+
+    @Benchmark
+    public void debitoPuntoFijo() {
+        cuentaPuntoFijo.debito(unidades);
+    }
+
+    @Benchmark
+    public void creditoPuntoFijo() {
+        cuentaPuntoFijo.credito(unidades);
+    }
+
+    @Benchmark
+    @Threads(4)
+    public void debitoConcurrente() {
+        cuenta.debito(MONTO);
+    }
+
+    @Benchmark
+    @Threads(4)
+    public void creditoConcurrente() {
+        cuenta.credito(MONTO);
+    }
+
+    @Benchmark
+    @Threads(4)
+    public void creditoPuntoFijoConcurrente() {
+        cuentaPuntoFijo.credito(unidades);
+    }
+
+}
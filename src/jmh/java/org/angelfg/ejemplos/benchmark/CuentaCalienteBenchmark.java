@@ -0,0 +1,63 @@
+package org.angelfg.ejemplos.benchmark;
+
+import org.angelfg.ejemplos.models.CuentaAcumuladora;
+import org.angelfg.ejemplos.models.CuentaAtomica;
+import org.angelfg.ejemplos.models.CuentaPuntoFijo;
+import org.openjdk.jmh.annotations.*;
+
+import java.math.BigDecimal;
+import java.util.concurrent.TimeUnit;
+
+// Creditos sobre una sola cuenta caliente al subir la cantidad de hilos: con lock, con CAS y con LongAdder
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class CuentaCalienteBenchmark {
+
+    @Param({ "lock", "atomica", "acumuladora" })
+    private String tipo;
+
+    private CuentaPuntoFijo cuenta;
+
+    @Setup(Level.Iteration)
+    public void setUp() {
+        switch (tipo) {
+            case "atomica":
+                cuenta = new CuentaAtomica("Comercio", BigDecimal.ZERO);
+                break;
+            case "acumuladora":
+                cuenta = new CuentaAcumuladora("Comercio", BigDecimal.ZERO);
+                break;
+            default:
+                cuenta = new CuentaPuntoFijo("Comercio", BigDecimal.ZERO);
+        }
+    }
+
+    @Benchmark
+    @Threads(1)
+    public void credito1Hilo() {
+        cuenta.credito(1L);
+    }
+
+    @Benchmark
+    @Threads(2)
+    public void credito2Hilos() {
+        cuenta.credito(1L);
+    }
+
+    @Benchmark
+    @Threads(4)
+    public void credito4Hilos() {
+        cuenta.credito(1L);
+    }
+
+    @Benchmark
+    @Threads(8)
+    public void credito8Hilos() {
+        cuenta.credito(1L);
+    }
+
+}
@@ -0,0 +1,26 @@
+package org.angelfg.ejemplos.benchmark;
+
+import java.util.SplittableRandom;
+
+// Como se eligen las cuentas en cada operacion
+public enum Distribucion {
+
+    UNIFORME {
+        @Override
+        int elegir(SplittableRandom random, int cuentas) {
+            return random.nextInt(cuentas);
+        }
+    },
+
+    // El 80% de las operaciones cae en el 1% de las cuentas
+    SESGADA {
+        @Override
+        int elegir(SplittableRandom random, int cuentas) {
+            int calientes = Math.max(1, cuentas / 100);
+            return random.nextInt(100) < 80 ? random.nextInt(calientes) : random.nextInt(cuentas);
+        }
+    };
+
+    abstract int elegir(SplittableRandom random, int cuentas);
+
+}
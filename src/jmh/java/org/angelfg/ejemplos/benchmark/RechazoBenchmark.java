@@ -0,0 +1,60 @@
+package org.angelfg.ejemplos.benchmark;
+
+import org.angelfg.ejemplos.exceptions.DineroInsuficienteException;
+import org.angelfg.ejemplos.models.Banco;
+import org.angelfg.ejemplos.models.Cuenta;
+import org.angelfg.ejemplos.models.ResultadoOperacion;
+import org.openjdk.jmh.annotations.*;
+
+import java.math.BigDecimal;
+import java.util.concurrent.TimeUnit;
+
+// Costo de un rechazo por fondos contra el de una transferencia exitosa
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class RechazoBenchmark {
+
+    private Banco banco;
+    private Cuenta rica;
+    private Cuenta pobre;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        banco = new Banco();
+        rica = new Cuenta("Luis", BigDecimal.valueOf(1_000_000_000L));
+        pobre = new Cuenta("Angel", BigDecimal.ZERO);
+        banco.addCuenta(rica);
+        banco.addCuenta(pobre);
+    }
+
+    @Benchmark
+    public ResultadoOperacion exito() {
+        // Ida y vuelta, los saldos no cambian entre invocaciones
+        banco.tryTransferir(rica, pobre, BigDecimal.ONE);
+        return banco.tryTransferir(pobre, rica, BigDecimal.ONE);
+    }
+
+    @Benchmark
+    public ResultadoOperacion rechazo() {
+        banco.tryTransferir(pobre, rica, BigDecimal.ONE);
+        return banco.tryTransferir(pobre, rica, BigDecimal.ONE);
+    }
+
+    @Benchmark
+    public int rechazoConExcepcion() {
+        int rechazos = 0;
+        for (int i = 0; i < 2; i++) {
+            try {
+                banco.transferir(pobre, rica, BigDecimal.ONE);
+            } catch (DineroInsuficienteException e) {
+                rechazos++;
+            }
+        }
+        return rechazos;
+    }
+
+}
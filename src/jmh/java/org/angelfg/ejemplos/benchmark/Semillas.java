@@ -0,0 +1,18 @@
+package org.angelfg.ejemplos.benchmark;
+
+import java.util.SplittableRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// Cada hilo recibe una semilla fija segun el orden en que arranca, asi las corridas se pueden repetir
+final class Semillas {
+
+    private static final AtomicInteger SIGUIENTE = new AtomicInteger();
+
+    private Semillas() {
+    }
+
+    static SplittableRandom nuevo() {
+        return new SplittableRandom(42L + SIGUIENTE.getAndIncrement());
+    }
+
+}
@@ -0,0 +1,75 @@
+package org.angelfg.ejemplos.benchmark;
+
+import org.angelfg.ejemplos.models.Banco;
+import org.angelfg.ejemplos.models.BancoColumnar;
+import org.angelfg.ejemplos.models.Cuenta;
+import org.openjdk.jmh.annotations.*;
+
+import java.math.BigDecimal;
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+
+// Banco.transferir con acceso uniforme o concentrado en pocas cuentas
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class TransferenciaBenchmark {
+
+    @Param({ "UNIFORME", "SESGADA" })
+    private Distribucion distribucion;
+
+    @Param({ "lista", "columnar" })
+    private String tipoBanco;
+
+    @Param("10000")
+    private int cuentas;
+
+    private Banco banco;
+    private Cuenta[] arreglo;
+
+    @State(Scope.Thread)
+    public static class Hilo {
+
+        final SplittableRandom random = Semillas.nuevo();
+
+    }
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        banco = tipoBanco.equals("columnar") ? new BancoColumnar() : new Banco();
+        arreglo = new Cuenta[cuentas];
+        for (int i = 0; i < cuentas; i++) {
+            if (banco instanceof BancoColumnar) {
+                arreglo[i] = ((BancoColumnar) banco).agregarCuenta("Persona " + i, BigDecimal.valueOf(1_000_000_000L));
+            } else {
+                arreglo[i] = new Cuenta("Persona " + i, BigDecimal.valueOf(1_000_000_000L));
+                banco.addCuenta(arreglo[i]);
+            }
+        }
+    }
+
+    @Benchmark
+    public void transferir(Hilo hilo) {
+        transferirAlAzar(hilo.random);
+    }
+
+    @Benchmark
+    @Threads(4)
+    public void transferirConcurrente(Hilo hilo) {
+        transferirAlAzar(hilo.random);
+    }
+
+    private void transferirAlAzar(SplittableRandom random) {
+        int origen = distribucion.elegir(random, cuentas);
+        int destino = distribucion.elegir(random, cuentas);
+        if (destino == origen) {
+            destino = (destino + 1) % cuentas;
+        }
+        // Montos simetricos, ninguna cuenta se queda sin saldo durante la corrida
+        banco.transferir(arreglo[origen], arreglo[destino], BigDecimal.ONE);
+    }
+
+}
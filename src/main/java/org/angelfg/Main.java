@@ -1,7 +1,130 @@
 package org.angelfg;
 
+import org.angelfg.ejemplos.models.Banco;
+import org.angelfg.ejemplos.network.ClienteCarga;
+import org.angelfg.ejemplos.network.ServidorBanco;
+import org.angelfg.ejemplos.workload.Carga;
+import org.angelfg.ejemplos.workload.EjecutorCarga;
+import org.angelfg.ejemplos.workload.GeneradorCarga;
+import org.angelfg.ejemplos.workload.ResultadoCarga;
+
+import java.math.BigDecimal;
+import java.net.InetSocketAddress;
+import java.nio.file.Path;
+
+// Corre una carga generada o grabada contra el banco e imprime lo medido en cada ronda.
+// Con --servir expone el banco por red, con --conectar manda la carga a un servidor en lugar de correrla local
 public class Main {
-    public static void main(String[] args) {
-        System.out.println("Hello world!");
+
+    private static final String USO = "Uso: Main [--cuentas N] [--operaciones N] [--semilla N] [--zipf S]"
+            + " [--mezcla debito,credito,transferencia] [--saldo M] [--monto-maximo M] [--hilos N] [--rondas N]"
+            + " [--sin-excepciones] [--grabar archivo] [--repetir archivo] [--servir puerto]"
+            + " [--conectar host:puerto] [--conexiones N] [--operaciones-por-trama N] [--tramas-en-vuelo N]";
+
+    public static void main(String[] args) throws Exception {
+        int cuentas = 1_000_000;
+        int operaciones = 5_000_000;
+        long semilla = 42;
+        double zipf = 1.0;
+        int[] mezcla = { 30, 30, 40 };
+        BigDecimal saldo = BigDecimal.valueOf(1_000);
+        BigDecimal montoMaximo = BigDecimal.valueOf(1_000);
+        int hilos = Runtime.getRuntime().availableProcessors();
+        int rondas = 3;
+        boolean sinExcepciones = false;
+        Path grabar = null;
+        Path repetir = null;
+        int servir = -1;
+        InetSocketAddress conectar = null;
+        int conexiones = 4;
+        int operacionesPorTrama = 64;
+        int tramasEnVuelo = 16;
+
+        for (int i = 0; i < args.length; i++) {
+            switch (args[i]) {
+                case "--cuentas": cuentas = Integer.parseInt(valor(args, ++i)); break;
+                case "--operaciones": operaciones = Integer.parseInt(valor(args, ++i)); break;
+                case "--semilla": semilla = Long.parseLong(valor(args, ++i)); break;
+                case "--zipf": zipf = Double.parseDouble(valor(args, ++i)); break;
+                case "--mezcla": {
+                    String[] pesos = valor(args, ++i).split(",");
+                    if (pesos.length != 3) throw new IllegalArgumentException(USO);
+                    for (int j = 0; j < 3; j++) mezcla[j] = Integer.parseInt(pesos[j].trim());
+                    break;
+                }
+                case "--saldo": saldo = new BigDecimal(valor(args, ++i)); break;
+                case "--monto-maximo": montoMaximo = new BigDecimal(valor(args, ++i)); break;
+                case "--hilos": hilos = Integer.parseInt(valor(args, ++i)); break;
+                case "--rondas": rondas = Integer.parseInt(valor(args, ++i)); break;
+                case "--sin-excepciones": sinExcepciones = true; break;
+                case "--grabar": grabar = Path.of(valor(args, ++i)); break;
+                case "--repetir": repetir = Path.of(valor(args, ++i)); break;
+                case "--servir": servir = Integer.parseInt(valor(args, ++i)); break;
+                case "--conectar": {
+                    String direccion = valor(args, ++i);
+                    int separador = direccion.lastIndexOf(':');
+                    if (separador < 0) throw new IllegalArgumentException(USO);
+                    conectar = new InetSocketAddress(direccion.substring(0, separador), Integer.parseInt(direccion.substring(separador + 1)));
+                    break;
+                }
+                case "--conexiones": conexiones = Integer.parseInt(valor(args, ++i)); break;
+                case "--operaciones-por-trama": operacionesPorTrama = Integer.parseInt(valor(args, ++i)); break;
+                case "--tramas-en-vuelo": tramasEnVuelo = Integer.parseInt(valor(args, ++i)); break;
+                default: throw new IllegalArgumentException(USO);
+            }
+        }
+
+        if (servir >= 0) {
+            // Sirve hasta que se corte el proceso
+            ServidorBanco servidor = new ServidorBanco(EjecutorCarga.crearBanco(cuentas, saldo), new InetSocketAddress(servir), hilos);
+            System.out.println("Servidor en " + servidor.getDireccion() + " con " + cuentas + " cuentas");
+            Thread.currentThread().join();
+        }
+
+        Carga carga;
+        if (repetir != null) {
+            carga = Carga.leer(repetir);
+            cuentas = (int) Math.max(1, carga.getMayorId());
+            System.out.println("Carga de " + repetir + ": " + carga.getOperaciones() + " operaciones");
+        } else {
+            GeneradorCarga generador = new GeneradorCarga(cuentas, semilla);
+            generador.setExponenteZipf(zipf);
+            generador.setMezcla(mezcla[0], mezcla[1], mezcla[2]);
+            generador.setMontoMaximo(montoMaximo);
+            carga = generador.generar(operaciones);
+            System.out.println("Carga generada: " + carga.getOperaciones() + " operaciones sobre " + cuentas + " cuentas");
+        }
+        if (grabar != null) {
+            carga.escribir(grabar);
+        }
+
+        if (conectar != null) {
+            ClienteCarga cliente = new ClienteCarga(conectar);
+            cliente.setConexiones(conexiones);
+            cliente.setOperacionesPorTrama(operacionesPorTrama);
+            cliente.setTramasEnVuelo(tramasEnVuelo);
+            for (int ronda = 1; ronda <= rondas; ronda++) {
+                System.out.println("Ronda " + ronda + ": " + cliente.ejecutar(carga));
+            }
+            return;
+        }
+
+        Banco banco = EjecutorCarga.crearBanco(cuentas, saldo);
+        EjecutorCarga ejecutor = new EjecutorCarga(banco);
+        ejecutor.setHilos(hilos);
+        ejecutor.setSinExcepciones(sinExcepciones);
+        // Las primeras rondas calientan la JVM, los saldos siguen de una ronda a la otra
+        for (int ronda = 1; ronda <= rondas; ronda++) {
+            ResultadoCarga resultado = ejecutor.ejecutar(carga);
+            System.out.println("Ronda " + ronda + ": " + resultado);
+        }
     }
-}
\ No newline at end of file
+
+    private static String valor(String[] args, int i) {
+        if (i >= args.length) {
+            throw new IllegalArgumentException(USO);
+        }
+        return args[i];
+    }
+
+}
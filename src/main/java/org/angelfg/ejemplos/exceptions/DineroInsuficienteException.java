@@ -2,8 +2,23 @@ package org.angelfg.ejemplos.exceptions;
 
 public class DineroInsuficienteException extends RuntimeException {
 
+    private static final long serialVersionUID = 1L;
+
+    // Sin pila de llamadas ni excepciones suprimidas, lanzarla cuesta lo mismo que un return
+    private static final DineroInsuficienteException COMPARTIDA = new DineroInsuficienteException("Dinero insuficiente", false);
+
     public DineroInsuficienteException(String message) {
         super(message);
     }
 
+    // Con conPila en false no se llena la pila de llamadas y la excepcion no guarda estado modificable
+    public DineroInsuficienteException(String message, boolean conPila) {
+        super(message, null, conPila, conPila);
+    }
+
+    // La misma instancia para todos los rechazos, para quien necesita una excepcion pero no la pila
+    public static DineroInsuficienteException compartida() {
+        return COMPARTIDA;
+    }
+
 }
@@ -0,0 +1,145 @@
+package org.angelfg.ejemplos.ingestion;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Lee filas con la forma de data.csv directo de los bytes, sin crear un String por linea: hasta tres numeros
+ * separados por comas, el ultimo es el monto con sus decimales y los anteriores son ids de cuenta.
+ * Lo usan IngestaMovimientos sobre el archivo mapeado y Carga, asi los dos leen las filas igual.
+ */
+public final class AnalizadorFilas {
+
+    static final int LINEA_MAXIMA = 4096;
+    static final int ESCALA_MAXIMA = 18;
+    private static final int CAMPOS_MAXIMOS = 3;
+
+    private final ByteBuffer bytes;
+    private final long inicioBytes;
+    private final boolean hastaElFinal;
+    private final int limite;
+    private final long[] valores = new long[CAMPOS_MAXIMOS];
+    private final int[] escalas = new int[CAMPOS_MAXIMOS];
+    private int inicioFila;
+    private int posicion;
+    private int campos;
+
+    // inicioBytes es la posicion de bytes en el archivo, para los mensajes. Si los bytes no llegan al final del
+    // archivo, una linea que no termina antes del limite es demasiado larga
+    public AnalizadorFilas(ByteBuffer bytes, long inicioBytes, boolean hastaElFinal) {
+        this.bytes = bytes;
+        this.inicioBytes = inicioBytes;
+        this.hastaElFinal = hastaElFinal;
+        this.limite = bytes.limit();
+    }
+
+    // Analiza la fila que empieza en inicio y devuelve la posicion de la siguiente, getCampos es 0 en una linea vacia
+    public int fila(int inicio) {
+        inicioFila = inicio;
+        posicion = inicio;
+        campos = 0;
+        saltarEspacios();
+        if (finDeLinea()) {
+            return siguienteLinea();
+        }
+
+        while (true) {
+            if (campos == CAMPOS_MAXIMOS) {
+                throw filaNoValida();
+            }
+            numero();
+            saltarEspacios();
+            if (posicion == limite || bytes.get(posicion) != ',') {
+                break;
+            }
+            posicion++;
+            saltarEspacios();
+        }
+
+        if (!finDeLinea()) {
+            throw filaNoValida();
+        }
+        return siguienteLinea();
+    }
+
+    public int getCampos() {
+        return campos;
+    }
+
+    // El monto es el ultimo campo, sin escala
+    public long getMonto() {
+        return valores[campos - 1];
+    }
+
+    public int getEscala() {
+        return escalas[campos - 1];
+    }
+
+    // Los campos antes del monto son ids: enteros y positivos
+    public long getId(int campo) {
+        if (campo >= campos - 1 || escalas[campo] != 0 || valores[campo] <= 0) {
+            throw filaNoValida();
+        }
+        return valores[campo];
+    }
+
+    // Error de la ultima fila analizada, con su posicion en el archivo
+    public IllegalArgumentException error(String mensaje) {
+        return new IllegalArgumentException(mensaje + " cerca del byte " + (inicioBytes + inicioFila));
+    }
+
+    private void numero() {
+        boolean negativo = false;
+        if (posicion < limite && (bytes.get(posicion) == '-' || bytes.get(posicion) == '+')) {
+            negativo = bytes.get(posicion) == '-';
+            posicion++;
+        }
+
+        long acumulado = 0;
+        int digitos = 0;
+        int decimales = -1;
+        while (posicion < limite) {
+            byte caracter = bytes.get(posicion);
+            if (caracter >= '0' && caracter <= '9') {
+                int digito = caracter - '0';
+                if (acumulado > (Long.MAX_VALUE - digito) / 10) {
+                    throw new ArithmeticException("Monto demasiado grande cerca del byte " + (inicioBytes + inicioFila));
+                }
+                acumulado = acumulado * 10 + digito;
+                digitos++;
+                if (decimales >= 0) decimales++;
+            } else if (caracter == '.' && decimales < 0) {
+                decimales = 0;
+            } else {
+                break;
+            }
+            posicion++;
+        }
+        if (digitos == 0 || decimales > ESCALA_MAXIMA) {
+            throw filaNoValida();
+        }
+        valores[campos] = negativo ? -acumulado : acumulado;
+        escalas[campos] = Math.max(decimales, 0);
+        campos++;
+    }
+
+    private void saltarEspacios() {
+        while (posicion < limite && (bytes.get(posicion) == ' ' || bytes.get(posicion) == '\t')) posicion++;
+    }
+
+    private boolean finDeLinea() {
+        if (posicion < limite && bytes.get(posicion) == '\r') posicion++;
+        return posicion == limite || bytes.get(posicion) == '\n';
+    }
+
+    private int siguienteLinea() {
+        if (posicion == limite && !hastaElFinal) {
+            throw error("Linea de mas de " + LINEA_MAXIMA + " bytes");
+        }
+        return posicion + 1;
+    }
+
+    private IllegalArgumentException filaNoValida() {
+        return error("Fila no valida");
+    }
+
+}
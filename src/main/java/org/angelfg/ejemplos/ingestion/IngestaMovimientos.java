@@ -0,0 +1,348 @@
+package org.angelfg.ejemplos.ingestion;
+
+import org.angelfg.ejemplos.models.Banco;
+import org.angelfg.ejemplos.models.Cuenta;
+import org.angelfg.ejemplos.models.CuentaPuntoFijo;
+import org.angelfg.ejemplos.models.TipoOperacion;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.math.BigDecimal;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Ingesta de archivos de movimientos con la forma de data.csv: una fila por movimiento, "monto" o "id,monto".
+ * Los montos positivos se aplican con la operacion configurada y los negativos con la contraria.
+ *
+ * El archivo se mapea por bloques que se analizan en paralelo en un ForkJoinPool, sin crear un String por linea.
+ * Las filas de cada bloque se reparten por cuenta entre aplicadores de un solo hilo que reciben los bloques en
+ * el orden del archivo, asi los movimientos de una cuenta se aplican en orden. Solo hay un numero limitado de
+ * bloques en vuelo, si los aplicadores se atrasan la lectura espera.
+ */
+public class IngestaMovimientos {
+
+    private static final long[] POTENCIAS_DIEZ = new long[AnalizadorFilas.ESCALA_MAXIMA + 1];
+
+    static {
+        POTENCIAS_DIEZ[0] = 1;
+        for (int i = 1; i < POTENCIAS_DIEZ.length; i++) {
+            POTENCIAS_DIEZ[i] = POTENCIAS_DIEZ[i - 1] * 10;
+        }
+    }
+
+    private final Banco banco;
+    private final TipoOperacion operacion;
+    private long cuentaPorDefecto;
+    private int tamanioBloque = 8 << 20;
+    private int aplicadores = Runtime.getRuntime().availableProcessors();
+    private ForkJoinPool pool = ForkJoinPool.commonPool();
+    private int bloquesEnVuelo = 2 * pool.getParallelism();
+
+    public IngestaMovimientos(Banco banco, TipoOperacion operacion) {
+        if (operacion != TipoOperacion.DEBITO && operacion != TipoOperacion.CREDITO) {
+            throw new IllegalArgumentException("La operacion de los montos positivos debe ser DEBITO o CREDITO");
+        }
+        this.banco = banco;
+        this.operacion = operacion;
+    }
+
+    // Cuenta para las filas que solo traen el monto, 0 si el archivo siempre trae el id
+    public void setCuentaPorDefecto(long cuentaPorDefecto) {
+        this.cuentaPorDefecto = cuentaPorDefecto;
+    }
+
+    public void setTamanioBloque(int tamanioBloque) {
+        this.tamanioBloque = positivo(tamanioBloque, "tamanioBloque");
+    }
+
+    public void setAplicadores(int aplicadores) {
+        this.aplicadores = positivo(aplicadores, "aplicadores");
+    }
+
+    public void setBloquesEnVuelo(int bloquesEnVuelo) {
+        this.bloquesEnVuelo = positivo(bloquesEnVuelo, "bloquesEnVuelo");
+    }
+
+    public void setPool(ForkJoinPool pool) {
+        this.pool = pool;
+    }
+
+    private static int positivo(int valor, String nombre) {
+        if (valor <= 0) {
+            throw new IllegalArgumentException(nombre + " debe ser mayor que cero");
+        }
+        return valor;
+    }
+
+    // Si una fila no se puede analizar, o falla un movimiento por algo que no es un rechazo (por ejemplo un
+    // observador), la ingesta se detiene y lanza ese error: lo aplicado hasta ese bloque queda aplicado y, desde
+    // que se detecta el error, no se aplican bloques posteriores
+    public ResultadoIngesta procesar(Path archivo) throws IOException {
+        long inicio = System.nanoTime();
+        try (FileChannel canal = FileChannel.open(archivo, StandardOpenOption.READ)) {
+            Ejecucion ejecucion = new Ejecucion(canal);
+            ejecucion.ejecutar();
+            return new ResultadoIngesta(ejecucion.filas.sum(), ejecucion.rechazadas.sum(), ejecucion.tamanio,
+                    Duration.ofNanos(System.nanoTime() - inicio));
+        }
+    }
+
+    // Estado de una llamada a procesar
+    private final class Ejecucion {
+
+        private final FileChannel canal;
+        private final long tamanio;
+        private final Semaphore enVuelo = new Semaphore(bloquesEnVuelo);
+        private final Deque<ForkJoinTask<Bloque>> analizando = new ArrayDeque<>();
+        private final ExecutorService[] hilos = new ExecutorService[aplicadores];
+        private final LongAdder filas = new LongAdder();
+        private final LongAdder rechazadas = new LongAdder();
+        private long despachados;
+
+        // Primer bloque en el que fallo un aplicador, los aplicadores no aplican los que vienen despues
+        private volatile long bloqueConError = Long.MAX_VALUE;
+        private RuntimeException error;
+
+        Ejecucion(FileChannel canal) throws IOException {
+            this.canal = canal;
+            this.tamanio = canal.size();
+        }
+
+        void ejecutar() throws IOException {
+            for (int i = 0; i < hilos.length; i++) {
+                String nombre = "ingesta-aplicador-" + i;
+                hilos[i] = Executors.newSingleThreadExecutor(tarea -> {
+                    Thread hilo = new Thread(tarea, nombre);
+                    hilo.setDaemon(true);
+                    return hilo;
+                });
+            }
+
+            try {
+                for (long desde = 0; desde < tamanio && bloqueConError == Long.MAX_VALUE; desde += tamanioBloque) {
+                    reservar();
+                    long inicioBloque = desde;
+                    long finBloque = Math.min(tamanio, desde + tamanioBloque);
+                    analizando.add(pool.submit(() -> analizar(inicioBloque, finBloque)));
+
+                    while (!analizando.isEmpty() && analizando.peek().isDone()) {
+                        despachar(analizando.poll().join());
+                    }
+                }
+                while (!analizando.isEmpty() && bloqueConError == Long.MAX_VALUE) {
+                    despachar(analizando.poll().join());
+                }
+                if (analizando.isEmpty()) {
+                    enVuelo.acquire(bloquesEnVuelo); // todos los bloques despachados terminaron
+                }
+            } catch (InterruptedException e) {
+                detener(true);
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Ingesta interrumpida");
+            } catch (RuntimeException e) {
+                detener(false);
+                synchronized (this) {
+                    if (error != null) e.addSuppressed(error);
+                }
+                throw e;
+            }
+            detener(false);
+            synchronized (this) {
+                if (error != null) throw error;
+            }
+        }
+
+        // Los bloques que seguian al que fallo no se despachan. Los ya despachados se terminan de aplicar,
+        // salvo que se interrumpa la ingesta
+        private void detener(boolean ahora) {
+            analizando.forEach(tarea -> tarea.cancel(true));
+            for (ExecutorService hilo : hilos) {
+                if (ahora) hilo.shutdownNow(); else hilo.shutdown();
+            }
+            if (ahora) {
+                return;
+            }
+            try {
+                for (ExecutorService hilo : hilos) {
+                    while (!hilo.awaitTermination(1, TimeUnit.SECONDS)) {
+                        // sigue esperando los bloques anteriores
+                    }
+                }
+            } catch (InterruptedException e) {
+                for (ExecutorService hilo : hilos) hilo.shutdownNow();
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        private synchronized void fallo(long numero, RuntimeException e) {
+            if (error == null || numero < bloqueConError) {
+                if (error != null) e.addSuppressed(error);
+                error = e;
+                bloqueConError = numero;
+            } else {
+                error.addSuppressed(e);
+            }
+        }
+
+        // Espera un lugar para otro bloque, mientras tanto entrega a los aplicadores lo ya analizado
+        private void reservar() throws InterruptedException {
+            while (!enVuelo.tryAcquire()) {
+                if (analizando.isEmpty()) {
+                    enVuelo.acquire();
+                    return;
+                }
+                despachar(analizando.poll().join());
+            }
+        }
+
+        private void despachar(Bloque bloque) {
+            filas.add(bloque.filas);
+            long numero = despachados++;
+            int conFilas = 0;
+            for (int total : bloque.totales) {
+                if (total > 0) conFilas++;
+            }
+            if (conFilas == 0) {
+                enVuelo.release();
+                return;
+            }
+
+            AtomicInteger pendientes = new AtomicInteger(conFilas);
+            for (int particion = 0; particion < hilos.length; particion++) {
+                if (bloque.totales[particion] == 0) continue;
+                int actual = particion;
+                hilos[particion].execute(() -> {
+                    try {
+                        if (numero <= bloqueConError) rechazadas.add(aplicar(bloque, actual));
+                    } catch (RuntimeException e) {
+                        fallo(numero, e);
+                    } finally {
+                        if (pendientes.decrementAndGet() == 0) enVuelo.release();
+                    }
+                });
+            }
+        }
+
+        private Bloque analizar(long desde, long hasta) throws IOException {
+            long inicioMapa = desde == 0 ? 0 : desde - 1;
+            long finMapa = Math.min(tamanio, hasta + AnalizadorFilas.LINEA_MAXIMA);
+            MappedByteBuffer mapa = canal.map(FileChannel.MapMode.READ_ONLY, inicioMapa, finMapa - inicioMapa);
+
+            int posicion = 0;
+            if (desde > 0) {
+                // La linea que cruza el inicio del bloque la analiza el bloque anterior
+                while (posicion < mapa.limit() && mapa.get(posicion) != '\n') posicion++;
+                posicion++;
+            }
+
+            Bloque bloque = new Bloque(hilos.length);
+            AnalizadorFilas analizador = new AnalizadorFilas(mapa, inicioMapa, finMapa == tamanio);
+            int ultimoInicio = (int) (hasta - inicioMapa);
+            while (posicion < ultimoInicio) {
+                posicion = analizador.fila(posicion);
+                if (analizador.getCampos() > 0) agregar(analizador, bloque);
+            }
+            return bloque;
+        }
+
+        // "monto" va a la cuenta por defecto, "id,monto" a la cuenta id
+        private void agregar(AnalizadorFilas fila, Bloque bloque) {
+            long id;
+            if (fila.getCampos() == 2) {
+                id = fila.getId(0);
+            } else if (fila.getCampos() > 2) {
+                throw fila.error("Fila no valida");
+            } else if (cuentaPorDefecto == 0) {
+                throw fila.error("Fila sin id de cuenta y no hay cuenta por defecto");
+            } else {
+                id = cuentaPorDefecto;
+            }
+            bloque.agregar(id, fila.getMonto(), fila.getEscala());
+        }
+
+        private long aplicar(Bloque bloque, int particion) {
+            long[] ids = bloque.ids[particion];
+            long[] valores = bloque.valores[particion];
+            byte[] escalas = bloque.escalas[particion];
+            long rechazos = 0;
+
+            for (int i = 0; i < bloque.totales[particion]; i++) {
+                Cuenta cuenta = banco.buscarPorId(ids[i]).orElse(null);
+                if (cuenta == null) {
+                    rechazos++;
+                    continue;
+                }
+                long valor = valores[i];
+                int escala = escalas[i];
+                boolean debito = (operacion == TipoOperacion.DEBITO) == (valor >= 0);
+                long absoluto = Math.abs(valor);
+                try {
+                    // Los debitos sin fondos son el rechazo comun, se cuentan sin crear excepciones
+                    if (cuenta instanceof CuentaPuntoFijo && escala <= ((CuentaPuntoFijo) cuenta).getEscala()) {
+                        CuentaPuntoFijo puntoFijo = (CuentaPuntoFijo) cuenta;
+                        long unidades = Math.multiplyExact(absoluto, POTENCIAS_DIEZ[puntoFijo.getEscala() - escala]);
+                        if (!debito) puntoFijo.credito(unidades);
+                        else if (!puntoFijo.tryDebito(unidades).isExitosa()) rechazos++;
+                    } else {
+                        BigDecimal monto = BigDecimal.valueOf(absoluto, escala);
+                        if (!debito) cuenta.credito(monto);
+                        else if (!cuenta.tryDebito(monto).isExitosa()) rechazos++;
+                    }
+                } catch (ArithmeticException e) {
+                    rechazos++; // desborde o redondeo no permitido, cualquier otro error detiene la ingesta
+                }
+            }
+            return rechazos;
+        }
+
+    }
+
+    // Filas analizadas de un bloque, repartidas por particion de cuenta en columnas de primitivos
+    private static final class Bloque {
+
+        private final long[][] ids;
+        private final long[][] valores;
+        private final byte[][] escalas;
+        private final int[] totales;
+        private int filas;
+
+        Bloque(int particiones) {
+            ids = new long[particiones][16];
+            valores = new long[particiones][16];
+            escalas = new byte[particiones][16];
+            totales = new int[particiones];
+        }
+
+        void agregar(long id, long valor, int escala) {
+            int particion = (int) Math.floorMod(id, (long) totales.length);
+            int total = totales[particion];
+            if (total == ids[particion].length) {
+                ids[particion] = Arrays.copyOf(ids[particion], total * 2);
+                valores[particion] = Arrays.copyOf(valores[particion], total * 2);
+                escalas[particion] = Arrays.copyOf(escalas[particion], total * 2);
+            }
+            ids[particion][total] = id;
+            valores[particion][total] = valor;
+            escalas[particion][total] = (byte) escala;
+            totales[particion] = total + 1;
+            filas++;
+        }
+
+    }
+
+}
@@ -0,0 +1,56 @@
+package org.angelfg.ejemplos.ingestion;
+
+import java.time.Duration;
+
+// Totales de una ingesta, las filas rechazadas no detienen el archivo
+public class ResultadoIngesta {
+
+    private final long filas;
+    private final long rechazadas;
+    private final long bytes;
+    private final Duration duracion;
+
+    ResultadoIngesta(long filas, long rechazadas, long bytes, Duration duracion) {
+        this.filas = filas;
+        this.rechazadas = rechazadas;
+        this.bytes = bytes;
+        this.duracion = duracion;
+    }
+
+    public long getFilas() {
+        return filas;
+    }
+
+    public long getAplicadas() {
+        return filas - rechazadas;
+    }
+
+    public long getRechazadas() {
+        return rechazadas;
+    }
+
+    public long getBytes() {
+        return bytes;
+    }
+
+    public Duration getDuracion() {
+        return duracion;
+    }
+
+    public double getFilasPorSegundo() {
+        long nanos = Math.max(1, duracion.toNanos());
+        return filas * 1e9 / nanos;
+    }
+
+    @Override
+    public String toString() {
+        return "ResultadoIngesta{" +
+                "filas=" + filas +
+                ", rechazadas=" + rechazadas +
+                ", bytes=" + bytes +
+                ", duracion=" + duracion +
+                ", filasPorSegundo=" + Math.round(getFilasPorSegundo()) +
+                '}';
+    }
+
+}
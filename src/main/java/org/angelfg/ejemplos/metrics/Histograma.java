@@ -0,0 +1,144 @@
+package org.angelfg.ejemplos.metrics;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Histograma de latencias sin locks ni asignaciones al registrar. Los valores se agrupan en escala log-lineal:
+ * cada potencia de dos se parte en 8 intervalos, asi el error de un percentil es menor al 12.5%.
+ * Los hilos escriben en franjas distintas del mismo arreglo para no pelear por las mismas lineas de cache;
+ * el resumen suma todas las franjas.
+ */
+public class Histograma {
+
+    private static final int SUB_INTERVALOS = 8;
+    private static final int BITS_SUB_INTERVALO = 3;
+    private static final int INTERVALOS = (64 - BITS_SUB_INTERVALO + 1) * SUB_INTERVALOS;
+
+    // Cada franja guarda los intervalos, la suma y el maximo
+    private static final int SUMA = INTERVALOS;
+    private static final int MAXIMO = INTERVALOS + 1;
+    private static final int TAMANIO_FRANJA = INTERVALOS + 2;
+
+    private final AtomicLongArray valores;
+    private final int mascaraFranjas;
+
+    public Histograma() {
+        this(Runtime.getRuntime().availableProcessors());
+    }
+
+    public Histograma(int franjas) {
+        int potencia = Integer.highestOneBit(Math.max(1, Math.min(franjas, 64)) * 2 - 1);
+        this.mascaraFranjas = potencia - 1;
+        this.valores = new AtomicLongArray(potencia * TAMANIO_FRANJA);
+    }
+
+    static int intervalo(long valor) {
+        if (valor < SUB_INTERVALOS) {
+            return (int) Math.max(valor, 0);
+        }
+        int exponente = 63 - Long.numberOfLeadingZeros(valor);
+        int sub = (int) (valor >>> (exponente - BITS_SUB_INTERVALO)) & (SUB_INTERVALOS - 1);
+        return (exponente - BITS_SUB_INTERVALO + 1) * SUB_INTERVALOS + sub;
+    }
+
+    // Mayor valor que cae en el intervalo
+    static long limiteSuperior(int intervalo) {
+        if (intervalo < SUB_INTERVALOS) {
+            return intervalo;
+        }
+        int exponente = intervalo / SUB_INTERVALOS + BITS_SUB_INTERVALO - 1;
+        long ancho = 1L << (exponente - BITS_SUB_INTERVALO);
+        long inferior = (SUB_INTERVALOS + intervalo % SUB_INTERVALOS) * ancho;
+        return inferior + ancho - 1;
+    }
+
+    public void registrar(long valor) {
+        int base = franja() * TAMANIO_FRANJA;
+        valores.getAndIncrement(base + intervalo(valor));
+        valores.getAndAdd(base + SUMA, valor);
+        long maximo;
+        while (valor > (maximo = valores.get(base + MAXIMO)) && !valores.compareAndSet(base + MAXIMO, maximo, valor)) {
+            // otro hilo de la misma franja cambio el maximo, se vuelve a comparar
+        }
+    }
+
+    // Franja por hash del hilo, sin mapas por hilo que pesen con hilos virtuales. Se mezclan los bits altos
+    // porque los hash de identidad cercanos difieren poco en los bajos
+    private int franja() {
+        int hash = System.identityHashCode(Thread.currentThread()) * 0x9E3779B9;
+        return (hash ^ (hash >>> 16)) & mascaraFranjas;
+    }
+
+    // Lectura sin detener a los que registran, puede mezclar registros que llegan durante la suma
+    public Resumen resumen() {
+        long[] cantidades = new long[INTERVALOS];
+        long suma = 0;
+        long maximo = 0;
+        for (int base = 0; base < valores.length(); base += TAMANIO_FRANJA) {
+            for (int i = 0; i < INTERVALOS; i++) {
+                cantidades[i] += valores.get(base + i);
+            }
+            suma += valores.get(base + SUMA);
+            maximo = Math.max(maximo, valores.get(base + MAXIMO));
+        }
+        return new Resumen(cantidades, suma, maximo);
+    }
+
+    public static class Resumen {
+
+        private final long[] cantidades;
+        private final long cantidad;
+        private final long suma;
+        private final long maximo;
+
+        Resumen(long[] cantidades, long suma, long maximo) {
+            long total = 0;
+            for (long valor : cantidades) {
+                total += valor;
+            }
+            this.cantidades = cantidades;
+            this.cantidad = total;
+            this.suma = suma;
+            this.maximo = maximo;
+        }
+
+        public long getCantidad() {
+            return cantidad;
+        }
+
+        public double getMedia() {
+            return cantidad == 0 ? 0 : (double) suma / cantidad;
+        }
+
+        public long getMaximo() {
+            return maximo;
+        }
+
+        // Limite superior del intervalo donde cae el percentil, nunca mayor que el maximo registrado
+        public long getPercentil(double percentil) {
+            if (percentil < 0 || percentil > 100) {
+                throw new IllegalArgumentException("El percentil debe estar entre 0 y 100");
+            }
+            if (cantidad == 0) {
+                return 0;
+            }
+            long objetivo = Math.max(1, (long) Math.ceil(cantidad * percentil / 100));
+            long acumulado = 0;
+            for (int i = 0; i < cantidades.length; i++) {
+                acumulado += cantidades[i];
+                if (acumulado >= objetivo) {
+                    return Math.min(limiteSuperior(i), maximo);
+                }
+            }
+            return maximo;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("Resumen{cantidad=%d, media=%.0f, p50=%d, p99=%d, p99.9=%d, maximo=%d}",
+                    cantidad, getMedia(), getPercentil(50), getPercentil(99), getPercentil(99.9), maximo);
+        }
+
+    }
+
+}
@@ -0,0 +1,90 @@
+package org.angelfg.ejemplos.metrics;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Contadores y latencias de las operaciones del banco. Se activan con Banco.setMetricas y se apagan con null;
+ * apagadas, cada operacion solo paga la lectura del campo. Registrar no toma locks ni crea objetos.
+ * Los tiempos son en nanosegundos y cuentan tambien la espera por el lock de las cuentas.
+ */
+public class Metricas {
+
+    private final Operacion transferencias = new Operacion();
+    private final Operacion debitos = new Operacion();
+    private final Operacion creditos = new Operacion();
+    private final Operacion lotes = new Operacion();
+
+    private final LongAdder bloqueos = new LongAdder();
+    private final LongAdder bloqueosConEspera = new LongAdder();
+    private final Histograma espera = new Histograma();
+
+    public static long ahora() {
+        return System.nanoTime();
+    }
+
+    public Operacion getTransferencias() {
+        return transferencias;
+    }
+
+    public Operacion getDebitos() {
+        return debitos;
+    }
+
+    public Operacion getCreditos() {
+        return creditos;
+    }
+
+    // Una latencia por lote y un contador por cada transferencia del lote
+    public Operacion getLotes() {
+        return lotes;
+    }
+
+    // Lock tomado al primer intento
+    public void registrarBloqueo() {
+        bloqueos.increment();
+    }
+
+    public void registrarBloqueo(long esperaNanos) {
+        bloqueos.increment();
+        bloqueosConEspera.increment();
+        espera.registrar(esperaNanos);
+    }
+
+    public ResumenMetricas resumen() {
+        return new ResumenMetricas(transferencias.resumen(), debitos.resumen(), creditos.resumen(), lotes.resumen(),
+                bloqueos.sum(), bloqueosConEspera.sum(), espera.resumen());
+    }
+
+    public static class Operacion {
+
+        private final LongAdder exitosas = new LongAdder();
+        private final LongAdder rechazadas = new LongAdder();
+        private final Histograma latencia = new Histograma();
+
+        Operacion() {
+        }
+
+        // inicio es el valor de Metricas.ahora() al empezar la operacion
+        public void registrar(boolean exitosa, long inicio) {
+            latencia.registrar(ahora() - inicio);
+            if (exitosa) {
+                exitosas.increment();
+            } else {
+                rechazadas.increment();
+            }
+        }
+
+        // Varias operaciones que se aplican juntas, con una sola muestra de latencia
+        public void registrar(long exitosas, long rechazadas, long inicio) {
+            latencia.registrar(ahora() - inicio);
+            this.exitosas.add(exitosas);
+            this.rechazadas.add(rechazadas);
+        }
+
+        ResumenMetricas.Operacion resumen() {
+            return new ResumenMetricas.Operacion(exitosas.sum(), rechazadas.sum(), latencia.resumen());
+        }
+
+    }
+
+}
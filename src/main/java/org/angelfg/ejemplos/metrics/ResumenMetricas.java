@@ -0,0 +1,104 @@
+package org.angelfg.ejemplos.metrics;
+
+// Foto de las metricas en un momento, no cambia aunque sigan llegando operaciones
+public class ResumenMetricas {
+
+    private final Operacion transferencias;
+    private final Operacion debitos;
+    private final Operacion creditos;
+    private final Operacion lotes;
+    private final long bloqueos;
+    private final long bloqueosConEspera;
+    private final Histograma.Resumen espera;
+
+    ResumenMetricas(Operacion transferencias, Operacion debitos, Operacion creditos, Operacion lotes,
+                    long bloqueos, long bloqueosConEspera, Histograma.Resumen espera) {
+        this.transferencias = transferencias;
+        this.debitos = debitos;
+        this.creditos = creditos;
+        this.lotes = lotes;
+        this.bloqueos = bloqueos;
+        this.bloqueosConEspera = bloqueosConEspera;
+        this.espera = espera;
+    }
+
+    public Operacion getTransferencias() {
+        return transferencias;
+    }
+
+    public Operacion getDebitos() {
+        return debitos;
+    }
+
+    public Operacion getCreditos() {
+        return creditos;
+    }
+
+    // Las exitosas y rechazadas son transferencias, la latencia es por lote
+    public Operacion getLotes() {
+        return lotes;
+    }
+
+    public long getBloqueos() {
+        return bloqueos;
+    }
+
+    public long getBloqueosConEspera() {
+        return bloqueosConEspera;
+    }
+
+    // Fraccion de los locks que no se pudieron tomar al primer intento
+    public double getContencion() {
+        return bloqueos == 0 ? 0 : (double) bloqueosConEspera / bloqueos;
+    }
+
+    // Solo de los bloqueos que tuvieron que esperar
+    public Histograma.Resumen getEspera() {
+        return espera;
+    }
+
+    @Override
+    public String toString() {
+        return "ResumenMetricas{" +
+                "transferencias=" + transferencias +
+                ", debitos=" + debitos +
+                ", creditos=" + creditos +
+                ", lotes=" + lotes +
+                ", bloqueos=" + bloqueos +
+                ", bloqueosConEspera=" + bloqueosConEspera +
+                ", espera=" + espera +
+                '}';
+    }
+
+    public static class Operacion {
+
+        private final long exitosas;
+        private final long rechazadas;
+        private final Histograma.Resumen latencia;
+
+        Operacion(long exitosas, long rechazadas, Histograma.Resumen latencia) {
+            this.exitosas = exitosas;
+            this.rechazadas = rechazadas;
+            this.latencia = latencia;
+        }
+
+        public long getExitosas() {
+            return exitosas;
+        }
+
+        public long getRechazadas() {
+            return rechazadas;
+        }
+
+        public Histograma.Resumen getLatencia() {
+            return latencia;
+        }
+
+        @Override
+        public String toString() {
+            return "Operacion{exitosas=" + exitosas + ", rechazadas=" + rechazadas + ", latencia=" + latencia + '}';
+        }
+
+    }
+
+}
@@ -0,0 +1,323 @@
+package org.angelfg.ejemplos.models;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Totales del banco que se mantienen con cada operacion en lugar de recorrer todas las cuentas al consultarlos:
+ * el saldo total, cuantas cuentas hay en cada banda de saldo y las cuentas ordenadas por saldo, para consultar
+ * las de mayor saldo sin recorrer el banco.
+ *
+ * Se registra como observador, asi cada operacion actualiza los agregados con el lock de sus cuentas tomado,
+ * sin otro lock: el total y las bandas son LongAdder. Una transferencia suma una sola vez la diferencia de sus
+ * dos cuentas, que es cero, asi el total nunca muestra el dinero en camino. El total se lleva en unidades de
+ * 10^-ESCALA; las diferencias con mas decimales o que no entran en un long van aparte, con lock.
+ * Se guarda el ultimo saldo visto de cada cuenta y se suma la diferencia con el saldo nuevo, sin importar el tipo
+ * de operacion. Si otro observador hace fallar una operacion ya contada, alRevertir vuelve sus cuentas al saldo
+ * anterior, y una cuenta de un ALTA que no se hizo deja de contarse.
+ */
+public class AgregadosBanco implements ObservadorMovimientos, AutoCloseable {
+
+    private static final int ESCALA = CuentaPuntoFijo.ESCALA_POR_DEFECTO;
+    private static final int DIGITOS_ENTEROS = 18 - ESCALA;
+    private static final int BITS_PAGINA = 10;
+
+    private static final Comparator<SaldoCuenta> MAYOR_SALDO = Comparator
+            .comparing((SaldoCuenta saldo) -> saldo.saldo).reversed()
+            .thenComparingLong(saldo -> saldo.id);
+
+    private final Banco banco;
+    private final BigDecimal[] limites;
+
+    // debajo[i] cuenta las cuentas con saldo menor a limites[i], pasar de banda es sumar o restar en los limites que cruza
+    private final LongAdder[] debajo;
+    private final LongAdder cantidad = new LongAdder();
+    private final LongAdder unidades = new LongAdder();
+    private volatile BigDecimal resto = BigDecimal.ZERO;
+
+    // Ultimo saldo visto de cada cuenta en paginas por id, como en ConciliacionSaldos. Cada posicion se escribe
+    // con el lock de su cuenta
+    private final Map<Long, AtomicReferenceArray<SaldoCuenta>> posiciones = new ConcurrentHashMap<>();
+
+    // Los mismos saldos ordenados de mayor a menor, se mueven con cada cambio de saldo
+    private final ConcurrentSkipListSet<SaldoCuenta> ranking = new ConcurrentSkipListSet<>(MAYOR_SALDO);
+
+    // Saldo anterior y nuevo de lo que cambio cada hilo desde su ultimo alConfirmar, para alRevertir
+    private final ThreadLocal<Pendientes> pendientes = ThreadLocal.withInitial(Pendientes::new);
+
+    // Los limites separan las bandas: la banda i tiene las cuentas con saldo menor a limites[i] y mayor o igual al anterior
+    public AgregadosBanco(Banco banco, BigDecimal... limites) {
+        this.banco = banco;
+        this.limites = limites.clone();
+        Arrays.sort(this.limites);
+        for (int i = 1; i < this.limites.length; i++) {
+            if (this.limites[i - 1].compareTo(this.limites[i]) == 0) {
+                throw new IllegalArgumentException("Limite repetido: " + this.limites[i]);
+            }
+        }
+        this.debajo = new LongAdder[this.limites.length];
+        for (int i = 0; i < debajo.length; i++) {
+            debajo[i] = new LongAdder();
+        }
+
+        // Primero el observador y despues el recorrido: una cuenta que opera en medio ya entra con su saldo nuevo
+        banco.agregarObservador(this);
+        banco.recorrerCuentas(cuenta -> sumar(actualizar(cuenta, null)));
+    }
+
+    @Override
+    public void alOperar(TipoOperacion tipo, Cuenta origen, Cuenta destino, BigDecimal monto) {
+        Pendientes pendientes = this.pendientes.get();
+        BigDecimal diferencia = BigDecimal.ZERO;
+        if (origen != null) {
+            diferencia = diferencia.add(actualizar(origen, pendientes));
+        } else {
+            pendientes.agregar(null, null);
+        }
+        if (destino != null && destino != origen) {
+            diferencia = diferencia.add(actualizar(destino, pendientes));
+        } else {
+            pendientes.agregar(null, null);
+        }
+        sumar(diferencia); // una sola suma por operacion
+    }
+
+    // Con los locks de la operacion todavia tomados, vuelve sus cuentas al saldo anterior
+    @Override
+    public void alRevertir() {
+        Pendientes pendientes = this.pendientes.get();
+        if (pendientes.total == 0) {
+            return;
+        }
+        BigDecimal diferencia = BigDecimal.ZERO;
+        for (int i = 0; i < 2; i++) {
+            SaldoCuenta nuevo = pendientes.sacar();
+            SaldoCuenta anterior = pendientes.sacar();
+            if (nuevo != null) {
+                diferencia = diferencia.add(restaurar(nuevo, anterior));
+            }
+        }
+        sumar(diferencia);
+    }
+
+    @Override
+    public void alConfirmar() {
+        pendientes.get().limpiar();
+    }
+
+    // Con el lock de la cuenta tomado, devuelve cuanto cambio el saldo de la cuenta desde la ultima vez
+    private BigDecimal actualizar(Cuenta cuenta, Pendientes pendientes) {
+        long id = cuenta.getId();
+        AtomicReferenceArray<SaldoCuenta> pagina = posiciones.get(id >> BITS_PAGINA);
+        if (pagina == null) {
+            pagina = posiciones.computeIfAbsent(id >> BITS_PAGINA, numero -> new AtomicReferenceArray<>(1 << BITS_PAGINA));
+        }
+        int indice = (int) (id & ((1 << BITS_PAGINA) - 1));
+        BigDecimal saldo = cuenta.getSaldo();
+        SaldoCuenta anterior = pagina.get(indice);
+        if (anterior != null && anterior.saldo.compareTo(saldo) == 0) {
+            if (pendientes != null) pendientes.agregar(anterior, anterior);
+            return BigDecimal.ZERO;
+        }
+
+        SaldoCuenta nuevo = new SaldoCuenta(id, cuenta, saldo);
+        if (pendientes != null) pendientes.agregar(anterior, nuevo);
+        pagina.set(indice, nuevo);
+        mover(anterior, nuevo);
+        if (anterior == null) {
+            cambiarBanda(limites.length, banda(saldo));
+            cantidad.increment();
+            return saldo;
+        }
+        cambiarBanda(banda(anterior.saldo), banda(saldo));
+        return saldo.subtract(anterior.saldo);
+    }
+
+    // Deshace actualizar, anterior es null si la cuenta era nueva. Devuelve cuanto cambio el saldo contado
+    private BigDecimal restaurar(SaldoCuenta nuevo, SaldoCuenta anterior) {
+        if (nuevo == anterior) {
+            return BigDecimal.ZERO;
+        }
+        AtomicReferenceArray<SaldoCuenta> pagina = posiciones.get(nuevo.id >> BITS_PAGINA);
+        pagina.set((int) (nuevo.id & ((1 << BITS_PAGINA) - 1)), anterior);
+        mover(nuevo, anterior);
+        if (anterior == null) {
+            cambiarBanda(banda(nuevo.saldo), limites.length);
+            cantidad.decrement();
+            return nuevo.saldo.negate();
+        }
+        cambiarBanda(banda(nuevo.saldo), banda(anterior.saldo));
+        return anterior.saldo.subtract(nuevo.saldo);
+    }
+
+    // Primero entra el saldo nuevo y despues sale el anterior, una consulta en medio ve la cuenta dos veces
+    // pero nunca le falta
+    private void mover(SaldoCuenta anterior, SaldoCuenta nuevo) {
+        if (nuevo != null) ranking.add(nuevo);
+        if (anterior != null) ranking.remove(anterior);
+    }
+
+    // Una cuenta nueva entra como si viniera de la ultima banda, que no tiene limite
+    private void cambiarBanda(int anterior, int nueva) {
+        for (int i = nueva; i < anterior; i++) debajo[i].increment();
+        for (int i = anterior; i < nueva; i++) debajo[i].decrement();
+    }
+
+    private void sumar(BigDecimal diferencia) {
+        if (diferencia.signum() == 0) {
+            return;
+        }
+        if (!cabe(diferencia)) {
+            diferencia = diferencia.stripTrailingZeros(); // 1.500000 cabe sin los ceros
+        }
+        if (cabe(diferencia)) {
+            unidades.add(diferencia.movePointRight(ESCALA).longValueExact());
+        } else {
+            synchronized (this) {
+                resto = resto.add(diferencia);
+            }
+        }
+    }
+
+    private static boolean cabe(BigDecimal monto) {
+        return monto.scale() <= ESCALA && monto.precision() - monto.scale() <= DIGITOS_ENTEROS;
+    }
+
+    private int banda(BigDecimal saldo) {
+        int desde = 0;
+        int hasta = limites.length;
+        while (desde < hasta) {
+            int medio = (desde + hasta) >>> 1;
+            if (saldo.compareTo(limites[medio]) < 0) {
+                hasta = medio;
+            } else {
+                desde = medio + 1;
+            }
+        }
+        return desde;
+    }
+
+    // La suma de las unidades debe entrar en un long, con ESCALA 5 son unos 92 billones
+    public BigDecimal getTotal() {
+        BigDecimal total = BigDecimal.valueOf(unidades.sum(), ESCALA);
+        BigDecimal resto = this.resto;
+        return resto.signum() == 0 ? total : total.add(resto);
+    }
+
+    public int getCantidadCuentas() {
+        return (int) cantidad.sum();
+    }
+
+    // Una posicion por banda, la ultima tiene las cuentas con saldo mayor o igual al ultimo limite.
+    // Con operaciones en curso una banda puede estar desfasada, pero la suma siempre es la cantidad de cuentas
+    public long[] getCuentasPorBanda() {
+        long[] bandas = new long[limites.length + 1];
+        long anterior = 0;
+        for (int i = 0; i < limites.length; i++) {
+            long cuentas = debajo[i].sum();
+            bandas[i] = cuentas - anterior;
+            anterior = cuentas;
+        }
+        bandas[limites.length] = cantidad.sum() - anterior;
+        return bandas;
+    }
+
+    // Solo para los limites indicados al crear los agregados
+    public long getCuentasDebajoDe(BigDecimal limite) {
+        int indice = Arrays.binarySearch(limites, limite);
+        if (indice < 0) {
+            throw new IllegalArgumentException("No se llevan cuentas por debajo de " + limite);
+        }
+        return debajo[indice].sum();
+    }
+
+    // De mayor a menor saldo, a igual saldo primero la de menor id. Recorre el principio del ranking,
+    // O(cantidad) sin tocar los locks de las cuentas
+    public List<SaldoCuenta> getMayoresSaldos(int cantidad) {
+        List<SaldoCuenta> mayores = new ArrayList<>();
+        Set<Long> vistas = new HashSet<>();
+        for (SaldoCuenta saldo : ranking) {
+            if (mayores.size() >= cantidad) {
+                break;
+            }
+            if (vistas.add(saldo.id)) { // una cuenta que se esta moviendo puede aparecer dos veces
+                mayores.add(saldo);
+            }
+        }
+        return mayores;
+    }
+
+    // Deja de seguir las operaciones, los valores quedan como estaban
+    @Override
+    public void close() {
+        banco.quitarObservador(this);
+    }
+
+    private static final class Pendientes {
+
+        private SaldoCuenta[] valores = new SaldoCuenta[8];
+        private int total;
+
+        void agregar(SaldoCuenta anterior, SaldoCuenta nuevo) {
+            if (total + 2 > valores.length) {
+                valores = Arrays.copyOf(valores, valores.length * 2);
+            }
+            valores[total++] = anterior;
+            valores[total++] = nuevo;
+        }
+
+        SaldoCuenta sacar() {
+            SaldoCuenta valor = valores[--total];
+            valores[total] = null;
+            return valor;
+        }
+
+        void limpiar() {
+            Arrays.fill(valores, 0, total, null); // no retener cuentas del hilo
+            total = 0;
+        }
+
+    }
+
+    // Saldo de una cuenta en el ranking, un cambio de saldo la reemplaza por otra
+    public static class SaldoCuenta {
+
+        private final long id;
+        private final Cuenta cuenta;
+        private final BigDecimal saldo;
+
+        SaldoCuenta(long id, Cuenta cuenta, BigDecimal saldo) {
+            this.id = id;
+            this.cuenta = cuenta;
+            this.saldo = saldo;
+        }
+
+        public Cuenta getCuenta() {
+            return cuenta;
+        }
+
+        public BigDecimal getSaldo() {
+            return saldo;
+        }
+
+        @Override
+        public String toString() {
+            return "SaldoCuenta{" +
+                    "persona='" + cuenta.getPersona() + '\'' +
+                    ", saldo=" + saldo +
+                    '}';
+        }
+
+    }
+
+}
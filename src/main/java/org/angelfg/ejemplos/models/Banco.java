@@ -1,24 +1,58 @@
 package org.angelfg.ejemplos.models;
 
+import org.angelfg.ejemplos.exceptions.DineroInsuficienteException;
+import org.angelfg.ejemplos.metrics.Metricas;
+
 import java.math.BigDecimal;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
 
 public class Banco {
 
-    private List<Cuenta> cuentas;
+    private final List<Cuenta> cuentas;
     private String nombre;
 
+    // Indices para buscar en O(1) sin recorrer la lista de cuentas
+    private final Map<Long, Cuenta> cuentasPorId = new ConcurrentHashMap<>();
+    private final Map<String, Cuenta> cuentasPorPersona = new ConcurrentHashMap<>();
+    private final AtomicLong secuenciaIds = new AtomicLong();
+
+    private volatile ObservadorMovimientos[] observadores = new ObservadorMovimientos[0];
+    private volatile boolean requiereBloqueo;
+    private volatile Metricas metricas; // null mientras no se mida
+
     public Banco() {
-        cuentas = new ArrayList<>();
+        cuentas = Collections.synchronizedList(new ArrayList<>());
     }
 
     public List<Cuenta> getCuentas() {
         return cuentas;
     }
 
+    // Reemplaza las cuentas del banco, cada una entra como con addCuenta y las anteriores quedan fuera del banco.
+    // Los observadores no se enteran de las bajas, por eso no se permite una vez registrados
     public void setCuentas(List<Cuenta> cuentas) {
-        this.cuentas = cuentas;
+        if (tieneObservadores()) {
+            throw new IllegalStateException("No se pueden reemplazar las cuentas de un banco con observadores");
+        }
+        List<Cuenta> anteriores;
+        synchronized (this.cuentas) {
+            anteriores = new ArrayList<>(this.cuentas);
+            this.cuentas.clear();
+        }
+        cuentasPorId.clear();
+        cuentasPorPersona.clear();
+        for (Cuenta anterior : anteriores) {
+            if (anterior.getBanco() == this) anterior.setBanco(null);
+        }
+        cuentas.forEach(this::addCuenta);
     }
 
     public String getNombre() {
@@ -30,13 +64,224 @@ public class Banco {
     }
 
     public void transferir(Cuenta origen, Cuenta destino, BigDecimal monto) {
-        origen.debito(monto); // resta la cantidad
-        destino.credito(monto); // deposita la cantidad
+        if (tryTransferir(origen, destino, monto) == ResultadoOperacion.DINERO_INSUFICIENTE) {
+            throw new DineroInsuficienteException("Dinero insuficiente");
+        }
+    }
+
+    // Igual que transferir pero el rechazo por fondos se devuelve como resultado, sin crear excepciones
+    public ResultadoOperacion tryTransferir(Cuenta origen, Cuenta destino, BigDecimal monto) {
+        Metricas metricas = this.metricas;
+        long inicio = metricas == null ? 0 : Metricas.ahora();
+
+        // Siempre se bloquea primero la cuenta de menor orden, asi dos transferencias
+        // en sentido contrario sobre las mismas cuentas no pueden quedar en deadlock
+        Cuenta primera = origen.getOrden() <= destino.getOrden() ? origen : destino;
+        Cuenta segunda = primera == origen ? destino : origen;
+
+        boolean exitosa;
+        primera.bloquear(metricas);
+        try {
+            segunda.bloquear(metricas);
+            try {
+                exitosa = origen.intentarDebito(monto); // resta la cantidad
+                if (exitosa) {
+                    try {
+                        destino.aplicarCredito(monto); // deposita la cantidad
+                    } catch (RuntimeException e) {
+                        origen.aplicarCredito(monto); // revertimos el debito para no perder el dinero
+                        throw e;
+                    }
+                    try {
+                        notificar(TipoOperacion.TRANSFERENCIA, origen, destino, monto);
+                    } catch (RuntimeException e) {
+                        destino.aplicarDebito(monto);
+                        origen.aplicarCredito(monto);
+                        throw e;
+                    }
+                }
+            } finally {
+                segunda.getLock().unlock();
+            }
+        } finally {
+            primera.getLock().unlock();
+        }
+        if (exitosa) {
+            confirmar();
+        }
+        if (metricas != null) {
+            metricas.getTransferencias().registrar(exitosa, inicio);
+        }
+        return ResultadoOperacion.de(exitosa);
+    }
+
+    // Aplica todas las transferencias con un solo movimiento por cuenta, las rechazadas no detienen el lote
+    public ResultadoLote transferirLote(List<Transferencia> transferencias) {
+        return transferirLote(transferencias, ModoLote.NETO);
+    }
+
+    public ResultadoLote transferirLote(List<Transferencia> transferencias, ModoLote modo) {
+        return new ProcesadorLote(this, transferencias, modo).procesar();
     }
 
     public void addCuenta(Cuenta cuenta) {
-        cuentas.add(cuenta);
-        cuenta.setBanco(this); // Le añadimos el mismo objeto this
+        cuenta.getLock().lock(); // nadie opera sobre la cuenta antes de registrar el alta
+        try {
+            indexar(cuenta);
+            cuentas.add(cuenta); // visible antes del alta, una instantanea no puede omitir una cuenta ya registrada
+            cuenta.setBanco(this); // Le añadimos el mismo objeto this
+            try {
+                notificar(TipoOperacion.ALTA, null, cuenta, cuenta.getSaldo());
+            } catch (RuntimeException e) {
+                quitar(cuenta);
+                throw e;
+            }
+        } finally {
+            cuenta.getLock().unlock();
+        }
+        confirmar();
+    }
+
+    // Entrega cada cuenta con su lock tomado, las demas cuentas siguen operando mientras tanto
+    public void recorrerCuentas(Consumer<Cuenta> visitante) {
+        List<Cuenta> copia = new ArrayList<>(cuentas);
+        for (Cuenta cuenta : copia) {
+            cuenta.getLock().lock();
+            try {
+                visitante.accept(cuenta);
+            } finally {
+                cuenta.getLock().unlock();
+            }
+        }
+    }
+
+    public Optional<Cuenta> buscarPorId(long id) {
+        return Optional.ofNullable(cuentasPorId.get(id));
+    }
+
+    // Si la persona tiene varias cuentas devuelve la primera que se agrego
+    public Optional<Cuenta> buscarPorPersona(String persona) {
+        return persona == null ? Optional.empty() : Optional.ofNullable(cuentasPorPersona.get(persona));
+    }
+
+    public Metricas getMetricas() {
+        return metricas;
+    }
+
+    // Con null se deja de medir, las operaciones en curso pueden terminar de registrar en las anteriores
+    public void setMetricas(Metricas metricas) {
+        this.metricas = metricas;
+    }
+
+    public synchronized void agregarObservador(ObservadorMovimientos observador) {
+        ObservadorMovimientos[] nuevos = Arrays.copyOf(observadores, observadores.length + 1);
+        nuevos[observadores.length] = observador;
+        cambiarObservadores(nuevos);
+    }
+
+    public synchronized void quitarObservador(ObservadorMovimientos observador) {
+        cambiarObservadores(Arrays.stream(observadores)
+                .filter(actual -> actual != observador)
+                .toArray(ObservadorMovimientos[]::new));
+    }
+
+    // Un observador que necesita el lock se ve como tal antes de entrar al arreglo y hasta despues de salir
+    private void cambiarObservadores(ObservadorMovimientos[] nuevos) {
+        boolean conBloqueo = Arrays.stream(nuevos).anyMatch(observador -> !observador.admiteSinBloqueo());
+        if (conBloqueo) {
+            requiereBloqueo = true;
+            observadores = nuevos;
+        } else {
+            observadores = nuevos;
+            requiereBloqueo = false;
+        }
+    }
+
+    boolean tieneObservadores() {
+        return observadores.length > 0;
+    }
+
+    // Algun observador necesita que las cuentas sin lock tomen el lock, ver ObservadorMovimientos.admiteSinBloqueo
+    boolean requiereBloqueo() {
+        return requiereBloqueo;
+    }
+
+    // Se llama con el lock de las cuentas tomado
+    void notificar(TipoOperacion tipo, Cuenta origen, Cuenta destino, BigDecimal monto) {
+        ObservadorMovimientos[] actuales = observadores;
+        int avisados = 0;
+        try {
+            for (; avisados < actuales.length; avisados++) {
+                actuales[avisados].alOperar(tipo, origen, destino, monto);
+            }
+        } catch (RuntimeException e) {
+            revertir(actuales, avisados, e);
+            throw e;
+        }
+    }
+
+    // Con el lock de las cuentas tomado, para una operacion ya avisada a todos que al final no se aplica
+    void revertir() {
+        ObservadorMovimientos[] actuales = observadores;
+        RuntimeException error = revertir(actuales, actuales.length, null);
+        if (error != null) {
+            throw error;
+        }
+    }
+
+    // Sigue con los demas aunque uno falle, devuelve el primer error con el resto como suprimidos
+    private static RuntimeException revertir(ObservadorMovimientos[] actuales, int avisados, RuntimeException error) {
+        for (int i = avisados - 1; i >= 0; i--) {
+            try {
+                actuales[i].alRevertir();
+            } catch (RuntimeException e) {
+                if (error == null) {
+                    error = e;
+                } else {
+                    error.addSuppressed(e);
+                }
+            }
+        }
+        return error;
+    }
+
+    // Se llama sin locks, antes de devolver el control
+    void confirmar() {
+        for (ObservadorMovimientos observador : observadores) {
+            observador.alConfirmar();
+        }
+    }
+
+    private void quitar(Cuenta cuenta) {
+        cuentasPorId.remove(cuenta.getId(), cuenta);
+        if (cuenta.getPersona() != null) cuentasPorPersona.remove(cuenta.getPersona(), cuenta);
+        synchronized (cuentas) {
+            // Por identidad, fuera del banco equals de Cuenta compara persona y saldo
+            for (int i = cuentas.size() - 1; i >= 0; i--) {
+                if (cuentas.get(i) == cuenta) {
+                    cuentas.remove(i);
+                    break;
+                }
+            }
+        }
+        cuenta.setBanco(null);
+    }
+
+    private void indexar(Cuenta cuenta) {
+        if (cuenta.getId() == 0) {
+            cuenta.setId(secuenciaIds.incrementAndGet());
+        } else {
+            secuenciaIds.accumulateAndGet(cuenta.getId(), Math::max); // los ids nuevos no pisan a los existentes
+        }
+
+        Cuenta existente = cuentasPorId.putIfAbsent(cuenta.getId(), cuenta);
+        if (existente != null && existente != cuenta) {
+            throw new IllegalArgumentException("Ya existe una cuenta con el id " + cuenta.getId());
+        }
+
+        if (cuenta.getPersona() != null) {
+            cuentasPorPersona.putIfAbsent(cuenta.getPersona(), cuenta);
+        }
     }
 
     @Override
@@ -0,0 +1,441 @@
+package org.angelfg.ejemplos.models;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.nio.LongBuffer;
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.RandomAccess;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+
+/**
+ * Banco que guarda las cuentas por columnas: saldos en unidades menores en arreglos de long
+ * (dentro o fuera del heap) y personas codificadas en un diccionario.
+ * Las cuentas que devuelve son vistas ligeras que se crean al pedirlas, no se guardan objetos Cuenta.
+ * Una Cuenta hecha afuera no puede quedar ligada a las columnas: addCuenta copia su persona y su saldo en una fila
+ * nueva y la cuenta recibida solo se queda con el id de esa fila.
+ */
+public class BancoColumnar extends Banco {
+
+    private static final int BITS_SEGMENTO = 16;
+    private static final int TAMANIO_SEGMENTO = 1 << BITS_SEGMENTO;
+    private static final int MASCARA_SEGMENTO = TAMANIO_SEGMENTO - 1;
+    private static final int FRANJAS = 1024; // potencia de dos
+    private static final int SIN_PERSONA = -1;
+    private static final int SIN_CUENTA = -1;
+
+    // Los saldos se leen sin el lock de la franja, cada posicion se escribe y se lee como un long completo
+    private static final VarHandle SALDO = MethodHandles.arrayElementVarHandle(long[].class);
+    private static final VarHandle SALDO_FUERA_HEAP = MethodHandles.byteBufferViewVarHandle(long[].class, ByteOrder.nativeOrder());
+
+    private final int escala;
+    private final boolean fueraDelHeap;
+
+    // Columnas en segmentos de tamaño fijo, al crecer nunca se copian los saldos ya escritos
+    private volatile long[][] saldos = new long[0][];
+    private volatile ByteBuffer[] saldosFueraHeap = new ByteBuffer[0];
+    private volatile int[][] personas = new int[0][];
+    private volatile int tamanio;
+
+    // Diccionario de personas: persona -> (codigo << 32 | primera cuenta)
+    private final Map<String, Long> diccionario = new ConcurrentHashMap<>();
+    private volatile String[] nombres = new String[16];
+    private int totalNombres;
+
+    // Locks por franjas de cuentas, cada franja con su orden de bloqueo global
+    private final Lock[] franjas = new Lock[FRANJAS];
+    private final long[] ordenFranjas = new long[FRANJAS];
+
+    public BancoColumnar() {
+        this(CuentaPuntoFijo.ESCALA_POR_DEFECTO, false);
+    }
+
+    public BancoColumnar(int escala, boolean fueraDelHeap) {
+        this.escala = CuentaPuntoFijo.validarEscala(escala);
+        this.fueraDelHeap = fueraDelHeap;
+        for (int i = 0; i < FRANJAS; i++) {
+            franjas[i] = new ReentrantLock();
+            ordenFranjas[i] = Cuenta.siguienteOrden();
+        }
+    }
+
+    public int getEscala() {
+        return escala;
+    }
+
+    public boolean isFueraDelHeap() {
+        return fueraDelHeap;
+    }
+
+    public int getTamanio() {
+        return tamanio;
+    }
+
+    // Lista de solo lectura, cada get crea una vista nueva sobre las columnas
+    @Override
+    public List<Cuenta> getCuentas() {
+        return new Vistas();
+    }
+
+    // Las vistas ya entregadas apuntan a sus filas, por eso solo se llena un banco vacio
+    @Override
+    public synchronized void setCuentas(List<Cuenta> cuentas) {
+        if (tamanio != 0) {
+            throw new IllegalStateException("Solo se pueden asignar cuentas a un banco columnar vacio");
+        }
+        cuentas.forEach(this::addCuenta);
+    }
+
+    // El id de una cuenta columnar es su posicion, una cuenta con id solo entra en esa posicion
+    @Override
+    public void addCuenta(Cuenta cuenta) {
+        BigDecimal saldo = cuenta.getSaldo() == null ? BigDecimal.ZERO : cuenta.getSaldo();
+        long unidades = aUnidades(saldo);
+        int indice;
+        synchronized (this) {
+            if (cuenta.getId() != 0 && cuenta.getId() != tamanio + 1L) {
+                throw new IllegalArgumentException("El id " + cuenta.getId() + " no es la siguiente posicion del banco");
+            }
+            indice = agregar(cuenta.getPersona(), unidades);
+        }
+        if (cuenta.getId() == 0) {
+            cuenta.setId(indice + 1L);
+        }
+        confirmar();
+    }
+
+    public Cuenta agregarCuenta(String persona, BigDecimal saldo) {
+        int indice = agregar(persona, aUnidades(saldo));
+        confirmar();
+        return vista(indice);
+    }
+
+    // Carga masiva de columnas ya codificadas, por ejemplo desde una instantanea mapeada en memoria.
+    // codigos apunta a nombres, o es -1 para las cuentas sin persona
+    public synchronized void cargarColumnas(LongBuffer unidades, IntBuffer codigos, String[] nombres) {
+        if (tamanio != 0) {
+            throw new IllegalStateException("Solo se pueden cargar columnas en un banco vacio");
+        }
+        int total = unidades.remaining();
+        if (codigos.remaining() != total) {
+            throw new IllegalArgumentException("Las columnas deben tener el mismo tamaño");
+        }
+
+        int[] primeras = new int[nombres.length];
+        Arrays.fill(primeras, SIN_CUENTA);
+        for (int inicio = 0; inicio < total; inicio += TAMANIO_SEGMENTO) {
+            int cantidad = Math.min(total - inicio, TAMANIO_SEGMENTO);
+            crecer();
+            int segmento = inicio >>> BITS_SEGMENTO;
+            if (fueraDelHeap) {
+                saldosFueraHeap[segmento].asLongBuffer().put(unidades.slice().limit(cantidad));
+            } else {
+                unidades.slice().get(saldos[segmento], 0, cantidad);
+            }
+            unidades.position(unidades.position() + cantidad);
+
+            int[] columna = personas[segmento];
+            codigos.get(columna, 0, cantidad);
+            for (int i = 0; i < cantidad; i++) {
+                int codigo = columna[i];
+                if (codigo != SIN_PERSONA && primeras[codigo] == SIN_CUENTA) {
+                    primeras[codigo] = inicio + i;
+                }
+            }
+        }
+
+        String[] copia = Arrays.copyOf(nombres, Math.max(16, nombres.length));
+        for (int codigo = 0; codigo < nombres.length; codigo++) {
+            diccionario.put(nombres[codigo], ((long) codigo << 32) | (primeras[codigo] & 0xFFFFFFFFL));
+        }
+        totalNombres = nombres.length;
+        this.nombres = copia;
+        tamanio = total;
+    }
+
+    @Override
+    public void recorrerCuentas(Consumer<Cuenta> visitante) {
+        int total = tamanio;
+        for (int indice = 0; indice < total; indice++) {
+            Lock franja = franjas[indice & (FRANJAS - 1)];
+            franja.lock();
+            try {
+                visitante.accept(vista(indice));
+            } finally {
+                franja.unlock();
+            }
+        }
+    }
+
+    @Override
+    public Optional<Cuenta> buscarPorId(long id) {
+        return id < 1 || id > tamanio ? Optional.empty() : Optional.of(vista((int) (id - 1)));
+    }
+
+    @Override
+    public Optional<Cuenta> buscarPorPersona(String persona) {
+        Long entrada = persona == null ? null : diccionario.get(persona);
+        int indice = entrada == null ? SIN_CUENTA : (int) (long) entrada;
+        return indice < 0 || indice >= tamanio ? Optional.empty() : Optional.of(vista(indice));
+    }
+
+    public long getUnidades(int indice) {
+        Objects.checkIndex(indice, tamanio);
+        return leerUnidades(indice);
+    }
+
+    // Recorrido completo sobre la columna de saldos, sin crear objetos por cuenta
+    public BigDecimal sumarSaldos() {
+        int total = tamanio;
+        long suma = 0;
+        BigDecimal desbordado = BigDecimal.ZERO;
+        for (int inicio = 0; inicio < total; inicio += TAMANIO_SEGMENTO) {
+            int fin = Math.min(total - inicio, TAMANIO_SEGMENTO);
+            int segmento = inicio >>> BITS_SEGMENTO;
+            long parcial = 0;
+            if (fueraDelHeap) {
+                ByteBuffer buffer = saldosFueraHeap[segmento];
+                for (int i = 0; i < fin; i++) parcial += (long) SALDO_FUERA_HEAP.getAcquire(buffer, i * Long.BYTES);
+            } else {
+                long[] columna = saldos[segmento];
+                for (int i = 0; i < fin; i++) parcial += (long) SALDO.getAcquire(columna, i);
+            }
+            // Un segmento no desborda con saldos razonables, el acumulado si puede
+            long anterior = suma;
+            suma += parcial;
+            if (((anterior ^ suma) & (parcial ^ suma)) < 0) {
+                desbordado = desbordado.add(BigDecimal.valueOf(anterior)).add(BigDecimal.valueOf(parcial));
+                suma = 0;
+            }
+        }
+        return desbordado.add(BigDecimal.valueOf(suma)).movePointLeft(escala);
+    }
+
+    private long aUnidades(BigDecimal monto) {
+        return monto.setScale(escala, RoundingMode.UNNECESSARY).unscaledValue().longValueExact();
+    }
+
+    private Cuenta vista(int indice) {
+        return new VistaCuenta(this, indice);
+    }
+
+    private synchronized int agregar(String persona, long unidades) {
+        int indice = tamanio;
+        if (indice == Integer.MAX_VALUE) {
+            throw new IllegalStateException("El banco no admite mas cuentas");
+        }
+        int segmento = indice >>> BITS_SEGMENTO;
+        if (segmento == personas.length) {
+            crecer();
+        }
+
+        escribirUnidades(indice, unidades);
+        personas[segmento][indice & MASCARA_SEGMENTO] = codificar(persona, indice);
+
+        // Con el lock de la franja nadie opera sobre la cuenta antes de registrar el alta
+        Lock franja = franjas[indice & (FRANJAS - 1)];
+        franja.lock();
+        try {
+            tamanio = indice + 1; // publica la cuenta antes del alta, igual que Banco.addCuenta
+            if (tieneObservadores()) {
+                Cuenta vista = vista(indice);
+                try {
+                    notificar(TipoOperacion.ALTA, null, vista, vista.getSaldo());
+                } catch (RuntimeException e) {
+                    tamanio = indice; // nadie agrega cuentas mientras tanto, el metodo es synchronized
+                    Long entrada = persona == null ? null : diccionario.get(persona);
+                    if (entrada != null && (int) (long) entrada == indice) {
+                        diccionario.put(persona, entrada | 0xFFFFFFFFL); // la persona se queda sin primera cuenta
+                    }
+                    throw e;
+                }
+            }
+        } finally {
+            franja.unlock();
+        }
+        return indice;
+    }
+
+    private void crecer() {
+        int segmentos = personas.length + 1;
+        if (fueraDelHeap) {
+            ByteBuffer[] nuevos = Arrays.copyOf(saldosFueraHeap, segmentos);
+            nuevos[segmentos - 1] = ByteBuffer.allocateDirect(TAMANIO_SEGMENTO * Long.BYTES)
+                    .order(ByteOrder.nativeOrder());
+            saldosFueraHeap = nuevos;
+        } else {
+            long[][] nuevos = Arrays.copyOf(saldos, segmentos);
+            nuevos[segmentos - 1] = new long[TAMANIO_SEGMENTO];
+            saldos = nuevos;
+        }
+        int[][] nuevasPersonas = Arrays.copyOf(personas, segmentos);
+        nuevasPersonas[segmentos - 1] = new int[TAMANIO_SEGMENTO];
+        personas = nuevasPersonas;
+    }
+
+    // Se llama con el lock del banco
+    private int codificar(String persona, int indice) {
+        if (persona == null) {
+            return SIN_PERSONA;
+        }
+        Long entrada = diccionario.get(persona);
+        if (entrada != null) {
+            if ((int) (long) entrada == SIN_CUENTA) {
+                diccionario.put(persona, (entrada & 0xFFFFFFFF00000000L) | indice);
+            }
+            return (int) (entrada >>> 32);
+        }
+
+        int codigo = totalNombres++;
+        String[] actuales = nombres;
+        if (codigo == actuales.length) {
+            actuales = Arrays.copyOf(actuales, codigo * 2);
+        }
+        actuales[codigo] = persona;
+        nombres = actuales;
+        diccionario.put(persona, ((long) codigo << 32) | indice);
+        return codigo;
+    }
+
+    private String persona(int indice) {
+        int codigo = personas[indice >>> BITS_SEGMENTO][indice & MASCARA_SEGMENTO];
+        if (codigo == SIN_PERSONA) {
+            return null;
+        }
+        String[] actuales = nombres;
+        String nombre = codigo < actuales.length ? actuales[codigo] : null;
+        while (nombre == null) { // el nombre se acaba de agregar en otro hilo y todavia no es visible
+            Thread.onSpinWait();
+            actuales = nombres;
+            nombre = codigo < actuales.length ? actuales[codigo] : null;
+        }
+        return nombre;
+    }
+
+    private synchronized void cambiarPersona(int indice, String persona) {
+        personas[indice >>> BITS_SEGMENTO][indice & MASCARA_SEGMENTO] = codificar(persona, indice);
+    }
+
+    private long leerUnidades(int indice) {
+        int segmento = indice >>> BITS_SEGMENTO;
+        return fueraDelHeap
+                ? (long) SALDO_FUERA_HEAP.getAcquire(saldosFueraHeap[segmento], (indice & MASCARA_SEGMENTO) * Long.BYTES)
+                : (long) SALDO.getAcquire(saldos[segmento], indice & MASCARA_SEGMENTO);
+    }
+
+    private void escribirUnidades(int indice, long unidades) {
+        int segmento = indice >>> BITS_SEGMENTO;
+        if (fueraDelHeap) {
+            SALDO_FUERA_HEAP.setRelease(saldosFueraHeap[segmento], (indice & MASCARA_SEGMENTO) * Long.BYTES, unidades);
+        } else {
+            SALDO.setRelease(saldos[segmento], indice & MASCARA_SEGMENTO, unidades);
+        }
+    }
+
+    private final class Vistas extends AbstractList<Cuenta> implements RandomAccess {
+
+        @Override
+        public Cuenta get(int indice) {
+            Objects.checkIndex(indice, tamanio);
+            return vista(indice);
+        }
+
+        @Override
+        public int size() {
+            return tamanio;
+        }
+
+    }
+
+    // Cuenta de punto fijo cuyo saldo y persona viven en las columnas del banco
+    private static final class VistaCuenta extends CuentaPuntoFijo {
+
+        private final BancoColumnar banco;
+        private final int indice;
+
+        VistaCuenta(BancoColumnar banco, int indice) {
+            super(banco.ordenFranjas[indice & (FRANJAS - 1)], banco.franjas[indice & (FRANJAS - 1)],
+                    banco.escala, RoundingMode.UNNECESSARY);
+            this.banco = banco;
+            this.indice = indice;
+        }
+
+        @Override
+        public long getId() {
+            return indice + 1L;
+        }
+
+        @Override
+        public void setId(long id) {
+            throw new UnsupportedOperationException("El id de una cuenta columnar es su posicion");
+        }
+
+        @Override
+        public String getPersona() {
+            return banco.persona(indice);
+        }
+
+        @Override
+        public void setPersona(String persona) {
+            banco.cambiarPersona(indice, persona);
+        }
+
+        @Override
+        public Banco getBanco() {
+            return banco;
+        }
+
+        @Override
+        public long getUnidades() {
+            return banco.leerUnidades(indice);
+        }
+
+        @Override
+        void escribirUnidades(long unidades) {
+            banco.escribirUnidades(indice, unidades);
+        }
+
+        @Override
+        Object getIdentidad() {
+            return new Identidad(banco, indice);
+        }
+
+    }
+
+    private static final class Identidad {
+
+        private final BancoColumnar banco;
+        private final int indice;
+
+        Identidad(BancoColumnar banco, int indice) {
+            this.banco = banco;
+            this.indice = indice;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (!(obj instanceof Identidad)) return false;
+            Identidad otra = (Identidad) obj;
+            return banco == otra.banco && indice == otra.indice;
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * System.identityHashCode(banco) + indice;
+        }
+
+    }
+
+}
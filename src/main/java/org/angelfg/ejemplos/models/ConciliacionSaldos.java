@@ -0,0 +1,319 @@
+package org.angelfg.ejemplos.models;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.IntToLongFunction;
+
+/**
+ * Suma de verificacion de los saldos que se mantiene con cada operacion, para conciliar el banco con otro sistema
+ * sin volcar todas las cuentas.
+ *
+ * Cada cuenta aporta una huella de 64 bits de su id y su saldo, y las huellas se suman en un arbol: cada hoja suma
+ * las cuentas de un rango de ids y cada nodo la suma de sus dos hijos. Como la suma no depende del orden, dos
+ * bancos con los mismos saldos tienen la misma raiz sin importar en que orden llegaron a ellos, y se comparan en
+ * O(1). Si las raices difieren se baja solo por los nodos distintos hasta las hojas, O(log n) consultas por cada
+ * rango con diferencias.
+ *
+ * Se registra como observador: cada operacion recalcula la huella de sus cuentas con el lock tomado y suma la
+ * diferencia en su hoja y en la raiz. La raiz recibe una sola suma por operacion, asi nunca muestra una
+ * transferencia a medias. Los nodos intermedios no se mantienen: buscarDiferencias los calcula una vez desde las
+ * hojas y baja por ese arreglo, asi la operacion no paga por el arbol y recorrer las hojas es poco trabajo al lado
+ * de volcar todas las cuentas. Las hojas pueden estar a mitad de una operacion, para buscar diferencias conviene
+ * que no haya operaciones en curso. Si otro observador hace fallar una operacion ya contada, alRevertir devuelve
+ * las huellas que habia cambiado, tambien la de un ALTA que no se hizo.
+ */
+public class ConciliacionSaldos implements ObservadorMovimientos, AutoCloseable {
+
+    private static final int BITS_PAGINA = 10;
+
+    private final Banco banco;
+    private final int hojas;
+    private final int cuentasPorHoja;
+    private final AtomicLongArray sumasHojas;
+    private final LongAdder raiz = new LongAdder(); // sin una sola celda que todos los hilos disputen
+
+    // Ultima huella de cada cuenta en paginas por id, los ids son correlativos y las paginas pocas.
+    // Cada posicion se lee y se escribe con el lock de su cuenta
+    private final Map<Long, long[]> huellas = new ConcurrentHashMap<>();
+
+    // Huellas anteriores de lo que cambio cada hilo desde su ultimo alConfirmar, para alRevertir
+    private final ThreadLocal<Pendientes> pendientes = ThreadLocal.withInitial(Pendientes::new);
+
+    public ConciliacionSaldos(Banco banco) {
+        this(banco, 1 << 14, 64);
+    }
+
+    // Para comparar, los dos lados deben usar las mismas hojas y cuentas por hoja
+    public ConciliacionSaldos(Banco banco, int hojas, int cuentasPorHoja) {
+        if (hojas <= 0 || Integer.bitCount(hojas) != 1) {
+            throw new IllegalArgumentException("Las hojas deben ser una potencia de dos: " + hojas);
+        }
+        if (cuentasPorHoja <= 0) {
+            throw new IllegalArgumentException("cuentasPorHoja debe ser mayor que cero");
+        }
+        this.banco = banco;
+        this.hojas = hojas;
+        this.cuentasPorHoja = cuentasPorHoja;
+        this.sumasHojas = new AtomicLongArray(hojas);
+
+        // Primero el observador y despues el recorrido: una cuenta que opera en medio ya entra con su saldo nuevo
+        banco.agregarObservador(this);
+        banco.recorrerCuentas(cuenta -> sumar(hoja(cuenta.getId()), actualizar(cuenta, null), 0, 0));
+    }
+
+    @Override
+    public void alOperar(TipoOperacion tipo, Cuenta origen, Cuenta destino, BigDecimal monto) {
+        Pendientes pendientes = this.pendientes.get();
+        if (origen == null || destino == null || origen == destino) {
+            Cuenta cuenta = origen != null ? origen : destino;
+            sumar(hoja(cuenta.getId()), actualizar(cuenta, pendientes), 0, 0);
+            pendientes.agregar(1);
+        } else {
+            sumar(hoja(origen.getId()), actualizar(origen, pendientes), hoja(destino.getId()), actualizar(destino, pendientes));
+            pendientes.agregar(2);
+        }
+    }
+
+    // Con los locks de la operacion todavia tomados, vuelve las huellas de sus cuentas a las de antes
+    @Override
+    public void alRevertir() {
+        Pendientes pendientes = this.pendientes.get();
+        if (pendientes.total == 0) {
+            return;
+        }
+        int cuentas = (int) pendientes.sacar();
+        long anterior = pendientes.sacar();
+        long id = pendientes.sacar();
+        long diferencia = restaurar(id, anterior);
+        if (cuentas == 1) {
+            sumar(hoja(id), diferencia, 0, 0);
+        } else {
+            long anteriorOrigen = pendientes.sacar();
+            long idOrigen = pendientes.sacar();
+            sumar(hoja(idOrigen), restaurar(idOrigen, anteriorOrigen), hoja(id), diferencia);
+        }
+    }
+
+    @Override
+    public void alConfirmar() {
+        pendientes.get().total = 0;
+    }
+
+    // Con el lock de la cuenta tomado, devuelve cuanto cambio su huella desde la ultima vez
+    private long actualizar(Cuenta cuenta, Pendientes pendientes) {
+        long id = cuenta.getId();
+        long[] pagina = huellas.get(id >> BITS_PAGINA);
+        if (pagina == null) {
+            pagina = huellas.computeIfAbsent(id >> BITS_PAGINA, numero -> new long[1 << BITS_PAGINA]);
+        }
+        int indice = (int) (id & ((1 << BITS_PAGINA) - 1));
+        long nueva = huella(id, cuenta.getSaldo());
+        long diferencia = nueva - pagina[indice];
+        if (pendientes != null) {
+            pendientes.agregar(id);
+            pendientes.agregar(pagina[indice]); // 0 si la cuenta es nueva
+        }
+        pagina[indice] = nueva;
+        return diferencia;
+    }
+
+    private long restaurar(long id, long anterior) {
+        long[] pagina = huellas.get(id >> BITS_PAGINA);
+        int indice = (int) (id & ((1 << BITS_PAGINA) - 1));
+        long diferencia = anterior - pagina[indice];
+        pagina[indice] = anterior;
+        return diferencia;
+    }
+
+    private void sumar(int primera, long diferenciaPrimera, int segunda, long diferenciaSegunda) {
+        if (diferenciaPrimera != 0) sumasHojas.getAndAdd(primera, diferenciaPrimera);
+        if (diferenciaSegunda != 0) sumasHojas.getAndAdd(segunda, diferenciaSegunda);
+        long diferencia = diferenciaPrimera + diferenciaSegunda;
+        if (diferencia != 0) raiz.add(diferencia); // una sola vez por operacion
+    }
+
+    private int hoja(long id) {
+        return (int) (Math.floorDiv(id, cuentasPorHoja) & (hojas - 1));
+    }
+
+    // Saldos iguales con distinta escala tienen la misma huella, 100 y 100.00 son el mismo saldo: se quitan los
+    // ceros de la derecha hasta escala cero. Con los montos que entran en un long se hace sin pasar por BigDecimal
+    static long huella(long id, BigDecimal saldo) {
+        BigInteger sinEscala = saldo.unscaledValue();
+        long valor;
+        int escala = saldo.scale();
+        if (sinEscala.bitLength() < 64 && escala >= 0) {
+            valor = sinEscala.longValue();
+            while (escala > 0 && valor % 10 == 0) {
+                valor /= 10;
+                escala--;
+            }
+        } else {
+            BigDecimal normal = saldo.stripTrailingZeros();
+            if (normal.scale() < 0) {
+                normal = normal.setScale(0);
+            }
+            sinEscala = normal.unscaledValue();
+            valor = sinEscala.bitLength() < 64 ? sinEscala.longValue() : sinEscala.hashCode();
+            escala = normal.scale();
+        }
+        return mezclar(mezclar(mezclar(id) ^ valor) ^ escala);
+    }
+
+    // Finalizador de SplitMix64, cada bit de la entrada cambia la mitad de los de la salida
+    private static long mezclar(long x) {
+        x = (x ^ (x >>> 30)) * 0xBF58476D1CE4E5B9L;
+        x = (x ^ (x >>> 27)) * 0x94D049BB133111EBL;
+        return x ^ (x >>> 31);
+    }
+
+    // Suma de las huellas de todas las cuentas
+    public long getSuma() {
+        return raiz.sum();
+    }
+
+    // 1 es la raiz, los hijos del nodo i son 2i y 2i + 1 y las hojas van desde getHojas() hasta 2 * getHojas() - 1.
+    // Un nodo intermedio se suma desde sus hojas en cada llamada, para responder muchas consultas usar getArbol
+    public long getNodo(int posicion) {
+        if (posicion < 1 || posicion >= 2 * hojas) {
+            throw new IndexOutOfBoundsException("Nodo fuera del arbol: " + posicion);
+        }
+        if (posicion == 1) {
+            return raiz.sum();
+        }
+        int nivel = Integer.numberOfLeadingZeros(posicion) - Integer.numberOfLeadingZeros(hojas);
+        int desde = (posicion << nivel) - hojas;
+        long suma = 0;
+        for (int i = desde; i < desde + (1 << nivel); i++) {
+            suma += sumasHojas.get(i);
+        }
+        return suma;
+    }
+
+    // Todos los nodos, con las mismas posiciones que getNodo. Cada nodo intermedio se suma una sola vez
+    public long[] getArbol() {
+        long[] arbol = new long[2 * hojas];
+        for (int i = 0; i < hojas; i++) {
+            arbol[hojas + i] = sumasHojas.get(i);
+        }
+        for (int i = hojas - 1; i > 1; i--) {
+            arbol[i] = arbol[2 * i] + arbol[2 * i + 1];
+        }
+        arbol[1] = raiz.sum();
+        return arbol;
+    }
+
+    public int getHojas() {
+        return hojas;
+    }
+
+    public int getCuentasPorHoja() {
+        return cuentasPorHoja;
+    }
+
+    public List<Rango> buscarDiferencias(ConciliacionSaldos otra) {
+        if (otra.hojas != hojas || otra.cuentasPorHoja != cuentasPorHoja) {
+            throw new IllegalArgumentException("Los arboles no tienen la misma forma");
+        }
+        long[] remoto = otra.getArbol();
+        return buscarDiferencias(posicion -> remoto[posicion]);
+    }
+
+    // nodoRemoto devuelve el valor del nodo en la misma posicion del otro lado, solo se consultan los que hacen falta
+    public List<Rango> buscarDiferencias(IntToLongFunction nodoRemoto) {
+        List<Rango> rangos = new ArrayList<>();
+        buscar(getArbol(), 1, nodoRemoto, rangos);
+        return rangos;
+    }
+
+    private void buscar(long[] arbol, int posicion, IntToLongFunction nodoRemoto, List<Rango> rangos) {
+        if (arbol[posicion] == nodoRemoto.applyAsLong(posicion)) {
+            return;
+        }
+        if (posicion >= hojas) {
+            rangos.add(new Rango(posicion - hojas, cuentasPorHoja, hojas));
+        } else {
+            buscar(arbol, 2 * posicion, nodoRemoto, rangos);
+            buscar(arbol, 2 * posicion + 1, nodoRemoto, rangos);
+        }
+    }
+
+    // Deja de seguir las operaciones, la suma queda como estaba
+    @Override
+    public void close() {
+        banco.quitarObservador(this);
+    }
+
+    // Pila de un hilo: por cada operacion los pares (id, huella anterior) de sus cuentas y al final cuantas son
+    private static final class Pendientes {
+
+        private long[] valores = new long[8];
+        private int total;
+
+        void agregar(long valor) {
+            if (total == valores.length) {
+                valores = Arrays.copyOf(valores, total * 2);
+            }
+            valores[total++] = valor;
+        }
+
+        long sacar() {
+            return valores[--total];
+        }
+
+    }
+
+    /**
+     * Cuentas de una hoja con diferencias: los ids desde hasta hasta, sin incluirlo. Los ids que pasan de
+     * hojas * cuentasPorHoja vuelven a empezar desde la primera hoja, contiene dice si un id cae en la hoja.
+     */
+    public static class Rango {
+
+        private final int hoja;
+        private final long desde;
+        private final long hasta;
+        private final long vuelta;
+
+        Rango(int hoja, int cuentasPorHoja, int hojas) {
+            this.hoja = hoja;
+            this.desde = (long) hoja * cuentasPorHoja;
+            this.hasta = desde + cuentasPorHoja;
+            this.vuelta = (long) hojas * cuentasPorHoja;
+        }
+
+        public int getHoja() {
+            return hoja;
+        }
+
+        public long getDesde() {
+            return desde;
+        }
+
+        public long getHasta() {
+            return hasta;
+        }
+
+        public boolean contiene(long id) {
+            long posicion = Math.floorMod(id, vuelta);
+            return posicion >= desde && posicion < hasta;
+        }
+
+        @Override
+        public String toString() {
+            return "Rango{" +
+                    "hoja=" + hoja +
+                    ", desde=" + desde +
+                    ", hasta=" + hasta +
+                    '}';
+        }
+
+    }
+
+}
@@ -1,23 +1,56 @@
 package org.angelfg.ejemplos.models;
 
 import org.angelfg.ejemplos.exceptions.DineroInsuficienteException;
+import org.angelfg.ejemplos.metrics.Metricas;
 
 import java.math.BigDecimal;
+import java.util.Objects;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
 
 public class Cuenta {
 
+    // Orden global de bloqueo, evita deadlocks en transferencias cruzadas
+    private static final AtomicLong SECUENCIA_ORDEN = new AtomicLong();
+
+    private final long orden;
+    private final Lock lock;
+
+    private long id; // lo asigna el banco al agregar la cuenta si no se indico
     private String persona;
-    private BigDecimal saldo;
+    private volatile BigDecimal saldo;
     private Banco banco;
 
     public Cuenta() {
+        this(siguienteOrden(), new ReentrantLock());
+    }
+
+    // Para cuentas que comparten el lock con otras, el orden debe ser el del lock
+    Cuenta(long orden, Lock lock) {
+        this.orden = orden;
+        this.lock = lock;
     }
 
     public Cuenta(String persona, BigDecimal saldo) {
+        this();
         this.persona = persona;
         this.saldo = saldo;
     }
 
+    public Cuenta(long id, String persona, BigDecimal saldo) {
+        this(persona, saldo);
+        this.id = id;
+    }
+
+    public long getId() {
+        return id;
+    }
+
+    public void setId(long id) {
+        this.id = id;
+    }
+
     public String getPersona() {
         return persona;
     }
@@ -31,7 +64,20 @@ public class Cuenta {
     }
 
     public void setSaldo(BigDecimal saldo) {
-        this.saldo = saldo;
+        lock.lock();
+        try {
+            BigDecimal anterior = getSaldo();
+            asignarSaldo(saldo);
+            try {
+                notificar(TipoOperacion.AJUSTE, null, this, saldo);
+            } catch (RuntimeException e) {
+                asignarSaldo(anterior);
+                throw e;
+            }
+        } finally {
+            lock.unlock();
+        }
+        confirmar();
     }
 
     public Banco getBanco() {
@@ -42,34 +88,167 @@ public class Cuenta {
         this.banco = banco;
     }
 
+    static long siguienteOrden() {
+        return SECUENCIA_ORDEN.incrementAndGet();
+    }
+
+    long getOrden() {
+        return orden;
+    }
+
+    Lock getLock() {
+        return lock;
+    }
+
+    // Identifica la cuenta aunque existan varios objetos que la representen
+    Object getIdentidad() {
+        return this;
+    }
+
     public void debito(BigDecimal monto) {
+        if (tryDebito(monto) == ResultadoOperacion.DINERO_INSUFICIENTE) {
+            throw new DineroInsuficienteException("Dinero insuficiente");
+        }
+    }
+
+    // Igual que debito pero sin excepcion cuando no alcanza el saldo
+    public ResultadoOperacion tryDebito(BigDecimal monto) {
+        Metricas metricas = metricas();
+        long inicio = metricas == null ? 0 : Metricas.ahora();
+        boolean exitosa;
+        bloquear(metricas);
+        try {
+            exitosa = intentarDebito(monto);
+            if (exitosa) {
+                try {
+                    notificar(TipoOperacion.DEBITO, this, null, monto);
+                } catch (RuntimeException e) {
+                    aplicarCredito(monto); // si no se pudo registrar la operacion no se confirma
+                    throw e;
+                }
+            }
+        } finally {
+            lock.unlock();
+        }
+        if (exitosa) {
+            confirmar();
+        }
+        if (metricas != null) {
+            metricas.getDebitos().registrar(exitosa, inicio);
+        }
+        return ResultadoOperacion.de(exitosa);
+    }
+
+    public void credito(BigDecimal monto) {
+        Metricas metricas = metricas();
+        long inicio = metricas == null ? 0 : Metricas.ahora();
+        bloquear(metricas);
+        try {
+            aplicarCredito(monto);
+            try {
+                notificar(TipoOperacion.CREDITO, null, this, monto);
+            } catch (RuntimeException e) {
+                aplicarDebito(monto);
+                throw e;
+            }
+        } finally {
+            lock.unlock();
+        }
+        confirmar();
+        if (metricas != null) {
+            metricas.getCreditos().registrar(true, inicio);
+        }
+    }
+
+    // Cambios de saldo sin avisar al banco, se llaman con el lock de la cuenta tomado
+    protected void aplicarDebito(BigDecimal monto) {
+        if (!intentarDebito(monto)) {
+            throw new DineroInsuficienteException("Dinero insuficiente");
+        }
+    }
+
+    // Resta el monto solo si alcanza el saldo, el rechazo no lanza excepcion
+    protected boolean intentarDebito(BigDecimal monto) {
         BigDecimal nuevoSaldo = this.saldo.subtract(monto);
 
         if (nuevoSaldo.compareTo(BigDecimal.ZERO) < 0) {
-            throw new DineroInsuficienteException("Dinero insuficiente");
+            return false;
         }
 
         this.saldo = nuevoSaldo;
+        return true;
     }
 
-    public void credito(BigDecimal monto) {
+    protected void aplicarCredito(BigDecimal monto) {
         this.saldo = this.saldo.add(monto);
     }
 
+    protected void asignarSaldo(BigDecimal saldo) {
+        this.saldo = saldo;
+    }
+
+    // Null si la cuenta no esta en un banco o el banco no mide
+    Metricas metricas() {
+        Banco banco = getBanco();
+        return banco == null ? null : banco.getMetricas();
+    }
+
+    // Toma el lock de la cuenta, con metricas cuenta si hubo que esperar y cuanto
+    void bloquear(Metricas metricas) {
+        if (metricas == null) {
+            lock.lock();
+        } else if (lock.tryLock()) {
+            metricas.registrarBloqueo();
+        } else {
+            long inicio = Metricas.ahora();
+            lock.lock();
+            metricas.registrarBloqueo(Metricas.ahora() - inicio);
+        }
+    }
+
+    boolean tieneObservadores() {
+        Banco banco = getBanco();
+        return banco != null && banco.tieneObservadores();
+    }
+
+    void notificar(TipoOperacion tipo, Cuenta origen, Cuenta destino, BigDecimal monto) {
+        Banco banco = getBanco();
+        if (banco != null) {
+            banco.notificar(tipo, origen, destino, monto);
+        }
+    }
+
+    void confirmar() {
+        Banco banco = getBanco();
+        if (banco != null) {
+            banco.confirmar();
+        }
+    }
+
+    // Una cuenta en un banco solo es igual a si misma, asi la igualdad no depende del saldo ni del id que asigna
+    // cada banco. Fuera de un banco se conserva la igualdad original por persona y saldo
     @Override
     public boolean equals(Object obj) {
+        if (this == obj) return true;
         if (/*obj == null ||*/ !(obj instanceof Cuenta)) return false;
         Cuenta c = (Cuenta) obj;
-        if (this.persona == null || this.saldo == null) return false;
-        return this.persona.equals(c.getPersona()) && this.saldo.equals(c.getSaldo());
+        if (this.getBanco() != null || c.getBanco() != null) return false;
+        if (this.getPersona() == null || this.getSaldo() == null) return false;
+        return this.getPersona().equals(c.getPersona()) && this.getSaldo().equals(c.getSaldo());
         // return super.equals(obj);
     }
 
+    @Override
+    public int hashCode() {
+        // Nunca el saldo ni el id, cambian y romperian la cuenta dentro de un HashMap
+        return Objects.hashCode(getPersona());
+    }
+
     @Override
     public String toString() {
         return "Cuenta{" +
-                "persona='" + persona + '\'' +
-                ", saldo=" + saldo +
+                "persona='" + getPersona() + '\'' +
+                ", saldo=" + getSaldo() +
                 '}';
     }
 
@@ -0,0 +1,83 @@
+package org.angelfg.ejemplos.models;
+
+import org.angelfg.ejemplos.metrics.Metricas;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Cuenta para recibir muchos creditos a la vez, como una cuenta de comisiones o de un comercio.
+ * Los creditos se suman sin lock en las celdas de un LongAdder y el saldo se arma al leerlo: base + creditos.
+ * Los debitos y los ajustes toman el lock y solo cambian la base, asi el saldo nunca queda negativo.
+ * A diferencia de CuentaPuntoFijo, los creditos no detectan desborde.
+ * Como en CuentaAtomica, los creditos solo evitan el lock si todos los observadores admiten cambios sin lock.
+ */
+public class CuentaAcumuladora extends CuentaPuntoFijo {
+
+    private final LongAdder creditos = new LongAdder();
+
+    public CuentaAcumuladora(String persona, BigDecimal saldo) {
+        super(persona, saldo);
+    }
+
+    public CuentaAcumuladora(String persona, BigDecimal saldo, int escala, RoundingMode redondeo) {
+        super(persona, saldo, escala, redondeo);
+    }
+
+    @Override
+    public long getUnidades() {
+        return super.getUnidades() + creditos.sum();
+    }
+
+    // Los creditos que lleguen despues de la suma se agregan al nuevo saldo
+    @Override
+    void escribirUnidades(long unidades) {
+        super.escribirUnidades(unidades - creditos.sum());
+    }
+
+    @Override
+    public void credito(BigDecimal monto) {
+        if (requiereBloqueo()) {
+            super.credito(monto); // con lock, la bitacora necesita los saldos en orden
+        } else {
+            creditoSinBloqueo(aUnidades(monto), monto);
+        }
+    }
+
+    @Override
+    public void credito(long monto) {
+        if (requiereBloqueo()) {
+            super.credito(monto);
+        } else {
+            creditoSinBloqueo(monto, null);
+        }
+    }
+
+    private void creditoSinBloqueo(long monto, BigDecimal original) {
+        Metricas metricas = metricas();
+        long inicio = metricas == null ? 0 : Metricas.ahora();
+        creditos.add(monto);
+        if (original != null) ampliarEscala(original);
+        avisarSinBloqueo(TipoOperacion.CREDITO, monto, original, unidades -> creditos.add(-unidades));
+        if (metricas != null) {
+            metricas.getCreditos().registrar(true, inicio);
+        }
+    }
+
+    @Override
+    protected void aplicarCredito(long monto) {
+        creditos.add(monto);
+    }
+
+    // Con el lock tomado, los creditos concurrentes solo pueden subir el saldo
+    @Override
+    protected boolean intentarDebito(long monto) {
+        if (getUnidades() - monto < 0) {
+            return false;
+        }
+        super.escribirUnidades(Math.subtractExact(super.getUnidades(), monto));
+        return true;
+    }
+
+}
@@ -0,0 +1,119 @@
+package org.angelfg.ejemplos.models;
+
+import org.angelfg.ejemplos.metrics.Metricas;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+
+/**
+ * Cuenta de punto fijo que cambia el saldo con compare-and-set en lugar de tomar el lock.
+ * Debito y credito no bloquean mientras todos los observadores del banco admitan cambios sin lock
+ * (ObservadorMovimientos.admiteSinBloqueo), y se les avisa despues del cambio. Con un observador que no lo admite,
+ * como la bitacora, la conciliacion o los agregados, se usa el lock para que reciba los saldos en el mismo orden en
+ * que se aplicaron. Si ese observador se agrega a mitad de un cambio sin lock, el aviso se da con el lock tomado.
+ */
+public class CuentaAtomica extends CuentaPuntoFijo {
+
+    public CuentaAtomica(String persona, BigDecimal saldo) {
+        super(persona, saldo);
+    }
+
+    public CuentaAtomica(String persona, BigDecimal saldo, int escala, RoundingMode redondeo) {
+        super(persona, saldo, escala, redondeo);
+    }
+
+    // debito(...) pasa por tryDebito, asi tambien evita el lock
+    @Override
+    public ResultadoOperacion tryDebito(BigDecimal monto) {
+        if (requiereBloqueo()) {
+            return super.tryDebito(monto);
+        }
+        return debitoSinBloqueo(aUnidades(monto), monto);
+    }
+
+    @Override
+    public ResultadoOperacion tryDebito(long monto) {
+        if (requiereBloqueo()) {
+            return super.tryDebito(monto);
+        }
+        return debitoSinBloqueo(monto, null);
+    }
+
+    @Override
+    public void credito(BigDecimal monto) {
+        if (requiereBloqueo()) {
+            super.credito(monto);
+        } else {
+            creditoSinBloqueo(aUnidades(monto), monto);
+        }
+    }
+
+    @Override
+    public void credito(long monto) {
+        if (requiereBloqueo()) {
+            super.credito(monto);
+        } else {
+            creditoSinBloqueo(monto, null);
+        }
+    }
+
+    // original es el monto como llego, null si llego en unidades
+    private ResultadoOperacion debitoSinBloqueo(long monto, BigDecimal original) {
+        Metricas metricas = metricas();
+        long inicio = metricas == null ? 0 : Metricas.ahora();
+        boolean exitosa = intentarDebito(monto);
+        if (exitosa) {
+            if (original != null) ampliarEscala(original);
+            avisarSinBloqueo(TipoOperacion.DEBITO, monto, original, this::aplicarCredito);
+        }
+        if (metricas != null) {
+            metricas.getDebitos().registrar(exitosa, inicio);
+        }
+        return ResultadoOperacion.de(exitosa);
+    }
+
+    private void creditoSinBloqueo(long monto, BigDecimal original) {
+        Metricas metricas = metricas();
+        long inicio = metricas == null ? 0 : Metricas.ahora();
+        aplicarCredito(monto);
+        if (original != null) ampliarEscala(original);
+        avisarSinBloqueo(TipoOperacion.CREDITO, monto, original, this::retirar);
+        if (metricas != null) {
+            metricas.getCreditos().registrar(true, inicio);
+        }
+    }
+
+    // Deshace un credito sin lock aunque un debito concurrente ya haya usado esos fondos
+    private void retirar(long monto) {
+        long actuales;
+        do {
+            actuales = getUnidades();
+        } while (!compararYEscribir(actuales, Math.subtractExact(actuales, monto)));
+    }
+
+    // Tambien se usa con el lock tomado, desde transferir y los lotes, asi nunca se pisa con un cambio sin lock
+    @Override
+    protected boolean intentarDebito(long monto) {
+        long actuales;
+        long nuevas;
+        do {
+            actuales = getUnidades();
+            nuevas = Math.subtractExact(actuales, monto);
+            if (nuevas < 0) {
+                return false;
+            }
+        } while (!compararYEscribir(actuales, nuevas));
+        return true;
+    }
+
+    @Override
+    protected void aplicarCredito(long monto) {
+        long actuales;
+        long nuevas;
+        do {
+            actuales = getUnidades();
+            nuevas = Math.addExact(actuales, monto);
+        } while (!compararYEscribir(actuales, nuevas));
+    }
+
+}
@@ -0,0 +1,247 @@
+package org.angelfg.ejemplos.models;
+
+import org.angelfg.ejemplos.exceptions.DineroInsuficienteException;
+import org.angelfg.ejemplos.metrics.Metricas;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.util.concurrent.locks.Lock;
+import java.util.function.LongConsumer;
+
+/**
+ * Cuenta que guarda el saldo como un long en unidades menores (saldo * 10^escala).
+ * Los debitos y creditos en unidades no crean objetos, getSaldo() sigue devolviendo un BigDecimal exacto.
+ * El saldo se devuelve con la escala que tendria en una Cuenta con BigDecimal: la mayor entre la del saldo
+ * inicial y la de los montos que recibio, sin pasar de la escala de la cuenta. Los montos en unidades no la cambian.
+ */
+public class CuentaPuntoFijo extends Cuenta {
+
+    public static final int ESCALA_POR_DEFECTO = 5;
+    public static final int ESCALA_MAXIMA = 18; // 10^18 todavia cabe en un long
+
+    private static final VarHandle UNIDADES;
+    private static final VarHandle ESCALA_SALDO;
+
+    static {
+        try {
+            UNIDADES = MethodHandles.lookup().findVarHandle(CuentaPuntoFijo.class, "unidades", long.class);
+            ESCALA_SALDO = MethodHandles.lookup().findVarHandle(CuentaPuntoFijo.class, "escalaSaldo", int.class);
+        } catch (ReflectiveOperationException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
+    private final int escala;
+    private final RoundingMode redondeo;
+    private volatile long unidades;
+    private volatile int escalaSaldo; // escala con la que se devuelve el saldo, nunca mayor que escala
+
+    public CuentaPuntoFijo(String persona, BigDecimal saldo) {
+        this(persona, saldo, ESCALA_POR_DEFECTO, RoundingMode.UNNECESSARY);
+    }
+
+    // Con RoundingMode.UNNECESSARY un monto con mas decimales que la escala lanza ArithmeticException
+    public CuentaPuntoFijo(String persona, BigDecimal saldo, int escala, RoundingMode redondeo) {
+        super(persona, null);
+        this.escala = validarEscala(escala);
+        this.redondeo = redondeo;
+        this.unidades = aUnidades(saldo);
+        this.escalaSaldo = escalaDe(saldo);
+    }
+
+    CuentaPuntoFijo(long orden, Lock lock, int escala, RoundingMode redondeo) {
+        super(orden, lock);
+        this.escala = validarEscala(escala);
+        this.redondeo = redondeo;
+    }
+
+    static int validarEscala(int escala) {
+        if (escala < 0 || escala > ESCALA_MAXIMA) {
+            throw new IllegalArgumentException("La escala debe estar entre 0 y " + ESCALA_MAXIMA);
+        }
+        return escala;
+    }
+
+    public int getEscala() {
+        return escala;
+    }
+
+    public RoundingMode getRedondeo() {
+        return redondeo;
+    }
+
+    public long getUnidades() {
+        return unidades;
+    }
+
+    // Las subclases pueden guardar las unidades en otro sitio
+    void escribirUnidades(long unidades) {
+        this.unidades = unidades;
+    }
+
+    // Para las cuentas que cambian el saldo sin lock
+    boolean compararYEscribir(long esperadas, long nuevas) {
+        return UNIDADES.compareAndSet(this, esperadas, nuevas);
+    }
+
+    boolean requiereBloqueo() {
+        Banco banco = getBanco();
+        return banco != null && banco.requiereBloqueo();
+    }
+
+    // Avisa un cambio que ya se hizo sin lock. Si entre tanto llego un observador que necesita el lock, el aviso se
+    // da con el lock tomado y el saldo ya incluye el cambio. Si el aviso falla se deshace el cambio y se relanza
+    void avisarSinBloqueo(TipoOperacion tipo, long unidades, BigDecimal monto, LongConsumer deshacer) {
+        if (!tieneObservadores()) {
+            return;
+        }
+        BigDecimal aviso = monto != null ? monto : BigDecimal.valueOf(unidades, escala);
+        Cuenta origen = tipo == TipoOperacion.DEBITO ? this : null;
+        Cuenta destino = tipo == TipoOperacion.DEBITO ? null : this;
+        boolean conBloqueo = requiereBloqueo();
+        if (conBloqueo) {
+            getLock().lock();
+        }
+        try {
+            notificar(tipo, origen, destino, aviso);
+        } catch (RuntimeException e) {
+            deshacer.accept(unidades);
+            throw e;
+        } finally {
+            if (conBloqueo) getLock().unlock();
+        }
+        confirmar();
+    }
+
+    // Convierte un monto a unidades menores, ArithmeticException si hay que redondear y no se permite o si no cabe en un long
+    public long aUnidades(BigDecimal monto) {
+        return monto.setScale(escala, redondeo).unscaledValue().longValueExact();
+    }
+
+    // Quita los ceros de la derecha hasta la escala del saldo, nunca redondea aunque la escala se lea a destiempo
+    @Override
+    public BigDecimal getSaldo() {
+        long valor = getUnidades();
+        int actual = escala;
+        int minima = escalaSaldo;
+        while (actual > minima && valor % 10 == 0) {
+            valor /= 10;
+            actual--;
+        }
+        return BigDecimal.valueOf(valor, actual);
+    }
+
+    private int escalaDe(BigDecimal monto) {
+        return Math.min(Math.max(monto.scale(), 0), escala);
+    }
+
+    // Sin lock: las cuentas sin bloqueo tambien la amplian, solo puede crecer
+    void ampliarEscala(BigDecimal monto) {
+        int nueva = escalaDe(monto);
+        int actual;
+        while (nueva > (actual = escalaSaldo) && !ESCALA_SALDO.compareAndSet(this, actual, nueva)) {
+            Thread.onSpinWait();
+        }
+    }
+
+    @Override
+    protected void asignarSaldo(BigDecimal saldo) {
+        escribirUnidades(aUnidades(saldo));
+        escalaSaldo = escalaDe(saldo); // como en BigDecimal, el saldo nuevo trae su escala
+    }
+
+    @Override
+    protected boolean intentarDebito(BigDecimal monto) {
+        boolean exitosa = intentarDebito(aUnidades(monto));
+        if (exitosa) {
+            ampliarEscala(monto);
+        }
+        return exitosa;
+    }
+
+    @Override
+    protected void aplicarCredito(BigDecimal monto) {
+        aplicarCredito(aUnidades(monto));
+        ampliarEscala(monto);
+    }
+
+    public void debito(long monto) {
+        if (tryDebito(monto) == ResultadoOperacion.DINERO_INSUFICIENTE) {
+            throw new DineroInsuficienteException("Dinero insuficiente");
+        }
+    }
+
+    public ResultadoOperacion tryDebito(long monto) {
+        Metricas metricas = metricas();
+        long inicio = metricas == null ? 0 : Metricas.ahora();
+        boolean exitosa;
+        bloquear(metricas);
+        try {
+            exitosa = intentarDebito(monto);
+            if (exitosa && tieneObservadores()) { // el BigDecimal solo se crea si alguien lo va a recibir
+                try {
+                    notificar(TipoOperacion.DEBITO, this, null, BigDecimal.valueOf(monto, escala));
+                } catch (RuntimeException e) {
+                    aplicarCredito(monto);
+                    throw e;
+                }
+            }
+        } finally {
+            getLock().unlock();
+        }
+        if (exitosa) {
+            confirmar();
+        }
+        if (metricas != null) {
+            metricas.getDebitos().registrar(exitosa, inicio);
+        }
+        return ResultadoOperacion.de(exitosa);
+    }
+
+    public void credito(long monto) {
+        Metricas metricas = metricas();
+        long inicio = metricas == null ? 0 : Metricas.ahora();
+        bloquear(metricas);
+        try {
+            aplicarCredito(monto);
+            if (tieneObservadores()) {
+                try {
+                    notificar(TipoOperacion.CREDITO, null, this, BigDecimal.valueOf(monto, escala));
+                } catch (RuntimeException e) {
+                    aplicarDebito(monto);
+                    throw e;
+                }
+            }
+        } finally {
+            getLock().unlock();
+        }
+        confirmar();
+        if (metricas != null) {
+            metricas.getCreditos().registrar(true, inicio);
+        }
+    }
+
+    protected void aplicarDebito(long monto) {
+        if (!intentarDebito(monto)) {
+            throw new DineroInsuficienteException("Dinero insuficiente");
+        }
+    }
+
+    protected boolean intentarDebito(long monto) {
+        long nuevoSaldo = Math.subtractExact(getUnidades(), monto);
+
+        if (nuevoSaldo < 0) {
+            return false;
+        }
+
+        escribirUnidades(nuevoSaldo);
+        return true;
+    }
+
+    protected void aplicarCredito(long monto) {
+        escribirUnidades(Math.addExact(getUnidades(), monto)); // ArithmeticException si desborda
+    }
+
+}
@@ -0,0 +1,459 @@
+package org.angelfg.ejemplos.models;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.LongSupplier;
+
+/**
+ * Historial de debitos y creditos de cada cuenta, guardado en bloques de bytes en lugar de una lista de objetos.
+ *
+ * Cada movimiento se codifica con enteros de largo variable: el instante como diferencia con el movimiento anterior,
+ * el monto como escala y valor sin escala, y la contraparte de la transferencia. Un movimiento tipico ocupa entre
+ * 5 y 10 bytes. Los bloques llenos se recortan a su tamanio justo y guardan su primer y ultimo instante, asi una
+ * consulta por rango busca el primer bloque con busqueda binaria y solo decodifica los bloques del rango.
+ *
+ * compactar() saca de memoria los bloques viejos: los descarta o, si hay un directorio de archivo, los escribe a
+ * disco y se leen de ahi cuando una consulta los necesita. Las altas y los ajustes no son movimientos.
+ *
+ * Si otro observador hace fallar la operacion, alRevertir anula los movimientos que agrego: quedan marcados en su
+ * bloque y las consultas los saltan. No se quitan de los bytes porque con CuentaAtomica otro hilo pudo agregar
+ * movimientos despues en el mismo bloque.
+ */
+public class HistorialMovimientos implements ObservadorMovimientos, AutoCloseable {
+
+    public static final int MOVIMIENTOS_POR_BLOQUE = 256;
+
+    private final Banco banco;
+    private final LongSupplier reloj;
+    private final int movimientosPorBloque;
+    private final Map<Long, Historial> historiales = new ConcurrentHashMap<>();
+    private volatile Path directorioArchivo;
+
+    // Movimientos que agrego cada hilo desde su ultimo alConfirmar, para alRevertir
+    private final ThreadLocal<Pendientes> pendientes = ThreadLocal.withInitial(Pendientes::new);
+
+    public HistorialMovimientos(Banco banco) {
+        this(banco, System::currentTimeMillis, MOVIMIENTOS_POR_BLOQUE);
+    }
+
+    public HistorialMovimientos(Banco banco, LongSupplier reloj, int movimientosPorBloque) {
+        if (movimientosPorBloque <= 0) {
+            throw new IllegalArgumentException("Un bloque debe tener al menos un movimiento");
+        }
+        this.banco = banco;
+        this.reloj = reloj;
+        this.movimientosPorBloque = movimientosPorBloque;
+        banco.agregarObservador(this);
+    }
+
+    // null para descartar los bloques que se compactan
+    public void setDirectorioArchivo(Path directorioArchivo) {
+        this.directorioArchivo = directorioArchivo;
+    }
+
+    @Override
+    public void alOperar(TipoOperacion tipo, Cuenta origen, Cuenta destino, BigDecimal monto) {
+        Pendientes pendientes = this.pendientes.get();
+        if (tipo == TipoOperacion.ALTA || tipo == TipoOperacion.AJUSTE) {
+            pendientes.agregar(null, null, 0);
+            pendientes.agregar(null, null, 0);
+            return;
+        }
+        long instante = reloj.getAsLong();
+        if (origen != null) {
+            historial(origen).agregar(instante, monto.negate(), destino == null ? 0 : destino.getId(), pendientes);
+        } else {
+            pendientes.agregar(null, null, 0);
+        }
+        if (destino != null) {
+            historial(destino).agregar(instante, monto, origen == null ? 0 : origen.getId(), pendientes);
+        } else {
+            pendientes.agregar(null, null, 0);
+        }
+    }
+
+    @Override
+    public void alRevertir() {
+        Pendientes pendientes = this.pendientes.get();
+        if (pendientes.total == 0) {
+            return;
+        }
+        for (int i = 0; i < 2; i++) {
+            int posicion = --pendientes.total;
+            Historial historial = pendientes.historiales[posicion];
+            if (historial != null) {
+                historial.anular(pendientes.bloques[posicion], pendientes.indices[posicion]);
+            }
+            pendientes.historiales[posicion] = null;
+            pendientes.bloques[posicion] = null;
+        }
+    }
+
+    @Override
+    public void alConfirmar() {
+        pendientes.get().limpiar();
+    }
+
+    // Cada historial se ordena con su propio lock, los movimientos de CuentaAtomica pueden llegar sin el de la cuenta
+    @Override
+    public boolean admiteSinBloqueo() {
+        return true;
+    }
+
+    private Historial historial(Cuenta cuenta) {
+        return historiales.computeIfAbsent(cuenta.getId(), id -> new Historial());
+    }
+
+    // Movimientos de la cuenta con instante en [desde, hasta), del mas viejo al mas nuevo
+    public List<Movimiento> buscar(long idCuenta, long desde, long hasta) {
+        Historial historial = historiales.get(idCuenta);
+        List<Movimiento> movimientos = new ArrayList<>();
+        if (historial == null || desde >= hasta) {
+            return movimientos;
+        }
+        // Se copian los bloques del rango y se decodifican sin el lock, las escrituras solo agregan al final
+        List<Vista> vistas = new ArrayList<>();
+        synchronized (historial) {
+            List<Bloque> bloques = historial.bloques;
+            // El primer bloque que termina en desde o despues, los bloques estan ordenados por instante
+            int inicio = 0;
+            int fin = bloques.size();
+            while (inicio < fin) {
+                int medio = (inicio + fin) >>> 1;
+                if (bloques.get(medio).ultimo < desde) inicio = medio + 1; else fin = medio;
+            }
+            for (int i = inicio; i < bloques.size() && bloques.get(i).primero < hasta; i++) {
+                vistas.add(new Vista(bloques.get(i)));
+            }
+        }
+        for (Vista vista : vistas) {
+            vista.decodificar(desde, hasta, movimientos);
+        }
+        return movimientos;
+    }
+
+    // Saca de memoria los bloques cerrados cuyo ultimo movimiento es anterior a antesDe, devuelve cuantos
+    public synchronized int compactar(long antesDe) {
+        Path directorio = directorioArchivo;
+        int compactados = 0;
+        for (Map.Entry<Long, Historial> entrada : historiales.entrySet()) {
+            Historial historial = entrada.getValue();
+            List<Vista> viejos = new ArrayList<>();
+            synchronized (historial) {
+                int cantidad = 0;
+                for (Bloque bloque : historial.bloques) {
+                    if (bloque == historial.abierto || bloque.ultimo >= antesDe) break;
+                    cantidad++;
+                    if (bloque.datos != null) viejos.add(new Vista(bloque));
+                }
+                if (directorio == null) {
+                    historial.bloques.subList(0, cantidad).clear();
+                    compactados += cantidad;
+                    continue;
+                }
+            }
+            if (viejos.isEmpty()) {
+                continue;
+            }
+            // Los bloques cerrados no cambian, se escriben sin el lock y se sueltan cuando ya estan en disco
+            Path archivo = directorio.resolve("movimientos-" + entrada.getKey() + ".bin");
+            long[] posiciones = archivar(archivo, viejos);
+            synchronized (historial) {
+                for (int i = 0; i < viejos.size(); i++) {
+                    viejos.get(i).bloque.archivado(archivo, posiciones[i]);
+                }
+            }
+            compactados += viejos.size();
+        }
+        return compactados;
+    }
+
+    private static long[] archivar(Path archivo, List<Vista> bloques) {
+        long[] posiciones = new long[bloques.size()];
+        try (FileChannel canal = FileChannel.open(archivo, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND)) {
+            long posicion = canal.size();
+            for (int i = 0; i < posiciones.length; i++) {
+                Vista vista = bloques.get(i);
+                ByteBuffer buffer = ByteBuffer.wrap(vista.datos, 0, vista.largo);
+                while (buffer.hasRemaining()) {
+                    canal.write(buffer);
+                }
+                posiciones[i] = posicion;
+                posicion += vista.largo;
+            }
+            canal.force(false);
+        } catch (IOException e) {
+            throw new UncheckedIOException("No se pudo archivar el historial en " + archivo, e);
+        }
+        return posiciones;
+    }
+
+    public long getMovimientos() {
+        long total = 0;
+        for (Historial historial : historiales.values()) {
+            synchronized (historial) {
+                total += historial.movimientos;
+            }
+        }
+        return total;
+    }
+
+    // Bytes de movimientos que siguen en memoria, sin contar los archivados
+    public long getBytesEnMemoria() {
+        long total = 0;
+        for (Historial historial : historiales.values()) {
+            synchronized (historial) {
+                for (Bloque bloque : historial.bloques) {
+                    if (bloque.datos != null) total += bloque.largo;
+                }
+            }
+        }
+        return total;
+    }
+
+    @Override
+    public void close() {
+        banco.quitarObservador(this);
+    }
+
+    private final class Historial {
+
+        private final List<Bloque> bloques = new ArrayList<>();
+        private Bloque abierto;
+        private long movimientos;
+
+        // El instante nunca retrocede dentro de una cuenta, aunque los movimientos lleguen en otro orden
+        synchronized void agregar(long instante, BigDecimal monto, long contraparte, Pendientes pendientes) {
+            if (abierto == null || abierto.cantidad == movimientosPorBloque) {
+                if (abierto != null) {
+                    abierto.cerrar();
+                }
+                long inicio = abierto == null ? instante : Math.max(instante, abierto.ultimo);
+                abierto = new Bloque(inicio);
+                bloques.add(abierto);
+            }
+            abierto.agregar(Math.max(instante, abierto.ultimo), monto, contraparte);
+            movimientos++;
+            pendientes.agregar(this, abierto, abierto.cantidad - 1);
+        }
+
+        // Solo marca el movimiento, los bytes no cambian y las lecturas sin lock siguen siendo validas
+        synchronized void anular(Bloque bloque, int indice) {
+            if (bloque.anulados == null) {
+                bloque.anulados = new BitSet();
+            }
+            bloque.anulados.set(indice);
+            movimientos--;
+        }
+
+    }
+
+    private static final class Bloque {
+
+        private final long primero;
+        private long ultimo;
+        private int cantidad;
+        private byte[] datos = new byte[64];
+        private int largo;
+
+        private Path archivo;
+        private long posicion;
+        private BitSet anulados; // movimientos revertidos, null si no hay
+
+        Bloque(long primero) {
+            this.primero = primero;
+            this.ultimo = primero;
+        }
+
+        void agregar(long instante, BigDecimal monto, long contraparte) {
+            asegurarLugar(32);
+            escribirVarLong(zigzag(instante - ultimo));
+            BigInteger sinEscala = monto.unscaledValue();
+            boolean grande = sinEscala.bitLength() > 62;
+            escribirVarLong(zigzag(monto.scale()) << 1 | (grande ? 1 : 0));
+            if (grande) {
+                byte[] bytes = sinEscala.toByteArray();
+                asegurarLugar(bytes.length + 5);
+                escribirVarLong(bytes.length);
+                System.arraycopy(bytes, 0, datos, largo, bytes.length);
+                largo += bytes.length;
+            } else {
+                escribirVarLong(zigzag(sinEscala.longValue()));
+            }
+            escribirVarLong(contraparte);
+            cantidad++;
+            ultimo = instante;
+        }
+
+        // Recorta el arreglo al tamanio justo, el bloque ya no cambia
+        void cerrar() {
+            datos = Arrays.copyOf(datos, largo);
+        }
+
+        void archivado(Path archivo, long posicion) {
+            this.archivo = archivo;
+            this.posicion = posicion;
+            this.datos = null;
+        }
+
+        private void asegurarLugar(int bytes) {
+            if (largo + bytes > datos.length) {
+                datos = Arrays.copyOf(datos, Math.max(datos.length * 2, largo + bytes));
+            }
+        }
+
+        private void escribirVarLong(long valor) {
+            while ((valor & ~0x7FL) != 0) {
+                datos[largo++] = (byte) ((valor & 0x7F) | 0x80);
+                valor >>>= 7;
+            }
+            datos[largo++] = (byte) valor;
+        }
+
+    }
+
+    // Lo que se necesita para leer un bloque, copiado con el lock del historial
+    private static final class Vista {
+
+        private final Bloque bloque;
+        private final long primero;
+        private final byte[] datos;
+        private final int largo;
+        private final Path archivo;
+        private final long posicion;
+        private final BitSet anulados;
+
+        Vista(Bloque bloque) {
+            this.bloque = bloque;
+            this.primero = bloque.primero;
+            this.datos = bloque.datos;
+            this.largo = bloque.largo;
+            this.archivo = bloque.archivo;
+            this.posicion = bloque.posicion;
+            this.anulados = bloque.anulados == null ? null : (BitSet) bloque.anulados.clone();
+        }
+
+        void decodificar(long desde, long hasta, List<Movimiento> salida) {
+            byte[] bytes = datos != null ? datos : leerArchivo();
+            Lector lector = new Lector(bytes, largo);
+            long instante = primero;
+            for (int indice = 0; lector.quedan(); indice++) {
+                instante += unzigzag(lector.varLong());
+                long encabezado = lector.varLong();
+                int escala = (int) unzigzag(encabezado >>> 1);
+                BigDecimal monto;
+                if ((encabezado & 1) == 1) {
+                    monto = new BigDecimal(new BigInteger(lector.bytes((int) lector.varLong())), escala);
+                } else {
+                    monto = BigDecimal.valueOf(unzigzag(lector.varLong()), escala);
+                }
+                long contraparte = lector.varLong();
+                if (instante >= hasta) {
+                    return;
+                }
+                if (instante >= desde && (anulados == null || !anulados.get(indice))) {
+                    salida.add(new Movimiento(instante, monto, contraparte));
+                }
+            }
+        }
+
+        private byte[] leerArchivo() {
+            byte[] bytes = new byte[largo];
+            try (FileChannel canal = FileChannel.open(archivo, StandardOpenOption.READ)) {
+                ByteBuffer buffer = ByteBuffer.wrap(bytes);
+                while (buffer.hasRemaining()) {
+                    if (canal.read(buffer, posicion + buffer.position()) < 0) {
+                        throw new IOException("Archivo de historial truncado");
+                    }
+                }
+            } catch (IOException e) {
+                throw new UncheckedIOException("No se pudo leer el historial de " + archivo, e);
+            }
+            return bytes;
+        }
+
+    }
+
+    // Dos entradas por operacion, con historial null si la operacion no agrego ese movimiento
+    private static final class Pendientes {
+
+        private Historial[] historiales = new Historial[8];
+        private Bloque[] bloques = new Bloque[8];
+        private int[] indices = new int[8];
+        private int total;
+
+        void agregar(Historial historial, Bloque bloque, int indice) {
+            if (total == historiales.length) {
+                historiales = Arrays.copyOf(historiales, total * 2);
+                bloques = Arrays.copyOf(bloques, total * 2);
+                indices = Arrays.copyOf(indices, total * 2);
+            }
+            historiales[total] = historial;
+            bloques[total] = bloque;
+            indices[total++] = indice;
+        }
+
+        void limpiar() {
+            Arrays.fill(historiales, 0, total, null); // no retener bloques del hilo
+            Arrays.fill(bloques, 0, total, null);
+            total = 0;
+        }
+
+    }
+
+    private static final class Lector {
+
+        private final byte[] datos;
+        private final int largo;
+        private int posicion;
+
+        Lector(byte[] datos, int largo) {
+            this.datos = datos;
+            this.largo = largo;
+        }
+
+        boolean quedan() {
+            return posicion < largo;
+        }
+
+        long varLong() {
+            long valor = 0;
+            int desplazamiento = 0;
+            byte leido;
+            do {
+                leido = datos[posicion++];
+                valor |= (long) (leido & 0x7F) << desplazamiento;
+                desplazamiento += 7;
+            } while (leido < 0);
+            return valor;
+        }
+
+        byte[] bytes(int cantidad) {
+            byte[] copia = Arrays.copyOfRange(datos, posicion, posicion + cantidad);
+            posicion += cantidad;
+            return copia;
+        }
+
+    }
+
+    private static long zigzag(long valor) {
+        return (valor << 1) ^ (valor >> 63);
+    }
+
+    private static long unzigzag(long valor) {
+        return (valor >>> 1) ^ -(valor & 1);
+    }
+
+}
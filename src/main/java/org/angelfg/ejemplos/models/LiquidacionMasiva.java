@@ -0,0 +1,228 @@
+package org.angelfg.ejemplos.models;
+
+import org.angelfg.ejemplos.metrics.Metricas;
+
+import java.math.BigDecimal;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+
+/**
+ * Liquidacion de fin de dia: aplica intereses, comisiones u otras reglas a todas las cuentas del banco en paralelo.
+ *
+ * Las cuentas se copian al empezar y se reparten en particiones que un ForkJoinPool procesa en paralelo; las
+ * cuentas que se agregan despues no se liquidan. Cada cuenta se ajusta con su lock tomado, asi las reglas ven un
+ * saldo que no cambia hasta aplicar el ajuste y las transferencias siguen operando sobre las demas cuentas.
+ * Un debito sin fondos se rechaza como en tryDebito y la cuenta queda igual; las reglas siguientes de esa cuenta
+ * se aplican igual. Los observadores reciben cada ajuste como un debito o credito.
+ */
+public class LiquidacionMasiva {
+
+    public static final int CUENTAS_POR_PARTICION = 512;
+
+    private final Banco banco;
+    private final ReglaAjuste[] reglas;
+    private ForkJoinPool pool = ForkJoinPool.commonPool();
+    private int cuentasPorParticion = CUENTAS_POR_PARTICION;
+
+    private final AtomicBoolean enCurso = new AtomicBoolean();
+    private final LongAdder procesadas = new LongAdder();
+    private volatile long total;
+    private volatile long inicio;
+
+    public LiquidacionMasiva(Banco banco, ReglaAjuste... reglas) {
+        if (reglas.length == 0) {
+            throw new IllegalArgumentException("La liquidacion necesita al menos una regla");
+        }
+        this.banco = banco;
+        this.reglas = reglas.clone();
+    }
+
+    public void setPool(ForkJoinPool pool) {
+        this.pool = pool;
+    }
+
+    public void setCuentasPorParticion(int cuentasPorParticion) {
+        if (cuentasPorParticion <= 0) {
+            throw new IllegalArgumentException("cuentasPorParticion debe ser mayor que cero");
+        }
+        this.cuentasPorParticion = cuentasPorParticion;
+    }
+
+    public ResultadoLiquidacion ejecutar() throws InterruptedException {
+        return ejecutar(null, null);
+    }
+
+    // Mientras espera, el hilo que llama recibe el avance cada intervalo
+    public ResultadoLiquidacion ejecutar(Duration intervalo, Consumer<LiquidacionMasiva> informe) throws InterruptedException {
+        if (!enCurso.compareAndSet(false, true)) {
+            throw new IllegalStateException("La liquidacion ya esta en curso");
+        }
+        try {
+            Cuenta[] cuentas = banco.getCuentas().toArray(new Cuenta[0]);
+            procesadas.reset();
+            total = cuentas.length;
+            inicio = System.nanoTime();
+
+            ForkJoinTask<Parcial> tarea = pool.submit(new Particion(cuentas, 0, cuentas.length));
+            Parcial parcial = esperar(tarea, intervalo, informe);
+            return new ResultadoLiquidacion(cuentas.length, parcial.ajustes, parcial.rechazadas, parcial.conError,
+                    parcial.acreditado, parcial.debitado, Duration.ofNanos(System.nanoTime() - inicio));
+        } finally {
+            enCurso.set(false);
+        }
+    }
+
+    private Parcial esperar(ForkJoinTask<Parcial> tarea, Duration intervalo, Consumer<LiquidacionMasiva> informe) throws InterruptedException {
+        try {
+            while (informe != null) {
+                try {
+                    return tarea.get(intervalo.toNanos(), TimeUnit.NANOSECONDS);
+                } catch (TimeoutException e) {
+                    informe.accept(this);
+                }
+            }
+            return tarea.get();
+        } catch (InterruptedException e) {
+            tarea.cancel(true);
+            throw e;
+        } catch (ExecutionException e) {
+            Throwable causa = e.getCause();
+            if (causa instanceof RuntimeException) throw (RuntimeException) causa;
+            if (causa instanceof Error) throw (Error) causa;
+            throw new IllegalStateException(causa);
+        }
+    }
+
+    public long getProcesadas() {
+        return procesadas.sum();
+    }
+
+    public long getTotal() {
+        return total;
+    }
+
+    // Entre 0 y 1, las cuentas liquidadas sobre las que habia al empezar
+    public double getAvance() {
+        long total = this.total;
+        return total == 0 ? 1 : (double) getProcesadas() / total;
+    }
+
+    public double getCuentasPorSegundo() {
+        return getProcesadas() * 1e9 / Math.max(1, System.nanoTime() - inicio);
+    }
+
+    // Ajusta una cuenta con su lock tomado, como tryDebito y credito pero con todas las reglas juntas
+    private void liquidar(Cuenta cuenta, Parcial parcial) {
+        Metricas metricas = cuenta.metricas();
+        boolean aplicado = false;
+        boolean rechazada = false;
+        cuenta.bloquear(metricas);
+        try {
+            for (ReglaAjuste regla : reglas) {
+                BigDecimal ajuste = regla.calcular(cuenta, cuenta.getSaldo());
+                if (ajuste == null || ajuste.signum() == 0) {
+                    continue;
+                }
+                if (ajuste.signum() > 0) {
+                    cuenta.aplicarCredito(ajuste);
+                    try {
+                        cuenta.notificar(TipoOperacion.CREDITO, null, cuenta, ajuste);
+                    } catch (RuntimeException e) {
+                        cuenta.aplicarDebito(ajuste);
+                        throw e;
+                    }
+                    parcial.acreditado = parcial.acreditado.add(ajuste);
+                } else {
+                    BigDecimal monto = ajuste.negate();
+                    if (!cuenta.intentarDebito(monto)) {
+                        rechazada = true;
+                        continue;
+                    }
+                    try {
+                        cuenta.notificar(TipoOperacion.DEBITO, cuenta, null, monto);
+                    } catch (RuntimeException e) {
+                        cuenta.aplicarCredito(monto);
+                        throw e;
+                    }
+                    parcial.debitado = parcial.debitado.add(monto);
+                }
+                parcial.ajustes++;
+                aplicado = true;
+            }
+        } catch (RuntimeException e) {
+            parcial.conError.add(cuenta.getId()); // los ajustes de las reglas anteriores quedan aplicados
+        } finally {
+            cuenta.getLock().unlock();
+        }
+        if (rechazada) {
+            parcial.rechazadas.add(cuenta.getId());
+        }
+        if (aplicado) {
+            cuenta.confirmar();
+        }
+    }
+
+    // Lo acumulado por una particion, se suma con las demas al volver
+    private static final class Parcial {
+
+        private long ajustes;
+        private List<Long> rechazadas = new ArrayList<>();
+        private List<Long> conError = new ArrayList<>();
+        private BigDecimal acreditado = BigDecimal.ZERO;
+        private BigDecimal debitado = BigDecimal.ZERO;
+
+        Parcial sumar(Parcial otra) {
+            ajustes += otra.ajustes;
+            rechazadas.addAll(otra.rechazadas);
+            conError.addAll(otra.conError);
+            acreditado = acreditado.add(otra.acreditado);
+            debitado = debitado.add(otra.debitado);
+            return this;
+        }
+
+    }
+
+    private final class Particion extends RecursiveTask<Parcial> {
+
+        private static final long serialVersionUID = 1L;
+
+        private final Cuenta[] cuentas;
+        private final int desde;
+        private final int hasta;
+
+        Particion(Cuenta[] cuentas, int desde, int hasta) {
+            this.cuentas = cuentas;
+            this.desde = desde;
+            this.hasta = hasta;
+        }
+
+        @Override
+        protected Parcial compute() {
+            if (hasta - desde > cuentasPorParticion) {
+                int medio = (desde + hasta) >>> 1;
+                Particion derecha = new Particion(cuentas, medio, hasta);
+                derecha.fork();
+                Parcial izquierda = new Particion(cuentas, desde, medio).compute();
+                return izquierda.sumar(derecha.join());
+            }
+            Parcial parcial = new Parcial();
+            for (int i = desde; i < hasta; i++) {
+                liquidar(cuentas[i], parcial);
+            }
+            procesadas.add(hasta - desde);
+            return parcial;
+        }
+
+    }
+
+}
@@ -0,0 +1,11 @@
+package org.angelfg.ejemplos.models;
+
+public enum ModoLote {
+
+    // Valida los fondos contra el resultado neto de todo el lote
+    NETO,
+
+    // Valida cada transferencia en orden, igual que llamar a transferir una por una
+    SECUENCIAL
+
+}
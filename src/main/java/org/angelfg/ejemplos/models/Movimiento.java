@@ -0,0 +1,41 @@
+package org.angelfg.ejemplos.models;
+
+import java.math.BigDecimal;
+
+// Un debito o credito del historial de una cuenta, los debitos tienen monto negativo
+public class Movimiento {
+
+    private final long instante;
+    private final BigDecimal monto;
+    private final long contraparte;
+
+    Movimiento(long instante, BigDecimal monto, long contraparte) {
+        this.instante = instante;
+        this.monto = monto;
+        this.contraparte = contraparte;
+    }
+
+    // Milisegundos desde la epoca segun el reloj del historial
+    public long getInstante() {
+        return instante;
+    }
+
+    public BigDecimal getMonto() {
+        return monto;
+    }
+
+    // Id de la otra cuenta de la transferencia, 0 para debitos y creditos sueltos
+    public long getContraparte() {
+        return contraparte;
+    }
+
+    @Override
+    public String toString() {
+        return "Movimiento{" +
+                "instante=" + instante +
+                ", monto=" + monto +
+                ", contraparte=" + contraparte +
+                '}';
+    }
+
+}
@@ -0,0 +1,36 @@
+package org.angelfg.ejemplos.models;
+
+import java.math.BigDecimal;
+
+/**
+ * Recibe cada operacion del banco despues de aplicarse en memoria y antes de devolver el control.
+ * alOperar se llama con el lock de las cuentas tomado, asi el orden de las operaciones de una cuenta
+ * es el mismo en que se aplicaron. Si lanza una excepcion la operacion se revierte.
+ *
+ * Con varios observadores, los que ya recibieron la operacion antes del que fallo reciben alRevertir, en orden
+ * inverso y con los mismos locks tomados. Lo mismo pasa cuando una operacion avisa por partes, como un lote, y
+ * falla despues de avisar alguna. Un observador que no implementa alRevertir se queda con lo que registro.
+ */
+public interface ObservadorMovimientos {
+
+    // ALTA y AJUSTE: la cuenta va en destino y el monto es su saldo
+    void alOperar(TipoOperacion tipo, Cuenta origen, Cuenta destino, BigDecimal monto);
+
+    // La ultima operacion que este hilo paso por alOperar, sin confirmar ni revertir, no se aplico. Se llama antes
+    // de devolver los saldos, con los del momento de alOperar. Si no hay nada pendiente en el hilo no hace nada
+    default void alRevertir() {
+    }
+
+    // Se llama ya sin locks, antes de que la operacion se de por hecha
+    default void alConfirmar() {
+    }
+
+    // true si acepta debitos y creditos de las cuentas que no toman lock (CuentaAtomica, CuentaAcumuladora): alOperar
+    // se llama sin lock, puede llegar a la vez desde varios hilos para la misma cuenta y sin el orden en que se
+    // aplicaron, y el saldo de la cuenta puede incluir otros cambios. Con un solo observador que no lo acepte
+    // esas cuentas usan el lock
+    default boolean admiteSinBloqueo() {
+        return false;
+    }
+
+}
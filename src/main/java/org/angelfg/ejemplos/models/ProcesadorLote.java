@@ -0,0 +1,192 @@
+package org.angelfg.ejemplos.models;
+
+import org.angelfg.ejemplos.exceptions.DineroInsuficienteException;
+import org.angelfg.ejemplos.metrics.Metricas;
+
+import java.math.BigDecimal;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+// Aplica un lote de transferencias con un solo debito o credito por cuenta
+class ProcesadorLote {
+
+    // Estado de trabajo de cada cuenta mientras se procesa el lote
+    private static class Posicion {
+
+        private final Cuenta cuenta;
+        private BigDecimal saldoInicial;
+        private BigDecimal neto = BigDecimal.ZERO;
+        private int[] salientes = new int[4];
+        private int totalSalientes;
+
+        Posicion(Cuenta cuenta) {
+            this.cuenta = cuenta;
+        }
+
+        BigDecimal saldoFinal() {
+            return saldoInicial.add(neto);
+        }
+
+        void agregarSaliente(int indice) {
+            if (totalSalientes == salientes.length) {
+                salientes = Arrays.copyOf(salientes, totalSalientes * 2);
+            }
+            salientes[totalSalientes++] = indice;
+        }
+
+    }
+
+    private final Banco banco;
+    private final List<Transferencia> transferencias;
+    private final ModoLote modo;
+    private final Map<Object, Posicion> posiciones = new HashMap<>(); // getIdentidad une las vistas de una misma cuenta
+    private final RuntimeException[] errores;
+
+    ProcesadorLote(Banco banco, List<Transferencia> transferencias, ModoLote modo) {
+        this.banco = banco;
+        this.transferencias = transferencias;
+        this.modo = modo;
+        this.errores = new RuntimeException[transferencias.size()];
+    }
+
+    ResultadoLote procesar() {
+        Metricas metricas = banco.getMetricas();
+        long inicio = metricas == null ? 0 : Metricas.ahora();
+        for (Transferencia transferencia : transferencias) {
+            posiciones.computeIfAbsent(transferencia.getOrigen().getIdentidad(), identidad -> new Posicion(transferencia.getOrigen()));
+            posiciones.computeIfAbsent(transferencia.getDestino().getIdentidad(), identidad -> new Posicion(transferencia.getDestino()));
+        }
+
+        // Mismo orden de bloqueo que Banco.transferir para no provocar deadlocks
+        List<Posicion> ordenadas = new ArrayList<>(posiciones.values());
+        ordenadas.sort(Comparator.comparingLong(posicion -> posicion.cuenta.getOrden()));
+
+        int bloqueadas = 0;
+        try {
+            for (Posicion posicion : ordenadas) {
+                posicion.cuenta.bloquear(metricas);
+                bloqueadas++;
+                posicion.saldoInicial = posicion.cuenta.getSaldo();
+            }
+
+            if (modo == ModoLote.SECUENCIAL) {
+                validarEnOrden();
+            } else {
+                validarNeto();
+            }
+
+            aplicar(ordenadas);
+        } finally {
+            for (int i = bloqueadas - 1; i >= 0; i--) {
+                ordenadas.get(i).cuenta.getLock().unlock();
+            }
+        }
+        banco.confirmar();
+
+        ResultadoLote resultado = new ResultadoLote(transferencias, errores);
+        if (metricas != null) {
+            metricas.getLotes().registrar(resultado.getExitosas(), resultado.getRechazadas(), inicio);
+        }
+        return resultado;
+    }
+
+    private void validarEnOrden() {
+        for (int i = 0; i < transferencias.size(); i++) {
+            Transferencia transferencia = transferencias.get(i);
+            Posicion origen = posiciones.get(transferencia.getOrigen().getIdentidad());
+            Posicion destino = posiciones.get(transferencia.getDestino().getIdentidad());
+
+            if (origen.saldoFinal().subtract(transferencia.getMonto()).signum() < 0) {
+                rechazar(i);
+                continue;
+            }
+
+            origen.neto = origen.neto.subtract(transferencia.getMonto());
+            destino.neto = destino.neto.add(transferencia.getMonto());
+        }
+    }
+
+    private void validarNeto() {
+        for (int i = 0; i < transferencias.size(); i++) {
+            Transferencia transferencia = transferencias.get(i);
+            Posicion origen = posiciones.get(transferencia.getOrigen().getIdentidad());
+            Posicion destino = posiciones.get(transferencia.getDestino().getIdentidad());
+
+            origen.neto = origen.neto.subtract(transferencia.getMonto());
+            destino.neto = destino.neto.add(transferencia.getMonto());
+            origen.agregarSaliente(i);
+        }
+
+        Deque<Posicion> pendientes = new ArrayDeque<>();
+        for (Posicion posicion : posiciones.values()) {
+            if (posicion.saldoFinal().signum() < 0) pendientes.add(posicion);
+        }
+
+        // Se rechazan las ultimas salidas de cada cuenta en negativo, lo que puede dejar en negativo al destino
+        while (!pendientes.isEmpty()) {
+            Posicion posicion = pendientes.poll();
+            while (posicion.saldoFinal().signum() < 0 && posicion.totalSalientes > 0) {
+                int indice = posicion.salientes[--posicion.totalSalientes];
+                Transferencia transferencia = transferencias.get(indice);
+                Posicion destino = posiciones.get(transferencia.getDestino().getIdentidad());
+
+                rechazar(indice);
+                posicion.neto = posicion.neto.add(transferencia.getMonto());
+                destino.neto = destino.neto.subtract(transferencia.getMonto());
+
+                if (destino != posicion && destino.saldoFinal().signum() < 0) {
+                    pendientes.add(destino);
+                }
+            }
+        }
+    }
+
+    private void rechazar(int indice) {
+        errores[indice] = DineroInsuficienteException.compartida(); // sin pila, el rechazo no cuesta mas que el exito
+    }
+
+    private void aplicar(List<Posicion> ordenadas) {
+        List<Posicion> aplicadas = new ArrayList<>();
+        int avisadas = 0;
+        try {
+            for (Posicion posicion : ordenadas) {
+                if (posicion.neto.signum() > 0) {
+                    posicion.cuenta.aplicarCredito(posicion.neto);
+                    aplicadas.add(posicion);
+                    banco.notificar(TipoOperacion.CREDITO, null, posicion.cuenta, posicion.neto);
+                    avisadas++;
+                } else if (posicion.neto.signum() < 0) {
+                    posicion.cuenta.aplicarDebito(posicion.neto.negate());
+                    aplicadas.add(posicion);
+                    banco.notificar(TipoOperacion.DEBITO, posicion.cuenta, null, posicion.neto.negate());
+                    avisadas++;
+                }
+            }
+        } catch (RuntimeException e) {
+            // Si una cuenta falla el lote no se aplica a medias, tampoco en lo que ya recibieron los observadores
+            for (; avisadas > 0; avisadas--) {
+                try {
+                    banco.revertir();
+                } catch (RuntimeException r) {
+                    e.addSuppressed(r);
+                }
+            }
+            for (int i = aplicadas.size() - 1; i >= 0; i--) {
+                Posicion posicion = aplicadas.get(i);
+                if (posicion.neto.signum() > 0) {
+                    posicion.cuenta.aplicarDebito(posicion.neto);
+                } else {
+                    posicion.cuenta.aplicarCredito(posicion.neto.negate());
+                }
+            }
+            throw e;
+        }
+    }
+
+}
@@ -0,0 +1,27 @@
+package org.angelfg.ejemplos.models;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+
+// Ajuste de una cuenta en la liquidacion: positivo se acredita, negativo se debita, cero no toca la cuenta
+@FunctionalInterface
+public interface ReglaAjuste {
+
+    // Se llama con el lock de la cuenta tomado, saldo es el saldo despues de las reglas anteriores
+    BigDecimal calcular(Cuenta cuenta, BigDecimal saldo);
+
+    // Interes sobre saldos positivos, redondeado con setScale(escala, redondeo)
+    static ReglaAjuste interes(BigDecimal tasa, int escala, RoundingMode redondeo) {
+        return (cuenta, saldo) -> saldo.signum() > 0 ? saldo.multiply(tasa).setScale(escala, redondeo) : BigDecimal.ZERO;
+    }
+
+    static ReglaAjuste comision(BigDecimal monto) {
+        return (cuenta, saldo) -> monto.negate();
+    }
+
+    // Comision solo para las cuentas con saldo menor al minimo
+    static ReglaAjuste comisionDebajoDe(BigDecimal minimo, BigDecimal monto) {
+        return (cuenta, saldo) -> saldo.compareTo(minimo) < 0 ? monto.negate() : BigDecimal.ZERO;
+    }
+
+}
@@ -0,0 +1,78 @@
+package org.angelfg.ejemplos.models;
+
+import java.math.BigDecimal;
+import java.time.Duration;
+import java.util.List;
+
+// Totales de una liquidacion, los debitos sin fondos no detienen la liquidacion
+public class ResultadoLiquidacion {
+
+    private final long cuentas;
+    private final long ajustes;
+    private final List<Long> rechazadas;
+    private final List<Long> conError;
+    private final BigDecimal acreditado;
+    private final BigDecimal debitado;
+    private final Duration duracion;
+
+    ResultadoLiquidacion(long cuentas, long ajustes, List<Long> rechazadas, List<Long> conError,
+                         BigDecimal acreditado, BigDecimal debitado, Duration duracion) {
+        this.cuentas = cuentas;
+        this.ajustes = ajustes;
+        this.rechazadas = rechazadas;
+        this.conError = conError;
+        this.acreditado = acreditado;
+        this.debitado = debitado;
+        this.duracion = duracion;
+    }
+
+    public long getCuentas() {
+        return cuentas;
+    }
+
+    // Creditos y debitos aplicados
+    public long getAjustes() {
+        return ajustes;
+    }
+
+    // Ids de las cuentas con algun debito rechazado por dinero insuficiente, la cuenta queda como estaba
+    public List<Long> getRechazadas() {
+        return rechazadas;
+    }
+
+    // Ids de las cuentas donde una regla o el ajuste lanzo una excepcion, por ejemplo un redondeo no permitido
+    public List<Long> getConError() {
+        return conError;
+    }
+
+    public BigDecimal getAcreditado() {
+        return acreditado;
+    }
+
+    public BigDecimal getDebitado() {
+        return debitado;
+    }
+
+    public Duration getDuracion() {
+        return duracion;
+    }
+
+    public double getCuentasPorSegundo() {
+        return cuentas * 1e9 / Math.max(1, duracion.toNanos());
+    }
+
+    @Override
+    public String toString() {
+        return "ResultadoLiquidacion{" +
+                "cuentas=" + cuentas +
+                ", ajustes=" + ajustes +
+                ", rechazadas=" + rechazadas.size() +
+                ", conError=" + conError.size() +
+                ", acreditado=" + acreditado +
+                ", debitado=" + debitado +
+                ", duracion=" + duracion +
+                ", cuentasPorSegundo=" + Math.round(getCuentasPorSegundo()) +
+                '}';
+    }
+
+}
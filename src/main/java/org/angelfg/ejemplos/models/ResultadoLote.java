@@ -0,0 +1,51 @@
+package org.angelfg.ejemplos.models;
+
+import java.util.List;
+
+public class ResultadoLote {
+
+    private final List<Transferencia> transferencias;
+    private final RuntimeException[] errores;
+    private final int rechazadas;
+
+    ResultadoLote(List<Transferencia> transferencias, RuntimeException[] errores) {
+        this.transferencias = transferencias;
+        this.errores = errores;
+
+        int total = 0;
+        for (RuntimeException error : errores) {
+            if (error != null) total++;
+        }
+        this.rechazadas = total;
+    }
+
+    public List<Transferencia> getTransferencias() {
+        return transferencias;
+    }
+
+    public boolean isExitosa(int indice) {
+        return errores[indice] == null;
+    }
+
+    // null si la transferencia se aplico
+    public RuntimeException getError(int indice) {
+        return errores[indice];
+    }
+
+    public int getExitosas() {
+        return errores.length - rechazadas;
+    }
+
+    public int getRechazadas() {
+        return rechazadas;
+    }
+
+    @Override
+    public String toString() {
+        return "ResultadoLote{" +
+                "exitosas=" + getExitosas() +
+                ", rechazadas=" + rechazadas +
+                '}';
+    }
+
+}
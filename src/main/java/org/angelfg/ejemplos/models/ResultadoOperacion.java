@@ -0,0 +1,17 @@
+package org.angelfg.ejemplos.models;
+
+// Resultado de las operaciones try*, el rechazo no crea ninguna excepcion
+public enum ResultadoOperacion {
+
+    EXITOSA,
+    DINERO_INSUFICIENTE;
+
+    public boolean isExitosa() {
+        return this == EXITOSA;
+    }
+
+    static ResultadoOperacion de(boolean exitosa) {
+        return exitosa ? EXITOSA : DINERO_INSUFICIENTE;
+    }
+
+}
@@ -0,0 +1,248 @@
+package org.angelfg.ejemplos.models;
+
+import java.math.BigDecimal;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.Optional;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BiConsumer;
+
+/**
+ * Lecturas de saldos en un punto en el tiempo mientras las transferencias siguen corriendo.
+ *
+ * Cada operacion recibe un numero de version, con el lock de sus cuentas tomado, y agrega el saldo nuevo de
+ * cada cuenta a su cadena de versiones. Una foto guarda la version actual y de cada cuenta lee el saldo de la
+ * ultima version que no sea posterior: una transferencia aparece completa o no aparece.
+ *
+ * Para leer una cuenta la foto toma su lock un instante, asi espera a la operacion que ya tenia version pero
+ * no termino de escribirla; los escritores nunca esperan a que termine un reporte. Cada escritura recorta las
+ * versiones que ya ninguna foto abierta puede leer, sin fotos abiertas cada cuenta guarda una sola version.
+ * Si otro observador hace fallar la operacion, alRevertir quita las versiones que publico antes de soltar los
+ * locks, asi ninguna foto las lee; la cuenta de un ALTA que no se hizo deja de aparecer.
+ */
+public class SaldosVersionados implements ObservadorMovimientos, AutoCloseable {
+
+    private final Banco banco;
+    private final Map<Long, Historial> historiales = new ConcurrentHashMap<>();
+    private final AtomicLong version = new AtomicLong();
+
+    // Version mas vieja que alguna foto abierta puede necesitar, Long.MAX_VALUE si no hay fotos
+    private volatile long minimaAbierta = Long.MAX_VALUE;
+    private final TreeMap<Long, Integer> abiertas = new TreeMap<>();
+
+    // Cabeza anterior de cada historial que cambio el hilo desde su ultimo alConfirmar, para alRevertir
+    private final ThreadLocal<Pendientes> pendientes = ThreadLocal.withInitial(Pendientes::new);
+
+    public SaldosVersionados(Banco banco) {
+        this.banco = banco;
+        banco.agregarObservador(this);
+        banco.recorrerCuentas(cuenta -> historiales.computeIfAbsent(cuenta.getId(),
+                id -> new Historial(cuenta, new Version(0, cuenta.getSaldo(), null))));
+    }
+
+    @Override
+    public void alOperar(TipoOperacion tipo, Cuenta origen, Cuenta destino, BigDecimal monto) {
+        long numero = version.incrementAndGet();
+        long minima = minimaAbierta; // se lee despues de tomar el numero, ver tomarFoto
+        Pendientes pendientes = this.pendientes.get();
+        if (origen != null) {
+            agregar(origen, numero, minima, pendientes);
+        } else {
+            pendientes.agregar(null, null);
+        }
+        if (destino != null && destino != origen) {
+            agregar(destino, numero, minima, pendientes);
+        } else {
+            pendientes.agregar(null, null);
+        }
+    }
+
+    // Con los locks de la operacion todavia tomados, vuelve cada historial a la cabeza que tenia
+    @Override
+    public void alRevertir() {
+        Pendientes pendientes = this.pendientes.get();
+        if (pendientes.total == 0) {
+            return;
+        }
+        for (int i = 0; i < 2; i++) {
+            Version anterior = pendientes.anteriores[--pendientes.total];
+            Historial historial = pendientes.historiales[pendientes.total];
+            if (historial == null) {
+                continue;
+            }
+            historial.cabeza = anterior;
+            if (anterior == null) {
+                historiales.remove(historial.cuenta.getId(), historial); // la cuenta no llego a estar en el banco
+            }
+        }
+    }
+
+    @Override
+    public void alConfirmar() {
+        pendientes.get().limpiar();
+    }
+
+    // Con el lock de la cuenta tomado
+    private void agregar(Cuenta cuenta, long numero, long minima, Pendientes pendientes) {
+        Historial historial = historiales.computeIfAbsent(cuenta.getId(), id -> new Historial(cuenta, null));
+        pendientes.agregar(historial, historial.cabeza); // recortar solo corta versiones mas viejas que la cabeza
+        Version nueva = new Version(numero, cuenta.getSaldo(), historial.cabeza);
+
+        // Se conservan las versiones posteriores a la minima y la ultima anterior o igual a ella
+        Version actual = nueva;
+        while (actual.numero > minima && actual.anterior != null) {
+            actual = actual.anterior;
+        }
+        actual.anterior = null;
+        historial.cabeza = nueva;
+    }
+
+    public Foto tomarFoto() {
+        // Primero se anuncia la minima y despues se toma la version de la foto. Un escritor que toma su numero
+        // despues de la foto lee la minima ya anunciada y no recorta lo que la foto necesita
+        long anunciada;
+        synchronized (abiertas) {
+            anunciada = version.get();
+            abiertas.merge(anunciada, 1, Integer::sum);
+            minimaAbierta = abiertas.firstKey();
+        }
+        return new Foto(anunciada, version.get());
+    }
+
+    private void cerrar(Foto foto) {
+        synchronized (abiertas) {
+            abiertas.computeIfPresent(foto.anunciada, (numero, cantidad) -> cantidad == 1 ? null : cantidad - 1);
+            minimaAbierta = abiertas.isEmpty() ? Long.MAX_VALUE : abiertas.firstKey();
+        }
+    }
+
+    // Deja de versionar, las fotos abiertas no deben usarse despues
+    @Override
+    public void close() {
+        banco.quitarObservador(this);
+    }
+
+    private static final class Historial {
+
+        private final Cuenta cuenta;
+        private Version cabeza; // se lee y se escribe con el lock de la cuenta
+
+        Historial(Cuenta cuenta, Version cabeza) {
+            this.cuenta = cuenta;
+            this.cabeza = cabeza;
+        }
+
+    }
+
+    // Dos entradas por operacion, con historial null si la operacion tenia una sola cuenta
+    private static final class Pendientes {
+
+        private Historial[] historiales = new Historial[8];
+        private Version[] anteriores = new Version[8];
+        private int total;
+
+        void agregar(Historial historial, Version anterior) {
+            if (total == historiales.length) {
+                historiales = Arrays.copyOf(historiales, total * 2);
+                anteriores = Arrays.copyOf(anteriores, total * 2);
+            }
+            historiales[total] = historial;
+            anteriores[total++] = anterior;
+        }
+
+        void limpiar() {
+            Arrays.fill(historiales, 0, total, null); // no retener versiones del hilo
+            Arrays.fill(anteriores, 0, total, null);
+            total = 0;
+        }
+
+    }
+
+    private static final class Version {
+
+        private final long numero;
+        private final BigDecimal saldo;
+        private Version anterior;
+
+        Version(long numero, BigDecimal saldo, Version anterior) {
+            this.numero = numero;
+            this.saldo = saldo;
+            this.anterior = anterior;
+        }
+
+    }
+
+    /**
+     * Saldos de todas las cuentas en la version en que se tomo. Las cuentas que se agregaron despues no aparecen.
+     * Se debe cerrar al terminar, mientras este abierta las cuentas guardan las versiones que necesita.
+     */
+    public class Foto implements AutoCloseable {
+
+        private final long anunciada;
+        private final long numero;
+        private boolean cerrada;
+
+        private Foto(long anunciada, long numero) {
+            this.anunciada = anunciada;
+            this.numero = numero;
+        }
+
+        public long getVersion() {
+            return numero;
+        }
+
+        public Optional<BigDecimal> getSaldo(long id) {
+            Historial historial = historiales.get(id);
+            return historial == null ? Optional.empty() : Optional.ofNullable(leer(historial));
+        }
+
+        public Optional<BigDecimal> getSaldo(Cuenta cuenta) {
+            return getSaldo(cuenta.getId());
+        }
+
+        // El orden de las cuentas no esta definido
+        public void recorrer(BiConsumer<Cuenta, BigDecimal> visitante) {
+            for (Historial historial : historiales.values()) {
+                BigDecimal saldo = leer(historial);
+                if (saldo != null) {
+                    visitante.accept(historial.cuenta, saldo);
+                }
+            }
+        }
+
+        public BigDecimal sumarSaldos() {
+            BigDecimal[] total = { BigDecimal.ZERO };
+            recorrer((cuenta, saldo) -> total[0] = total[0].add(saldo));
+            return total[0];
+        }
+
+        private BigDecimal leer(Historial historial) {
+            if (cerrada) {
+                throw new IllegalStateException("La foto esta cerrada");
+            }
+            historial.cuenta.getLock().lock();
+            try {
+                for (Version actual = historial.cabeza; actual != null; actual = actual.anterior) {
+                    if (actual.numero <= numero) {
+                        return actual.saldo;
+                    }
+                }
+                return null; // la cuenta se agrego despues de la foto
+            } finally {
+                historial.cuenta.getLock().unlock();
+            }
+        }
+
+        @Override
+        public void close() {
+            if (!cerrada) {
+                cerrada = true;
+                cerrar(this);
+            }
+        }
+
+    }
+
+}
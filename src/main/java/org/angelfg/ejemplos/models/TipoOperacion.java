@@ -0,0 +1,11 @@
+package org.angelfg.ejemplos.models;
+
+public enum TipoOperacion {
+
+    ALTA,
+    DEBITO,
+    CREDITO,
+    TRANSFERENCIA,
+    AJUSTE // setSaldo
+
+}
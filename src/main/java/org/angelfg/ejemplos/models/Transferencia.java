@@ -0,0 +1,43 @@
+package org.angelfg.ejemplos.models;
+
+import java.math.BigDecimal;
+import java.util.Objects;
+
+public class Transferencia {
+
+    private final Cuenta origen;
+    private final Cuenta destino;
+    private final BigDecimal monto;
+
+    public Transferencia(Cuenta origen, Cuenta destino, BigDecimal monto) {
+        this.origen = Objects.requireNonNull(origen, "La cuenta origen es obligatoria");
+        this.destino = Objects.requireNonNull(destino, "La cuenta destino es obligatoria");
+        this.monto = Objects.requireNonNull(monto, "El monto es obligatorio");
+
+        if (monto.signum() < 0) {
+            throw new IllegalArgumentException("El monto no puede ser negativo");
+        }
+    }
+
+    public Cuenta getOrigen() {
+        return origen;
+    }
+
+    public Cuenta getDestino() {
+        return destino;
+    }
+
+    public BigDecimal getMonto() {
+        return monto;
+    }
+
+    @Override
+    public String toString() {
+        return "Transferencia{" +
+                "origen=" + origen.getPersona() +
+                ", destino=" + destino.getPersona() +
+                ", monto=" + monto +
+                '}';
+    }
+
+}
@@ -0,0 +1,174 @@
+package org.angelfg.ejemplos.network;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+
+/**
+ * Cliente bloqueante del servidor. Para encadenar pedidos se llama varias veces a enviar y despues la misma
+ * cantidad de veces a recibir, las respuestas llegan en el orden de los envios. Enviar y recibir pueden usarse
+ * desde hilos distintos, pero cada uno desde un solo hilo a la vez.
+ */
+public class ClienteBanco implements AutoCloseable {
+
+    private final SocketChannel canal;
+    private final ByteBuffer lectura = ByteBuffer.allocateDirect(Protocolo.MAXIMO_RESPUESTA);
+
+    public ClienteBanco(InetSocketAddress direccion) throws IOException {
+        this.canal = SocketChannel.open(direccion);
+        canal.setOption(StandardSocketOptions.TCP_NODELAY, true);
+    }
+
+    public void enviar(Trama trama) throws IOException {
+        ByteBuffer buffer = trama.preparar();
+        while (buffer.hasRemaining()) {
+            canal.write(buffer);
+        }
+    }
+
+    // Bloquea hasta tener la siguiente respuesta completa, la respuesta usa el buffer de la anterior
+    public Respuesta recibir() throws IOException {
+        lectura.clear().limit(4);
+        leerCompleto();
+        int largo = lectura.getInt(0);
+        if (largo < 2 || largo > Protocolo.MAXIMO_RESPUESTA - 4) {
+            throw new IOException("Respuesta de largo no valido: " + largo);
+        }
+        lectura.clear().limit(largo);
+        leerCompleto();
+        lectura.flip();
+        return new Respuesta(lectura);
+    }
+
+    private void leerCompleto() throws IOException {
+        while (lectura.hasRemaining()) {
+            if (canal.read(lectura) < 0) {
+                throw new EOFException("El servidor cerro la conexion");
+            }
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        canal.close();
+    }
+
+    // Operaciones de una trama, se puede reutilizar con limpiar
+    public static class Trama {
+
+        private final ByteBuffer buffer = ByteBuffer.allocateDirect(Protocolo.MAXIMO_PEDIDO);
+        private int operaciones;
+
+        public Trama() {
+            limpiar();
+        }
+
+        public Trama limpiar() {
+            buffer.clear().position(Protocolo.ENCABEZADO);
+            operaciones = 0;
+            return this;
+        }
+
+        public Trama transferir(long origen, long destino, BigDecimal monto) {
+            return transferir(origen, destino, monto.unscaledValue().longValueExact(), escala(monto));
+        }
+
+        public Trama transferir(long origen, long destino, long montoSinEscala, int escala) {
+            agregar().put(Protocolo.TRANSFERENCIA).putLong(origen).putLong(destino).putLong(montoSinEscala).put((byte) escala);
+            return this;
+        }
+
+        public Trama debitar(long cuenta, BigDecimal monto) {
+            return debitar(cuenta, monto.unscaledValue().longValueExact(), escala(monto));
+        }
+
+        public Trama debitar(long cuenta, long montoSinEscala, int escala) {
+            agregar().put(Protocolo.DEBITO).putLong(cuenta).putLong(montoSinEscala).put((byte) escala);
+            return this;
+        }
+
+        public Trama acreditar(long cuenta, BigDecimal monto) {
+            return acreditar(cuenta, monto.unscaledValue().longValueExact(), escala(monto));
+        }
+
+        public Trama acreditar(long cuenta, long montoSinEscala, int escala) {
+            agregar().put(Protocolo.CREDITO).putLong(cuenta).putLong(montoSinEscala).put((byte) escala);
+            return this;
+        }
+
+        public Trama consultarSaldo(long cuenta) {
+            agregar().put(Protocolo.SALDO).putLong(cuenta);
+            return this;
+        }
+
+        public int getOperaciones() {
+            return operaciones;
+        }
+
+        private ByteBuffer agregar() {
+            if (operaciones == Protocolo.MAXIMO_OPERACIONES) {
+                throw new IllegalStateException("La trama ya tiene " + Protocolo.MAXIMO_OPERACIONES + " operaciones");
+            }
+            operaciones++;
+            return buffer;
+        }
+
+        private static int escala(BigDecimal monto) {
+            if (monto.scale() != (byte) monto.scale()) {
+                throw new ArithmeticException("Escala fuera de rango: " + monto.scale());
+            }
+            return monto.scale();
+        }
+
+        // Completa el encabezado y devuelve una vista lista para escribir, la trama no cambia
+        ByteBuffer preparar() {
+            buffer.putInt(0, buffer.position() - 4).putShort(4, (short) operaciones);
+            return buffer.duplicate().flip();
+        }
+
+    }
+
+    // Estados de una trama de respuesta, en el orden de sus operaciones
+    public static class Respuesta {
+
+        private final byte[] estados;
+        private final long[] saldos;
+        private final byte[] escalas;
+
+        Respuesta(ByteBuffer buffer) throws IOException {
+            int cantidad = buffer.getShort() & 0xFFFF;
+            estados = new byte[cantidad];
+            saldos = new long[cantidad];
+            escalas = new byte[cantidad];
+            for (int i = 0; i < cantidad; i++) {
+                estados[i] = buffer.get();
+                if (estados[i] == Protocolo.SALDO_CONSULTADO) {
+                    saldos[i] = buffer.getLong();
+                    escalas[i] = buffer.get();
+                }
+            }
+            if (buffer.hasRemaining()) {
+                throw new IOException("Respuesta con bytes de mas");
+            }
+        }
+
+        public int getCantidad() {
+            return estados.length;
+        }
+
+        public byte getEstado(int operacion) {
+            return estados[operacion];
+        }
+
+        // null si la operacion no fue una consulta de saldo exitosa
+        public BigDecimal getSaldo(int operacion) {
+            return estados[operacion] == Protocolo.SALDO_CONSULTADO ? BigDecimal.valueOf(saldos[operacion], escalas[operacion]) : null;
+        }
+
+    }
+
+}
@@ -0,0 +1,161 @@
+package org.angelfg.ejemplos.network;
+
+import org.angelfg.ejemplos.metrics.Histograma;
+import org.angelfg.ejemplos.models.TipoOperacion;
+import org.angelfg.ejemplos.workload.Carga;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.time.Duration;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Cliente de carga: envia una Carga al servidor por varias conexiones y mide pedidos por segundo y latencia.
+ *
+ * Las operaciones se agrupan en tramas y las tramas se reparten entre las conexiones. En cada conexion un hilo
+ * envia sin esperar respuesta hasta tener tramasEnVuelo pendientes y otro hilo recibe; la latencia de una trama va
+ * desde que se envia hasta que llega su respuesta.
+ */
+public class ClienteCarga {
+
+    private final InetSocketAddress direccion;
+    private int conexiones = 4;
+    private int operacionesPorTrama = 64;
+    private int tramasEnVuelo = 16;
+
+    public ClienteCarga(InetSocketAddress direccion) {
+        this.direccion = direccion;
+    }
+
+    public void setConexiones(int conexiones) {
+        this.conexiones = positivo(conexiones, "conexiones");
+    }
+
+    public void setOperacionesPorTrama(int operacionesPorTrama) {
+        if (operacionesPorTrama > Protocolo.MAXIMO_OPERACIONES) {
+            throw new IllegalArgumentException("Una trama admite hasta " + Protocolo.MAXIMO_OPERACIONES + " operaciones");
+        }
+        this.operacionesPorTrama = positivo(operacionesPorTrama, "operacionesPorTrama");
+    }
+
+    public void setTramasEnVuelo(int tramasEnVuelo) {
+        this.tramasEnVuelo = positivo(tramasEnVuelo, "tramasEnVuelo");
+    }
+
+    private static int positivo(int valor, String nombre) {
+        if (valor <= 0) {
+            throw new IllegalArgumentException(nombre + " debe ser mayor que cero");
+        }
+        return valor;
+    }
+
+    public ResultadoClienteCarga ejecutar(Carga carga) throws IOException, InterruptedException {
+        int totalTramas = (carga.getOperaciones() + operacionesPorTrama - 1) / operacionesPorTrama;
+        Histograma latencias = new Histograma(conexiones);
+        LongAdder[] estados = new LongAdder[Protocolo.SALDO_CONSULTADO + 1];
+        for (int i = 0; i < estados.length; i++) {
+            estados[i] = new LongAdder();
+        }
+        AtomicReference<Exception> error = new AtomicReference<>();
+        CountDownLatch largada = new CountDownLatch(1);
+
+        ClienteBanco[] clientes = new ClienteBanco[conexiones];
+        Thread[] hilos = new Thread[conexiones * 2];
+        try {
+            for (int c = 0; c < conexiones; c++) {
+                ClienteBanco cliente = new ClienteBanco(direccion);
+                clientes[c] = cliente;
+                int primera = c;
+                int propias = totalTramas / conexiones + (c < totalTramas % conexiones ? 1 : 0);
+                Semaphore lugares = new Semaphore(tramasEnVuelo);
+                AtomicLongArray envios = new AtomicLongArray(tramasEnVuelo);
+
+                hilos[2 * c] = new Thread(() -> {
+                    ClienteBanco.Trama trama = new ClienteBanco.Trama();
+                    try {
+                        largada.await();
+                        for (int n = 0; n < propias; n++) {
+                            int desde = (primera + n * conexiones) * operacionesPorTrama;
+                            armar(carga, trama.limpiar(), desde, Math.min(carga.getOperaciones(), desde + operacionesPorTrama));
+                            lugares.acquire();
+                            envios.set(n % tramasEnVuelo, System.nanoTime());
+                            cliente.enviar(trama);
+                        }
+                    } catch (IOException | InterruptedException | RuntimeException e) {
+                        fallar(e, error, cliente, lugares);
+                    }
+                }, "cliente-carga-envio-" + c);
+
+                hilos[2 * c + 1] = new Thread(() -> {
+                    try {
+                        for (int n = 0; n < propias; n++) {
+                            ClienteBanco.Respuesta respuesta = cliente.recibir();
+                            latencias.registrar(System.nanoTime() - envios.get(n % tramasEnVuelo));
+                            lugares.release();
+                            for (int i = 0; i < respuesta.getCantidad(); i++) {
+                                estados[respuesta.getEstado(i)].increment();
+                            }
+                        }
+                    } catch (IOException | RuntimeException e) {
+                        fallar(e, error, cliente, lugares);
+                    }
+                }, "cliente-carga-recepcion-" + c);
+            }
+
+            for (Thread hilo : hilos) {
+                hilo.start();
+            }
+            long inicio = System.nanoTime();
+            largada.countDown();
+            for (Thread hilo : hilos) {
+                hilo.join();
+            }
+            Duration duracion = Duration.ofNanos(System.nanoTime() - inicio);
+
+            Exception fallo = error.get();
+            if (fallo instanceof IOException) throw (IOException) fallo;
+            if (fallo instanceof RuntimeException) throw (RuntimeException) fallo;
+            if (fallo != null) throw new IOException(fallo);
+            return new ResultadoClienteCarga(carga.getOperaciones(), totalTramas,
+                    estados[Protocolo.DINERO_INSUFICIENTE].sum(), estados[Protocolo.CUENTA_INEXISTENTE].sum(),
+                    estados[Protocolo.ERROR].sum(), duracion, latencias.resumen());
+        } finally {
+            // Cerrar las conexiones destraba a los hilos que siguen esperando si hubo un error
+            for (ClienteBanco cliente : clientes) {
+                if (cliente != null) cliente.close();
+            }
+            for (Thread hilo : hilos) {
+                if (hilo != null && hilo.isAlive()) {
+                    hilo.interrupt();
+                    hilo.join();
+                }
+            }
+        }
+    }
+
+    // Corta la conexion y libera los lugares, asi el otro hilo de la conexion tambien termina
+    private void fallar(Exception e, AtomicReference<Exception> error, ClienteBanco cliente, Semaphore lugares) {
+        error.compareAndSet(null, e);
+        try {
+            cliente.close();
+        } catch (IOException ignorada) {
+        }
+        lugares.release(tramasEnVuelo);
+    }
+
+    private static void armar(Carga carga, ClienteBanco.Trama trama, int desde, int hasta) {
+        for (int i = desde; i < hasta; i++) {
+            TipoOperacion tipo = carga.getTipo(i);
+            long monto = carga.getMontoSinEscala(i);
+            int escala = carga.getEscala(i);
+            if (tipo == TipoOperacion.DEBITO) trama.debitar(carga.getOrigen(i), monto, escala);
+            else if (tipo == TipoOperacion.CREDITO) trama.acreditar(carga.getDestino(i), monto, escala);
+            else trama.transferir(carga.getOrigen(i), carga.getDestino(i), monto, escala);
+        }
+    }
+
+}
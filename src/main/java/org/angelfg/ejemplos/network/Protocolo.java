@@ -0,0 +1,41 @@
+package org.angelfg.ejemplos.network;
+
+/**
+ * Protocolo binario del servidor, todos los enteros en big endian.
+ *
+ * Trama de pedido: int largo (bytes que siguen), short cantidad, y las operaciones una detras de otra:
+ * TRANSFERENCIA long origen, long destino, long monto sin escala, byte escala;
+ * DEBITO y CREDITO long cuenta, long monto sin escala, byte escala; SALDO long cuenta.
+ *
+ * Trama de respuesta: int largo, short cantidad y un byte de estado por operacion, en el mismo orden. El estado
+ * SALDO va seguido de long saldo sin escala y byte escala. Las respuestas de una conexion llegan en el orden de
+ * los pedidos, asi el cliente puede enviar varias tramas sin esperar las respuestas.
+ */
+public final class Protocolo {
+
+    public static final byte TRANSFERENCIA = 1;
+    public static final byte DEBITO = 2;
+    public static final byte CREDITO = 3;
+    public static final byte SALDO = 4;
+
+    public static final byte EXITOSA = 0;
+    public static final byte DINERO_INSUFICIENTE = 1;
+    public static final byte CUENTA_INEXISTENTE = 2;
+    public static final byte ERROR = 3;
+    public static final byte SALDO_CONSULTADO = 4;
+
+    public static final int MAXIMO_OPERACIONES = 8192;
+    static final int ENCABEZADO = 6;
+    static final int LARGO_TRANSFERENCIA = 26;
+    static final int LARGO_MOVIMIENTO = 18;
+    static final int LARGO_SALDO = 9;
+    static final int LARGO_RESPUESTA_SALDO = 10;
+
+    // Trama de pedido mas grande posible, todas transferencias
+    static final int MAXIMO_PEDIDO = ENCABEZADO + MAXIMO_OPERACIONES * LARGO_TRANSFERENCIA;
+    static final int MAXIMO_RESPUESTA = ENCABEZADO + MAXIMO_OPERACIONES * LARGO_RESPUESTA_SALDO;
+
+    private Protocolo() {
+    }
+
+}
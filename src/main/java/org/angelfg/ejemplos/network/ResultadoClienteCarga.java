@@ -0,0 +1,83 @@
+package org.angelfg.ejemplos.network;
+
+import org.angelfg.ejemplos.metrics.Histograma;
+
+import java.time.Duration;
+
+// Lo medido por el cliente de carga, las latencias son por trama y en nanosegundos
+public class ResultadoClienteCarga {
+
+    private final long operaciones;
+    private final long tramas;
+    private final long rechazadas;
+    private final long sinCuenta;
+    private final long errores;
+    private final Duration duracion;
+    private final Histograma.Resumen latencias;
+
+    ResultadoClienteCarga(long operaciones, long tramas, long rechazadas, long sinCuenta, long errores,
+                          Duration duracion, Histograma.Resumen latencias) {
+        this.operaciones = operaciones;
+        this.tramas = tramas;
+        this.rechazadas = rechazadas;
+        this.sinCuenta = sinCuenta;
+        this.errores = errores;
+        this.duracion = duracion;
+        this.latencias = latencias;
+    }
+
+    public long getOperaciones() {
+        return operaciones;
+    }
+
+    public long getTramas() {
+        return tramas;
+    }
+
+    // Rechazadas por dinero insuficiente
+    public long getRechazadas() {
+        return rechazadas;
+    }
+
+    public long getSinCuenta() {
+        return sinCuenta;
+    }
+
+    public long getErrores() {
+        return errores;
+    }
+
+    public Duration getDuracion() {
+        return duracion;
+    }
+
+    public double getOperacionesPorSegundo() {
+        return operaciones * 1e9 / Math.max(1, duracion.toNanos());
+    }
+
+    public double getTramasPorSegundo() {
+        return tramas * 1e9 / Math.max(1, duracion.toNanos());
+    }
+
+    public Histograma.Resumen getLatencias() {
+        return latencias;
+    }
+
+    @Override
+    public String toString() {
+        return "ResultadoClienteCarga{" +
+                "operaciones=" + operaciones +
+                ", operacionesPorSegundo=" + Math.round(getOperacionesPorSegundo()) +
+                ", tramasPorSegundo=" + Math.round(getTramasPorSegundo()) +
+                ", rechazadas=" + rechazadas +
+                ", sinCuenta=" + sinCuenta +
+                ", errores=" + errores +
+                ", p50=" + latencias.getPercentil(50) +
+                ", p99=" + latencias.getPercentil(99) +
+                ", p999=" + latencias.getPercentil(99.9) +
+                ", maximo=" + latencias.getMaximo() +
+                ", duracion=" + duracion +
+                '}';
+    }
+
+}
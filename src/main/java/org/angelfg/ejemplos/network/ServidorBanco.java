@@ -0,0 +1,474 @@
+package org.angelfg.ejemplos.network;
+
+import org.angelfg.ejemplos.models.Banco;
+import org.angelfg.ejemplos.models.Cuenta;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.math.BigDecimal;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Servidor NIO que expone transferencias, debitos, creditos y consultas de saldo con el protocolo de Protocolo.
+ *
+ * Un hilo acepta conexiones y las reparte entre bucles de eventos, cada uno con su Selector. El bucle lee cada
+ * conexion en un buffer directo, analiza las tramas completas ahi mismo sin copiarlas, aplica las operaciones sobre
+ * el banco y escribe las respuestas en otro buffer directo que se envia al socket. Los buffers empiezan chicos y
+ * crecen cuando el encabezado anuncia una trama que no entra, asi una conexion ocupa lo que usan sus tramas y
+ * no el pedido mas grande posible. Una trama se valida completa antes de aplicar su primera operacion.
+ *
+ * Contrapresion: una trama solo se procesa si su respuesta entra en el buffer de salida. Si el cliente no lee las
+ * respuestas o el banco se atrasa, la conexion deja de leerse hasta que se vacie la salida y TCP frena al cliente;
+ * nada crece sin limite en el servidor.
+ *
+ * Un error con una conexion solo cierra esa conexion. Si un bucle muere (por ejemplo falla su Selector), cierra sus
+ * conexiones y el aceptador deja de mandarle nuevas; sin bucles vivos el servidor se cierra.
+ */
+public class ServidorBanco implements AutoCloseable {
+
+    public static final int TAMANIO_SALIDA_POR_DEFECTO = 256 << 10;
+
+    private static final int TAMANIO_INICIAL = 4 << 10;
+    private static final long ESPERA_MINIMA_NANOS = 1_000_000;
+    private static final long ESPERA_MAXIMA_NANOS = 1_000_000_000;
+
+    private final Banco banco;
+    private final ServerSocketChannel servidor;
+    private final Bucle[] bucles;
+    private final int tamanioSalida;
+    private final Thread aceptador;
+    private final AtomicInteger siguiente = new AtomicInteger();
+    private volatile boolean abierto = true;
+
+    private final LongAdder operaciones = new LongAdder();
+    private final LongAdder tramas = new LongAdder();
+    private final LongAdder pausas = new LongAdder();
+    private final LongAdder erroresAceptar = new LongAdder();
+
+    public ServidorBanco(Banco banco, InetSocketAddress direccion, int hilos) throws IOException {
+        this(banco, direccion, hilos, TAMANIO_SALIDA_POR_DEFECTO);
+    }
+
+    ServidorBanco(Banco banco, InetSocketAddress direccion, int hilos, int tamanioSalida) throws IOException {
+        if (hilos <= 0) {
+            throw new IllegalArgumentException("hilos debe ser mayor que cero");
+        }
+        if (tamanioSalida < Protocolo.MAXIMO_RESPUESTA) {
+            throw new IllegalArgumentException("La salida debe poder contener la respuesta mas grande");
+        }
+        this.banco = banco;
+        this.tamanioSalida = tamanioSalida;
+        this.servidor = ServerSocketChannel.open();
+        this.bucles = new Bucle[hilos];
+        try {
+            servidor.bind(direccion);
+            for (int i = 0; i < hilos; i++) {
+                bucles[i] = new Bucle("servidor-banco-" + i);
+            }
+        } catch (IOException | RuntimeException e) {
+            close();
+            throw e;
+        }
+        for (Bucle bucle : bucles) {
+            bucle.hilo.start();
+        }
+        this.aceptador = new Thread(this::aceptar, "servidor-banco-aceptador");
+        aceptador.setDaemon(true);
+        aceptador.start();
+    }
+
+    // La direccion real, con el puerto asignado si se pidio el 0
+    public InetSocketAddress getDireccion() throws IOException {
+        return (InetSocketAddress) servidor.getLocalAddress();
+    }
+
+    public long getOperaciones() {
+        return operaciones.sum();
+    }
+
+    public long getTramas() {
+        return tramas.sum();
+    }
+
+    // Veces que una conexion se dejo de leer porque su salida estaba llena
+    public long getPausas() {
+        return pausas.sum();
+    }
+
+    // Errores al aceptar con el servidor abierto, por ejemplo sin descriptores libres
+    public long getErroresAceptar() {
+        return erroresAceptar.sum();
+    }
+
+    private void aceptar() {
+        long espera = ESPERA_MINIMA_NANOS;
+        while (abierto) {
+            try {
+                SocketChannel canal = servidor.accept();
+                espera = ESPERA_MINIMA_NANOS;
+                canal.setOption(StandardSocketOptions.TCP_NODELAY, true);
+                Bucle bucle = elegirBucle();
+                if (bucle == null) {
+                    canal.close();
+                    close(); // no queda ningun bucle que atienda conexiones
+                    return;
+                }
+                bucle.agregar(canal);
+            } catch (ClosedChannelException e) {
+                return;
+            } catch (IOException e) {
+                if (!abierto) return;
+                // El cliente pudo cortar antes de aceptarlo, pero si el error se repite (sin descriptores libres)
+                // reintentar enseguida solo gira: se espera cada vez mas, hasta un segundo
+                erroresAceptar.increment();
+                LockSupport.parkNanos(espera);
+                espera = Math.min(espera * 2, ESPERA_MAXIMA_NANOS);
+            }
+        }
+    }
+
+    // El siguiente bucle vivo en la ronda, null si murieron todos
+    private Bucle elegirBucle() {
+        int inicio = siguiente.getAndIncrement();
+        for (int i = 0; i < bucles.length; i++) {
+            Bucle bucle = bucles[Math.floorMod(inicio + i, bucles.length)];
+            if (bucle.vivo) return bucle;
+        }
+        return null;
+    }
+
+    public int getBuclesVivos() {
+        int vivos = 0;
+        for (Bucle bucle : bucles) {
+            if (bucle.vivo) vivos++;
+        }
+        return vivos;
+    }
+
+    @Override
+    public void close() throws IOException {
+        abierto = false;
+        servidor.close();
+        for (Bucle bucle : bucles) {
+            if (bucle != null) bucle.selector.wakeup();
+        }
+        for (Bucle bucle : bucles) {
+            if (bucle == null) continue;
+            try {
+                bucle.hilo.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+
+    // Copia el contenido a un buffer de al menos minimo bytes, sin pasar de maximo. Los dos en modo escritura
+    private static ByteBuffer crecer(ByteBuffer buffer, int minimo, int maximo) {
+        int capacidad = buffer.capacity();
+        while (capacidad < minimo && capacidad < maximo) {
+            capacidad = Math.min(capacidad * 2, maximo);
+        }
+        ByteBuffer nuevo = ByteBuffer.allocateDirect(capacidad);
+        buffer.flip();
+        nuevo.put(buffer);
+        return nuevo;
+    }
+
+    // Estado de una conexion, los dos buffers quedan en modo escritura entre llamadas
+    private final class Conexion {
+
+        private final SocketChannel canal;
+        private ByteBuffer entrada = ByteBuffer.allocateDirect(TAMANIO_INICIAL);
+        private ByteBuffer salida = ByteBuffer.allocateDirect(Math.min(TAMANIO_INICIAL, tamanioSalida));
+        private SelectionKey clave;
+        private boolean pausada;
+
+        Conexion(SocketChannel canal) {
+            this.canal = canal;
+        }
+
+    }
+
+    private final class Bucle {
+
+        private final Selector selector;
+        private final Thread hilo;
+        private final Queue<SocketChannel> nuevas = new ConcurrentLinkedQueue<>();
+        private volatile boolean vivo = true;
+
+        Bucle(String nombre) throws IOException {
+            this.selector = Selector.open();
+            this.hilo = new Thread(this::ejecutar, nombre);
+            hilo.setDaemon(true);
+        }
+
+        // Si el bucle murio mientras tanto nadie va a registrar la conexion, se cierra aca
+        void agregar(SocketChannel canal) {
+            nuevas.add(canal);
+            if (vivo) {
+                selector.wakeup();
+            } else {
+                cerrarNuevas();
+            }
+        }
+
+        private void ejecutar() {
+            try {
+                while (abierto) {
+                    selector.select();
+                    registrarNuevas();
+                    Iterator<SelectionKey> listas = selector.selectedKeys().iterator();
+                    while (listas.hasNext()) {
+                        SelectionKey clave = listas.next();
+                        listas.remove();
+                        Conexion conexion = (Conexion) clave.attachment();
+                        try {
+                            if (clave.isReadable()) leer(conexion);
+                            if (clave.isValid() && clave.isWritable()) escribir(conexion);
+                        } catch (IOException | RuntimeException e) {
+                            cerrar(conexion); // el cliente corto, mando una trama no valida o fallo su operacion
+                        }
+                    }
+                }
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            } finally {
+                vivo = false; // antes de vaciar nuevas, ver agregar
+                for (SelectionKey clave : selector.keys()) {
+                    cerrar((Conexion) clave.attachment());
+                }
+                cerrarNuevas();
+                try {
+                    selector.close();
+                } catch (IOException ignorada) {
+                }
+            }
+        }
+
+        private void registrarNuevas() {
+            SocketChannel canal;
+            while ((canal = nuevas.poll()) != null) {
+                try {
+                    canal.configureBlocking(false);
+                    Conexion conexion = new Conexion(canal);
+                    conexion.clave = canal.register(selector, SelectionKey.OP_READ, conexion);
+                } catch (IOException e) {
+                    cerrar(canal);
+                }
+            }
+        }
+
+        private void cerrarNuevas() {
+            SocketChannel pendiente;
+            while ((pendiente = nuevas.poll()) != null) {
+                cerrar(pendiente);
+            }
+        }
+
+        private void leer(Conexion conexion) throws IOException {
+            if (conexion.canal.read(conexion.entrada) < 0) {
+                cerrar(conexion);
+                return;
+            }
+            procesar(conexion);
+            escribir(conexion);
+        }
+
+        private void escribir(Conexion conexion) throws IOException {
+            ByteBuffer salida = conexion.salida;
+            if (salida.position() > 0) {
+                salida.flip();
+                conexion.canal.write(salida);
+                salida.compact();
+            }
+            if (conexion.pausada) {
+                procesar(conexion); // con lugar en la salida se siguen las tramas que ya se leyeron
+                salida = conexion.salida; // procesar pudo agrandarla
+                if (!conexion.pausada && salida.position() > 0) {
+                    salida.flip();
+                    conexion.canal.write(salida);
+                    salida.compact();
+                }
+            }
+            int interes = (conexion.pausada ? 0 : SelectionKey.OP_READ) | (salida.position() > 0 ? SelectionKey.OP_WRITE : 0);
+            conexion.clave.interestOps(interes);
+        }
+
+        // Aplica todas las tramas completas de la entrada cuya respuesta entra en la salida
+        private void procesar(Conexion conexion) {
+            ByteBuffer entrada = conexion.entrada;
+            entrada.flip();
+            conexion.pausada = false;
+            int necesaria = 0; // bytes de la trama incompleta, para agrandar la entrada si no entra
+            while (entrada.remaining() >= 4) {
+                int inicio = entrada.position();
+                int largo = entrada.getInt(inicio);
+                if (largo < 2 || largo > Protocolo.MAXIMO_PEDIDO - 4) {
+                    throw new IllegalArgumentException("Trama de largo no valido: " + largo);
+                }
+                if (entrada.remaining() < 4 + largo) {
+                    necesaria = 4 + largo;
+                    break;
+                }
+                int cantidad = entrada.getShort(inicio + 4) & 0xFFFF;
+                if (cantidad > Protocolo.MAXIMO_OPERACIONES) {
+                    throw new IllegalArgumentException("Demasiadas operaciones en la trama: " + cantidad);
+                }
+                int respuesta = Protocolo.ENCABEZADO + cantidad * Protocolo.LARGO_RESPUESTA_SALDO;
+                if (conexion.salida.remaining() < respuesta && conexion.salida.capacity() < tamanioSalida) {
+                    conexion.salida = crecer(conexion.salida, conexion.salida.position() + respuesta, tamanioSalida);
+                }
+                if (conexion.salida.remaining() < respuesta) {
+                    conexion.pausada = true;
+                    pausas.increment();
+                    break;
+                }
+                int fin = inicio + 4 + largo;
+                validar(entrada, inicio + Protocolo.ENCABEZADO, fin, cantidad);
+                aplicar(entrada, inicio + Protocolo.ENCABEZADO, cantidad, conexion.salida);
+                entrada.position(fin);
+                tramas.increment();
+                operaciones.add(cantidad);
+            }
+            entrada.compact();
+            if (necesaria > entrada.capacity()) {
+                conexion.entrada = crecer(entrada, necesaria, Protocolo.MAXIMO_PEDIDO);
+            }
+        }
+
+        // Recorre la trama sin tocar el banco, asi una operacion no valida no deja aplicadas las anteriores
+        private void validar(ByteBuffer entrada, int posicion, int fin, int cantidad) {
+            for (int i = 0; i < cantidad; i++) {
+                if (posicion >= fin) {
+                    throw new IllegalArgumentException("Trama mas corta que sus operaciones");
+                }
+                byte operacion = entrada.get(posicion);
+                posicion += largo(operacion);
+                if (posicion > fin) {
+                    throw new IllegalArgumentException("Operacion cortada al final de la trama");
+                }
+            }
+            if (posicion != fin) {
+                throw new IllegalArgumentException("La trama tiene bytes de mas");
+            }
+        }
+
+        private int largo(byte operacion) {
+            switch (operacion) {
+                case Protocolo.TRANSFERENCIA:
+                    return Protocolo.LARGO_TRANSFERENCIA;
+                case Protocolo.DEBITO:
+                case Protocolo.CREDITO:
+                    return Protocolo.LARGO_MOVIMIENTO;
+                case Protocolo.SALDO:
+                    return Protocolo.LARGO_SALDO;
+                default:
+                    throw new IllegalArgumentException("Operacion desconocida: " + operacion);
+            }
+        }
+
+        // La trama ya se valido
+        private void aplicar(ByteBuffer entrada, int posicion, int cantidad, ByteBuffer salida) {
+            int inicioRespuesta = salida.position();
+            salida.putInt(0).putShort((short) cantidad);
+            for (int i = 0; i < cantidad; i++) {
+                byte operacion = entrada.get(posicion);
+                switch (operacion) {
+                    case Protocolo.TRANSFERENCIA:
+                        salida.put(transferir(entrada.getLong(posicion + 1), entrada.getLong(posicion + 9),
+                                monto(entrada, posicion + 17)));
+                        break;
+                    case Protocolo.DEBITO:
+                    case Protocolo.CREDITO:
+                        salida.put(mover(operacion == Protocolo.DEBITO, entrada.getLong(posicion + 1), monto(entrada, posicion + 9)));
+                        break;
+                    default:
+                        consultar(entrada.getLong(posicion + 1), salida);
+                }
+                posicion += largo(operacion);
+            }
+            salida.putInt(inicioRespuesta, salida.position() - inicioRespuesta - 4);
+        }
+
+        private BigDecimal monto(ByteBuffer entrada, int posicion) {
+            return BigDecimal.valueOf(entrada.getLong(posicion), entrada.get(posicion + 8));
+        }
+
+        private byte transferir(long idOrigen, long idDestino, BigDecimal monto) {
+            Cuenta origen = banco.buscarPorId(idOrigen).orElse(null);
+            Cuenta destino = banco.buscarPorId(idDestino).orElse(null);
+            if (origen == null || destino == null) {
+                return Protocolo.CUENTA_INEXISTENTE;
+            }
+            if (monto.signum() < 0) {
+                return Protocolo.ERROR;
+            }
+            try {
+                return banco.tryTransferir(origen, destino, monto).isExitosa() ? Protocolo.EXITOSA : Protocolo.DINERO_INSUFICIENTE;
+            } catch (RuntimeException e) {
+                return Protocolo.ERROR;
+            }
+        }
+
+        private byte mover(boolean debito, long id, BigDecimal monto) {
+            Cuenta cuenta = banco.buscarPorId(id).orElse(null);
+            if (cuenta == null) {
+                return Protocolo.CUENTA_INEXISTENTE;
+            }
+            if (monto.signum() < 0) {
+                return Protocolo.ERROR;
+            }
+            try {
+                if (!debito) {
+                    cuenta.credito(monto);
+                    return Protocolo.EXITOSA;
+                }
+                return cuenta.tryDebito(monto).isExitosa() ? Protocolo.EXITOSA : Protocolo.DINERO_INSUFICIENTE;
+            } catch (RuntimeException e) {
+                return Protocolo.ERROR; // por ejemplo un redondeo no permitido
+            }
+        }
+
+        private void consultar(long id, ByteBuffer salida) {
+            Cuenta cuenta = banco.buscarPorId(id).orElse(null);
+            if (cuenta == null) {
+                salida.put(Protocolo.CUENTA_INEXISTENTE);
+                return;
+            }
+            BigDecimal saldo = cuenta.getSaldo();
+            if (saldo.unscaledValue().bitLength() > 63 || saldo.scale() != (byte) saldo.scale()) {
+                salida.put(Protocolo.ERROR);
+                return;
+            }
+            salida.put(Protocolo.SALDO_CONSULTADO).putLong(saldo.unscaledValue().longValue()).put((byte) saldo.scale());
+        }
+
+        private void cerrar(Conexion conexion) {
+            conexion.clave.cancel();
+            cerrar(conexion.canal);
+        }
+
+        private void cerrar(SocketChannel canal) {
+            try {
+                canal.close();
+            } catch (IOException ignorada) {
+            }
+        }
+
+    }
+
+}
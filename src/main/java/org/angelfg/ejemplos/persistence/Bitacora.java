@@ -0,0 +1,500 @@
+package org.angelfg.ejemplos.persistence;
+
+import org.angelfg.ejemplos.models.Cuenta;
+import org.angelfg.ejemplos.models.ObservadorMovimientos;
+import org.angelfg.ejemplos.models.TipoOperacion;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+import java.util.zip.CRC32;
+
+/**
+ * Bitacora de escritura anticipada para las operaciones del banco.
+ * Cada operacion se guarda como una entrada binaria antes de devolver el control, con los saldos
+ * que dejo en las cuentas, asi reaplicar una entrada mas de una vez da el mismo resultado.
+ *
+ * Formato de una entrada: longitud (int), cuerpo, crc32 del cuerpo (int).
+ * Cuerpo: tipo, banderas, secuencia, id origen, id destino, monto, saldo origen, saldo destino y persona en las altas.
+ *
+ * Si la operacion se revierte porque fallo otro observador, su entrada se marca como anulada: en memoria si todavia
+ * no se escribio, o en el archivo si ya se escribio, sincronizando antes de devolver el control. La entrada
+ * conserva su secuencia y la recuperacion la salta.
+ */
+public class Bitacora implements ObservadorMovimientos, Closeable {
+
+    private static final int TAMANIO_INICIAL = 1 << 16;
+    private static final int LONGITUD_MAXIMA = 1 << 20;
+    private static final int VENTANA_LECTURA = 1 << 28;
+    private static final int POSICION_SECUENCIA = 2;
+    private static final long INTERVALO_ASINCRONO_MS = 10;
+
+    private static final int CON_ORIGEN = 1;
+    private static final int CON_DESTINO = 2;
+    private static final int ANULADA = 4;
+
+    private static final TipoOperacion[] TIPOS = TipoOperacion.values();
+
+    private final FileChannel canal;
+    private final ModoDurabilidad modo;
+
+    // Entradas que todavia no se escriben en el archivo
+    private final Object lockBuffer = new Object();
+    private ByteBuffer actual = ByteBuffer.allocateDirect(TAMANIO_INICIAL);
+    private ByteBuffer libre = ByteBuffer.allocateDirect(TAMANIO_INICIAL);
+    private long ultimaSecuencia;
+    private long posicionFinal; // donde termina la ultima entrada, aunque siga en memoria
+    private long inicioActual; // posicion en el archivo de la primera entrada de actual
+
+    // Un solo hilo escribe y sincroniza a la vez, los que esperan aprovechan su fsync
+    private final ReentrantLock lockEscritura = new ReentrantLock();
+    private volatile long secuenciaEscrita;
+    private volatile long secuenciaDurable;
+    private final LongAdder sincronizaciones = new LongAdder();
+
+    private final ThreadLocal<Codificador> codificadores = ThreadLocal.withInitial(Codificador::new);
+    private final ScheduledExecutorService escritorAsincrono;
+    private final AtomicReference<IOException> errorAsincrono = new AtomicReference<>(); // se informa una vez
+
+    public Bitacora(Path archivo, ModoDurabilidad modo) throws IOException {
+        this(archivo, modo, 0, 0);
+    }
+
+    // Abre la bitacora revisando solo lo escrito despues de una posicion ya conocida, como la de una instantanea
+    Bitacora(Path archivo, ModoDurabilidad modo, long desde, long secuencia) throws IOException {
+        this.modo = modo;
+        this.canal = FileChannel.open(archivo, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        if (desde > canal.size()) {
+            canal.close();
+            throw new IOException("La bitacora " + archivo + " termina antes de la posicion " + desde);
+        }
+
+        long[] ultima = { secuencia };
+        long valida = leer(canal, desde, entrada -> ultima[0] = entrada.getSecuencia());
+        canal.truncate(valida); // descarta una entrada escrita a medias por una caida
+        canal.position(valida);
+        posicionFinal = valida;
+        inicioActual = valida;
+        ultimaSecuencia = ultima[0];
+        secuenciaEscrita = ultima[0];
+        secuenciaDurable = ultima[0];
+
+        if (modo == ModoDurabilidad.ASINCRONO) {
+            escritorAsincrono = Executors.newSingleThreadScheduledExecutor(tarea -> {
+                Thread hilo = new Thread(tarea, "bitacora-" + archivo.getFileName());
+                hilo.setDaemon(true);
+                return hilo;
+            });
+            escritorAsincrono.scheduleWithFixedDelay(this::sincronizarEnSegundoPlano,
+                    INTERVALO_ASINCRONO_MS, INTERVALO_ASINCRONO_MS, TimeUnit.MILLISECONDS);
+        } else {
+            escritorAsincrono = null;
+        }
+    }
+
+    public ModoDurabilidad getModo() {
+        return modo;
+    }
+
+    public long getUltimaSecuencia() {
+        synchronized (lockBuffer) {
+            return ultimaSecuencia;
+        }
+    }
+
+    // Secuencia y posicion de la ultima entrada agregada, tomadas juntas
+    Marca marcar() {
+        synchronized (lockBuffer) {
+            return new Marca(ultimaSecuencia, posicionFinal);
+        }
+    }
+
+    public long getSecuenciaDurable() {
+        return secuenciaDurable;
+    }
+
+    public long getSincronizaciones() {
+        return sincronizaciones.sum();
+    }
+
+    @Override
+    public void alOperar(TipoOperacion tipo, Cuenta origen, Cuenta destino, BigDecimal monto) {
+        Codificador codificador = codificadores.get();
+        ByteBuffer cuerpo = codificador.codificar(tipo, origen, destino, monto);
+
+        synchronized (lockBuffer) {
+            long secuencia = ++ultimaSecuencia;
+            cuerpo.putLong(POSICION_SECUENCIA, secuencia);
+            codificador.crc.reset();
+            codificador.crc.update(cuerpo.array(), 0, cuerpo.limit());
+
+            int tamanio = Integer.BYTES + cuerpo.limit() + Integer.BYTES;
+            if (actual.remaining() < tamanio) {
+                ByteBuffer mayor = ByteBuffer.allocateDirect(Math.max(actual.capacity() * 2, actual.position() + tamanio));
+                actual.flip();
+                mayor.put(actual);
+                actual = mayor;
+            }
+            actual.putInt(cuerpo.limit());
+            actual.put(cuerpo);
+            actual.putInt((int) codificador.crc.getValue());
+            codificador.agregarSinConfirmar(posicionFinal);
+            posicionFinal += tamanio;
+            codificador.pendiente = secuencia;
+        }
+    }
+
+    @Override
+    public void alRevertir() {
+        Codificador codificador = codificadores.get();
+        if (codificador.sinConfirmar == 0) {
+            return;
+        }
+        long posicion = codificador.posiciones[--codificador.sinConfirmar];
+
+        synchronized (lockBuffer) {
+            if (posicion >= inicioActual) {
+                anular(actual, (int) (posicion - inicioActual), codificador.crc);
+                return;
+            }
+        }
+        // Ya la tomo una escritura, al tener lockEscritura esta en el archivo
+        lockEscritura.lock();
+        try {
+            anularEnArchivo(posicion, codificador.crc);
+        } catch (IOException e) {
+            throw new UncheckedIOException("No se pudo anular la entrada de la bitacora", e);
+        } finally {
+            lockEscritura.unlock();
+        }
+    }
+
+    // Marca la entrada que empieza en inicio y recalcula su crc
+    private static void anular(ByteBuffer buffer, int inicio, CRC32 crc) {
+        int longitud = buffer.getInt(inicio);
+        int banderas = inicio + Integer.BYTES + 1;
+        buffer.put(banderas, (byte) (buffer.get(banderas) | ANULADA));
+        crc.reset();
+        crc.update(buffer.slice(inicio + Integer.BYTES, longitud));
+        buffer.putInt(inicio + Integer.BYTES + longitud, (int) crc.getValue());
+    }
+
+    // Con lockEscritura tomado
+    private void anularEnArchivo(long posicion, CRC32 crc) throws IOException {
+        ByteBuffer longitud = ByteBuffer.allocate(Integer.BYTES);
+        leerCompleto(longitud, posicion);
+        ByteBuffer entrada = ByteBuffer.allocate(longitud.getInt(0) + 2 * Integer.BYTES);
+        leerCompleto(entrada, posicion);
+        anular(entrada, 0, crc);
+        entrada.clear();
+        while (entrada.hasRemaining()) {
+            canal.write(entrada, posicion + entrada.position());
+        }
+        canal.force(false);
+        sincronizaciones.increment();
+    }
+
+    private void leerCompleto(ByteBuffer destino, long posicion) throws IOException {
+        while (destino.hasRemaining()) {
+            if (canal.read(destino, posicion + destino.position()) < 0) {
+                throw new IOException("La bitacora termina antes de la entrada en " + posicion);
+            }
+        }
+    }
+
+    @Override
+    public void alConfirmar() {
+        Codificador codificador = codificadores.get();
+        codificador.sinConfirmar = 0;
+        long secuencia = codificador.pendiente;
+        if (secuencia == 0) {
+            return;
+        }
+        codificador.pendiente = 0;
+
+        try {
+            if (modo == ModoDurabilidad.POR_OPERACION) {
+                lockEscritura.lock();
+                try {
+                    volcar();
+                    sincronizar();
+                } finally {
+                    lockEscritura.unlock();
+                }
+            } else if (modo == ModoDurabilidad.GRUPO) {
+                asegurarDurable(secuencia);
+            } else {
+                informarErrorAsincrono();
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("No se pudo escribir la bitacora", e);
+        }
+    }
+
+    // Espera a que la secuencia este en disco, en cualquier modo
+    void asegurarDurable(long secuencia) throws IOException {
+        informarErrorAsincrono();
+        // El primero que toma el lock escribe y sincroniza todo lo pendiente, el resto ya queda cubierto
+        while (secuenciaDurable < secuencia) {
+            lockEscritura.lock();
+            try {
+                if (secuenciaDurable < secuencia) {
+                    volcar();
+                    sincronizar();
+                }
+            } finally {
+                lockEscritura.unlock();
+            }
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (escritorAsincrono != null) {
+            escritorAsincrono.shutdown();
+            try {
+                escritorAsincrono.awaitTermination(1, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        lockEscritura.lock();
+        try {
+            volcar();
+            sincronizar();
+            canal.close();
+        } finally {
+            lockEscritura.unlock();
+        }
+        informarErrorAsincrono();
+    }
+
+    // Con lockEscritura tomado
+    private void volcar() throws IOException {
+        ByteBuffer pendientes;
+        long hasta;
+        synchronized (lockBuffer) {
+            pendientes = actual;
+            actual = libre;
+            libre = pendientes;
+            hasta = ultimaSecuencia;
+            inicioActual = posicionFinal;
+        }
+
+        pendientes.flip();
+        while (pendientes.hasRemaining()) {
+            canal.write(pendientes);
+        }
+        pendientes.clear();
+        secuenciaEscrita = hasta;
+    }
+
+    // Con lockEscritura tomado
+    private void sincronizar() throws IOException {
+        long hasta = secuenciaEscrita;
+        if (hasta > secuenciaDurable || modo == ModoDurabilidad.POR_OPERACION) {
+            canal.force(false);
+            sincronizaciones.increment();
+            secuenciaDurable = hasta;
+        }
+    }
+
+    // Una excepcion cancelaria las siguientes ejecuciones, el error se guarda y lo informa la siguiente operacion
+    private void sincronizarEnSegundoPlano() {
+        lockEscritura.lock();
+        try {
+            if (canal.isOpen()) {
+                volcar();
+                sincronizar();
+            }
+        } catch (IOException e) {
+            errorAsincrono.compareAndSet(null, e);
+        } catch (RuntimeException e) {
+            errorAsincrono.compareAndSet(null, new IOException("No se pudo escribir la bitacora", e));
+        } finally {
+            lockEscritura.unlock();
+        }
+    }
+
+    private void informarErrorAsincrono() throws IOException {
+        IOException error = errorAsincrono.getAndSet(null);
+        if (error != null) {
+            throw new IOException("Fallo la escritura en segundo plano de la bitacora", error);
+        }
+    }
+
+    // Lee las entradas validas desde una posicion y devuelve donde termina la ultima
+    public static long leer(Path archivo, long desde, Consumer<EntradaBitacora> consumidor) throws IOException {
+        try (FileChannel canal = FileChannel.open(archivo, StandardOpenOption.READ)) {
+            return leer(canal, desde, consumidor);
+        }
+    }
+
+    static long leer(FileChannel canal, long desde, Consumer<EntradaBitacora> consumidor) throws IOException {
+        long tamanio = canal.size();
+        long posicion = desde;
+        CRC32 crc = new CRC32();
+
+        while (posicion < tamanio) {
+            MappedByteBuffer mapa = canal.map(FileChannel.MapMode.READ_ONLY, posicion, Math.min(tamanio - posicion, VENTANA_LECTURA));
+            int avance = 0;
+            while (mapa.remaining() >= Integer.BYTES) {
+                int longitud = mapa.getInt(avance);
+                if (longitud <= 0 || longitud > LONGITUD_MAXIMA) {
+                    return posicion + avance; // basura al final del archivo
+                }
+                if (mapa.remaining() < longitud + 2 * Integer.BYTES) {
+                    break; // la entrada sigue en la siguiente ventana o quedo a medias
+                }
+
+                ByteBuffer cuerpo = mapa.slice(avance + Integer.BYTES, longitud);
+                crc.reset();
+                crc.update(cuerpo.duplicate());
+                if ((int) crc.getValue() != mapa.getInt(avance + Integer.BYTES + longitud)) {
+                    return posicion + avance;
+                }
+
+                consumidor.accept(decodificar(cuerpo));
+                avance += longitud + 2 * Integer.BYTES;
+                mapa.position(avance);
+            }
+            if (avance == 0) {
+                break;
+            }
+            posicion += avance;
+        }
+        return posicion;
+    }
+
+    private static EntradaBitacora decodificar(ByteBuffer cuerpo) {
+        TipoOperacion tipo = TIPOS[cuerpo.get()];
+        int banderas = cuerpo.get();
+        long secuencia = cuerpo.getLong();
+        long idOrigen = cuerpo.getLong();
+        long idDestino = cuerpo.getLong();
+        BigDecimal monto = leerDecimal(cuerpo);
+        BigDecimal saldoOrigen = (banderas & CON_ORIGEN) != 0 ? leerDecimal(cuerpo) : null;
+        BigDecimal saldoDestino = (banderas & CON_DESTINO) != 0 ? leerDecimal(cuerpo) : null;
+        String persona = null;
+        if (tipo == TipoOperacion.ALTA) {
+            int longitud = cuerpo.getShort() & 0xFFFF;
+            if (longitud != 0xFFFF) {
+                byte[] bytes = new byte[longitud];
+                cuerpo.get(bytes);
+                persona = new String(bytes, StandardCharsets.UTF_8);
+            }
+        }
+        return new EntradaBitacora(tipo, secuencia, idOrigen, idDestino, monto, saldoOrigen, saldoDestino, persona,
+                (banderas & ANULADA) != 0);
+    }
+
+    private static BigDecimal leerDecimal(ByteBuffer buffer) {
+        int escala = buffer.getShort();
+        byte[] bytes = new byte[buffer.get() & 0xFF];
+        buffer.get(bytes);
+        return new BigDecimal(new BigInteger(bytes), escala);
+    }
+
+    static final class Marca {
+
+        final long secuencia;
+        final long posicion;
+
+        Marca(long secuencia, long posicion) {
+            this.secuencia = secuencia;
+            this.posicion = posicion;
+        }
+
+    }
+
+    // Buffer de cada hilo para armar la entrada fuera del lock
+    private static final class Codificador {
+
+        private ByteBuffer buffer = ByteBuffer.allocate(256);
+        private final CRC32 crc = new CRC32();
+        private long pendiente;
+
+        // Posiciones de las entradas de este hilo desde el ultimo alConfirmar, para alRevertir
+        private long[] posiciones = new long[4];
+        private int sinConfirmar;
+
+        void agregarSinConfirmar(long posicion) {
+            if (sinConfirmar == posiciones.length) {
+                posiciones = Arrays.copyOf(posiciones, sinConfirmar * 2);
+            }
+            posiciones[sinConfirmar++] = posicion;
+        }
+
+        ByteBuffer codificar(TipoOperacion tipo, Cuenta origen, Cuenta destino, BigDecimal monto) {
+            buffer.clear();
+            asegurar(2 + 3 * Long.BYTES);
+            buffer.put((byte) tipo.ordinal());
+            buffer.put((byte) ((origen != null ? CON_ORIGEN : 0) | (destino != null ? CON_DESTINO : 0)));
+            buffer.putLong(0); // la secuencia se asigna al agregar la entrada
+            buffer.putLong(origen == null ? 0 : origen.getId());
+            buffer.putLong(destino == null ? 0 : destino.getId());
+            escribirDecimal(monto);
+            if (origen != null) escribirDecimal(origen.getSaldo());
+            if (destino != null) escribirDecimal(destino.getSaldo());
+            if (tipo == TipoOperacion.ALTA) escribirTexto(destino.getPersona());
+            buffer.flip();
+            return buffer;
+        }
+
+        private void escribirDecimal(BigDecimal valor) {
+            if (valor.scale() < Short.MIN_VALUE || valor.scale() > Short.MAX_VALUE) {
+                throw new ArithmeticException("Escala fuera de rango para la bitacora: " + valor.scale());
+            }
+            byte[] bytes = valor.unscaledValue().toByteArray();
+            if (bytes.length > 0xFF) {
+                throw new ArithmeticException("Monto demasiado grande para la bitacora");
+            }
+            asegurar(Short.BYTES + 1 + bytes.length);
+            buffer.putShort((short) valor.scale());
+            buffer.put((byte) bytes.length);
+            buffer.put(bytes);
+        }
+
+        private void escribirTexto(String texto) {
+            if (texto == null) {
+                asegurar(Short.BYTES);
+                buffer.putShort((short) 0xFFFF);
+                return;
+            }
+            byte[] bytes = texto.getBytes(StandardCharsets.UTF_8);
+            if (bytes.length >= 0xFFFF) {
+                throw new IllegalArgumentException("Nombre de persona demasiado largo para la bitacora");
+            }
+            asegurar(Short.BYTES + bytes.length);
+            buffer.putShort((short) bytes.length);
+            buffer.put(bytes);
+        }
+
+        private void asegurar(int bytes) {
+            if (buffer.remaining() < bytes) {
+                ByteBuffer mayor = ByteBuffer.allocate(Math.max(buffer.capacity() * 2, buffer.position() + bytes));
+                buffer.flip();
+                mayor.put(buffer);
+                buffer = mayor;
+            }
+        }
+
+    }
+
+}
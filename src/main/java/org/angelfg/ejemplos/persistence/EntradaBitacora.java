@@ -0,0 +1,85 @@
+package org.angelfg.ejemplos.persistence;
+
+import org.angelfg.ejemplos.models.TipoOperacion;
+
+import java.math.BigDecimal;
+
+// Una operacion leida de la bitacora, con los saldos que dejo en cada cuenta
+public class EntradaBitacora {
+
+    private final TipoOperacion tipo;
+    private final long secuencia;
+    private final long idOrigen;
+    private final long idDestino;
+    private final BigDecimal monto;
+    private final BigDecimal saldoOrigen;
+    private final BigDecimal saldoDestino;
+    private final String persona;
+    private final boolean anulada;
+
+    EntradaBitacora(TipoOperacion tipo, long secuencia, long idOrigen, long idDestino, BigDecimal monto,
+                    BigDecimal saldoOrigen, BigDecimal saldoDestino, String persona, boolean anulada) {
+        this.tipo = tipo;
+        this.secuencia = secuencia;
+        this.idOrigen = idOrigen;
+        this.idDestino = idDestino;
+        this.monto = monto;
+        this.saldoOrigen = saldoOrigen;
+        this.saldoDestino = saldoDestino;
+        this.persona = persona;
+        this.anulada = anulada;
+    }
+
+    public TipoOperacion getTipo() {
+        return tipo;
+    }
+
+    public long getSecuencia() {
+        return secuencia;
+    }
+
+    public long getIdOrigen() {
+        return idOrigen;
+    }
+
+    public long getIdDestino() {
+        return idDestino;
+    }
+
+    public BigDecimal getMonto() {
+        return monto;
+    }
+
+    // null si la operacion no tiene cuenta origen
+    public BigDecimal getSaldoOrigen() {
+        return saldoOrigen;
+    }
+
+    // null si la operacion no tiene cuenta destino
+    public BigDecimal getSaldoDestino() {
+        return saldoDestino;
+    }
+
+    // Solo en las altas
+    public String getPersona() {
+        return persona;
+    }
+
+    // La operacion se revirtio despues de escribir la entrada, no se reaplica
+    public boolean isAnulada() {
+        return anulada;
+    }
+
+    @Override
+    public String toString() {
+        return "EntradaBitacora{" +
+                "tipo=" + tipo +
+                ", secuencia=" + secuencia +
+                ", idOrigen=" + idOrigen +
+                ", idDestino=" + idDestino +
+                ", monto=" + monto +
+                ", anulada=" + anulada +
+                '}';
+    }
+
+}
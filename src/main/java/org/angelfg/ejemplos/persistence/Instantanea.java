@@ -0,0 +1,377 @@
+package org.angelfg.ejemplos.persistence;
+
+import org.angelfg.ejemplos.models.Banco;
+import org.angelfg.ejemplos.models.BancoColumnar;
+import org.angelfg.ejemplos.models.Cuenta;
+import org.angelfg.ejemplos.models.CuentaAcumuladora;
+import org.angelfg.ejemplos.models.CuentaAtomica;
+import org.angelfg.ejemplos.models.CuentaPuntoFijo;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+/**
+ * Instantanea binaria de los saldos de un banco, pensada para mapearse en memoria y cargarse por columnas.
+ *
+ * Formato (little endian): cabecera de 48 bytes con magia, version, secuencia y posicion de la bitacora
+ * desde donde hay que reaplicar, cantidad de cuentas y de nombres, tipo de banco y escala de los saldos.
+ * Despues van las columnas: ids, saldos en unidades menores, codigos de persona y, en un banco de lista,
+ * el tipo, la escala y el redondeo de cada cuenta. Al final los nombres de personas y el crc32 del archivo.
+ */
+final class Instantanea {
+
+    private static final int MAGIA = 0x49434E42; // "BNCI"
+    private static final int VERSION = 1;
+    private static final int TAMANIO_CABECERA = 48;
+    private static final int TAMANIO_ESCRITURA = 1 << 20;
+
+    private static final byte BANCO_LISTA = 0;
+    private static final byte BANCO_COLUMNAR = 1;
+    private static final byte BANCO_COLUMNAR_FUERA_HEAP = 2;
+
+    private static final byte CUENTA = 0;
+    private static final byte CUENTA_PUNTO_FIJO = 1;
+    private static final byte CUENTA_ATOMICA = 2;
+    private static final byte CUENTA_ACUMULADORA = 3;
+
+    private static final RoundingMode[] REDONDEOS = RoundingMode.values();
+
+    private final Path archivo;
+    private final MappedByteBuffer mapa;
+    private final long secuencia;
+    private final long posicionBitacora;
+    private final int cuentas;
+    private final int totalNombres;
+    private final byte tipoBanco;
+    private final int escala;
+
+    private Instantanea(Path archivo, MappedByteBuffer mapa) {
+        this.archivo = archivo;
+        this.mapa = mapa;
+        this.secuencia = mapa.getLong(8);
+        this.posicionBitacora = mapa.getLong(16);
+        this.cuentas = mapa.getInt(24);
+        this.totalNombres = mapa.getInt(28);
+        this.tipoBanco = mapa.get(32);
+        this.escala = mapa.get(33);
+    }
+
+    Path getArchivo() {
+        return archivo;
+    }
+
+    // Las entradas de la bitacora con secuencia mayor pueden no estar en la instantanea
+    long getSecuencia() {
+        return secuencia;
+    }
+
+    long getPosicionBitacora() {
+        return posicionBitacora;
+    }
+
+    int getCuentas() {
+        return cuentas;
+    }
+
+    // Mapea el archivo y valida la cabecera y el crc antes de usarlo
+    static Instantanea abrir(Path archivo) throws IOException {
+        try (FileChannel canal = FileChannel.open(archivo, StandardOpenOption.READ)) {
+            long tamanio = canal.size();
+            if (tamanio < TAMANIO_CABECERA + Integer.BYTES || tamanio > Integer.MAX_VALUE) {
+                throw new IOException("Tamaño de instantanea no valido: " + archivo);
+            }
+            MappedByteBuffer mapa = canal.map(FileChannel.MapMode.READ_ONLY, 0, tamanio);
+            mapa.order(ByteOrder.LITTLE_ENDIAN);
+            if (mapa.getInt(0) != MAGIA || mapa.getInt(4) != VERSION) {
+                throw new IOException("El archivo no es una instantanea del banco: " + archivo);
+            }
+
+            int fin = (int) tamanio - Integer.BYTES;
+            CRC32 crc = new CRC32();
+            crc.update(mapa.slice(0, fin));
+            if ((int) crc.getValue() != mapa.getInt(fin)) {
+                throw new IOException("Instantanea danada: " + archivo);
+            }
+            return new Instantanea(archivo, mapa);
+        }
+    }
+
+    Banco cargar() {
+        int posicion = TAMANIO_CABECERA;
+        long[] ids = null;
+        if (tipoBanco == BANCO_LISTA) {
+            ids = new long[cuentas];
+            mapa.slice(posicion, cuentas * Long.BYTES).order(ByteOrder.LITTLE_ENDIAN).asLongBuffer().get(ids);
+            posicion += cuentas * Long.BYTES;
+        }
+        ByteBuffer unidades = mapa.slice(posicion, cuentas * Long.BYTES).order(ByteOrder.LITTLE_ENDIAN);
+        posicion += cuentas * Long.BYTES;
+        ByteBuffer codigos = mapa.slice(posicion, cuentas * Integer.BYTES).order(ByteOrder.LITTLE_ENDIAN);
+        posicion += cuentas * Integer.BYTES;
+        int formatos = posicion;
+        if (tipoBanco == BANCO_LISTA) {
+            posicion += 3 * cuentas;
+        }
+        String[] nombres = leerNombres(posicion);
+
+        if (tipoBanco != BANCO_LISTA) {
+            BancoColumnar banco = new BancoColumnar(escala, tipoBanco == BANCO_COLUMNAR_FUERA_HEAP);
+            banco.cargarColumnas(unidades.asLongBuffer(), codigos.asIntBuffer(), nombres);
+            return banco;
+        }
+
+        Banco banco = new Banco();
+        List<Cuenta> lista = new ArrayList<>(cuentas);
+        for (int i = 0; i < cuentas; i++) {
+            int codigo = codigos.getInt(i * Integer.BYTES);
+            String persona = codigo < 0 ? null : nombres[codigo];
+            BigDecimal saldo = BigDecimal.valueOf(unidades.getLong(i * Long.BYTES), escala);
+            int escalaCuenta = mapa.get(formatos + cuentas + i);
+
+            RoundingMode redondeo = REDONDEOS[mapa.get(formatos + 2 * cuentas + i)];
+            Cuenta cuenta;
+            switch (mapa.get(formatos + i)) {
+                case CUENTA_PUNTO_FIJO:
+                    cuenta = new CuentaPuntoFijo(persona, saldo, escalaCuenta, redondeo);
+                    break;
+                case CUENTA_ATOMICA:
+                    cuenta = new CuentaAtomica(persona, saldo, escalaCuenta, redondeo);
+                    break;
+                case CUENTA_ACUMULADORA:
+                    cuenta = new CuentaAcumuladora(persona, saldo, escalaCuenta, redondeo);
+                    break;
+                default:
+                    cuenta = new Cuenta(persona, saldo.setScale(escalaCuenta)); // la escala original es exacta
+            }
+            cuenta.setId(ids[i]);
+            cuenta.setBanco(banco);
+            lista.add(cuenta);
+        }
+        banco.setCuentas(Collections.synchronizedList(lista));
+        return banco;
+    }
+
+    private String[] leerNombres(int posicion) {
+        String[] nombres = new String[totalNombres];
+        for (int i = 0; i < totalNombres; i++) {
+            int longitud = mapa.getInt(posicion);
+            byte[] bytes = new byte[longitud];
+            mapa.get(posicion + Integer.BYTES, bytes);
+            nombres[i] = new String(bytes, StandardCharsets.UTF_8);
+            posicion += Integer.BYTES + longitud;
+        }
+        return nombres;
+    }
+
+    // Lee cada cuenta con su lock, las transferencias siguen mientras se escribe.
+    // Lo que cambie despues de la secuencia indicada se corrige al reaplicar la bitacora desde su posicion
+    static void escribir(Banco banco, long secuencia, long posicionBitacora, Path archivo) throws IOException {
+        Columnas columnas = new Columnas(banco instanceof BancoColumnar);
+        banco.recorrerCuentas(columnas::agregar);
+
+        byte tipoBanco = BANCO_LISTA;
+        int escala;
+        if (banco instanceof BancoColumnar) {
+            BancoColumnar columnar = (BancoColumnar) banco;
+            tipoBanco = columnar.isFueraDelHeap() ? BANCO_COLUMNAR_FUERA_HEAP : BANCO_COLUMNAR;
+            escala = columnar.getEscala();
+        } else {
+            escala = columnas.convertirAUnidades();
+        }
+
+        try (FileChannel canal = FileChannel.open(archivo, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            Escritor escritor = new Escritor(canal);
+            escritor.putInt(MAGIA);
+            escritor.putInt(VERSION);
+            escritor.putLong(secuencia);
+            escritor.putLong(posicionBitacora);
+            escritor.putInt(columnas.total);
+            escritor.putInt(columnas.nombres.size());
+            escritor.put(tipoBanco);
+            escritor.put((byte) escala);
+            for (int i = 34; i < TAMANIO_CABECERA; i++) {
+                escritor.put((byte) 0);
+            }
+
+            if (tipoBanco == BANCO_LISTA) {
+                for (int i = 0; i < columnas.total; i++) escritor.putLong(columnas.ids[i]);
+            }
+            for (int i = 0; i < columnas.total; i++) escritor.putLong(columnas.unidades[i]);
+            for (int i = 0; i < columnas.total; i++) escritor.putInt(columnas.codigos[i]);
+            if (tipoBanco == BANCO_LISTA) {
+                for (int i = 0; i < columnas.total; i++) escritor.put(columnas.tipos[i]);
+                for (int i = 0; i < columnas.total; i++) escritor.put(columnas.escalas[i]);
+                for (int i = 0; i < columnas.total; i++) escritor.put(columnas.redondeos[i]);
+            }
+            for (String nombre : columnas.nombres) {
+                byte[] bytes = nombre.getBytes(StandardCharsets.UTF_8);
+                escritor.putInt(bytes.length);
+                for (byte b : bytes) escritor.put(b);
+            }
+            escritor.terminar();
+            canal.force(true);
+        }
+    }
+
+    // Columnas que se llenan al recorrer el banco, antes de conocer la escala comun de los saldos
+    private static final class Columnas {
+
+        private final boolean columnar;
+        private int total;
+        private long[] ids = new long[1024];
+        private long[] unidades = new long[1024];
+        private int[] codigos = new int[1024];
+        private BigDecimal[] saldos;
+        private byte[] tipos;
+        private byte[] escalas;
+        private byte[] redondeos;
+        private final Map<String, Integer> codigosPorPersona = new HashMap<>();
+        private final List<String> nombres = new ArrayList<>();
+
+        Columnas(boolean columnar) {
+            this.columnar = columnar;
+            if (!columnar) {
+                saldos = new BigDecimal[1024];
+                tipos = new byte[1024];
+                escalas = new byte[1024];
+                redondeos = new byte[1024];
+            }
+        }
+
+        void agregar(Cuenta cuenta) {
+            if (total == ids.length) {
+                crecer();
+            }
+            ids[total] = cuenta.getId();
+            String persona = cuenta.getPersona();
+            codigos[total] = persona == null ? -1 : codigosPorPersona.computeIfAbsent(persona, nueva -> {
+                nombres.add(nueva);
+                return nombres.size() - 1;
+            });
+
+            if (columnar) {
+                unidades[total] = ((CuentaPuntoFijo) cuenta).getUnidades();
+            } else {
+                BigDecimal saldo = cuenta.getSaldo();
+                saldos[total] = saldo;
+                if (cuenta instanceof CuentaPuntoFijo) {
+                    CuentaPuntoFijo puntoFijo = (CuentaPuntoFijo) cuenta;
+                    tipos[total] = cuenta instanceof CuentaAtomica ? CUENTA_ATOMICA
+                            : cuenta instanceof CuentaAcumuladora ? CUENTA_ACUMULADORA
+                            : CUENTA_PUNTO_FIJO;
+                    escalas[total] = (byte) puntoFijo.getEscala();
+                    redondeos[total] = (byte) puntoFijo.getRedondeo().ordinal();
+                } else {
+                    if (saldo.scale() < Byte.MIN_VALUE || saldo.scale() > CuentaPuntoFijo.ESCALA_MAXIMA) {
+                        throw new ArithmeticException("Escala fuera de rango para la instantanea: " + saldo.scale());
+                    }
+                    tipos[total] = CUENTA;
+                    escalas[total] = (byte) saldo.scale();
+                }
+            }
+            total++;
+        }
+
+        // Pasa los saldos a unidades con la mayor escala del banco y la devuelve
+        int convertirAUnidades() {
+            int escala = 0;
+            for (int i = 0; i < total; i++) {
+                escala = Math.max(escala, saldos[i].scale());
+            }
+            for (int i = 0; i < total; i++) {
+                unidades[i] = saldos[i].setScale(escala).unscaledValue().longValueExact();
+                saldos[i] = null;
+            }
+            return escala;
+        }
+
+        private void crecer() {
+            int capacidad = ids.length * 2;
+            ids = Arrays.copyOf(ids, capacidad);
+            unidades = Arrays.copyOf(unidades, capacidad);
+            codigos = Arrays.copyOf(codigos, capacidad);
+            if (!columnar) {
+                saldos = Arrays.copyOf(saldos, capacidad);
+                tipos = Arrays.copyOf(tipos, capacidad);
+                escalas = Arrays.copyOf(escalas, capacidad);
+                redondeos = Arrays.copyOf(redondeos, capacidad);
+            }
+        }
+
+    }
+
+    // Escribe por bloques y calcula el crc de todo lo escrito
+    private static final class Escritor {
+
+        private final FileChannel canal;
+        private final ByteBuffer buffer = ByteBuffer.allocateDirect(TAMANIO_ESCRITURA).order(ByteOrder.LITTLE_ENDIAN);
+        private final CRC32 crc = new CRC32();
+
+        Escritor(FileChannel canal) {
+            this.canal = canal;
+        }
+
+        void put(byte valor) throws IOException {
+            asegurar(1);
+            buffer.put(valor);
+        }
+
+        void putInt(int valor) throws IOException {
+            asegurar(Integer.BYTES);
+            buffer.putInt(valor);
+        }
+
+        void putLong(long valor) throws IOException {
+            asegurar(Long.BYTES);
+            buffer.putLong(valor);
+        }
+
+        void terminar() throws IOException {
+            asegurar(Integer.BYTES);
+            buffer.flip();
+            crc.update(buffer.duplicate());
+            buffer.position(buffer.limit()).limit(buffer.capacity());
+            buffer.putInt((int) crc.getValue());
+            vaciar();
+        }
+
+        private void asegurar(int bytes) throws IOException {
+            if (buffer.remaining() < bytes) {
+                buffer.flip();
+                crc.update(buffer.duplicate());
+                buffer.rewind();
+                escribirBuffer();
+            }
+        }
+
+        private void vaciar() throws IOException {
+            buffer.flip();
+            escribirBuffer();
+        }
+
+        private void escribirBuffer() throws IOException {
+            while (buffer.hasRemaining()) {
+                canal.write(buffer);
+            }
+            buffer.clear();
+        }
+
+    }
+
+}
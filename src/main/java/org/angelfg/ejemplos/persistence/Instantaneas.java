@@ -0,0 +1,175 @@
+package org.angelfg.ejemplos.persistence;
+
+import org.angelfg.ejemplos.models.Banco;
+import org.angelfg.ejemplos.models.BancoColumnar;
+import org.angelfg.ejemplos.models.Cuenta;
+import org.angelfg.ejemplos.models.TipoOperacion;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.math.BigDecimal;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Directorio de instantaneas del banco. Cada instantanea guarda hasta que punto de la bitacora llega,
+ * al arrancar se carga la mas reciente y solo se reaplican las entradas posteriores, asi el tiempo
+ * de arranque depende del tamaño del banco y no de todas las operaciones historicas.
+ */
+public class Instantaneas implements Closeable {
+
+    private static final String PREFIJO = "instantanea-";
+    private static final String EXTENSION = ".bin";
+    private static final int CONSERVADAS = 2;
+
+    private final Path directorio;
+    private ScheduledExecutorService programador;
+
+    public Instantaneas(Path directorio) throws IOException {
+        this.directorio = Files.createDirectories(directorio);
+    }
+
+    // Toma una instantanea sin detener las operaciones, la bitacora puede ser null si el banco esta quieto
+    public synchronized Path tomar(Banco banco, Bitacora bitacora) throws IOException {
+        Bitacora.Marca inicio = bitacora == null ? new Bitacora.Marca(0, 0) : bitacora.marcar();
+        Path temporal = directorio.resolve(PREFIJO + "nueva.tmp");
+        Instantanea.escribir(banco, inicio.secuencia, inicio.posicion, temporal);
+
+        // Todo lo que vio el recorrido tiene que estar en la bitacora antes de publicar la instantanea
+        if (bitacora != null) {
+            bitacora.asegurarDurable(bitacora.marcar().secuencia);
+        }
+
+        Path destino = directorio.resolve(String.format("%s%020d%s", PREFIJO, inicio.secuencia, EXTENSION));
+        Files.move(temporal, destino, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+
+        List<Path> anteriores = listar();
+        for (int i = CONSERVADAS; i < anteriores.size(); i++) {
+            Files.deleteIfExists(anteriores.get(i));
+        }
+        return destino;
+    }
+
+    public synchronized void programar(Banco banco, Bitacora bitacora, Duration intervalo) {
+        if (programador != null) {
+            throw new IllegalStateException("Ya hay instantaneas programadas");
+        }
+        programador = Executors.newSingleThreadScheduledExecutor(tarea -> {
+            Thread hilo = new Thread(tarea, "instantaneas-" + directorio.getFileName());
+            hilo.setDaemon(true);
+            return hilo;
+        });
+        programador.scheduleWithFixedDelay(() -> {
+            try {
+                tomar(banco, bitacora);
+            } catch (IOException e) {
+                throw new UncheckedIOException("No se pudo tomar la instantanea", e);
+            }
+        }, intervalo.toNanos(), intervalo.toNanos(), TimeUnit.NANOSECONDS);
+    }
+
+    // Carga la instantanea valida mas reciente y reaplica la bitacora a partir de ella
+    public Recuperacion recuperar(Path archivoBitacora, ModoDurabilidad modo) throws IOException {
+        long inicio = System.nanoTime();
+        Instantanea instantanea = masReciente();
+        Banco banco = instantanea == null ? new Banco() : instantanea.cargar();
+        long desde = instantanea == null ? 0 : instantanea.getPosicionBitacora();
+        long secuencia = instantanea == null ? 0 : instantanea.getSecuencia();
+        long cargado = System.nanoTime();
+
+        long[] ultima = { secuencia };
+        long[] reaplicadas = new long[1];
+        long valida = desde;
+        if (Files.exists(archivoBitacora) && Files.size(archivoBitacora) >= desde) {
+            valida = Bitacora.leer(archivoBitacora, desde, entrada -> {
+                if (entrada.getSecuencia() > secuencia && !entrada.isAnulada()) {
+                    reaplicar(banco, entrada);
+                    reaplicadas[0]++;
+                }
+                ultima[0] = Math.max(ultima[0], entrada.getSecuencia());
+            });
+        }
+        Bitacora bitacora = new Bitacora(archivoBitacora, modo, valida, ultima[0]);
+        banco.agregarObservador(bitacora);
+        long reaplicado = System.nanoTime();
+
+        return new Recuperacion(banco, bitacora, instantanea == null ? null : instantanea.getArchivo(), reaplicadas[0],
+                Duration.ofNanos(cargado - inicio), Duration.ofNanos(reaplicado - cargado));
+    }
+
+    @Override
+    public synchronized void close() {
+        if (programador != null) {
+            programador.shutdown();
+            try {
+                programador.awaitTermination(1, TimeUnit.MINUTES);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            programador = null;
+        }
+    }
+
+    private Instantanea masReciente() throws IOException {
+        for (Path archivo : listar()) {
+            try {
+                return Instantanea.abrir(archivo);
+            } catch (IOException e) {
+                // incompleta o danada, se intenta con la anterior
+            }
+        }
+        return null;
+    }
+
+    // De la mas reciente a la mas antigua, el nombre lleva la secuencia con ceros a la izquierda
+    private List<Path> listar() throws IOException {
+        try (Stream<Path> archivos = Files.list(directorio)) {
+            return archivos
+                    .filter(archivo -> {
+                        String nombre = archivo.getFileName().toString();
+                        return nombre.startsWith(PREFIJO) && nombre.endsWith(EXTENSION);
+                    })
+                    .sorted((a, b) -> b.getFileName().compareTo(a.getFileName()))
+                    .collect(Collectors.toList());
+        }
+    }
+
+    // Las entradas traen el saldo final de cada cuenta, reaplicar una que ya esta en la instantanea no cambia nada
+    private static void reaplicar(Banco banco, EntradaBitacora entrada) {
+        if (entrada.getTipo() == TipoOperacion.ALTA && banco.buscarPorId(entrada.getIdDestino()).isEmpty()) {
+            if (banco instanceof BancoColumnar) {
+                Cuenta cuenta = ((BancoColumnar) banco).agregarCuenta(entrada.getPersona(), entrada.getSaldoDestino());
+                if (cuenta.getId() != entrada.getIdDestino()) {
+                    throw new IllegalStateException("La bitacora no corresponde al banco: alta " + entrada.getIdDestino()
+                            + " en la posicion " + cuenta.getId());
+                }
+            } else {
+                // La bitacora no guarda el tipo de cuenta, las altas posteriores a la instantanea vuelven como Cuenta
+                banco.addCuenta(new Cuenta(entrada.getIdDestino(), entrada.getPersona(), entrada.getSaldoDestino()));
+            }
+            return;
+        }
+        if (entrada.getSaldoOrigen() != null) {
+            asignar(banco, entrada.getIdOrigen(), entrada.getSaldoOrigen());
+        }
+        if (entrada.getSaldoDestino() != null) {
+            asignar(banco, entrada.getIdDestino(), entrada.getSaldoDestino());
+        }
+    }
+
+    private static void asignar(Banco banco, long id, BigDecimal saldo) {
+        banco.buscarPorId(id)
+                .orElseThrow(() -> new IllegalStateException("La bitacora menciona la cuenta " + id + " que no existe"))
+                .setSaldo(saldo);
+    }
+
+}
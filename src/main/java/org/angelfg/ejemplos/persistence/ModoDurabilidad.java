@@ -0,0 +1,14 @@
+package org.angelfg.ejemplos.persistence;
+
+public enum ModoDurabilidad {
+
+    // Cada operacion hace su propio fsync antes de devolver el control
+    POR_OPERACION,
+
+    // Las operaciones que esperan a la vez comparten un mismo fsync
+    GRUPO,
+
+    // Se escribe en segundo plano, un fallo puede perder las ultimas operaciones
+    ASINCRONO
+
+}
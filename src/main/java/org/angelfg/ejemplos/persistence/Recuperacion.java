@@ -0,0 +1,64 @@
+package org.angelfg.ejemplos.persistence;
+
+import org.angelfg.ejemplos.models.Banco;
+
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.Optional;
+
+// Banco reconstruido al arrancar, con la bitacora ya abierta y registrada como observador
+public class Recuperacion {
+
+    private final Banco banco;
+    private final Bitacora bitacora;
+    private final Path instantanea;
+    private final long entradasReaplicadas;
+    private final Duration duracionCarga;
+    private final Duration duracionReaplicacion;
+
+    Recuperacion(Banco banco, Bitacora bitacora, Path instantanea, long entradasReaplicadas,
+                 Duration duracionCarga, Duration duracionReaplicacion) {
+        this.banco = banco;
+        this.bitacora = bitacora;
+        this.instantanea = instantanea;
+        this.entradasReaplicadas = entradasReaplicadas;
+        this.duracionCarga = duracionCarga;
+        this.duracionReaplicacion = duracionReaplicacion;
+    }
+
+    public Banco getBanco() {
+        return banco;
+    }
+
+    public Bitacora getBitacora() {
+        return bitacora;
+    }
+
+    // Vacio si se arranco sin instantanea y se reaplico toda la bitacora
+    public Optional<Path> getInstantanea() {
+        return Optional.ofNullable(instantanea);
+    }
+
+    public long getEntradasReaplicadas() {
+        return entradasReaplicadas;
+    }
+
+    public Duration getDuracionCarga() {
+        return duracionCarga;
+    }
+
+    public Duration getDuracionReaplicacion() {
+        return duracionReaplicacion;
+    }
+
+    @Override
+    public String toString() {
+        return "Recuperacion{" +
+                "instantanea=" + instantanea +
+                ", entradasReaplicadas=" + entradasReaplicadas +
+                ", duracionCarga=" + duracionCarga +
+                ", duracionReaplicacion=" + duracionReaplicacion +
+                '}';
+    }
+
+}
@@ -0,0 +1,229 @@
+package org.angelfg.ejemplos.services;
+
+import org.angelfg.ejemplos.exceptions.DineroInsuficienteException;
+import org.angelfg.ejemplos.models.Banco;
+import org.angelfg.ejemplos.models.Cuenta;
+
+import java.math.BigDecimal;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Banco repartido en particiones dentro del mismo proceso. Cada cuenta vive en una particion segun su id,
+ * y cada particion tiene su propio Banco y un solo hilo que aplica todas sus operaciones.
+ *
+ * Una transferencia entre cuentas de la misma particion es un Banco.transferir en el hilo de la particion.
+ * Entre particiones se hace en dos fases: la particion de origen reserva el monto debitando la cuenta, con la
+ * misma validacion de fondos de Cuenta.debito, y lo deja en transito; la de destino lo acredita; y el origen
+ * confirma y libera la reserva. Si el credito falla, el origen devuelve el monto. El saldo de las cuentas mas
+ * lo que esta en transito no cambia nunca. close deja de aceptar transferencias y espera a que terminen las que
+ * estan en curso antes de detener las particiones, asi ninguna queda con el monto reservado.
+ */
+public class BancoParticionado implements AutoCloseable {
+
+    private final Particion[] particiones;
+    private final AtomicLong secuenciaIds = new AtomicLong();
+    private final AtomicInteger enCurso = new AtomicInteger();
+    private volatile boolean cerrado;
+
+    public BancoParticionado(int particiones) {
+        if (particiones <= 0) {
+            throw new IllegalArgumentException("Debe haber al menos una particion");
+        }
+        this.particiones = new Particion[particiones];
+        for (int i = 0; i < particiones; i++) {
+            this.particiones[i] = new Particion(i);
+        }
+    }
+
+    public int getParticiones() {
+        return particiones.length;
+    }
+
+    // El id decide la particion, si no trae uno se le asigna antes de agregarla
+    public void addCuenta(Cuenta cuenta) {
+        if (cuenta.getId() == 0) {
+            cuenta.setId(secuenciaIds.incrementAndGet());
+        } else {
+            secuenciaIds.accumulateAndGet(cuenta.getId(), Math::max);
+        }
+        particion(cuenta.getId()).banco.addCuenta(cuenta);
+    }
+
+    public Optional<Cuenta> buscarPorId(long id) {
+        return particion(id).banco.buscarPorId(id);
+    }
+
+    public int particionDe(Cuenta cuenta) {
+        return particion(cuenta.getId()).indice;
+    }
+
+    private Particion particion(long id) {
+        return particiones[Math.floorMod(Long.hashCode(id * 0x9E3779B97F4A7C15L), particiones.length)];
+    }
+
+    // Falla con DineroInsuficienteException si el origen no alcanza, sin cambiar ningun saldo, y con
+    // RejectedExecutionException si el banco esta cerrado
+    public CompletableFuture<Void> transferir(Cuenta origen, Cuenta destino, BigDecimal monto) {
+        // Primero se cuenta y despues se mira cerrado, al reves que close: o close la espera o ella lo ve cerrado
+        enCurso.incrementAndGet();
+        if (cerrado) {
+            terminar();
+            return CompletableFuture.failedFuture(new RejectedExecutionException("El banco esta cerrado"));
+        }
+        CompletableFuture<Void> interno = new CompletableFuture<>();
+        interno.whenComplete((valor, error) -> terminar());
+        transferir(origen, destino, monto, interno);
+        return interno.copy(); // cancelar la copia no da por terminada la transferencia
+    }
+
+    private void transferir(Cuenta origen, Cuenta destino, BigDecimal monto, CompletableFuture<Void> resultado) {
+        Particion particionOrigen = particion(origen.getId());
+        Particion particionDestino = particion(destino.getId());
+
+        if (particionOrigen == particionDestino) {
+            particionOrigen.ejecutar(resultado, () -> {
+                if (particionOrigen.banco.tryTransferir(origen, destino, monto).isExitosa()) {
+                    resultado.complete(null);
+                } else {
+                    resultado.completeExceptionally(DineroInsuficienteException.compartida());
+                }
+            });
+            return;
+        }
+
+        particionOrigen.ejecutar(resultado, () -> {
+            if (!particionOrigen.reservar(origen, monto)) {
+                resultado.completeExceptionally(DineroInsuficienteException.compartida());
+                return;
+            }
+            particionDestino.ejecutar(resultado, () -> {
+                try {
+                    destino.credito(monto);
+                } catch (RuntimeException e) {
+                    particionOrigen.ejecutar(resultado, () -> {
+                        particionOrigen.devolver(origen, monto);
+                        resultado.completeExceptionally(e);
+                    });
+                    return;
+                }
+                particionOrigen.ejecutar(resultado, () -> {
+                    particionOrigen.liberar(monto);
+                    resultado.complete(null);
+                });
+            });
+        });
+    }
+
+    private void terminar() {
+        if (enCurso.decrementAndGet() == 0 && cerrado) {
+            synchronized (enCurso) {
+                enCurso.notifyAll();
+            }
+        }
+    }
+
+    // Debitado en el origen y todavia no confirmado
+    public BigDecimal getEnTransito() {
+        BigDecimal total = BigDecimal.ZERO;
+        for (Particion particion : particiones) {
+            total = total.add(particion.reservado);
+        }
+        return total;
+    }
+
+    // No es una foto: las particiones siguen operando mientras se suma
+    public BigDecimal sumarSaldos() {
+        BigDecimal total = BigDecimal.ZERO;
+        for (Particion particion : particiones) {
+            for (Cuenta cuenta : particion.banco.getCuentas().toArray(new Cuenta[0])) {
+                total = total.add(cuenta.getSaldo());
+            }
+        }
+        return total;
+    }
+
+    // No acepta mas transferencias, espera las que estan en curso, sus dos fases, y despues a que cada
+    // particion termine lo que ya tenia en cola
+    @Override
+    public void close() {
+        cerrado = true;
+        synchronized (enCurso) {
+            while (enCurso.get() > 0) {
+                try {
+                    enCurso.wait();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+            }
+        }
+        for (Particion particion : particiones) {
+            particion.executor.shutdown();
+        }
+        for (Particion particion : particiones) {
+            try {
+                particion.executor.awaitTermination(1, TimeUnit.MINUTES);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+
+    private static final class Particion {
+
+        private final int indice;
+        private final Banco banco = new Banco();
+        private final ExecutorService executor;
+        private volatile BigDecimal reservado = BigDecimal.ZERO; // solo lo escribe el hilo de la particion
+
+        Particion(int indice) {
+            this.indice = indice;
+            this.executor = Executors.newSingleThreadExecutor(tarea -> {
+                Thread hilo = new Thread(tarea, "particion-" + indice);
+                hilo.setDaemon(true);
+                return hilo;
+            });
+        }
+
+        void ejecutar(CompletableFuture<Void> resultado, Runnable tarea) {
+            try {
+                executor.execute(() -> {
+                    try {
+                        tarea.run();
+                    } catch (Throwable e) {
+                        resultado.completeExceptionally(e);
+                    }
+                });
+            } catch (RejectedExecutionException e) {
+                resultado.completeExceptionally(e); // banco cerrado
+            }
+        }
+
+        boolean reservar(Cuenta cuenta, BigDecimal monto) {
+            if (!cuenta.tryDebito(monto).isExitosa()) {
+                return false;
+            }
+            reservado = reservado.add(monto);
+            return true;
+        }
+
+        void liberar(BigDecimal monto) {
+            reservado = reservado.subtract(monto);
+        }
+
+        void devolver(Cuenta cuenta, BigDecimal monto) {
+            cuenta.credito(monto);
+            liberar(monto);
+        }
+
+    }
+
+}
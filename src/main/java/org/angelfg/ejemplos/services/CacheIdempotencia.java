@@ -0,0 +1,214 @@
+package org.angelfg.ejemplos.services;
+
+import java.time.Duration;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.LongSupplier;
+
+/**
+ * Cache acotada para recordar solicitudes recientes, con desalojo por tamanio y por tiempo.
+ *
+ * Las claves se reparten en segmentos, cada uno con su lock, asi la busqueda cuesta lo mismo con cualquier cantidad
+ * de hilos y de entradas. Cada segmento es un LRU segmentado: las entradas nuevas entran a prueba y pasan a la
+ * parte protegida cuando se vuelven a pedir; una rafaga de claves que se usan una sola vez solo desaloja a otras
+ * de prueba. Una entrada vencida cuenta como ausente y se quita al encontrarla.
+ */
+public class CacheIdempotencia<K, V> {
+
+    private static final double FRACCION_PROTEGIDA = 0.8;
+
+    private final Segmento<K, V>[] segmentos;
+    private final long vigenciaNanos;
+    private final LongSupplier reloj;
+
+    private final LongAdder aciertos = new LongAdder();
+    private final LongAdder fallos = new LongAdder();
+    private final LongAdder desalojadas = new LongAdder();
+
+    public CacheIdempotencia(int capacidad, Duration vigencia) {
+        this(capacidad, vigencia, System::nanoTime);
+    }
+
+    CacheIdempotencia(int capacidad, Duration vigencia, LongSupplier reloj) {
+        if (capacidad <= 0) {
+            throw new IllegalArgumentException("La capacidad debe ser mayor que cero");
+        }
+        if (vigencia.isNegative() || vigencia.isZero()) {
+            throw new IllegalArgumentException("La vigencia debe ser positiva");
+        }
+        int cantidad = Integer.highestOneBit(Math.max(1, Math.min(capacidad / 64, Runtime.getRuntime().availableProcessors() * 4)) * 2 - 1);
+        int porSegmento = (capacidad + cantidad - 1) / cantidad;
+        @SuppressWarnings("unchecked")
+        Segmento<K, V>[] segmentos = (Segmento<K, V>[]) new Segmento<?, ?>[cantidad];
+        for (int i = 0; i < cantidad; i++) {
+            segmentos[i] = new Segmento<>(porSegmento);
+        }
+        this.segmentos = segmentos;
+        this.vigenciaNanos = vigencia.toNanos();
+        this.reloj = reloj;
+    }
+
+    private Segmento<K, V> segmento(Object clave) {
+        int hash = clave.hashCode();
+        hash ^= hash >>> 16;
+        return segmentos[hash & (segmentos.length - 1)];
+    }
+
+    // null si no esta o ya vencio
+    public V buscar(K clave) {
+        V valor = segmento(clave).buscar(clave, reloj.getAsLong());
+        (valor == null ? fallos : aciertos).increment();
+        return valor;
+    }
+
+    // Agrega solo si la clave no esta vigente, devuelve el valor que ya estaba o null si se agrego
+    public V agregarSiFalta(K clave, V valor) {
+        long ahora = reloj.getAsLong();
+        Segmento<K, V> segmento = segmento(clave);
+        segmento.lock.lock();
+        try {
+            V anterior = segmento.buscar(clave, ahora);
+            if (anterior != null) {
+                aciertos.increment();
+                return anterior;
+            }
+            fallos.increment();
+            desalojadas.add(segmento.agregar(clave, new Entrada<>(valor, ahora + vigenciaNanos), ahora));
+            return null;
+        } finally {
+            segmento.lock.unlock();
+        }
+    }
+
+    // Quita la clave solo si todavia tiene ese valor
+    public void quitar(K clave, V valor) {
+        Segmento<K, V> segmento = segmento(clave);
+        segmento.lock.lock();
+        try {
+            Entrada<V> entrada = segmento.prueba.get(clave);
+            if (entrada != null && entrada.valor == valor) {
+                segmento.prueba.remove(clave);
+            }
+            entrada = segmento.protegida.get(clave);
+            if (entrada != null && entrada.valor == valor) {
+                segmento.protegida.remove(clave);
+            }
+        } finally {
+            segmento.lock.unlock();
+        }
+    }
+
+    public int getCapacidad() {
+        return segmentos.length * segmentos[0].capacidad;
+    }
+
+    // Incluye las vencidas que todavia no se encontraron
+    public int getTamanio() {
+        int tamanio = 0;
+        for (Segmento<K, V> segmento : segmentos) {
+            segmento.lock.lock();
+            try {
+                tamanio += segmento.prueba.size() + segmento.protegida.size();
+            } finally {
+                segmento.lock.unlock();
+            }
+        }
+        return tamanio;
+    }
+
+    public long getAciertos() {
+        return aciertos.sum();
+    }
+
+    public long getFallos() {
+        return fallos.sum();
+    }
+
+    public long getDesalojadas() {
+        return desalojadas.sum();
+    }
+
+    private static final class Entrada<V> {
+
+        private final V valor;
+        private final long vence;
+
+        Entrada(V valor, long vence) {
+            this.valor = valor;
+            this.vence = vence;
+        }
+
+    }
+
+    private static final class Segmento<K, V> {
+
+        private final ReentrantLock lock = new ReentrantLock();
+        private final int capacidad;
+        private final int capacidadProtegida;
+        // En orden de acceso, la primera entrada es la que hace mas tiempo no se usa
+        private final LinkedHashMap<K, Entrada<V>> prueba = new LinkedHashMap<>(16, 0.75f, true);
+        private final LinkedHashMap<K, Entrada<V>> protegida = new LinkedHashMap<>(16, 0.75f, true);
+
+        Segmento(int capacidad) {
+            this.capacidad = capacidad;
+            this.capacidadProtegida = (int) (capacidad * FRACCION_PROTEGIDA);
+        }
+
+        V buscar(Object clave, long ahora) {
+            lock.lock();
+            try {
+                Entrada<V> entrada = protegida.get(clave);
+                if (entrada != null) {
+                    if (entrada.vence - ahora > 0) return entrada.valor;
+                    protegida.remove(clave);
+                    return null;
+                }
+                entrada = prueba.remove(clave);
+                if (entrada == null || entrada.vence - ahora <= 0) {
+                    return null;
+                }
+                proteger(clave, entrada);
+                return entrada.valor;
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        // Pedida de nuevo: pasa a la parte protegida, la menos usada de la protegida vuelve a prueba
+        @SuppressWarnings("unchecked")
+        private void proteger(Object clave, Entrada<V> entrada) {
+            protegida.put((K) clave, entrada);
+            if (protegida.size() > capacidadProtegida) {
+                Iterator<Map.Entry<K, Entrada<V>>> menosUsada = protegida.entrySet().iterator();
+                Map.Entry<K, Entrada<V>> degradada = menosUsada.next();
+                menosUsada.remove();
+                prueba.put(degradada.getKey(), degradada.getValue());
+            }
+        }
+
+        // Con el lock tomado, devuelve cuantas entradas desalojo
+        int agregar(K clave, Entrada<V> entrada, long ahora) {
+            prueba.put(clave, entrada);
+            int desalojadas = 0;
+            Iterator<Map.Entry<K, Entrada<V>>> menosUsadas = prueba.entrySet().iterator();
+            while (menosUsadas.hasNext()) {
+                Map.Entry<K, Entrada<V>> siguiente = menosUsadas.next();
+                boolean sobra = prueba.size() + protegida.size() > capacidad;
+                if (!sobra && siguiente.getValue().vence - ahora > 0) {
+                    break; // se quitan de paso las vencidas del principio
+                }
+                if (siguiente.getKey() == clave) {
+                    break;
+                }
+                menosUsadas.remove();
+                if (sobra) desalojadas++;
+            }
+            return desalojadas;
+        }
+
+    }
+
+}
@@ -0,0 +1,222 @@
+package org.angelfg.ejemplos.services;
+
+import org.angelfg.ejemplos.models.Banco;
+import org.angelfg.ejemplos.models.Cuenta;
+import org.angelfg.ejemplos.models.ResultadoOperacion;
+
+import java.math.BigDecimal;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.BiConsumer;
+
+/**
+ * Aplica transferencias desde un solo hilo que las toma de un buffer circular preasignado.
+ * Los productores reservan un lugar con un incremento atomico, copian el comando en el objeto que ya esta
+ * en ese lugar y lo publican; el consumidor aplica en orden todo lo publicado que encuentra, asi con carga
+ * las transferencias se procesan en lotes sin esperas entre ellas. El orden de aplicacion es el de reserva.
+ *
+ * Cada resultado vuelve por el callback del comando, desde el hilo consumidor: el callback debe ser corto.
+ * Publicar con un callback reutilizado no crea objetos; transferir() crea un CompletableFuture por comodidad.
+ * Las cuentas siguen tomando su lock, sin competencia, por si otros hilos usan el banco directamente.
+ */
+public class SecuenciadorTransferencias implements AutoCloseable {
+
+    public static final int CAPACIDAD_POR_DEFECTO = 1 << 16;
+
+    private static final int ESPERAS_ACTIVAS = 200;
+    private static final long ESPERA_DORMIDO_NANOS = 50_000;
+    private static final long CERRADO = Long.MIN_VALUE; // bit de reservados, las reservas despues de cerrar son negativas
+
+    private final Banco banco;
+    private final Comando[] comandos;
+    private final AtomicLongArray publicados; // secuencia publicada en cada lugar
+    private final int mascara;
+
+    private final AtomicLong reservados = new AtomicLong(); // proxima secuencia a reservar, con el bit CERRADO
+    private final AtomicLong consumidos = new AtomicLong(); // proxima secuencia a aplicar
+    private final LongAdder esperasPorLugar = new LongAdder();
+    private final AtomicLong lotes = new AtomicLong();
+    private volatile int loteMaximo;
+    private final LongAdder callbacksConError = new LongAdder();
+
+    private final Thread consumidor;
+    private volatile boolean cerrado;
+    private volatile long ultimaReserva; // secuencias reservadas antes de cerrar, se escribe antes que cerrado
+
+    public SecuenciadorTransferencias(Banco banco) {
+        this(banco, CAPACIDAD_POR_DEFECTO);
+    }
+
+    // La capacidad se redondea a la potencia de dos siguiente
+    public SecuenciadorTransferencias(Banco banco, int capacidad) {
+        if (capacidad <= 0 || capacidad > 1 << 30) {
+            throw new IllegalArgumentException("La capacidad debe estar entre 1 y 2^30");
+        }
+        int tamanio = Integer.highestOneBit(capacidad * 2 - 1);
+        this.banco = banco;
+        this.mascara = tamanio - 1;
+        this.comandos = new Comando[tamanio];
+        this.publicados = new AtomicLongArray(tamanio);
+        for (int i = 0; i < tamanio; i++) {
+            comandos[i] = new Comando();
+            publicados.set(i, -1);
+        }
+        this.consumidor = new Thread(this::consumir, "secuenciador-transferencias");
+        this.consumidor.setDaemon(true);
+        this.consumidor.start();
+    }
+
+    // El callback recibe el resultado o la excepcion (por ejemplo un monto que no entra en la escala de la cuenta)
+    public void publicar(Cuenta origen, Cuenta destino, BigDecimal monto, BiConsumer<ResultadoOperacion, RuntimeException> callback) {
+        long secuencia = reservados.getAndIncrement();
+        if (secuencia < 0) {
+            throw new IllegalStateException("El secuenciador esta cerrado"); // la reserva no cuenta, close ya fijo el final
+        }
+        if (secuencia - comandos.length >= consumidos.get()) {
+            esperarLugar(secuencia);
+        }
+        Comando comando = comandos[(int) secuencia & mascara];
+        comando.origen = origen;
+        comando.destino = destino;
+        comando.monto = monto;
+        comando.callback = callback;
+        publicados.lazySet((int) secuencia & mascara, secuencia); // publica los campos del comando
+    }
+
+    public CompletableFuture<ResultadoOperacion> transferir(Cuenta origen, Cuenta destino, BigDecimal monto) {
+        CompletableFuture<ResultadoOperacion> resultado = new CompletableFuture<>();
+        publicar(origen, destino, monto, (valor, error) -> {
+            if (error == null) resultado.complete(valor); else resultado.completeExceptionally(error);
+        });
+        return resultado;
+    }
+
+    // Buffer lleno: el productor espera a que el consumidor libere su lugar
+    private void esperarLugar(long secuencia) {
+        esperasPorLugar.increment();
+        int intentos = 0;
+        while (secuencia - comandos.length >= consumidos.get()) {
+            intentos = esperar(intentos);
+        }
+    }
+
+    private static int esperar(int intentos) {
+        if (intentos < ESPERAS_ACTIVAS) {
+            Thread.onSpinWait();
+        } else if (intentos < ESPERAS_ACTIVAS * 2) {
+            Thread.yield();
+        } else {
+            LockSupport.parkNanos(ESPERA_DORMIDO_NANOS);
+        }
+        return intentos + 1;
+    }
+
+    private void consumir() {
+        long siguiente = 0;
+        int intentos = 0;
+        while (true) {
+            long inicioLote = siguiente;
+            int indice = (int) siguiente & mascara;
+            while (publicados.get(indice) == siguiente) {
+                aplicar(comandos[indice]);
+                siguiente++;
+                indice = (int) siguiente & mascara;
+            }
+            if (siguiente > inicioLote) {
+                consumidos.lazySet(siguiente); // libera el lote completo de una vez
+                lotes.incrementAndGet();
+                if (siguiente - inicioLote > loteMaximo) {
+                    loteMaximo = (int) Math.min(siguiente - inicioLote, Integer.MAX_VALUE);
+                }
+                intentos = 0;
+            } else if (cerrado && siguiente == ultimaReserva) {
+                return;
+            } else {
+                intentos = esperar(intentos);
+            }
+        }
+    }
+
+    // Nada de lo que lanza una transferencia o su callback puede detener al consumidor: sin el, los productores
+    // esperan lugar y close espera el final para siempre
+    private void aplicar(Comando comando) {
+        ResultadoOperacion resultado = null;
+        RuntimeException error = null;
+        try {
+            resultado = banco.tryTransferir(comando.origen, comando.destino, comando.monto);
+        } catch (RuntimeException e) {
+            error = e;
+        } catch (Throwable e) {
+            error = new IllegalStateException("No se pudo aplicar la transferencia", e); // el callback solo recibe RuntimeException
+        }
+        BiConsumer<ResultadoOperacion, RuntimeException> callback = comando.callback;
+        comando.limpiar(); // no retener cuentas ni callbacks hasta la proxima vuelta
+        try {
+            callback.accept(resultado, error);
+        } catch (Throwable e) {
+            callbacksConError.increment();
+        }
+    }
+
+    public long getProcesadas() {
+        return consumidos.get();
+    }
+
+    public long getLotes() {
+        return lotes.get();
+    }
+
+    public int getLoteMaximo() {
+        return loteMaximo;
+    }
+
+    public long getEsperasPorLugar() {
+        return esperasPorLugar.sum();
+    }
+
+    // Callbacks que lanzaron una excepcion o un error, el consumidor lo descarta y sigue
+    public long getCallbacksConError() {
+        return callbacksConError.sum();
+    }
+
+    public int getCapacidad() {
+        return comandos.length;
+    }
+
+    // Aplica lo que ya se publico y detiene el consumidor, publicar despues de cerrar es un error.
+    // Marcar el cierre en reservados separa en un solo paso las reservas que se aplican de las que se rechazan
+    @Override
+    public void close() {
+        synchronized (this) {
+            if (!cerrado) {
+                ultimaReserva = reservados.getAndAdd(CERRADO);
+                cerrado = true;
+            }
+        }
+        try {
+            consumidor.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static final class Comando {
+
+        private Cuenta origen;
+        private Cuenta destino;
+        private BigDecimal monto;
+        private BiConsumer<ResultadoOperacion, RuntimeException> callback;
+
+        void limpiar() {
+            origen = null;
+            destino = null;
+            monto = null;
+            callback = null;
+        }
+
+    }
+
+}
@@ -0,0 +1,207 @@
+package org.angelfg.ejemplos.services;
+
+import org.angelfg.ejemplos.exceptions.DineroInsuficienteException;
+import org.angelfg.ejemplos.models.Banco;
+import org.angelfg.ejemplos.models.Cuenta;
+import org.angelfg.ejemplos.models.Transferencia;
+
+import java.math.BigDecimal;
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Servicio asincrono alrededor de Banco.transferir. Cada transferencia corre en su propio hilo virtual cuando
+ * la JVM los tiene (Java 21+), o en el executor que se indique.
+ *
+ * La admision es acotada: con el maximo de transferencias en vuelo las nuevas se rechazan al momento en lugar
+ * de hacer cola sin limite. El timeout cuenta la espera hasta empezar; una transferencia que ya empezo termina,
+ * una que vencio antes de empezar no se aplica.
+ */
+public class ServicioTransferencias implements AutoCloseable {
+
+    public static final int MAXIMO_EN_VUELO_POR_DEFECTO = 500_000;
+
+    private static final int PENDIENTE = 0;
+    private static final int EJECUTANDO = 1;
+    private static final int VENCIDA = 2;
+
+    private final Banco banco;
+    private final Executor executor;
+    private final boolean executorPropio;
+    private final Semaphore admision;
+    private final int maximoEnVuelo;
+    private final long timeoutNanos;
+    private final ScheduledThreadPoolExecutor temporizador;
+
+    private final LongAdder rechazadas = new LongAdder();
+    private final LongAdder vencidas = new LongAdder();
+    private final LongAdder fondosInsuficientes = new LongAdder();
+
+    public ServicioTransferencias(Banco banco) {
+        this(banco, MAXIMO_EN_VUELO_POR_DEFECTO, null);
+    }
+
+    // Con el executor de crearExecutor, que el servicio cierra en close
+    public ServicioTransferencias(Banco banco, int maximoEnVuelo, Duration timeout) {
+        this(banco, crearExecutor(), true, maximoEnVuelo, timeout);
+    }
+
+    // Duration null o cero para no usar timeout, el executor lo sigue administrando quien lo paso
+    public ServicioTransferencias(Banco banco, Executor executor, int maximoEnVuelo, Duration timeout) {
+        this(banco, executor, false, maximoEnVuelo, timeout);
+    }
+
+    private ServicioTransferencias(Banco banco, Executor executor, boolean executorPropio, int maximoEnVuelo, Duration timeout) {
+        if (maximoEnVuelo <= 0) {
+            throw new IllegalArgumentException("El maximo de transferencias en vuelo debe ser mayor que cero");
+        }
+        this.banco = banco;
+        this.executor = executor;
+        this.executorPropio = executorPropio;
+        this.maximoEnVuelo = maximoEnVuelo;
+        this.admision = new Semaphore(maximoEnVuelo);
+        this.timeoutNanos = timeout == null ? 0 : timeout.toNanos();
+
+        if (timeoutNanos > 0) {
+            temporizador = new ScheduledThreadPoolExecutor(1, tarea -> {
+                Thread hilo = new Thread(tarea, "transferencias-timeout");
+                hilo.setDaemon(true);
+                return hilo;
+            });
+            temporizador.setRemoveOnCancelPolicy(true); // las que terminan a tiempo no dejan basura en la cola
+        } else {
+            temporizador = null;
+        }
+    }
+
+    // Hilos virtuales si la JVM los tiene, se buscan por reflexion para seguir compilando con Java 17
+    public static ExecutorService crearExecutor() {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException e) {
+            return Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors() * 2, tarea -> {
+                Thread hilo = new Thread(tarea, "transferencias");
+                hilo.setDaemon(true);
+                return hilo;
+            });
+        }
+    }
+
+    public static boolean hayHilosVirtuales() {
+        try {
+            Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            return true;
+        } catch (NoSuchMethodException e) {
+            return false;
+        }
+    }
+
+    public CompletableFuture<Void> transferir(Cuenta origen, Cuenta destino, BigDecimal monto) {
+        return transferir(new Transferencia(origen, destino, monto));
+    }
+
+    public CompletableFuture<Void> transferir(Transferencia transferencia) {
+        CompletableFuture<Void> resultado = new CompletableFuture<>();
+        if (!admision.tryAcquire()) {
+            rechazadas.increment();
+            resultado.completeExceptionally(new RejectedExecutionException(
+                    "Hay " + maximoEnVuelo + " transferencias en vuelo, intente mas tarde"));
+            return resultado;
+        }
+
+        AtomicInteger estado = new AtomicInteger(PENDIENTE);
+        ScheduledFuture<?> vencimiento = null;
+        if (temporizador != null) {
+            try {
+                vencimiento = temporizador.schedule(() -> {
+                    if (estado.compareAndSet(PENDIENTE, VENCIDA)) {
+                        vencidas.increment();
+                        admision.release();
+                        resultado.completeExceptionally(new TimeoutException("La transferencia no empezo a tiempo"));
+                    }
+                }, timeoutNanos, TimeUnit.NANOSECONDS);
+            } catch (RejectedExecutionException e) {
+                // el servicio ya se cerro
+                admision.release();
+                rechazadas.increment();
+                resultado.completeExceptionally(e);
+                return resultado;
+            }
+        }
+
+        ScheduledFuture<?> cancelar = vencimiento;
+        try {
+            executor.execute(() -> {
+                if (!estado.compareAndSet(PENDIENTE, EJECUTANDO)) {
+                    return; // vencio mientras esperaba
+                }
+                if (cancelar != null) cancelar.cancel(false);
+                try {
+                    if (banco.tryTransferir(transferencia.getOrigen(), transferencia.getDestino(), transferencia.getMonto()).isExitosa()) {
+                        resultado.complete(null);
+                    } else {
+                        fondosInsuficientes.increment();
+                        resultado.completeExceptionally(DineroInsuficienteException.compartida());
+                    }
+                } catch (Throwable e) {
+                    resultado.completeExceptionally(e);
+                } finally {
+                    admision.release();
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            if (estado.compareAndSet(PENDIENTE, VENCIDA)) {
+                if (cancelar != null) cancelar.cancel(false);
+                admision.release();
+            }
+            rechazadas.increment();
+            resultado.completeExceptionally(e);
+        }
+        return resultado;
+    }
+
+    public int getEnVuelo() {
+        return maximoEnVuelo - admision.availablePermits();
+    }
+
+    public long getRechazadas() {
+        return rechazadas.sum();
+    }
+
+    public long getVencidas() {
+        return vencidas.sum();
+    }
+
+    public long getFondosInsuficientes() {
+        return fondosInsuficientes.sum();
+    }
+
+    // Cierra el executor solo si lo creo el servicio, espera a que terminen las transferencias admitidas
+    @Override
+    public void close() {
+        if (temporizador != null) {
+            temporizador.shutdown();
+        }
+        if (executorPropio) {
+            ExecutorService propio = (ExecutorService) executor;
+            propio.shutdown();
+            try {
+                propio.awaitTermination(1, TimeUnit.MINUTES);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+}
@@ -0,0 +1,98 @@
+package org.angelfg.ejemplos.services;
+
+import org.angelfg.ejemplos.models.Banco;
+import org.angelfg.ejemplos.models.Cuenta;
+import org.angelfg.ejemplos.models.ResultadoOperacion;
+
+import java.math.BigDecimal;
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Transferencias con clave de idempotencia: un reintento con la misma clave devuelve el resultado de la primera
+ * vez sin tocar los saldos. Si el reintento llega mientras la primera sigue en curso, espera su resultado.
+ *
+ * Se recuerdan las transferencias aplicadas y las rechazadas por fondos. Si la transferencia falla con otra
+ * excepcion no se movio dinero y la clave se olvida, asi el reintento vuelve a intentarla.
+ */
+public class TransferenciasIdempotentes {
+
+    public static final int CAPACIDAD_POR_DEFECTO = 1_000_000;
+    public static final Duration VIGENCIA_POR_DEFECTO = Duration.ofHours(24);
+
+    private final Banco banco;
+    private final CacheIdempotencia<String, Solicitud> solicitudes;
+    private final LongAdder reintentos = new LongAdder();
+
+    public TransferenciasIdempotentes(Banco banco) {
+        this(banco, new CacheIdempotencia<>(CAPACIDAD_POR_DEFECTO, VIGENCIA_POR_DEFECTO));
+    }
+
+    public TransferenciasIdempotentes(Banco banco, CacheIdempotencia<String, Solicitud> solicitudes) {
+        this.banco = banco;
+        this.solicitudes = solicitudes;
+    }
+
+    // IllegalArgumentException si la clave ya se uso con otras cuentas u otro monto
+    public ResultadoOperacion transferir(String clave, Cuenta origen, Cuenta destino, BigDecimal monto) {
+        Solicitud solicitud = new Solicitud(origen.getId(), destino.getId(), monto);
+        Solicitud anterior = solicitudes.agregarSiFalta(clave, solicitud);
+        if (anterior != null) {
+            if (!anterior.mismaTransferencia(solicitud)) {
+                throw new IllegalArgumentException("La clave " + clave + " ya se uso para otra transferencia");
+            }
+            reintentos.increment();
+            try {
+                return anterior.resultado.join();
+            } catch (CompletionException e) {
+                // La primera fallo, el que reintenta ve el mismo error
+                Throwable causa = e.getCause();
+                if (causa instanceof RuntimeException) throw (RuntimeException) causa;
+                if (causa instanceof Error) throw (Error) causa;
+                throw e;
+            }
+        }
+
+        try {
+            ResultadoOperacion resultado = banco.tryTransferir(origen, destino, monto);
+            solicitud.resultado.complete(resultado);
+            return resultado;
+        } catch (Throwable e) {
+            // Tambien con un Error: sin completar, los reintentos esperarian para siempre
+            solicitudes.quitar(clave, solicitud);
+            solicitud.resultado.completeExceptionally(e);
+            throw e;
+        }
+    }
+
+    public long getReintentos() {
+        return reintentos.sum();
+    }
+
+    public CacheIdempotencia<String, Solicitud> getSolicitudes() {
+        return solicitudes;
+    }
+
+    // Lo que se recuerda de cada clave: la transferencia pedida y su resultado
+    public static final class Solicitud {
+
+        private final long origen;
+        private final long destino;
+        private final BigDecimal monto;
+        private final CompletableFuture<ResultadoOperacion> resultado = new CompletableFuture<>();
+
+        Solicitud(long origen, long destino, BigDecimal monto) {
+            this.origen = origen;
+            this.destino = destino;
+            this.monto = monto;
+        }
+
+        boolean mismaTransferencia(Solicitud otra) {
+            return origen == otra.origen && destino == otra.destino && monto.compareTo(otra.monto) == 0;
+        }
+
+    }
+
+}
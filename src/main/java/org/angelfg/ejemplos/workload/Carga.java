@@ -0,0 +1,146 @@
+package org.angelfg.ejemplos.workload;
+
+import org.angelfg.ejemplos.ingestion.AnalizadorFilas;
+import org.angelfg.ejemplos.models.TipoOperacion;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+/**
+ * Secuencia de operaciones para repetir contra un banco, guardada en columnas de primitivos.
+ *
+ * En archivo tiene la forma de data.csv, una operacion por linea, y se lee con el mismo AnalizadorFilas que
+ * IngestaMovimientos: "monto" o "id,monto" es un debito si el monto es positivo y un credito si es negativo,
+ * como en el resto de los usos de data.csv, y "origen,destino,monto" es una transferencia. Las filas que solo
+ * traen el monto son de la cuenta 1. Cada monto se guarda sin escala junto con la escala de su fila.
+ */
+public class Carga {
+
+    private static final long CUENTA_POR_DEFECTO = 1;
+
+    private TipoOperacion[] tipos;
+    private long[] origenes;
+    private long[] destinos;
+    private long[] montos;
+    private byte[] escalas;
+    private int operaciones;
+
+    Carga(int capacidad) {
+        tipos = new TipoOperacion[Math.max(capacidad, 16)];
+        origenes = new long[tipos.length];
+        destinos = new long[tipos.length];
+        montos = new long[tipos.length];
+        escalas = new byte[tipos.length];
+    }
+
+    // Los debitos usan solo el origen y los creditos solo el destino
+    void agregar(TipoOperacion tipo, long origen, long destino, long montoSinEscala, int escala) {
+        if (operaciones == tipos.length) {
+            int capacidad = tipos.length * 2;
+            tipos = Arrays.copyOf(tipos, capacidad);
+            origenes = Arrays.copyOf(origenes, capacidad);
+            destinos = Arrays.copyOf(destinos, capacidad);
+            montos = Arrays.copyOf(montos, capacidad);
+            escalas = Arrays.copyOf(escalas, capacidad);
+        }
+        tipos[operaciones] = tipo;
+        origenes[operaciones] = origen;
+        destinos[operaciones] = destino;
+        montos[operaciones] = montoSinEscala;
+        escalas[operaciones] = (byte) escala;
+        operaciones++;
+    }
+
+    public static Carga leer(Path archivo) throws IOException {
+        Carga carga = new Carga(1024);
+        ByteBuffer bytes = ByteBuffer.wrap(Files.readAllBytes(archivo));
+        AnalizadorFilas fila = new AnalizadorFilas(bytes, 0, true);
+        int posicion = 0;
+        try {
+            while (posicion < bytes.limit()) {
+                posicion = fila.fila(posicion);
+                if (fila.getCampos() > 0) carga.agregar(fila);
+            }
+        } catch (IllegalArgumentException | ArithmeticException e) {
+            throw new IllegalArgumentException(e.getMessage() + " de " + archivo, e);
+        }
+        return carga;
+    }
+
+    private void agregar(AnalizadorFilas fila) {
+        long monto = fila.getMonto();
+        int escala = fila.getEscala();
+        if (fila.getCampos() == 3) {
+            if (monto < 0) {
+                throw fila.error("Transferencia con monto negativo");
+            }
+            agregar(TipoOperacion.TRANSFERENCIA, fila.getId(0), fila.getId(1), monto, escala);
+        } else {
+            long id = fila.getCampos() == 2 ? fila.getId(0) : CUENTA_POR_DEFECTO;
+            if (monto >= 0) agregar(TipoOperacion.DEBITO, id, 0, monto, escala);
+            else agregar(TipoOperacion.CREDITO, 0, id, -monto, escala);
+        }
+    }
+
+    public void escribir(Path archivo) throws IOException {
+        try (BufferedWriter escritor = Files.newBufferedWriter(archivo)) {
+            for (int i = 0; i < operaciones; i++) {
+                String monto = getMonto(i).toPlainString();
+                switch (tipos[i]) {
+                    case DEBITO:
+                        escritor.write(origenes[i] + "," + monto);
+                        break;
+                    case CREDITO:
+                        escritor.write(destinos[i] + ",-" + monto);
+                        break;
+                    default:
+                        escritor.write(origenes[i] + "," + destinos[i] + "," + monto);
+                }
+                escritor.newLine();
+            }
+        }
+    }
+
+    public int getOperaciones() {
+        return operaciones;
+    }
+
+    public TipoOperacion getTipo(int operacion) {
+        return tipos[operacion];
+    }
+
+    public long getOrigen(int operacion) {
+        return origenes[operacion];
+    }
+
+    public long getDestino(int operacion) {
+        return destinos[operacion];
+    }
+
+    public long getMontoSinEscala(int operacion) {
+        return montos[operacion];
+    }
+
+    public int getEscala(int operacion) {
+        return escalas[operacion];
+    }
+
+    public BigDecimal getMonto(int operacion) {
+        return BigDecimal.valueOf(montos[operacion], escalas[operacion]);
+    }
+
+    // Mayor id de cuenta que aparece, el banco para repetir la carga necesita las cuentas 1 a este id
+    public long getMayorId() {
+        long mayor = 0;
+        for (int i = 0; i < operaciones; i++) {
+            mayor = Math.max(mayor, Math.max(origenes[i], destinos[i]));
+        }
+        return mayor;
+    }
+
+}
@@ -0,0 +1,172 @@
+package org.angelfg.ejemplos.workload;
+
+import org.angelfg.ejemplos.exceptions.DineroInsuficienteException;
+import org.angelfg.ejemplos.metrics.Histograma;
+import org.angelfg.ejemplos.models.Banco;
+import org.angelfg.ejemplos.models.Cuenta;
+import org.angelfg.ejemplos.models.CuentaPuntoFijo;
+import org.angelfg.ejemplos.models.TipoOperacion;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.math.BigDecimal;
+import java.time.Duration;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Repite una carga contra un banco con varios hilos y mide rendimiento, latencia de cada operacion y bytes
+ * asignados. El hilo i aplica las operaciones i, i + hilos, i + 2 * hilos..., asi todos avanzan por la carga
+ * al mismo ritmo. Las cuentas se resuelven antes de empezar a medir.
+ *
+ * Por defecto se usan debito y transferir como los usaria una aplicacion, los rechazos lanzan
+ * DineroInsuficienteException. Con setSinExcepciones se usan tryDebito y tryTransferir.
+ */
+public class EjecutorCarga {
+
+    // Resultado de aplicar una operacion
+    private static final int APLICADA = 0;
+    private static final int RECHAZADA = 1;
+    private static final int SIN_CUENTA = 2;
+
+    private final Banco banco;
+    private int hilos = Runtime.getRuntime().availableProcessors();
+    private boolean sinExcepciones;
+
+    public EjecutorCarga(Banco banco) {
+        this.banco = banco;
+    }
+
+    // Banco con las cuentas 1 a cuentas, todas de punto fijo con el mismo saldo
+    public static Banco crearBanco(int cuentas, BigDecimal saldoInicial) {
+        Banco banco = new Banco();
+        for (int id = 1; id <= cuentas; id++) {
+            Cuenta cuenta = new CuentaPuntoFijo(null, saldoInicial);
+            cuenta.setId(id);
+            banco.addCuenta(cuenta);
+        }
+        return banco;
+    }
+
+    public void setHilos(int hilos) {
+        if (hilos <= 0) {
+            throw new IllegalArgumentException("hilos debe ser mayor que cero");
+        }
+        this.hilos = hilos;
+    }
+
+    public void setSinExcepciones(boolean sinExcepciones) {
+        this.sinExcepciones = sinExcepciones;
+    }
+
+    public ResultadoCarga ejecutar(Carga carga) throws InterruptedException {
+        Cuenta[] cuentas = resolverCuentas(carga);
+        Histograma latencias = new Histograma(hilos);
+        LongAdder rechazadas = new LongAdder();
+        LongAdder sinCuenta = new LongAdder();
+        LongAdder bytes = new LongAdder();
+        AtomicReference<RuntimeException> error = new AtomicReference<>();
+        CountDownLatch largada = new CountDownLatch(1);
+        ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        com.sun.management.ThreadMXBean asignaciones = bean instanceof com.sun.management.ThreadMXBean
+                && ((com.sun.management.ThreadMXBean) bean).isThreadAllocatedMemoryEnabled()
+                ? (com.sun.management.ThreadMXBean) bean : null;
+
+        Thread[] trabajadores = new Thread[hilos];
+        for (int i = 0; i < hilos; i++) {
+            int primera = i;
+            trabajadores[i] = new Thread(() -> {
+                try {
+                    largada.await();
+                } catch (InterruptedException e) {
+                    return;
+                }
+                long bytesAntes = asignaciones == null ? 0 : asignaciones.getCurrentThreadAllocatedBytes();
+                long rechazos = 0;
+                long faltantes = 0;
+                try {
+                    for (int operacion = primera; operacion < carga.getOperaciones(); operacion += hilos) {
+                        long inicio = System.nanoTime();
+                        int resultado = aplicar(carga, operacion, cuentas);
+                        latencias.registrar(System.nanoTime() - inicio);
+                        if (resultado == RECHAZADA) rechazos++;
+                        else if (resultado == SIN_CUENTA) faltantes++;
+                    }
+                } catch (RuntimeException e) {
+                    error.compareAndSet(null, e);
+                } finally {
+                    if (asignaciones != null) bytes.add(asignaciones.getCurrentThreadAllocatedBytes() - bytesAntes);
+                    rechazadas.add(rechazos);
+                    sinCuenta.add(faltantes);
+                }
+            }, "carga-" + i);
+            trabajadores[i].start();
+        }
+
+        long inicio = System.nanoTime();
+        largada.countDown();
+        try {
+            for (Thread trabajador : trabajadores) {
+                trabajador.join();
+            }
+        } catch (InterruptedException e) {
+            for (Thread trabajador : trabajadores) {
+                trabajador.interrupt();
+            }
+            throw e;
+        }
+        Duration duracion = Duration.ofNanos(System.nanoTime() - inicio);
+        if (error.get() != null) {
+            throw error.get();
+        }
+        return new ResultadoCarga(carga.getOperaciones(), rechazadas.sum(), sinCuenta.sum(), duracion,
+                latencias.resumen(), asignaciones == null ? -1 : bytes.sum());
+    }
+
+    private int aplicar(Carga carga, int operacion, Cuenta[] cuentas) {
+        TipoOperacion tipo = carga.getTipo(operacion);
+        Cuenta origen = tipo == TipoOperacion.CREDITO ? null : cuenta(cuentas, carga.getOrigen(operacion));
+        Cuenta destino = tipo == TipoOperacion.DEBITO ? null : cuenta(cuentas, carga.getDestino(operacion));
+        if ((tipo != TipoOperacion.CREDITO && origen == null) || (tipo != TipoOperacion.DEBITO && destino == null)) {
+            return SIN_CUENTA;
+        }
+
+        BigDecimal monto = carga.getMonto(operacion);
+        if (tipo == TipoOperacion.CREDITO) {
+            destino.credito(monto);
+            return APLICADA;
+        }
+        if (sinExcepciones) {
+            boolean exitosa = tipo == TipoOperacion.DEBITO
+                    ? origen.tryDebito(monto).isExitosa()
+                    : banco.tryTransferir(origen, destino, monto).isExitosa();
+            return exitosa ? APLICADA : RECHAZADA;
+        }
+        try {
+            if (tipo == TipoOperacion.DEBITO) origen.debito(monto);
+            else banco.transferir(origen, destino, monto);
+            return APLICADA;
+        } catch (DineroInsuficienteException e) {
+            return RECHAZADA;
+        }
+    }
+
+    private static Cuenta cuenta(Cuenta[] cuentas, long id) {
+        return id < cuentas.length ? cuentas[(int) id] : null;
+    }
+
+    // Indice por id para no medir la busqueda en el mapa del banco
+    private Cuenta[] resolverCuentas(Carga carga) {
+        long mayor = carga.getMayorId();
+        if (mayor >= Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Ids de cuenta demasiado grandes para la carga: " + mayor);
+        }
+        Cuenta[] cuentas = new Cuenta[(int) mayor + 1];
+        for (int id = 1; id <= mayor; id++) {
+            cuentas[id] = banco.buscarPorId(id).orElse(null);
+        }
+        return cuentas;
+    }
+
+}
@@ -0,0 +1,178 @@
+package org.angelfg.ejemplos.workload;
+
+import org.angelfg.ejemplos.models.TipoOperacion;
+
+import java.math.BigDecimal;
+import java.util.SplittableRandom;
+
+/**
+ * Genera cargas parecidas a las de produccion: las cuentas se eligen con una distribucion Zipf, asi unas pocas
+ * cuentas reciben la mayor parte de las operaciones, y los montos son mas seguido chicos que grandes.
+ * Con la misma semilla y configuracion la carga generada es siempre la misma.
+ *
+ * Las cuentas mas pedidas no son las de ids mas bajos: el ranking de Zipf se mezcla con una permutacion fija.
+ * Los rechazos por fondos no se generan, aparecen solos cuando las cuentas calientes se quedan sin saldo.
+ */
+public class GeneradorCarga {
+
+    public static final int ESCALA = 2; // los montos se generan en centavos
+
+    private final int cuentas;
+    private final long semilla;
+    private double exponenteZipf = 1.0;
+    private int pesoDebito = 30;
+    private int pesoCredito = 30;
+    private int pesoTransferencia = 40;
+    private long centavosMaximo = 100_000;
+
+    public GeneradorCarga(int cuentas, long semilla) {
+        if (cuentas <= 0) {
+            throw new IllegalArgumentException("La carga necesita al menos una cuenta");
+        }
+        this.cuentas = cuentas;
+        this.semilla = semilla;
+    }
+
+    // 0 para elegir las cuentas de manera uniforme, cuanto mas alto mas concentradas las operaciones
+    public void setExponenteZipf(double exponenteZipf) {
+        if (exponenteZipf < 0 || Double.isNaN(exponenteZipf)) {
+            throw new IllegalArgumentException("El exponente de Zipf no puede ser negativo");
+        }
+        this.exponenteZipf = exponenteZipf;
+    }
+
+    // Proporcion relativa de cada tipo de operacion
+    public void setMezcla(int pesoDebito, int pesoCredito, int pesoTransferencia) {
+        if (pesoDebito < 0 || pesoCredito < 0 || pesoTransferencia < 0 || pesoDebito + pesoCredito + pesoTransferencia == 0) {
+            throw new IllegalArgumentException("Los pesos de la mezcla deben ser positivos y no todos cero");
+        }
+        if (pesoTransferencia > 0 && cuentas < 2) {
+            throw new IllegalArgumentException("Las transferencias necesitan al menos dos cuentas");
+        }
+        this.pesoDebito = pesoDebito;
+        this.pesoCredito = pesoCredito;
+        this.pesoTransferencia = pesoTransferencia;
+    }
+
+    public void setMontoMaximo(BigDecimal montoMaximo) {
+        long centavos = montoMaximo.setScale(ESCALA).unscaledValue().longValueExact();
+        if (centavos <= 0) {
+            throw new IllegalArgumentException("El monto maximo debe ser positivo");
+        }
+        this.centavosMaximo = centavos;
+    }
+
+    public Carga generar(int operaciones) {
+        SplittableRandom random = new SplittableRandom(semilla);
+        Zipf zipf = exponenteZipf == 0 ? null : new Zipf(cuentas, exponenteZipf);
+        long multiplicador = multiplicador(random);
+        long desplazamiento = random.nextInt(cuentas);
+        int total = pesoDebito + pesoCredito + pesoTransferencia;
+
+        Carga carga = new Carga(operaciones);
+        for (int i = 0; i < operaciones; i++) {
+            int tipo = random.nextInt(total);
+            long monto = monto(random);
+            long cuenta = cuenta(random, zipf, multiplicador, desplazamiento);
+            if (tipo < pesoDebito) {
+                carga.agregar(TipoOperacion.DEBITO, cuenta, 0, monto, ESCALA);
+            } else if (tipo < pesoDebito + pesoCredito) {
+                carga.agregar(TipoOperacion.CREDITO, 0, cuenta, monto, ESCALA);
+            } else {
+                long destino = cuenta(random, zipf, multiplicador, desplazamiento);
+                if (destino == cuenta) {
+                    destino = cuenta % cuentas + 1;
+                }
+                carga.agregar(TipoOperacion.TRANSFERENCIA, cuenta, destino, monto, ESCALA);
+            }
+        }
+        return carga;
+    }
+
+    // Id de 1 a cuentas, el puesto en el ranking se lleva a un id con una permutacion afin
+    private long cuenta(SplittableRandom random, Zipf zipf, long multiplicador, long desplazamiento) {
+        long puesto = zipf == null ? random.nextInt(cuentas) : zipf.muestra(random) - 1;
+        return Math.floorMod(puesto * multiplicador + desplazamiento, (long) cuentas) + 1;
+    }
+
+    // Coprimo con la cantidad de cuentas para que la permutacion no repita ids
+    private long multiplicador(SplittableRandom random) {
+        long candidato = random.nextInt(cuentas) | 1;
+        while (mcd(candidato, cuentas) != 1) {
+            candidato += 2;
+        }
+        return candidato % cuentas == 0 ? 1 : candidato;
+    }
+
+    private static long mcd(long a, long b) {
+        while (b != 0) {
+            long resto = a % b;
+            a = b;
+            b = resto;
+        }
+        return a;
+    }
+
+    // Logaritmo uniforme entre un centavo y el maximo
+    private long monto(SplittableRandom random) {
+        return Math.max(1, Math.min(centavosMaximo, Math.round(Math.exp(random.nextDouble() * Math.log(centavosMaximo)))));
+    }
+
+    // Muestreo por rechazo-inversion de Hörmann y Derflinger, no necesita tablas aunque haya millones de cuentas
+    static final class Zipf {
+
+        private final int elementos;
+        private final double exponente;
+        private final double integralX1;
+        private final double integralN;
+        private final double s;
+
+        Zipf(int elementos, double exponente) {
+            this.elementos = elementos;
+            this.exponente = exponente;
+            this.integralX1 = hIntegral(1.5) - 1;
+            this.integralN = hIntegral(elementos + 0.5);
+            this.s = 2 - hIntegralInversa(hIntegral(2.5) - h(2));
+        }
+
+        // Puesto de 1 a elementos, el 1 es el mas probable
+        int muestra(SplittableRandom random) {
+            while (true) {
+                double u = integralN + random.nextDouble() * (integralX1 - integralN);
+                double x = hIntegralInversa(u);
+                int k = (int) (x + 0.5);
+                if (k < 1) k = 1;
+                else if (k > elementos) k = elementos;
+                if (k - x <= s || u >= hIntegral(k + 0.5) - h(k)) {
+                    return k;
+                }
+            }
+        }
+
+        private double h(double x) {
+            return Math.exp(-exponente * Math.log(x));
+        }
+
+        private double hIntegral(double x) {
+            double logX = Math.log(x);
+            return auxiliar2((1 - exponente) * logX) * logX;
+        }
+
+        private double hIntegralInversa(double x) {
+            double t = Math.max(x * (1 - exponente), -1);
+            return Math.exp(auxiliar1(t) * x);
+        }
+
+        // log(1 + x) / x sin perder precision cerca de cero
+        private static double auxiliar1(double x) {
+            return Math.abs(x) > 1e-8 ? Math.log1p(x) / x : 1 - x * (0.5 - x * (1.0 / 3 - 0.25 * x));
+        }
+
+        // (exp(x) - 1) / x sin perder precision cerca de cero
+        private static double auxiliar2(double x) {
+            return Math.abs(x) > 1e-8 ? Math.expm1(x) / x : 1 + x * 0.5 * (1 + x / 3 * (1 + 0.25 * x));
+        }
+
+    }
+
+}
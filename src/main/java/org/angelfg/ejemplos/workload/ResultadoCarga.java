@@ -0,0 +1,87 @@
+package org.angelfg.ejemplos.workload;
+
+import org.angelfg.ejemplos.metrics.Histograma;
+
+import java.time.Duration;
+
+// Lo medido en una corrida de una carga, las latencias en nanosegundos
+public class ResultadoCarga {
+
+    private final long operaciones;
+    private final long rechazadas;
+    private final long sinCuenta;
+    private final Duration duracion;
+    private final Histograma.Resumen latencias;
+    private final long bytesAsignados;
+
+    ResultadoCarga(long operaciones, long rechazadas, long sinCuenta, Duration duracion,
+                   Histograma.Resumen latencias, long bytesAsignados) {
+        this.operaciones = operaciones;
+        this.rechazadas = rechazadas;
+        this.sinCuenta = sinCuenta;
+        this.duracion = duracion;
+        this.latencias = latencias;
+        this.bytesAsignados = bytesAsignados;
+    }
+
+    public long getOperaciones() {
+        return operaciones;
+    }
+
+    // Rechazadas por dinero insuficiente
+    public long getRechazadas() {
+        return rechazadas;
+    }
+
+    // Operaciones sobre cuentas que el banco no tiene, no se cuentan como rechazadas
+    public long getSinCuenta() {
+        return sinCuenta;
+    }
+
+    public double getTasaRechazo() {
+        return operaciones == 0 ? 0 : (double) rechazadas / operaciones;
+    }
+
+    public Duration getDuracion() {
+        return duracion;
+    }
+
+    public double getOperacionesPorSegundo() {
+        return operaciones * 1e9 / Math.max(1, duracion.toNanos());
+    }
+
+    public Histograma.Resumen getLatencias() {
+        return latencias;
+    }
+
+    // -1 si la JVM no informa las asignaciones por hilo
+    public long getBytesAsignados() {
+        return bytesAsignados;
+    }
+
+    public double getBytesPorOperacion() {
+        return bytesAsignados < 0 || operaciones == 0 ? -1 : (double) bytesAsignados / operaciones;
+    }
+
+    public double getBytesPorSegundo() {
+        return bytesAsignados < 0 ? -1 : bytesAsignados * 1e9 / Math.max(1, duracion.toNanos());
+    }
+
+    @Override
+    public String toString() {
+        return "ResultadoCarga{" +
+                "operaciones=" + operaciones +
+                ", operacionesPorSegundo=" + Math.round(getOperacionesPorSegundo()) +
+                ", rechazo=" + String.format("%.2f%%", getTasaRechazo() * 100) +
+                ", sinCuenta=" + sinCuenta +
+                ", p50=" + latencias.getPercentil(50) +
+                ", p99=" + latencias.getPercentil(99) +
+                ", p999=" + latencias.getPercentil(99.9) +
+                ", maximo=" + latencias.getMaximo() +
+                ", bytesPorOperacion=" + Math.round(getBytesPorOperacion()) +
+                ", mbPorSegundo=" + Math.round(getBytesPorSegundo() / (1 << 20)) +
+                ", duracion=" + duracion +
+                '}';
+    }
+
+}
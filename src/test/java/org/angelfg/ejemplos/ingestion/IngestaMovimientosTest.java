@@ -0,0 +1,192 @@
+package org.angelfg.ejemplos.ingestion;
+
+import org.angelfg.ejemplos.models.Banco;
+import org.angelfg.ejemplos.models.Cuenta;
+import org.angelfg.ejemplos.models.CuentaPuntoFijo;
+import org.angelfg.ejemplos.models.TipoOperacion;
+import org.junit.jupiter.api.*;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.net.URISyntaxException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.List;
+import java.util.SplittableRandom;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class IngestaMovimientosTest {
+
+    @TempDir
+    Path directorio;
+
+    private TestReporter reporter;
+
+    @BeforeEach
+    void initMetodoTest(TestReporter reporter) {
+        this.reporter = reporter;
+    }
+
+    private static Banco crearBanco(int cantidad) {
+        Banco banco = new Banco();
+        for (int i = 0; i < cantidad; i++) {
+            // Mitad de cuentas con BigDecimal y mitad de punto fijo
+            banco.addCuenta(i % 2 == 0
+                    ? new Cuenta("Persona " + i, BigDecimal.valueOf(500))
+                    : new CuentaPuntoFijo("Persona " + i, BigDecimal.valueOf(500)));
+        }
+        return banco;
+    }
+
+    private static BigDecimal total(Banco banco) {
+        return banco.getCuentas().stream().map(Cuenta::getSaldo).reduce(BigDecimal.ZERO, BigDecimal::add);
+    }
+
+    @Test
+    void test_data_csv_con_cuenta_por_defecto() throws IOException, URISyntaxException {
+        Path dataCsv = Paths.get(getClass().getResource("/data.csv").toURI());
+        Banco banco = new Banco();
+        Cuenta cuenta = new Cuenta("Angel", new BigDecimal("100000.12345"));
+        banco.addCuenta(cuenta);
+
+        BigDecimal esperado = cuenta.getSaldo();
+        for (String linea : Files.readAllLines(dataCsv)) {
+            if (!linea.isBlank()) esperado = esperado.subtract(new BigDecimal(linea.trim()));
+        }
+
+        IngestaMovimientos ingesta = new IngestaMovimientos(banco, TipoOperacion.DEBITO);
+        ingesta.setCuentaPorDefecto(cuenta.getId());
+        ResultadoIngesta resultado = ingesta.procesar(dataCsv);
+
+        assertEquals(0, resultado.getRechazadas());
+        assertEquals(esperado, cuenta.getSaldo());
+    }
+
+    @Test
+    @DisplayName("Bloques pequeños en paralelo dan el mismo resultado que aplicar fila por fila")
+    void test_mismo_resultado_que_en_orden() throws IOException {
+        int cuentas = 50;
+        Path archivo = directorio.resolve("movimientos.csv");
+        SplittableRandom random = new SplittableRandom(11);
+        StringBuilder contenido = new StringBuilder();
+        Banco esperado = crearBanco(cuentas);
+        long rechazadasEsperadas = 0;
+        for (int i = 0; i < 20_000; i++) {
+            long id = random.nextInt(1, cuentas + 2); // algunas cuentas no existen
+            String monto = random.nextInt(-200, 200) + (random.nextBoolean() ? "." + random.nextInt(10, 100) : "");
+            contenido.append(id).append(random.nextBoolean() ? "," : " , ").append(monto).append(i % 3 == 0 ? "\r\n" : "\n");
+            if (i % 1000 == 0) contenido.append('\n');
+
+            Cuenta cuenta = esperado.buscarPorId(id).orElse(null);
+            BigDecimal valor = new BigDecimal(monto);
+            try {
+                if (cuenta == null) throw new IllegalStateException();
+                if (valor.signum() >= 0) cuenta.credito(valor); else cuenta.debito(valor.negate());
+            } catch (RuntimeException e) {
+                rechazadasEsperadas++;
+            }
+        }
+        Files.writeString(archivo, contenido);
+
+        Banco banco = crearBanco(cuentas);
+        IngestaMovimientos ingesta = new IngestaMovimientos(banco, TipoOperacion.CREDITO);
+        ingesta.setTamanioBloque(4096);
+        ingesta.setBloquesEnVuelo(3);
+        ingesta.setAplicadores(4);
+        ResultadoIngesta resultado = ingesta.procesar(archivo);
+
+        assertEquals(20_000, resultado.getFilas());
+        assertEquals(rechazadasEsperadas, resultado.getRechazadas());
+        for (long id = 1; id <= cuentas; id++) {
+            assertEquals(0, esperado.buscarPorId(id).orElseThrow().getSaldo()
+                    .compareTo(banco.buscarPorId(id).orElseThrow().getSaldo()), "Cuenta " + id);
+        }
+    }
+
+    @Test
+    void test_fila_no_valida_detiene_la_ingesta() throws IOException {
+        Path archivo = directorio.resolve("malo.csv");
+        Files.writeString(archivo, "1,100\n1,10x\n");
+        Banco banco = crearBanco(1);
+
+        Exception exception = assertThrows(IllegalArgumentException.class,
+                () -> new IngestaMovimientos(banco, TipoOperacion.CREDITO).procesar(archivo));
+        assertTrue(exception.getMessage().contains("byte 6"));
+        assertThrows(IllegalArgumentException.class, () -> new IngestaMovimientos(banco, TipoOperacion.AJUSTE));
+    }
+
+    @Test
+    void test_error_de_un_observador_detiene_la_ingesta() throws IOException {
+        Path archivo = directorio.resolve("observador.csv");
+        StringBuilder filas = new StringBuilder();
+        for (int i = 0; i < 1000; i++) {
+            filas.append(i % 2 + 1).append(i == 500 ? ",7\n" : ",1\n");
+        }
+        Files.writeString(archivo, filas);
+        Banco banco = crearBanco(2);
+        banco.agregarObservador((tipo, origen, destino, monto) -> {
+            if (monto.compareTo(BigDecimal.valueOf(7)) == 0) throw new IllegalStateException("Observador caido");
+        });
+
+        IngestaMovimientos ingesta = new IngestaMovimientos(banco, TipoOperacion.CREDITO);
+        ingesta.setTamanioBloque(1000); // la fila 500 queda en el tercer bloque
+        ingesta.setAplicadores(2);
+        ingesta.setBloquesEnVuelo(1);
+        Exception exception = assertThrows(IllegalStateException.class, () -> ingesta.procesar(archivo));
+        assertEquals("Observador caido", exception.getMessage());
+
+        // Los dos primeros bloques quedan aplicados y del tercero a lo sumo la otra cuenta, la fila con error no cuenta
+        BigDecimal acreditado = total(banco).subtract(BigDecimal.valueOf(1000));
+        assertTrue(acreditado.compareTo(BigDecimal.valueOf(500)) >= 0, acreditado::toPlainString);
+        assertTrue(acreditado.compareTo(BigDecimal.valueOf(625)) <= 0, acreditado::toPlainString);
+    }
+
+    @Test
+    void test_fila_no_valida_deja_aplicados_los_bloques_anteriores() throws IOException {
+        Path archivo = directorio.resolve("malo.csv");
+        StringBuilder filas = new StringBuilder();
+        for (int i = 0; i < 1000; i++) {
+            filas.append("1,1\n");
+        }
+        filas.append("1,x\n");
+        Files.writeString(archivo, filas);
+        Banco banco = crearBanco(1);
+
+        IngestaMovimientos ingesta = new IngestaMovimientos(banco, TipoOperacion.CREDITO);
+        ingesta.setTamanioBloque(400); // bloques de 100 filas
+        assertThrows(IllegalArgumentException.class, () -> ingesta.procesar(archivo));
+        assertEquals(0, BigDecimal.valueOf(1500).compareTo(total(banco)));
+    }
+
+    @Test
+    @Tag("rendimiento")
+    @DisplayName("Filas por segundo de un archivo grande")
+    void test_filas_por_segundo() throws IOException {
+        int cuentas = 10_000;
+        int filas = 2_000_000;
+        Path archivo = directorio.resolve("grande.csv");
+        SplittableRandom random = new SplittableRandom(3);
+        try (BufferedWriter escritor = Files.newBufferedWriter(archivo, StandardCharsets.US_ASCII)) {
+            for (int i = 0; i < filas; i++) {
+                escritor.write(random.nextInt(1, cuentas + 1) + "," + random.nextInt(1, 1000) + "." + random.nextInt(10, 100) + "\n");
+            }
+        }
+        Banco banco = crearBanco(cuentas);
+        BigDecimal antes = banco.getCuentas().stream().map(Cuenta::getSaldo).reduce(BigDecimal.ZERO, BigDecimal::add);
+
+        ResultadoIngesta resultado = new IngestaMovimientos(banco, TipoOperacion.CREDITO).procesar(archivo);
+
+        reporter.publishEntry(String.format("%d filas (%d MB) en %d ms: %.0f filas/s", resultado.getFilas(),
+                resultado.getBytes() >> 20, resultado.getDuracion().toMillis(), resultado.getFilasPorSegundo()));
+        assertEquals(filas, resultado.getFilas());
+        assertEquals(0, resultado.getRechazadas());
+        List<Cuenta> todas = banco.getCuentas();
+        assertTrue(todas.stream().map(Cuenta::getSaldo).reduce(BigDecimal.ZERO, BigDecimal::add).compareTo(antes) > 0);
+    }
+
+}
@@ -0,0 +1,205 @@
+package org.angelfg.ejemplos.metrics;
+
+import org.angelfg.ejemplos.exceptions.DineroInsuficienteException;
+import org.angelfg.ejemplos.models.Banco;
+import org.angelfg.ejemplos.models.Cuenta;
+import org.angelfg.ejemplos.models.CuentaAcumuladora;
+import org.angelfg.ejemplos.models.CuentaAtomica;
+import org.angelfg.ejemplos.models.ModoLote;
+import org.angelfg.ejemplos.models.Transferencia;
+import org.junit.jupiter.api.*;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class MetricasTest {
+
+    private TestReporter reporter;
+
+    @BeforeEach
+    void initMetodoTest(TestReporter reporter) {
+        this.reporter = reporter;
+    }
+
+    @Nested
+    @DisplayName("Probando el histograma de latencias")
+    class HistogramaTest {
+
+        @Test
+        void test_intervalos_contiguos() {
+            for (long valor = 0; valor < 100_000; valor++) {
+                int intervalo = Histograma.intervalo(valor);
+                assertTrue(valor <= Histograma.limiteSuperior(intervalo), "Valor " + valor);
+                assertTrue(intervalo == 0 || valor > Histograma.limiteSuperior(intervalo - 1), "Valor " + valor);
+            }
+            assertTrue(Histograma.intervalo(Long.MAX_VALUE) < 496);
+        }
+
+        @Test
+        void test_percentiles_con_error_acotado() {
+            Histograma histograma = new Histograma(4);
+            for (long valor = 1; valor <= 10_000; valor++) {
+                histograma.registrar(valor * 100);
+            }
+            Histograma.Resumen resumen = histograma.resumen();
+
+            assertEquals(10_000, resumen.getCantidad());
+            assertEquals(1_000_000, resumen.getMaximo());
+            assertEquals(500_050, resumen.getMedia(), 0.001);
+            for (double percentil : new double[] { 1, 50, 90, 99, 99.9 }) {
+                double exacto = percentil * 10_000;
+                long estimado = resumen.getPercentil(percentil);
+                assertTrue(estimado >= exacto && estimado <= exacto * 1.125, "p" + percentil + " = " + estimado);
+            }
+            assertEquals(1_000_000, resumen.getPercentil(100));
+            assertThrows(IllegalArgumentException.class, () -> resumen.getPercentil(101));
+            assertEquals(0, new Histograma().resumen().getPercentil(50));
+        }
+
+    }
+
+    @Nested
+    @Tag("banco")
+    @DisplayName("Probando las metricas del banco")
+    class MetricasBancoTest {
+
+        @Test
+        void test_contadores_por_operacion() {
+            Banco banco = new Banco();
+            Metricas metricas = new Metricas();
+            banco.setMetricas(metricas);
+            Cuenta cuenta1 = new Cuenta("Luis", BigDecimal.valueOf(100));
+            CuentaAtomica cuenta2 = new CuentaAtomica("Angel", BigDecimal.valueOf(50));
+            CuentaAcumuladora cuenta3 = new CuentaAcumuladora("Maria", BigDecimal.ZERO);
+            banco.addCuenta(cuenta1);
+            banco.addCuenta(cuenta2);
+            banco.addCuenta(cuenta3);
+
+            banco.transferir(cuenta1, cuenta2, BigDecimal.TEN);
+            banco.tryTransferir(cuenta3, cuenta1, BigDecimal.ONE);
+            assertThrows(DineroInsuficienteException.class, () -> banco.transferir(cuenta3, cuenta1, BigDecimal.ONE));
+            cuenta1.debito(BigDecimal.ONE);
+            cuenta2.tryDebito(1_000_000_000L);
+            cuenta2.credito(BigDecimal.ONE);
+            cuenta3.credito(5);
+
+            ResumenMetricas resumen = metricas.resumen();
+            reporter.publishEntry(resumen.toString());
+            assertEquals(1, resumen.getTransferencias().getExitosas());
+            assertEquals(2, resumen.getTransferencias().getRechazadas());
+            assertEquals(3, resumen.getTransferencias().getLatencia().getCantidad());
+            assertEquals(1, resumen.getDebitos().getExitosas());
+            assertEquals(1, resumen.getDebitos().getRechazadas());
+            assertEquals(2, resumen.getCreditos().getExitosas());
+            assertEquals(7, resumen.getBloqueos()); // dos por transferencia y uno del debito con lock
+            assertEquals(0, resumen.getBloqueosConEspera());
+
+            banco.setMetricas(null);
+            cuenta1.credito(BigDecimal.ONE);
+            assertEquals(2, metricas.resumen().getCreditos().getExitosas());
+        }
+
+        @Test
+        void test_lotes_con_metricas() {
+            Banco banco = new Banco();
+            Metricas metricas = new Metricas();
+            banco.setMetricas(metricas);
+            Cuenta cuenta1 = new Cuenta("Luis", BigDecimal.valueOf(100));
+            Cuenta cuenta2 = new Cuenta("Angel", BigDecimal.ZERO);
+            banco.addCuenta(cuenta1);
+            banco.addCuenta(cuenta2);
+
+            banco.transferirLote(List.of(new Transferencia(cuenta1, cuenta2, BigDecimal.valueOf(80)),
+                    new Transferencia(cuenta1, cuenta2, BigDecimal.valueOf(80)),
+                    new Transferencia(cuenta2, cuenta1, BigDecimal.TEN)), ModoLote.SECUENCIAL);
+
+            ResumenMetricas resumen = metricas.resumen();
+            reporter.publishEntry(resumen.getLotes().toString());
+            assertEquals(2, resumen.getLotes().getExitosas());
+            assertEquals(1, resumen.getLotes().getRechazadas());
+            assertEquals(1, resumen.getLotes().getLatencia().getCantidad());
+            assertEquals(2, resumen.getBloqueos()); // un lock por cuenta del lote
+            assertEquals(0, resumen.getTransferencias().getLatencia().getCantidad());
+        }
+
+        @Test
+        void test_contencion_en_cuentas_calientes() throws Exception {
+            Banco banco = new Banco();
+            Metricas metricas = new Metricas();
+            banco.setMetricas(metricas);
+            Cuenta cuenta1 = new Cuenta("Luis", BigDecimal.valueOf(1_000_000));
+            Cuenta cuenta2 = new Cuenta("Angel", BigDecimal.valueOf(1_000_000));
+            banco.addCuenta(cuenta1);
+            banco.addCuenta(cuenta2);
+
+            int hilos = 4;
+            int transferencias = 20_000;
+            ExecutorService executor = Executors.newFixedThreadPool(hilos);
+            try {
+                List<Future<?>> futuros = new ArrayList<>();
+                for (int h = 0; h < hilos; h++) {
+                    boolean ida = h % 2 == 0;
+                    futuros.add(executor.submit(() -> {
+                        for (int i = 0; i < transferencias; i++) {
+                            if (ida) banco.transferir(cuenta1, cuenta2, BigDecimal.ONE);
+                            else banco.transferir(cuenta2, cuenta1, BigDecimal.ONE);
+                        }
+                    }));
+                }
+                for (Future<?> futuro : futuros) {
+                    futuro.get();
+                }
+            } finally {
+                executor.shutdown();
+            }
+
+            ResumenMetricas resumen = metricas.resumen();
+            reporter.publishEntry(String.format("Contencion %.1f%%, espera %s", resumen.getContencion() * 100, resumen.getEspera()));
+            assertEquals(hilos * transferencias, resumen.getTransferencias().getExitosas());
+            assertEquals(2L * hilos * transferencias, resumen.getBloqueos());
+            assertEquals(resumen.getBloqueosConEspera(), resumen.getEspera().getCantidad());
+            assertEquals(0, BigDecimal.valueOf(2_000_000).compareTo(cuenta1.getSaldo().add(cuenta2.getSaldo())));
+        }
+
+        @Test
+        @Tag("rendimiento")
+        @DisplayName("Costo de medir contra no medir")
+        void test_costo_de_las_metricas() {
+            int cuentas = 1000;
+            int operaciones = 2_000_000;
+            Banco banco = new Banco();
+            Cuenta[] arreglo = new Cuenta[cuentas];
+            for (int i = 0; i < cuentas; i++) {
+                arreglo[i] = new Cuenta("Persona " + i, BigDecimal.valueOf(1_000_000_000));
+                banco.addCuenta(arreglo[i]);
+            }
+
+            long[] nanos = new long[2];
+            for (int ronda = 0; ronda < 3; ronda++) { // la primera ronda solo calienta
+                for (int medir = 0; medir < 2; medir++) {
+                    banco.setMetricas(medir == 1 ? new Metricas() : null);
+                    SplittableRandom random = new SplittableRandom(ronda);
+                    long inicio = System.nanoTime();
+                    for (int i = 0; i < operaciones; i++) {
+                        banco.transferir(arreglo[random.nextInt(cuentas)], arreglo[random.nextInt(cuentas)], BigDecimal.ONE);
+                    }
+                    nanos[medir] = System.nanoTime() - inicio;
+                }
+            }
+
+            ResumenMetricas resumen = banco.getMetricas().resumen();
+            reporter.publishEntry(String.format("Por transferencia: sin metricas %.1f ns, con metricas %.1f ns; %s",
+                    (double) nanos[0] / operaciones, (double) nanos[1] / operaciones, resumen.getTransferencias().getLatencia()));
+            assertEquals(operaciones, resumen.getTransferencias().getExitosas());
+        }
+
+    }
+
+}
@@ -0,0 +1,220 @@
+package org.angelfg.ejemplos.models;
+
+import org.junit.jupiter.api.*;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class AgregadosBancoTest {
+
+    private static final BigDecimal CIEN = BigDecimal.valueOf(100);
+    private static final BigDecimal MIL = BigDecimal.valueOf(1000);
+
+    private TestReporter reporter;
+
+    @BeforeEach
+    void initMetodoTest(TestReporter reporter) {
+        this.reporter = reporter;
+    }
+
+    @Test
+    void test_agregados_siguen_las_operaciones() {
+        Banco banco = new Banco();
+        Cuenta cuenta1 = new Cuenta("Luis", BigDecimal.valueOf(2500));
+        banco.addCuenta(cuenta1); // antes de crear los agregados
+
+        try (AgregadosBanco agregados = new AgregadosBanco(banco, MIL, CIEN)) {
+            Cuenta cuenta2 = new CuentaPuntoFijo("Angel", BigDecimal.valueOf(50));
+            Cuenta cuenta3 = new CuentaAtomica("Maria", BigDecimal.valueOf(500));
+            banco.addCuenta(cuenta2);
+            banco.addCuenta(cuenta3);
+            assertEquals(0, BigDecimal.valueOf(3050).compareTo(agregados.getTotal()));
+            assertArrayEquals(new long[] { 1, 1, 1 }, agregados.getCuentasPorBanda());
+
+            banco.transferir(cuenta1, cuenta2, BigDecimal.valueOf(2000));
+            cuenta3.debito(BigDecimal.valueOf(450));
+            cuenta1.credito(BigDecimal.TEN);
+            cuenta3.setSaldo(BigDecimal.valueOf(70));
+
+            assertEquals(0, BigDecimal.valueOf(2630).compareTo(agregados.getTotal()));
+            assertEquals(3, agregados.getCantidadCuentas());
+            assertEquals(1, agregados.getCuentasDebajoDe(CIEN));
+            assertEquals(2, agregados.getCuentasDebajoDe(MIL));
+            assertThrows(IllegalArgumentException.class, () -> agregados.getCuentasDebajoDe(BigDecimal.TEN));
+
+            List<AgregadosBanco.SaldoCuenta> mayores = agregados.getMayoresSaldos(2);
+            assertEquals(2, mayores.size());
+            assertSame(cuenta2, mayores.get(0).getCuenta());
+            assertEquals(0, BigDecimal.valueOf(2050).compareTo(mayores.get(0).getSaldo()));
+            assertSame(cuenta1, mayores.get(1).getCuenta());
+            assertEquals(3, agregados.getMayoresSaldos(10).size());
+
+            // Lotes notifican una operacion por cuenta
+            banco.transferirLote(List.of(new Transferencia(cuenta2, cuenta3, BigDecimal.valueOf(2000))));
+            assertEquals(0, BigDecimal.valueOf(2630).compareTo(agregados.getTotal()));
+            assertSame(cuenta3, agregados.getMayoresSaldos(1).get(0).getCuenta());
+        }
+        assertFalse(banco.tieneObservadores());
+    }
+
+    @Test
+    void test_limites_repetidos() {
+        assertThrows(IllegalArgumentException.class, () -> new AgregadosBanco(new Banco(), CIEN, BigDecimal.valueOf(100.0)));
+    }
+
+    @Test
+    void test_total_con_montos_que_no_entran_en_unidades() {
+        Banco banco = new Banco();
+        Cuenta cuenta = new Cuenta("Luis", new BigDecimal("10.5000000"));
+        banco.addCuenta(cuenta);
+        AgregadosBanco agregados = new AgregadosBanco(banco, CIEN);
+
+        cuenta.credito(new BigDecimal("0.0000001"));
+        cuenta.credito(new BigDecimal("1E+20"));
+        assertEquals(0, new BigDecimal("100000000000000000010.5000001").compareTo(agregados.getTotal()));
+        assertEquals(0, agregados.getMayoresSaldos(0).size());
+        assertArrayEquals(new long[] { 0, 1 }, agregados.getCuentasPorBanda());
+    }
+
+    @Test
+    void test_operaciones_revertidas_no_cambian_los_agregados() {
+        Banco banco = new Banco();
+        Cuenta cuenta1 = new Cuenta("Luis", BigDecimal.valueOf(2500));
+        Cuenta cuenta2 = new Cuenta("Angel", BigDecimal.valueOf(50));
+        banco.addCuenta(cuenta1);
+        banco.addCuenta(cuenta2);
+        AgregadosBanco agregados = new AgregadosBanco(banco, MIL, CIEN);
+        ObservadorMovimientos falla = (tipo, origen, destino, monto) -> {
+            throw new IllegalStateException("Observador caido");
+        };
+        banco.agregarObservador(falla); // recibe las operaciones despues de los agregados
+
+        assertThrows(IllegalStateException.class, () -> banco.addCuenta(new Cuenta("Maria", BigDecimal.valueOf(5000))));
+        assertThrows(IllegalStateException.class, () -> banco.transferir(cuenta1, cuenta2, BigDecimal.valueOf(2000)));
+        assertThrows(IllegalStateException.class, () -> cuenta2.credito(BigDecimal.valueOf(5000)));
+
+        assertEquals(0, BigDecimal.valueOf(2550).compareTo(agregados.getTotal()));
+        assertEquals(2, agregados.getCantidadCuentas());
+        assertArrayEquals(new long[] { 1, 0, 1 }, agregados.getCuentasPorBanda());
+        List<AgregadosBanco.SaldoCuenta> mayores = agregados.getMayoresSaldos(3);
+        assertEquals(2, mayores.size());
+        assertSame(cuenta1, mayores.get(0).getCuenta());
+        assertEquals(0, BigDecimal.valueOf(2500).compareTo(mayores.get(0).getSaldo()));
+
+        banco.quitarObservador(falla);
+        cuenta2.credito(BigDecimal.valueOf(5000));
+        assertSame(cuenta2, agregados.getMayoresSaldos(1).get(0).getCuenta());
+        assertEquals(0, BigDecimal.valueOf(7550).compareTo(agregados.getTotal()));
+    }
+
+    @Test
+    void test_banco_columnar() {
+        BancoColumnar banco = new BancoColumnar();
+        for (int i = 0; i < 100; i++) {
+            banco.agregarCuenta("Persona " + i, BigDecimal.valueOf(i * 10));
+        }
+        AgregadosBanco agregados = new AgregadosBanco(banco, CIEN);
+        banco.transferir(banco.getCuentas().get(99), banco.getCuentas().get(0), BigDecimal.valueOf(990));
+
+        assertEquals(0, BigDecimal.valueOf(49_500).compareTo(agregados.getTotal()));
+        assertEquals(10, agregados.getCuentasDebajoDe(CIEN)); // la 99 quedo en cero y la 0 en 990
+        assertEquals("Persona 0", agregados.getMayoresSaldos(1).get(0).getCuenta().getPersona());
+    }
+
+    @Test
+    @Tag("banco")
+    @DisplayName("El total no cambia mientras hay transferencias concurrentes")
+    void test_total_consistente_con_transferencias_concurrentes() throws Exception {
+        Banco banco = new Banco();
+        int cuentas = 200;
+        List<Cuenta> lista = new ArrayList<>();
+        for (int i = 0; i < cuentas; i++) {
+            Cuenta cuenta = new Cuenta("Persona " + i, MIL);
+            banco.addCuenta(cuenta);
+            lista.add(cuenta);
+        }
+        AgregadosBanco agregados = new AgregadosBanco(banco, CIEN, MIL);
+        BigDecimal esperado = MIL.multiply(BigDecimal.valueOf(cuentas));
+
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        AtomicBoolean terminado = new AtomicBoolean();
+        try {
+            List<Future<?>> futuros = new ArrayList<>();
+            for (int h = 0; h < 3; h++) {
+                int semilla = h;
+                futuros.add(executor.submit(() -> {
+                    SplittableRandom random = new SplittableRandom(semilla);
+                    for (int i = 0; i < 50_000; i++) {
+                        banco.tryTransferir(lista.get(random.nextInt(cuentas)), lista.get(random.nextInt(cuentas)),
+                                BigDecimal.valueOf(random.nextInt(1, 300)));
+                    }
+                }));
+            }
+            Future<Long> lector = executor.submit(() -> {
+                long lecturas = 0;
+                while (!terminado.get()) {
+                    assertEquals(0, esperado.compareTo(agregados.getTotal()));
+                    long suma = 0;
+                    for (long cantidad : agregados.getCuentasPorBanda()) suma += cantidad;
+                    assertEquals(cuentas, suma);
+                    lecturas++;
+                }
+                return lecturas;
+            });
+            for (Future<?> futuro : futuros) {
+                futuro.get();
+            }
+            terminado.set(true);
+            reporter.publishEntry("Lecturas durante las transferencias: " + lector.get());
+        } finally {
+            executor.shutdown();
+        }
+
+        List<BigDecimal> mayores = lista.stream().map(Cuenta::getSaldo)
+                .sorted(Comparator.reverseOrder()).limit(10).collect(Collectors.toList());
+        assertEquals(mayores, agregados.getMayoresSaldos(10).stream()
+                .map(AgregadosBanco.SaldoCuenta::getSaldo).collect(Collectors.toList()));
+        assertEquals(lista.stream().filter(cuenta -> cuenta.getSaldo().compareTo(CIEN) < 0).count(),
+                agregados.getCuentasDebajoDe(CIEN));
+    }
+
+    @Test
+    @Tag("rendimiento")
+    @DisplayName("Consultar los agregados contra recorrer las cuentas")
+    void test_rendimiento_consultas() {
+        Banco banco = new Banco();
+        SplittableRandom random = new SplittableRandom(17);
+        for (int i = 0; i < 500_000; i++) {
+            banco.addCuenta(new Cuenta("Persona " + i, BigDecimal.valueOf(random.nextInt(0, 1_000_000), 2)));
+        }
+        AgregadosBanco agregados = new AgregadosBanco(banco, CIEN, MIL);
+
+        long inicio = System.nanoTime();
+        BigDecimal recorrido = banco.getCuentas().stream().map(Cuenta::getSaldo).reduce(BigDecimal.ZERO, BigDecimal::add);
+        long debajo = banco.getCuentas().stream().filter(cuenta -> cuenta.getSaldo().compareTo(CIEN) < 0).count();
+        long nanosRecorrido = System.nanoTime() - inicio;
+
+        inicio = System.nanoTime();
+        BigDecimal total = agregados.getTotal();
+        long debajoAgregado = agregados.getCuentasDebajoDe(CIEN);
+        List<AgregadosBanco.SaldoCuenta> mayores = agregados.getMayoresSaldos(10);
+        long nanosAgregados = System.nanoTime() - inicio;
+
+        reporter.publishEntry(String.format("Recorriendo %d cuentas: %.2f ms, con agregados: %.3f ms",
+                banco.getCuentas().size(), nanosRecorrido / 1e6, nanosAgregados / 1e6));
+        assertEquals(0, recorrido.compareTo(total));
+        assertEquals(debajo, debajoAgregado);
+        assertEquals(10, mayores.size());
+    }
+
+}
@@ -0,0 +1,185 @@
+package org.angelfg.ejemplos.models;
+
+import org.angelfg.ejemplos.exceptions.DineroInsuficienteException;
+import org.junit.jupiter.api.*;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class BancoColumnarTest {
+
+    private TestReporter reporter;
+
+    @BeforeEach
+    void initMetodoTest(TestReporter reporter) {
+        this.reporter = reporter;
+    }
+
+    @ParameterizedTest(name = "Fuera del heap: {0}")
+    @ValueSource(booleans = { false, true })
+    void test_operaciones_sobre_vistas(boolean fueraDelHeap) {
+        BancoColumnar banco = new BancoColumnar(5, fueraDelHeap);
+        Cuenta cuenta1 = banco.agregarCuenta("Luis", BigDecimal.valueOf(2500));
+        Cuenta cuenta2 = banco.agregarCuenta("Angel", BigDecimal.valueOf(1500.8989));
+        assertThrows(IllegalStateException.class, () -> banco.setCuentas(List.of(new Cuenta("Pedro", BigDecimal.ONE))));
+
+        banco.transferir(cuenta2, cuenta1, BigDecimal.valueOf(500));
+
+        assertEquals(2, banco.getCuentas().size());
+        assertEquals("Luis", banco.getCuentas().get(0).getPersona());
+        assertEquals(0, new BigDecimal("3000").compareTo(cuenta1.getSaldo()));
+        assertEquals("1000.8989", banco.buscarPorPersona("Angel").orElseThrow().getSaldo().toPlainString());
+        assertSame(banco, cuenta1.getBanco());
+        assertThrows(DineroInsuficienteException.class, () -> cuenta1.debito(BigDecimal.valueOf(5000)));
+        assertEquals(0, new BigDecimal("4000.89890").compareTo(banco.sumarSaldos()));
+    }
+
+    @Test
+    void test_add_cuenta_copia_persona_y_saldo() {
+        BancoColumnar banco = new BancoColumnar();
+        List<TipoOperacion> altas = new ArrayList<>();
+        banco.setCuentas(List.of(new Cuenta("Luis", BigDecimal.valueOf(2500))));
+        banco.agregarObservador((tipo, origen, destino, monto) -> altas.add(tipo));
+
+        Cuenta externa = new Cuenta("Angel", new BigDecimal("1500.89"));
+        banco.addCuenta(externa);
+        banco.addCuenta(new Cuenta(3, "Pedro", BigDecimal.TEN));
+
+        assertEquals(2, externa.getId());
+        assertNull(externa.getBanco()); // la cuenta recibida no queda ligada a las columnas
+        Cuenta vista = banco.buscarPorId(externa.getId()).orElseThrow();
+        assertEquals("Angel", vista.getPersona());
+        assertEquals(0, new BigDecimal("1500.89").compareTo(vista.getSaldo()));
+        assertEquals("Pedro", banco.buscarPorId(3).orElseThrow().getPersona());
+        assertEquals(List.of(TipoOperacion.ALTA, TipoOperacion.ALTA), altas);
+        assertThrows(IllegalArgumentException.class, () -> banco.addCuenta(new Cuenta(9, "Juan", BigDecimal.ONE)));
+        assertThrows(ArithmeticException.class, () -> banco.addCuenta(new Cuenta("Juan", new BigDecimal("0.000001"))));
+        assertEquals(3, banco.getTamanio());
+    }
+
+    @Test
+    void test_diccionario_de_personas() {
+        BancoColumnar banco = new BancoColumnar();
+        for (int i = 0; i < 100; i++) {
+            banco.agregarCuenta("Persona " + (i % 10), BigDecimal.ONE);
+        }
+        Cuenta cuenta = banco.getCuentas().get(42);
+        cuenta.setPersona("Pedro");
+
+        assertEquals("Persona 2", banco.getCuentas().get(12).getPersona());
+        assertEquals("Pedro", banco.getCuentas().get(42).getPersona());
+        assertEquals(4, banco.buscarPorPersona("Persona 3").orElseThrow().getId()); // la primera cuenta de la persona
+        assertEquals(43, banco.buscarPorPersona("Pedro").orElseThrow().getId());
+    }
+
+    @Test
+    void test_lote_con_vistas_repetidas_de_la_misma_cuenta() {
+        BancoColumnar banco = new BancoColumnar();
+        banco.agregarCuenta("Luis", BigDecimal.valueOf(100));
+        banco.agregarCuenta("Angel", BigDecimal.ZERO);
+
+        // Cada buscarPorId devuelve un objeto distinto para la misma cuenta
+        ResultadoLote resultado = banco.transferirLote(List.of(
+                new Transferencia(banco.buscarPorId(1).orElseThrow(), banco.buscarPorId(2).orElseThrow(), BigDecimal.valueOf(80)),
+                new Transferencia(banco.buscarPorId(1).orElseThrow(), banco.buscarPorId(2).orElseThrow(), BigDecimal.valueOf(80))
+        ), ModoLote.SECUENCIAL);
+
+        assertEquals(1, resultado.getRechazadas());
+        assertEquals(0, new BigDecimal("20").compareTo(banco.buscarPorId(1).orElseThrow().getSaldo()));
+    }
+
+    @Test
+    @Tag("concurrencia")
+    void test_total_se_conserva() throws Exception {
+        BancoColumnar banco = new BancoColumnar();
+        for (int i = 0; i < 5000; i++) {
+            banco.agregarCuenta("Persona " + i, BigDecimal.valueOf(100));
+        }
+        BigDecimal esperado = banco.sumarSaldos();
+
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            List<Future<?>> futuros = new ArrayList<>();
+            for (int h = 0; h < 4; h++) {
+                int semilla = h;
+                futuros.add(executor.submit(() -> {
+                    SplittableRandom random = new SplittableRandom(semilla);
+                    List<Cuenta> cuentas = banco.getCuentas();
+                    for (int i = 0; i < 50_000; i++) {
+                        try {
+                            banco.transferir(cuentas.get(random.nextInt(cuentas.size())),
+                                    cuentas.get(random.nextInt(cuentas.size())), BigDecimal.valueOf(random.nextInt(1, 80)));
+                        } catch (DineroInsuficienteException e) {
+                            // rechazada, el total no cambia
+                        }
+                    }
+                }));
+            }
+            for (Future<?> futuro : futuros) {
+                futuro.get();
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+
+        assertEquals(0, esperado.compareTo(banco.sumarSaldos()));
+    }
+
+    private static long memoriaUsada() {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+    @Test
+    @Tag("rendimiento")
+    @DisplayName("Memoria por cuenta y recorrido completo contra la lista de cuentas")
+    void test_memoria_y_recorrido() {
+        int cantidad = 300_000;
+
+        long antes = memoriaUsada();
+        Banco lista = new Banco();
+        for (int i = 0; i < cantidad; i++) {
+            lista.addCuenta(new Cuenta("Persona " + (i % 1000), BigDecimal.valueOf(i, 2)));
+        }
+        long bytesLista = memoriaUsada() - antes;
+
+        antes = memoriaUsada();
+        BancoColumnar columnar = new BancoColumnar(2, false);
+        for (int i = 0; i < cantidad; i++) {
+            columnar.agregarCuenta("Persona " + (i % 1000), BigDecimal.valueOf(i, 2));
+        }
+        long bytesColumnar = memoriaUsada() - antes;
+
+        BigDecimal sumaLista = null;
+        BigDecimal sumaColumnar = null;
+        long nanosLista = Long.MAX_VALUE;
+        long nanosColumnar = Long.MAX_VALUE;
+        for (int intento = 0; intento < 5; intento++) {
+            long inicio = System.nanoTime();
+            sumaLista = lista.getCuentas().stream().map(Cuenta::getSaldo).reduce(BigDecimal.ZERO, BigDecimal::add);
+            nanosLista = Math.min(nanosLista, System.nanoTime() - inicio);
+
+            inicio = System.nanoTime();
+            sumaColumnar = columnar.sumarSaldos();
+            nanosColumnar = Math.min(nanosColumnar, System.nanoTime() - inicio);
+        }
+
+        reporter.publishEntry(String.format("Lista: %d bytes/cuenta, recorrido %.2f ms; columnar: %d bytes/cuenta, recorrido %.2f ms",
+                bytesLista / cantidad, nanosLista / 1e6, bytesColumnar / cantidad, nanosColumnar / 1e6));
+
+        assertEquals(0, sumaLista.compareTo(sumaColumnar));
+    }
+
+}
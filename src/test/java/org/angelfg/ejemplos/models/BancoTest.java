@@ -0,0 +1,520 @@
+package org.angelfg.ejemplos.models;
+
+import org.angelfg.ejemplos.exceptions.DineroInsuficienteException;
+import org.junit.jupiter.api.*;
+
+import java.math.BigDecimal;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class BancoTest {
+
+    private Banco banco;
+
+    private TestReporter reporter;
+
+    @BeforeEach
+    void initMetodoTest(TestReporter reporter) {
+        this.reporter = reporter;
+        this.banco = new Banco();
+        banco.setNombre("Banco del estado");
+    }
+
+    private BigDecimal total() {
+        return banco.getCuentas()
+                .stream()
+                .map(Cuenta::getSaldo)
+                .reduce(BigDecimal.ZERO, BigDecimal::add);
+    }
+
+    private List<Cuenta> crearCuentas(int cantidad, BigDecimal saldo) {
+        List<Cuenta> cuentas = new ArrayList<>();
+        for (int i = 0; i < cantidad; i++) {
+            Cuenta cuenta = new Cuenta("Persona " + i, saldo);
+            banco.addCuenta(cuenta);
+            cuentas.add(cuenta);
+        }
+        return cuentas;
+    }
+
+    // Ejecuta la tarea en varios hilos a la vez y espera a que todos terminen
+    private long ejecutarEnHilos(int hilos, HiloTarea tarea) throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(hilos);
+        try {
+            CountDownLatch salida = new CountDownLatch(1);
+            List<Future<?>> futuros = new ArrayList<>();
+            for (int h = 0; h < hilos; h++) {
+                int hilo = h;
+                futuros.add(executor.submit(() -> {
+                    salida.await();
+                    tarea.ejecutar(hilo);
+                    return null;
+                }));
+            }
+            long inicio = System.nanoTime();
+            salida.countDown();
+            for (Future<?> futuro : futuros) {
+                futuro.get();
+            }
+            return System.nanoTime() - inicio;
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    interface HiloTarea {
+        void ejecutar(int hilo);
+    }
+
+    @Nested
+    @Tag("concurrencia")
+    @DisplayName("Probando transferencias concurrentes")
+    class TransferenciasConcurrentesTest {
+
+        @Test
+        @DisplayName("El total del banco se conserva con transferencias aleatorias en varios hilos")
+        void test_total_se_conserva() throws Exception {
+            List<Cuenta> cuentas = crearCuentas(16, new BigDecimal("1000.50"));
+            BigDecimal esperado = total();
+            AtomicLong rechazadas = new AtomicLong();
+
+            ejecutarEnHilos(8, hilo -> {
+                SplittableRandom random = new SplittableRandom(hilo);
+                for (int i = 0; i < 20_000; i++) {
+                    Cuenta origen = cuentas.get(random.nextInt(cuentas.size()));
+                    Cuenta destino = cuentas.get(random.nextInt(cuentas.size()));
+                    try {
+                        banco.transferir(origen, destino, BigDecimal.valueOf(random.nextInt(1, 500)));
+                    } catch (DineroInsuficienteException e) {
+                        rechazadas.incrementAndGet();
+                    }
+                }
+            });
+
+            reporter.publishEntry("Transferencias rechazadas: " + rechazadas.get());
+            assertEquals(0, esperado.compareTo(total()), () -> "El total no se conserva: " + total());
+            assertTrue(cuentas.stream().allMatch(cuenta -> cuenta.getSaldo().signum() >= 0));
+        }
+
+        @Test
+        @DisplayName("Transferencias en sentido contrario sobre las mismas cuentas no se bloquean")
+        void test_sin_deadlock() {
+            Cuenta cuenta1 = new Cuenta("Luis", BigDecimal.valueOf(2500));
+            Cuenta cuenta2 = new Cuenta("Angel", BigDecimal.valueOf(2500));
+            banco.addCuenta(cuenta1);
+            banco.addCuenta(cuenta2);
+
+            assertTimeoutPreemptively(Duration.ofSeconds(10), () -> ejecutarEnHilos(4, hilo -> {
+                for (int i = 0; i < 50_000; i++) {
+                    if (hilo % 2 == 0) {
+                        banco.transferir(cuenta1, cuenta2, BigDecimal.ONE);
+                        banco.transferir(cuenta2, cuenta1, BigDecimal.ONE);
+                    } else {
+                        banco.transferir(cuenta2, cuenta1, BigDecimal.ONE);
+                        banco.transferir(cuenta1, cuenta2, BigDecimal.ONE);
+                    }
+                }
+            }));
+
+            assertEquals("2500", cuenta1.getSaldo().toPlainString());
+            assertEquals("2500", cuenta2.getSaldo().toPlainString());
+        }
+
+        @Test
+        @DisplayName("Si el credito falla el debito se revierte")
+        void test_credito_fallido_revierte_debito() {
+            Cuenta origen = new Cuenta("Luis", BigDecimal.valueOf(2500));
+            Cuenta destino = new Cuenta("Angel", BigDecimal.valueOf(1500)) {
+                @Override
+                protected void aplicarCredito(BigDecimal monto) {
+                    throw new IllegalStateException("Cuenta bloqueada");
+                }
+            };
+
+            assertThrows(IllegalStateException.class, () -> banco.transferir(origen, destino, BigDecimal.valueOf(500)));
+            assertEquals("2500", origen.getSaldo().toPlainString());
+            assertEquals("1500", destino.getSaldo().toPlainString());
+        }
+
+        @Test
+        @Tag("rendimiento")
+        @DisplayName("Transferencias sobre cuentas distintas escalan con los nucleos")
+        void test_rendimiento_cuentas_disjuntas() throws Exception {
+            int hilos = Math.max(2, Runtime.getRuntime().availableProcessors());
+            int operaciones = 200_000;
+            List<Cuenta> cuentas = crearCuentas(hilos * 2, BigDecimal.valueOf(1_000_000));
+            BigDecimal esperado = total();
+
+            // Cada hilo trabaja sobre su propio par de cuentas
+            HiloTarea tarea = hilo -> {
+                Cuenta origen = cuentas.get(hilo * 2);
+                Cuenta destino = cuentas.get(hilo * 2 + 1);
+                for (int i = 0; i < operaciones; i++) {
+                    banco.transferir(origen, destino, BigDecimal.ONE);
+                    banco.transferir(destino, origen, BigDecimal.ONE);
+                }
+            };
+
+            long unHilo = ejecutarEnHilos(1, tarea);
+            long variosHilos = ejecutarEnHilos(hilos, tarea);
+
+            double opsUnHilo = operaciones * 2 * 1e9 / unHilo;
+            double opsVariosHilos = operaciones * 2L * hilos * 1e9 / variosHilos;
+            reporter.publishEntry(String.format("1 hilo: %.0f ops/s, %d hilos: %.0f ops/s (x%.2f)",
+                    opsUnHilo, hilos, opsVariosHilos, opsVariosHilos / opsUnHilo));
+
+            assertEquals(0, esperado.compareTo(total()));
+        }
+
+    }
+
+    @Nested
+    @Tag("banco")
+    @DisplayName("Probando busqueda de cuentas por indice")
+    class BusquedaCuentasTest {
+
+        @Test
+        void test_buscar_por_id_y_persona() {
+            Cuenta cuenta1 = new Cuenta("Luis", BigDecimal.valueOf(2500));
+            Cuenta cuenta2 = new Cuenta("Angel", BigDecimal.valueOf(1500.8989));
+            banco.addCuenta(cuenta1);
+            banco.addCuenta(cuenta2);
+
+            assertNotEquals(cuenta1.getId(), cuenta2.getId());
+            assertSame(cuenta1, banco.buscarPorId(cuenta1.getId()).orElseThrow());
+            assertSame(cuenta2, banco.buscarPorPersona("Angel").orElseThrow());
+            assertTrue(banco.buscarPorPersona("Pedro").isEmpty());
+            assertTrue(banco.buscarPorId(999).isEmpty());
+        }
+
+        @Test
+        void test_id_explicito_no_se_repite() {
+            banco.addCuenta(new Cuenta(10, "Luis", BigDecimal.valueOf(2500)));
+            Cuenta nueva = new Cuenta("Angel", BigDecimal.valueOf(1500));
+            banco.addCuenta(nueva);
+
+            assertEquals(11, nueva.getId());
+            assertThrows(IllegalArgumentException.class, () -> banco.addCuenta(new Cuenta(10, "Pedro", BigDecimal.ONE)));
+        }
+
+        @Test
+        void test_hash_code_estable_al_cambiar_saldo() {
+            Cuenta cuenta = new Cuenta("Luis", BigDecimal.valueOf(2500));
+            int hash = cuenta.hashCode();
+            cuenta.debito(BigDecimal.valueOf(500));
+
+            assertEquals(hash, cuenta.hashCode());
+            assertEquals(new Cuenta("Luis", BigDecimal.valueOf(2000)).hashCode(), cuenta.hashCode());
+        }
+
+        @Test
+        void test_igualdad_por_identidad_en_el_banco() {
+            Cuenta cuenta = new Cuenta(7, "Luis", BigDecimal.valueOf(2500));
+            Cuenta otra = new Cuenta(7, "Luis", BigDecimal.valueOf(2500));
+            int hash = cuenta.hashCode();
+            assertEquals(cuenta, otra); // fuera de un banco, por persona y saldo
+
+            banco.addCuenta(cuenta);
+            Banco otroBanco = new Banco();
+            otroBanco.addCuenta(otra);
+
+            assertEquals(cuenta.getId(), otra.getId());
+            assertNotEquals(cuenta, otra);
+            assertEquals(cuenta, cuenta);
+            assertEquals(hash, cuenta.hashCode());
+        }
+
+        @Test
+        void test_set_cuentas_pasa_por_el_alta() {
+            Cuenta anterior = new Cuenta("Pedro", BigDecimal.ONE);
+            banco.addCuenta(anterior);
+
+            Cuenta cuenta1 = new Cuenta("Luis", BigDecimal.valueOf(2500));
+            Cuenta cuenta2 = new Cuenta("Angel", BigDecimal.valueOf(1500));
+            banco.setCuentas(List.of(cuenta1, cuenta2));
+
+            assertSame(banco, cuenta1.getBanco());
+            assertSame(cuenta2, banco.buscarPorId(cuenta2.getId()).orElseThrow());
+            assertEquals(2, banco.getCuentas().size());
+            assertNull(anterior.getBanco());
+            assertTrue(banco.buscarPorPersona("Pedro").isEmpty());
+        }
+
+        @Test
+        void test_set_cuentas_con_observadores() {
+            Cuenta anterior = new Cuenta("Pedro", BigDecimal.ONE);
+            banco.addCuenta(anterior);
+            banco.agregarObservador((tipo, origen, destino, monto) -> { });
+
+            assertThrows(IllegalStateException.class, () -> banco.setCuentas(List.of(new Cuenta("Luis", BigDecimal.TEN))));
+            assertSame(banco, anterior.getBanco());
+            assertEquals(List.of(anterior), banco.getCuentas());
+        }
+
+        @Test
+        @Tag("concurrencia")
+        void test_buscar_mientras_se_agregan_cuentas() throws Exception {
+            int hilos = 4;
+            int porHilo = 10_000;
+
+            ejecutarEnHilos(hilos, hilo -> {
+                for (int i = 0; i < porHilo; i++) {
+                    Cuenta cuenta = new Cuenta("Persona " + hilo + "-" + i, BigDecimal.TEN);
+                    banco.addCuenta(cuenta);
+                    assertSame(cuenta, banco.buscarPorId(cuenta.getId()).orElseThrow());
+                    assertSame(cuenta, banco.buscarPorPersona(cuenta.getPersona()).orElseThrow());
+                }
+            });
+
+            assertEquals(hilos * porHilo, banco.getCuentas().size());
+            for (long id = 1; id <= hilos * porHilo; id++) {
+                assertTrue(banco.buscarPorId(id).isPresent());
+            }
+        }
+
+    }
+
+    @Nested
+    @Tag("banco")
+    @DisplayName("Probando transferencias en lote")
+    class TransferenciaLoteTest {
+
+        @Test
+        @DisplayName("En modo neto se valida el saldo contra el resultado final de cada cuenta")
+        void test_lote_neto() {
+            Cuenta cuenta1 = new Cuenta("Luis", BigDecimal.valueOf(100));
+            Cuenta cuenta2 = new Cuenta("Angel", BigDecimal.valueOf(100));
+            banco.addCuenta(cuenta1);
+            banco.addCuenta(cuenta2);
+
+            ResultadoLote resultado = banco.transferirLote(List.of(
+                    new Transferencia(cuenta1, cuenta2, BigDecimal.valueOf(150)),
+                    new Transferencia(cuenta2, cuenta1, BigDecimal.valueOf(100))
+            ));
+
+            assertEquals(2, resultado.getExitosas());
+            assertEquals("50", cuenta1.getSaldo().toPlainString());
+            assertEquals("150", cuenta2.getSaldo().toPlainString());
+        }
+
+        @Test
+        @DisplayName("En modo secuencial el resultado es el mismo que transferir una por una")
+        void test_lote_secuencial() {
+            Cuenta cuenta1 = new Cuenta("Luis", BigDecimal.valueOf(100));
+            Cuenta cuenta2 = new Cuenta("Angel", BigDecimal.valueOf(100));
+
+            ResultadoLote resultado = banco.transferirLote(List.of(
+                    new Transferencia(cuenta1, cuenta2, BigDecimal.valueOf(150)),
+                    new Transferencia(cuenta2, cuenta1, BigDecimal.valueOf(100))
+            ), ModoLote.SECUENCIAL);
+
+            assertFalse(resultado.isExitosa(0));
+            assertTrue(resultado.getError(0) instanceof DineroInsuficienteException);
+            assertTrue(resultado.isExitosa(1));
+            assertEquals("200", cuenta1.getSaldo().toPlainString());
+            assertEquals("0", cuenta2.getSaldo().toPlainString());
+        }
+
+        @Test
+        @DisplayName("Si falla un aviso, los observadores que ya recibieron parte del lote lo revierten")
+        void test_lote_fallido_revierte_avisos() {
+            Cuenta cuenta1 = new Cuenta("Luis", BigDecimal.valueOf(100));
+            Cuenta cuenta2 = new Cuenta("Angel", BigDecimal.valueOf(100));
+            banco.addCuenta(cuenta1);
+            banco.addCuenta(cuenta2);
+
+            List<String> eventos = new ArrayList<>();
+            banco.agregarObservador(new ObservadorMovimientos() {
+                @Override
+                public void alOperar(TipoOperacion tipo, Cuenta origen, Cuenta destino, BigDecimal monto) {
+                    eventos.add(tipo.name());
+                }
+
+                @Override
+                public void alRevertir() {
+                    eventos.add("REVERTIR");
+                }
+            });
+            banco.agregarObservador((tipo, origen, destino, monto) -> {
+                if (tipo == TipoOperacion.CREDITO) throw new IllegalStateException("Aviso rechazado");
+            });
+
+            assertThrows(IllegalStateException.class, () -> banco.transferirLote(List.of(
+                    new Transferencia(cuenta1, cuenta2, BigDecimal.valueOf(30)))));
+
+            assertEquals(List.of("DEBITO", "CREDITO", "REVERTIR", "REVERTIR"), eventos);
+            assertEquals("100", cuenta1.getSaldo().toPlainString());
+            assertEquals("100", cuenta2.getSaldo().toPlainString());
+        }
+
+        @Test
+        @DisplayName("Un rechazo en cadena no detiene el resto del lote")
+        void test_lote_rechazo_en_cadena() {
+            Cuenta cuenta1 = new Cuenta("Luis", BigDecimal.valueOf(10));
+            Cuenta cuenta2 = new Cuenta("Angel", BigDecimal.ZERO);
+            Cuenta cuenta3 = new Cuenta("Pedro", BigDecimal.valueOf(500));
+
+            ResultadoLote resultado = banco.transferirLote(List.of(
+                    new Transferencia(cuenta1, cuenta2, BigDecimal.valueOf(50)),
+                    new Transferencia(cuenta2, cuenta3, BigDecimal.valueOf(40)),
+                    new Transferencia(cuenta3, cuenta1, BigDecimal.valueOf(5))
+            ));
+
+            assertFalse(resultado.isExitosa(0));
+            assertFalse(resultado.isExitosa(1));
+            assertTrue(resultado.isExitosa(2));
+            assertEquals(2, resultado.getRechazadas());
+            assertEquals("15", cuenta1.getSaldo().toPlainString());
+            assertEquals("0", cuenta2.getSaldo().toPlainString());
+            assertEquals("495", cuenta3.getSaldo().toPlainString());
+        }
+
+        @Test
+        @DisplayName("Lote aleatorio: modo secuencial igual a transferir y modo neto conserva el total")
+        void test_lote_aleatorio() {
+            List<Cuenta> cuentas = crearCuentas(50, BigDecimal.valueOf(1000));
+            List<Cuenta> copias = new ArrayList<>();
+            cuentas.forEach(cuenta -> copias.add(new Cuenta(cuenta.getPersona(), cuenta.getSaldo())));
+
+            SplittableRandom random = new SplittableRandom(7);
+            List<Transferencia> lote = new ArrayList<>();
+            List<Transferencia> loteCopias = new ArrayList<>();
+            for (int i = 0; i < 20_000; i++) {
+                int origen = random.nextInt(cuentas.size());
+                int destino = random.nextInt(cuentas.size());
+                BigDecimal monto = BigDecimal.valueOf(random.nextInt(1, 400));
+                lote.add(new Transferencia(cuentas.get(origen), cuentas.get(destino), monto));
+                loteCopias.add(new Transferencia(copias.get(origen), copias.get(destino), monto));
+            }
+
+            ResultadoLote resultado = banco.transferirLote(lote, ModoLote.SECUENCIAL);
+            for (int i = 0; i < loteCopias.size(); i++) {
+                Transferencia transferencia = loteCopias.get(i);
+                boolean exitosa = true;
+                try {
+                    banco.transferir(transferencia.getOrigen(), transferencia.getDestino(), transferencia.getMonto());
+                } catch (DineroInsuficienteException e) {
+                    exitosa = false;
+                }
+                assertEquals(exitosa, resultado.isExitosa(i));
+            }
+            for (int i = 0; i < cuentas.size(); i++) {
+                assertEquals(0, copias.get(i).getSaldo().compareTo(cuentas.get(i).getSaldo()));
+            }
+
+            BigDecimal esperado = total();
+            ResultadoLote neto = banco.transferirLote(lote);
+            reporter.publishEntry("Lote neto: " + neto);
+            assertEquals(0, esperado.compareTo(total()));
+            assertTrue(cuentas.stream().allMatch(cuenta -> cuenta.getSaldo().signum() >= 0));
+        }
+
+    }
+
+
+    @Nested
+    @Tag("banco")
+    @DisplayName("Probando rechazos por fondos sin excepciones")
+    class RechazoSinExcepcionesTest {
+
+        @Test
+        void test_try_transferir_devuelve_resultado() {
+            Cuenta cuenta1 = new Cuenta("Luis", BigDecimal.valueOf(100));
+            Cuenta cuenta2 = new CuentaPuntoFijo("Angel", BigDecimal.valueOf(50));
+            banco.addCuenta(cuenta1);
+            banco.addCuenta(cuenta2);
+
+            assertEquals(ResultadoOperacion.DINERO_INSUFICIENTE, banco.tryTransferir(cuenta2, cuenta1, BigDecimal.valueOf(51)));
+            assertEquals("100", cuenta1.getSaldo().toPlainString());
+            assertEquals(ResultadoOperacion.EXITOSA, banco.tryTransferir(cuenta2, cuenta1, BigDecimal.valueOf(50)));
+            assertEquals("150", cuenta1.getSaldo().toPlainString());
+            assertEquals(0, cuenta2.getSaldo().signum());
+
+            assertEquals(ResultadoOperacion.DINERO_INSUFICIENTE, cuenta2.tryDebito(BigDecimal.ONE));
+            assertEquals(ResultadoOperacion.EXITOSA, cuenta1.tryDebito(BigDecimal.TEN));
+            assertEquals("140", cuenta1.getSaldo().toPlainString());
+            assertThrows(DineroInsuficienteException.class, () -> banco.transferir(cuenta2, cuenta1, BigDecimal.ONE));
+        }
+
+        @Test
+        void test_try_debito_en_cuentas_sin_bloqueo() {
+            CuentaAtomica atomica = new CuentaAtomica("Luis", BigDecimal.valueOf(10));
+            CuentaAcumuladora acumuladora = new CuentaAcumuladora("Angel", BigDecimal.valueOf(10));
+            acumuladora.credito(500);
+
+            assertEquals(ResultadoOperacion.DINERO_INSUFICIENTE, atomica.tryDebito(1_000_001));
+            assertEquals(ResultadoOperacion.EXITOSA, atomica.tryDebito(1_000_000));
+            assertEquals(0, atomica.getSaldo().signum());
+            assertEquals(ResultadoOperacion.DINERO_INSUFICIENTE, acumuladora.tryDebito(1_000_501));
+            assertEquals(ResultadoOperacion.EXITOSA, acumuladora.tryDebito(new BigDecimal("10.005")));
+            assertEquals(0, acumuladora.getSaldo().signum());
+        }
+
+        @Test
+        void test_excepcion_compartida_sin_pila() {
+            DineroInsuficienteException compartida = DineroInsuficienteException.compartida();
+            compartida.setStackTrace(new Thread().getStackTrace());
+            compartida.addSuppressed(new IllegalStateException());
+
+            assertEquals(0, compartida.getStackTrace().length);
+            assertEquals(0, compartida.getSuppressed().length);
+            assertEquals("Dinero insuficiente", compartida.getMessage());
+            assertTrue(new DineroInsuficienteException("Dinero insuficiente").getStackTrace().length > 0);
+        }
+
+        @Test
+        @Tag("rendimiento")
+        @DisplayName("Un rechazo cuesta lo mismo que una transferencia exitosa")
+        void test_rendimiento_rechazo_contra_exito() {
+            Cuenta rica = new Cuenta("Luis", BigDecimal.valueOf(1_000_000_000));
+            Cuenta pobre = new Cuenta("Angel", BigDecimal.ZERO);
+            banco.addCuenta(rica);
+            banco.addCuenta(pobre);
+            int operaciones = 2_000_000;
+            BigDecimal monto = BigDecimal.ONE;
+
+            long[] nanos = new long[3];
+            for (int ronda = 0; ronda < 3; ronda++) { // la primera ronda solo calienta
+                long inicio = System.nanoTime();
+                for (int i = 0; i < operaciones; i++) {
+                    banco.tryTransferir(rica, pobre, monto);
+                    banco.tryTransferir(pobre, rica, monto);
+                }
+                nanos[0] = System.nanoTime() - inicio;
+
+                inicio = System.nanoTime();
+                for (int i = 0; i < operaciones; i++) {
+                    banco.tryTransferir(pobre, rica, monto);
+                    banco.tryTransferir(pobre, rica, monto);
+                }
+                nanos[1] = System.nanoTime() - inicio;
+
+                inicio = System.nanoTime();
+                for (int i = 0; i < operaciones / 10; i++) {
+                    try {
+                        banco.transferir(pobre, rica, monto);
+                    } catch (DineroInsuficienteException e) {
+                        // rechazo esperado
+                    }
+                }
+                nanos[2] = (System.nanoTime() - inicio) * 10;
+            }
+
+            reporter.publishEntry(String.format("Por operacion: exito %.1f ns, rechazo %.1f ns, rechazo con excepcion %.1f ns",
+                    nanos[0] / (2.0 * operaciones), nanos[1] / (2.0 * operaciones), nanos[2] / (2.0 * operaciones)));
+            assertEquals(0, pobre.getSaldo().signum());
+            assertEquals(0, BigDecimal.valueOf(1_000_000_000).compareTo(rica.getSaldo()));
+        }
+
+    }
+
+}
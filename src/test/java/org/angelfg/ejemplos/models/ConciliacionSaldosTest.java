@@ -0,0 +1,220 @@
+package org.angelfg.ejemplos.models;
+
+import org.junit.jupiter.api.*;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ConciliacionSaldosTest {
+
+    private static final BigDecimal MIL = BigDecimal.valueOf(1000);
+
+    private TestReporter reporter;
+
+    @BeforeEach
+    void initMetodoTest(TestReporter reporter) {
+        this.reporter = reporter;
+    }
+
+    private static Banco crearBanco(int cuentas, boolean puntoFijo) {
+        Banco banco = new Banco();
+        for (int i = 0; i < cuentas; i++) {
+            banco.addCuenta(puntoFijo ? new CuentaPuntoFijo("Persona " + i, MIL) : new Cuenta("Persona " + i, MIL));
+        }
+        return banco;
+    }
+
+    @Test
+    void test_misma_suma_sin_importar_el_orden_ni_la_escala() {
+        Banco banco1 = crearBanco(3, false);
+        Banco banco2 = crearBanco(3, true);
+        try (ConciliacionSaldos conciliacion1 = new ConciliacionSaldos(banco1);
+             ConciliacionSaldos conciliacion2 = new ConciliacionSaldos(banco2)) {
+            assertEquals(conciliacion1.getSuma(), conciliacion2.getSuma());
+
+            List<Cuenta> cuentas1 = banco1.getCuentas();
+            banco1.transferir(cuentas1.get(0), cuentas1.get(1), new BigDecimal("100.50"));
+            cuentas1.get(2).debito(BigDecimal.TEN);
+            cuentas1.get(0).credito(BigDecimal.ONE);
+
+            // Las mismas operaciones en otro orden y por otro camino
+            List<Cuenta> cuentas2 = banco2.getCuentas();
+            cuentas2.get(0).credito(BigDecimal.ONE);
+            cuentas2.get(1).credito(new BigDecimal("100.5"));
+            cuentas2.get(0).debito(new BigDecimal("100.5"));
+            assertNotEquals(conciliacion1.getSuma(), conciliacion2.getSuma());
+            banco2.transferirLote(List.of(new Transferencia(cuentas2.get(2), cuentas2.get(0), BigDecimal.TEN),
+                    new Transferencia(cuentas2.get(0), cuentas2.get(1), BigDecimal.ZERO)));
+            cuentas2.get(0).debito(BigDecimal.TEN);
+
+            assertEquals(conciliacion1.getSuma(), conciliacion2.getSuma());
+            assertTrue(conciliacion1.buscarDiferencias(conciliacion2).isEmpty());
+        }
+    }
+
+    @Test
+    void test_huella_no_depende_de_la_escala() {
+        long mil = ConciliacionSaldos.huella(1, BigDecimal.valueOf(1000));
+        assertEquals(mil, ConciliacionSaldos.huella(1, new BigDecimal("1000.00000")));
+        assertEquals(mil, ConciliacionSaldos.huella(1, new BigDecimal("1E+3")));
+        assertNotEquals(mil, ConciliacionSaldos.huella(2, BigDecimal.valueOf(1000)));
+        assertNotEquals(mil, ConciliacionSaldos.huella(1, new BigDecimal("1000.00001")));
+        assertEquals(ConciliacionSaldos.huella(1, BigDecimal.ZERO), ConciliacionSaldos.huella(1, new BigDecimal("0.00")));
+
+        BigDecimal grande = new BigDecimal("123456789012345678901234567890.1");
+        assertEquals(ConciliacionSaldos.huella(1, grande), ConciliacionSaldos.huella(1, new BigDecimal("123456789012345678901234567890.10")));
+        assertEquals(ConciliacionSaldos.huella(1, new BigDecimal("92233720368547758070")),
+                ConciliacionSaldos.huella(1, new BigDecimal("9223372036854775807E+1")));
+    }
+
+    @Test
+    void test_altas_y_ajustes_se_reflejan_enseguida() {
+        Banco banco = crearBanco(2, false);
+        try (ConciliacionSaldos conciliacion = new ConciliacionSaldos(banco)) {
+            long antes = conciliacion.getSuma();
+            Cuenta nueva = new Cuenta("Maria", BigDecimal.ZERO);
+            banco.addCuenta(nueva);
+            assertEquals(antes + ConciliacionSaldos.huella(nueva.getId(), BigDecimal.ZERO), conciliacion.getSuma());
+
+            nueva.setSaldo(BigDecimal.valueOf(5));
+            assertEquals(antes + ConciliacionSaldos.huella(nueva.getId(), BigDecimal.valueOf(5)), conciliacion.getSuma());
+
+            // Una conciliacion creada despues llega a la misma suma recorriendo las cuentas
+            try (ConciliacionSaldos otra = new ConciliacionSaldos(banco)) {
+                assertEquals(conciliacion.getSuma(), otra.getSuma());
+            }
+        }
+        assertFalse(banco.tieneObservadores());
+    }
+
+    @Test
+    void test_operaciones_revertidas_no_cambian_la_suma() {
+        Banco banco = crearBanco(2, false);
+        try (ConciliacionSaldos conciliacion = new ConciliacionSaldos(banco)) {
+            long antes = conciliacion.getSuma();
+            ObservadorMovimientos falla = (tipo, origen, destino, monto) -> {
+                throw new IllegalStateException("Observador caido");
+            };
+            banco.agregarObservador(falla); // recibe las operaciones despues de la conciliacion
+
+            List<Cuenta> cuentas = banco.getCuentas();
+            assertThrows(IllegalStateException.class, () -> banco.addCuenta(new Cuenta("Maria", BigDecimal.TEN)));
+            assertThrows(IllegalStateException.class, () -> banco.transferir(cuentas.get(0), cuentas.get(1), BigDecimal.ONE));
+            assertThrows(IllegalStateException.class, () -> cuentas.get(0).credito(BigDecimal.ONE));
+            assertEquals(antes, conciliacion.getSuma());
+
+            banco.quitarObservador(falla);
+            try (ConciliacionSaldos otra = new ConciliacionSaldos(banco)) {
+                assertTrue(conciliacion.buscarDiferencias(otra).isEmpty());
+            }
+        }
+    }
+
+    @Test
+    void test_diferencias_acotadas_a_las_hojas_distintas() {
+        int cuentas = 100_000;
+        Banco banco1 = crearBanco(cuentas, true);
+        Banco banco2 = crearBanco(cuentas, true);
+        ConciliacionSaldos conciliacion1 = new ConciliacionSaldos(banco1, 1 << 11, 32);
+        ConciliacionSaldos conciliacion2 = new ConciliacionSaldos(banco2, 1 << 11, 32);
+
+        Cuenta distinta = banco2.buscarPorId(54_321).orElseThrow();
+        distinta.credito(BigDecimal.ONE);
+        AtomicInteger consultas = new AtomicInteger();
+        List<ConciliacionSaldos.Rango> rangos = conciliacion1.buscarDiferencias(posicion -> {
+            consultas.incrementAndGet();
+            return conciliacion2.getNodo(posicion);
+        });
+        assertEquals(1, rangos.size());
+        assertTrue(rangos.get(0).contiene(54_321));
+        assertFalse(rangos.get(0).contiene(54_321 - 32));
+        assertEquals(1 + 2 * 11, consultas.get()); // la raiz y los dos hijos de cada nivel
+
+        // Las cuentas que pasan de hojas * cuentasPorHoja vuelven a las primeras hojas
+        Cuenta otra = banco1.buscarPorId(3).orElseThrow();
+        banco1.transferir(otra, banco1.buscarPorId(3 + (1 << 16)).orElseThrow(), BigDecimal.ONE);
+        rangos = conciliacion1.buscarDiferencias(conciliacion2);
+        assertEquals(2, rangos.size());
+        assertEquals(0, rangos.get(0).getDesde());
+        assertTrue(rangos.get(0).contiene(3 + (1 << 16)));
+
+        assertThrows(IllegalArgumentException.class, () -> conciliacion1.buscarDiferencias(new ConciliacionSaldos(banco2)));
+        assertThrows(IllegalArgumentException.class, () -> new ConciliacionSaldos(banco1, 1000, 32));
+    }
+
+    @Test
+    @Tag("banco")
+    @DisplayName("La suma coincide con la recalculada despues de transferencias concurrentes")
+    void test_suma_con_transferencias_concurrentes() throws Exception {
+        int cuentas = 500;
+        Banco banco = crearBanco(cuentas, false);
+        ConciliacionSaldos conciliacion = new ConciliacionSaldos(banco, 64, 4);
+        List<Cuenta> lista = banco.getCuentas();
+
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            List<Future<?>> futuros = new ArrayList<>();
+            for (int h = 0; h < 4; h++) {
+                int semilla = h;
+                futuros.add(executor.submit(() -> {
+                    SplittableRandom random = new SplittableRandom(semilla);
+                    for (int i = 0; i < 50_000; i++) {
+                        Cuenta origen = lista.get(random.nextInt(cuentas));
+                        if (random.nextInt(10) == 0) {
+                            origen.credito(BigDecimal.valueOf(random.nextInt(1, 100), 2));
+                        } else {
+                            banco.tryTransferir(origen, lista.get(random.nextInt(cuentas)), BigDecimal.valueOf(random.nextInt(1, 300)));
+                        }
+                    }
+                }));
+            }
+            for (Future<?> futuro : futuros) {
+                futuro.get();
+            }
+        } finally {
+            executor.shutdown();
+        }
+
+        ConciliacionSaldos recalculada = new ConciliacionSaldos(banco, 64, 4);
+        assertEquals(recalculada.getSuma(), conciliacion.getSuma());
+        assertTrue(conciliacion.buscarDiferencias(recalculada).isEmpty());
+    }
+
+    @Test
+    @Tag("rendimiento")
+    @DisplayName("Costo de mantener la suma en las transferencias")
+    void test_rendimiento_transferencias() {
+        int cuentas = 100_000;
+        Banco banco = crearBanco(cuentas, true);
+        List<Cuenta> lista = banco.getCuentas();
+        int transferencias = 2_000_000;
+
+        double sinSuma = medir(banco, lista, transferencias);
+        medir(banco, lista, transferencias); // calentamiento
+        sinSuma = Math.min(sinSuma, medir(banco, lista, transferencias));
+        try (ConciliacionSaldos conciliacion = new ConciliacionSaldos(banco)) {
+            double conSuma = Math.min(medir(banco, lista, transferencias), medir(banco, lista, transferencias));
+            reporter.publishEntry(String.format("Transferencia sin suma: %.1f ns, con suma: %.1f ns", sinSuma, conSuma));
+            assertNotEquals(0, conciliacion.getSuma());
+        }
+    }
+
+    private static double medir(Banco banco, List<Cuenta> lista, int transferencias) {
+        SplittableRandom random = new SplittableRandom(7);
+        BigDecimal monto = BigDecimal.ONE;
+        long inicio = System.nanoTime();
+        for (int i = 0; i < transferencias; i++) {
+            banco.tryTransferir(lista.get(random.nextInt(lista.size())), lista.get(random.nextInt(lista.size())), monto);
+        }
+        return (System.nanoTime() - inicio) / (double) transferencias;
+    }
+
+}
@@ -0,0 +1,126 @@
+package org.angelfg.ejemplos.models;
+
+import org.angelfg.ejemplos.exceptions.DineroInsuficienteException;
+import org.junit.jupiter.api.*;
+
+import java.math.BigDecimal;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class CuentaAcumuladoraTest {
+
+    private TestReporter reporter;
+
+    @BeforeEach
+    void initMetodoTest(TestReporter reporter) {
+        this.reporter = reporter;
+    }
+
+    @Test
+    void test_saldo_se_arma_al_leer() {
+        CuentaAcumuladora cuenta = new CuentaAcumuladora("Comisiones", new BigDecimal("10.5"));
+        cuenta.credito(BigDecimal.ONE);
+        cuenta.credito(50_000L);
+        cuenta.debito(BigDecimal.valueOf(2));
+
+        assertEquals("10.0", cuenta.getSaldo().toPlainString()); // la escala del saldo inicial, los montos en unidades no la cambian
+        assertThrows(DineroInsuficienteException.class, () -> cuenta.debito(BigDecimal.valueOf(11)));
+
+        cuenta.setSaldo(BigDecimal.valueOf(3));
+        cuenta.credito(BigDecimal.ONE);
+        assertEquals("4", cuenta.getSaldo().toPlainString());
+    }
+
+    @Test
+    @Tag("concurrencia")
+    @DisplayName("Debitos con lock mientras llegan creditos sin lock")
+    void test_debitos_y_creditos_concurrentes() throws Exception {
+        CuentaAcumuladora cuenta = new CuentaAcumuladora("Comercio", BigDecimal.ZERO);
+        int hilos = 4;
+        int creditosPorHilo = 100_000;
+        AtomicLong debitado = new AtomicLong();
+        CountDownLatch inicio = new CountDownLatch(1);
+
+        ExecutorService executor = Executors.newFixedThreadPool(hilos + 1);
+        try {
+            Future<?> debitos = executor.submit(() -> {
+                inicio.await();
+                for (int i = 0; i < 200_000; i++) {
+                    try {
+                        cuenta.debito(3L);
+                        debitado.addAndGet(3);
+                    } catch (DineroInsuficienteException e) {
+                        // todavia no hay creditos suficientes
+                    }
+                    assertTrue(cuenta.getUnidades() >= 0);
+                }
+                return null;
+            });
+            Future<?>[] creditos = new Future<?>[hilos];
+            for (int h = 0; h < hilos; h++) {
+                creditos[h] = executor.submit(() -> {
+                    inicio.await();
+                    for (int i = 0; i < creditosPorHilo; i++) {
+                        cuenta.credito(1L);
+                    }
+                    return null;
+                });
+            }
+            inicio.countDown();
+            for (Future<?> futuro : creditos) futuro.get();
+            debitos.get();
+        } finally {
+            executor.shutdownNow();
+        }
+
+        assertEquals((long) hilos * creditosPorHilo - debitado.get(), cuenta.getUnidades());
+    }
+
+    @Test
+    @Tag("rendimiento")
+    @DisplayName("Creditos por segundo sobre una sola cuenta caliente")
+    void test_escalamiento_de_creditos() throws Exception {
+        int porHilo = 500_000;
+        StringBuilder informe = new StringBuilder();
+        for (int hilos : new int[] { 1, 2, 4, 8 }) {
+            Cuenta[] cuentas = {
+                    new CuentaPuntoFijo("Lock", BigDecimal.ZERO),
+                    new CuentaAtomica("CAS", BigDecimal.ZERO),
+                    new CuentaAcumuladora("LongAdder", BigDecimal.ZERO)
+            };
+            informe.append(hilos).append(" hilos:");
+            for (Cuenta cuenta : cuentas) {
+                CuentaPuntoFijo puntoFijo = (CuentaPuntoFijo) cuenta;
+                ExecutorService executor = Executors.newFixedThreadPool(hilos);
+                long nanos;
+                try {
+                    CountDownLatch inicio = new CountDownLatch(1);
+                    Future<?>[] futuros = new Future<?>[hilos];
+                    for (int h = 0; h < hilos; h++) {
+                        futuros[h] = executor.submit(() -> {
+                            inicio.await();
+                            for (int i = 0; i < porHilo; i++) puntoFijo.credito(1L);
+                            return null;
+                        });
+                    }
+                    long comienzo = System.nanoTime();
+                    inicio.countDown();
+                    for (Future<?> futuro : futuros) futuro.get();
+                    nanos = System.nanoTime() - comienzo;
+                } finally {
+                    executor.shutdownNow();
+                }
+                assertEquals((long) hilos * porHilo, puntoFijo.getUnidades());
+                informe.append(String.format(" %s %.1f M/s", cuenta.getPersona(), hilos * porHilo * 1e3 / nanos));
+            }
+            informe.append("; ");
+        }
+        reporter.publishEntry(informe.toString());
+    }
+
+}
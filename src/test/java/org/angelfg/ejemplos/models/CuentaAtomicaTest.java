@@ -0,0 +1,162 @@
+package org.angelfg.ejemplos.models;
+
+import org.angelfg.ejemplos.exceptions.DineroInsuficienteException;
+import org.junit.jupiter.api.*;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class CuentaAtomicaTest {
+
+    interface HiloTarea {
+        void ejecutar(int hilo) throws Exception;
+    }
+
+    private static void ejecutarEnHilos(int hilos, HiloTarea tarea) throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(hilos);
+        try {
+            List<Future<?>> futuros = new ArrayList<>();
+            for (int h = 0; h < hilos; h++) {
+                int hilo = h;
+                futuros.add(executor.submit(() -> {
+                    tarea.ejecutar(hilo);
+                    return null;
+                }));
+            }
+            for (Future<?> futuro : futuros) {
+                futuro.get();
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    @Tag("concurrencia")
+    void test_debitos_concurrentes_no_dejan_saldo_negativo() throws Exception {
+        CuentaAtomica cuenta = new CuentaAtomica("Luis", BigDecimal.valueOf(1000));
+        AtomicInteger exitosos = new AtomicInteger();
+
+        ejecutarEnHilos(8, hilo -> {
+            for (int i = 0; i < 500; i++) {
+                try {
+                    cuenta.debito(BigDecimal.ONE);
+                    exitosos.incrementAndGet();
+                } catch (DineroInsuficienteException e) {
+                    // sin saldo
+                }
+            }
+        });
+
+        assertEquals(1000, exitosos.get());
+        assertEquals(0, cuenta.getUnidades());
+    }
+
+    @Test
+    @Tag("concurrencia")
+    void test_creditos_y_transferencias_mezclados() throws Exception {
+        Banco banco = new Banco();
+        CuentaAtomica caliente = new CuentaAtomica("Comercio", BigDecimal.ZERO);
+        Cuenta cliente = new Cuenta("Cliente", BigDecimal.valueOf(100_000));
+        banco.addCuenta(caliente);
+        banco.addCuenta(cliente);
+
+        // Creditos sin lock mientras transferir toma el lock de la misma cuenta
+        ejecutarEnHilos(4, hilo -> {
+            for (int i = 0; i < 10_000; i++) {
+                if (hilo == 0) {
+                    banco.transferir(cliente, caliente, BigDecimal.ONE);
+                } else {
+                    caliente.credito(100_000L); // 1 en unidades de escala 5
+                }
+            }
+        });
+
+        assertEquals("40000", caliente.getSaldo().toPlainString());
+        assertEquals("90000", cliente.getSaldo().toPlainString());
+    }
+
+    @Test
+    void test_con_observadores_usa_el_lock() {
+        Banco banco = new Banco();
+        CuentaAtomica cuenta = new CuentaAtomica("Luis", BigDecimal.TEN);
+        banco.addCuenta(cuenta);
+        List<BigDecimal> saldos = new ArrayList<>();
+        banco.agregarObservador((tipo, origen, destino, monto) -> saldos.add((destino != null ? destino : origen).getSaldo()));
+
+        cuenta.credito(BigDecimal.ONE);
+        cuenta.debito(BigDecimal.valueOf(5));
+
+        assertEquals(List.of(new BigDecimal("11"), new BigDecimal("6")), saldos);
+        assertThrows(DineroInsuficienteException.class, () -> cuenta.debito(BigDecimal.valueOf(7)));
+    }
+
+    // Registra si el aviso llego con el lock de la cuenta tomado
+    private static final class ObservadorBloqueo implements ObservadorMovimientos {
+
+        private final boolean admiteSinBloqueo;
+        private final List<Boolean> conLock = new ArrayList<>();
+        private boolean fallar;
+
+        ObservadorBloqueo(boolean admiteSinBloqueo) {
+            this.admiteSinBloqueo = admiteSinBloqueo;
+        }
+
+        @Override
+        public void alOperar(TipoOperacion tipo, Cuenta origen, Cuenta destino, BigDecimal monto) {
+            Cuenta cuenta = destino != null ? destino : origen;
+            conLock.add(((ReentrantLock) cuenta.getLock()).isHeldByCurrentThread());
+            if (fallar) throw new IllegalStateException("Aviso rechazado");
+        }
+
+        @Override
+        public boolean admiteSinBloqueo() {
+            return admiteSinBloqueo;
+        }
+
+    }
+
+    @Test
+    void test_observadores_que_admiten_cambios_sin_lock() {
+        Banco banco = new Banco();
+        CuentaAtomica cuenta = new CuentaAtomica("Luis", BigDecimal.TEN);
+        CuentaAcumuladora acumuladora = new CuentaAcumuladora("Comercio", BigDecimal.ZERO);
+        banco.addCuenta(cuenta);
+        banco.addCuenta(acumuladora);
+        ObservadorBloqueo sinLock = new ObservadorBloqueo(true);
+        banco.agregarObservador(sinLock);
+
+        cuenta.credito(BigDecimal.ONE);
+        cuenta.debito(5L * 100_000);
+        acumuladora.credito(BigDecimal.ONE);
+        assertEquals(List.of(false, false, false), sinLock.conLock);
+
+        // Con un observador que no lo admite todos reciben el aviso con el lock, al quitarlo se vuelve a evitar
+        ObservadorBloqueo conLock = new ObservadorBloqueo(false);
+        banco.agregarObservador(conLock);
+        cuenta.credito(BigDecimal.ONE);
+        acumuladora.credito(1L);
+        assertEquals(List.of(true, true), conLock.conLock);
+        assertEquals(List.of(false, false, false, true, true), sinLock.conLock);
+        banco.quitarObservador(conLock);
+        cuenta.credito(BigDecimal.ONE);
+        assertFalse(sinLock.conLock.get(5));
+
+        // Si el aviso falla el cambio sin lock se deshace
+        sinLock.fallar = true;
+        assertThrows(IllegalStateException.class, () -> cuenta.credito(BigDecimal.TEN));
+        assertThrows(IllegalStateException.class, () -> cuenta.debito(BigDecimal.ONE));
+        assertThrows(IllegalStateException.class, () -> acumuladora.credito(BigDecimal.TEN));
+        assertEquals("8", cuenta.getSaldo().toPlainString());
+        assertEquals("1.00001", acumuladora.getSaldo().toPlainString());
+    }
+
+}
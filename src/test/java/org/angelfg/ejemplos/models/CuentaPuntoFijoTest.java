@@ -0,0 +1,212 @@
+package org.angelfg.ejemplos.models;
+
+import org.angelfg.ejemplos.exceptions.DineroInsuficienteException;
+import org.junit.jupiter.api.*;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.CsvFileSource;
+import org.junit.jupiter.params.provider.ValueSource;
+
+import java.lang.management.ManagementFactory;
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.util.SplittableRandom;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class CuentaPuntoFijoTest {
+
+    private Cuenta cuenta;
+    private CuentaPuntoFijo cuentaFija;
+
+    private TestReporter reporter;
+
+    @BeforeEach
+    void initMetodoTest(TestReporter reporter) {
+        this.reporter = reporter;
+        this.cuenta = new Cuenta("Luis", BigDecimal.valueOf(1000.12345));
+        this.cuentaFija = new CuentaPuntoFijo("Luis", BigDecimal.valueOf(1000.12345));
+    }
+
+    // Mismo valor numerico, la escala del BigDecimal puede ser distinta
+    private void assertMismoSaldo(Cuenta esperada, Cuenta actual) {
+        assertEquals(0, esperada.getSaldo().compareTo(actual.getSaldo()),
+                () -> "Se esperaba " + esperada.getSaldo() + " sin embargo fue " + actual.getSaldo());
+    }
+
+    @Nested
+    @DisplayName("Probando que el saldo en punto fijo coincide con BigDecimal")
+    class MismoResultadoTest {
+
+        @Test
+        void test_saldo_cuenta() {
+            assertEquals("1000.12345", cuentaFija.getSaldo().toPlainString());
+            assertEquals(100012345L, cuentaFija.getUnidades());
+        }
+
+        @ParameterizedTest(name = "Numero {index} ejecutando con el valor {0}")
+        @CsvFileSource(resources = "/data.csv")
+        void test_debito_csv_file_source(String monto) {
+            cuenta.debito(new BigDecimal(monto));
+            cuentaFija.debito(new BigDecimal(monto));
+
+            assertEquals(cuenta.getSaldo().toPlainString(), cuentaFija.getSaldo().toPlainString());
+        }
+
+        @ParameterizedTest(name = "Numero {index} ejecutando con el valor {0}")
+        @CsvFileSource(resources = "/data.csv")
+        void test_credito_csv_file_source(String monto) {
+            cuenta.credito(new BigDecimal(monto));
+            cuentaFija.credito(new BigDecimal(monto));
+
+            assertMismoSaldo(cuenta, cuentaFija);
+        }
+
+        @Test
+        void test_transferir_dinero_cuentas() {
+            Cuenta cuenta1 = new CuentaPuntoFijo("Luis", BigDecimal.valueOf(2500));
+            Cuenta cuenta2 = new CuentaPuntoFijo("Angel", BigDecimal.valueOf(1500.8989));
+
+            Banco banco = new Banco();
+            banco.transferir(cuenta2, cuenta1, BigDecimal.valueOf(500));
+
+            assertEquals("1000.8989", cuenta2.getSaldo().toPlainString()); // la escala del saldo inicial
+            assertEquals(0, new BigDecimal("3000").compareTo(cuenta1.getSaldo()));
+        }
+
+        @Test
+        void test_misma_escala_que_big_decimal() {
+            Cuenta decimal = new Cuenta("Angel", BigDecimal.valueOf(2500));
+            Cuenta fija = new CuentaPuntoFijo("Angel", BigDecimal.valueOf(2500));
+            assertEquals(decimal.getSaldo(), fija.getSaldo());
+
+            for (Cuenta actual : new Cuenta[] { decimal, fija }) {
+                actual.debito(BigDecimal.valueOf(100));
+                actual.credito(new BigDecimal("0.50"));
+                actual.credito(new BigDecimal("0.5"));
+            }
+            assertEquals(decimal.getSaldo(), fija.getSaldo()); // 2401.00, no 2401.00000
+            assertEquals("2401.00", fija.getSaldo().toPlainString());
+
+            decimal.setSaldo(BigDecimal.TEN);
+            fija.setSaldo(BigDecimal.TEN);
+            assertEquals(decimal.getSaldo(), fija.getSaldo());
+        }
+
+        @Test
+        void test_secuencia_aleatoria() {
+            SplittableRandom random = new SplittableRandom(42);
+            for (int i = 0; i < 10_000; i++) {
+                BigDecimal monto = BigDecimal.valueOf(random.nextLong(0, 50_000_000L), 5);
+                if (random.nextBoolean()) {
+                    cuenta.credito(monto);
+                    cuentaFija.credito(monto);
+                } else {
+                    DineroInsuficienteException error = null;
+                    try {
+                        cuenta.debito(monto);
+                    } catch (DineroInsuficienteException e) {
+                        error = e;
+                    }
+                    if (error == null) {
+                        cuentaFija.debito(monto);
+                    } else {
+                        assertThrows(DineroInsuficienteException.class, () -> cuentaFija.debito(monto));
+                    }
+                }
+                assertMismoSaldo(cuenta, cuentaFija);
+            }
+        }
+
+    }
+
+    @Nested
+    @DisplayName("Probando reglas de redondeo y desbordamiento")
+    class ReglasTest {
+
+        @Test
+        void test_dinero_insuficiente_exception() {
+            Exception exception = assertThrows(DineroInsuficienteException.class, () -> cuentaFija.debito(BigDecimal.valueOf(1500)));
+
+            assertEquals("Dinero insuficiente", exception.getMessage());
+            assertEquals("1000.12345", cuentaFija.getSaldo().toPlainString());
+        }
+
+        @Test
+        void test_redondeo_no_permitido() {
+            assertThrows(ArithmeticException.class, () -> cuentaFija.credito(new BigDecimal("0.000001")));
+            assertEquals("1000.12345", cuentaFija.getSaldo().toPlainString());
+        }
+
+        @ParameterizedTest(name = "Numero {index} ejecutando con el valor {0}")
+        @ValueSource(strings = { "0.125", "0.135", "-0.125" })
+        void test_redondeo_configurado(String monto) {
+            CuentaPuntoFijo centavos = new CuentaPuntoFijo("Angel", BigDecimal.ZERO, 2, RoundingMode.HALF_EVEN);
+            centavos.credito(new BigDecimal(monto));
+
+            assertEquals(new BigDecimal(monto).setScale(2, RoundingMode.HALF_EVEN), centavos.getSaldo());
+        }
+
+        @Test
+        void test_desbordamiento() {
+            CuentaPuntoFijo grande = new CuentaPuntoFijo("Angel", BigDecimal.ZERO, 0, RoundingMode.UNNECESSARY);
+            grande.credito(Long.MAX_VALUE);
+
+            assertThrows(ArithmeticException.class, () -> grande.credito(1));
+            assertThrows(ArithmeticException.class, () -> grande.debito(Long.MIN_VALUE));
+            assertThrows(ArithmeticException.class, () -> cuentaFija.credito(new BigDecimal("1e20")));
+            assertEquals(Long.MAX_VALUE, grande.getUnidades());
+        }
+
+        @Test
+        void test_escala_invalida() {
+            assertThrows(IllegalArgumentException.class,
+                    () -> new CuentaPuntoFijo("Angel", BigDecimal.ZERO, 19, RoundingMode.UNNECESSARY));
+        }
+
+    }
+
+    @Test
+    @Tag("rendimiento")
+    @DisplayName("Microbenchmark de debito y credito BigDecimal contra punto fijo")
+    void test_microbenchmark() {
+        com.sun.management.ThreadMXBean hilos = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        int operaciones = 1_000_000;
+        BigDecimal monto = BigDecimal.valueOf(100);
+        long montoUnidades = cuentaFija.aUnidades(monto);
+
+        for (int calentamiento = 0; calentamiento < 3; calentamiento++) {
+            for (int i = 0; i < operaciones; i++) {
+                cuenta.credito(monto);
+                cuenta.debito(monto);
+                cuentaFija.credito(montoUnidades);
+                cuentaFija.debito(montoUnidades);
+            }
+        }
+
+        long bytes = hilos.getCurrentThreadAllocatedBytes();
+        long inicio = System.nanoTime();
+        for (int i = 0; i < operaciones; i++) {
+            cuenta.credito(monto);
+            cuenta.debito(monto);
+        }
+        long nanosBigDecimal = System.nanoTime() - inicio;
+        long bytesBigDecimal = hilos.getCurrentThreadAllocatedBytes() - bytes;
+
+        bytes = hilos.getCurrentThreadAllocatedBytes();
+        inicio = System.nanoTime();
+        for (int i = 0; i < operaciones; i++) {
+            cuentaFija.credito(montoUnidades);
+            cuentaFija.debito(montoUnidades);
+        }
+        long nanosFijo = System.nanoTime() - inicio;
+        long bytesFijo = hilos.getCurrentThreadAllocatedBytes() - bytes;
+
+        reporter.publishEntry(String.format("BigDecimal: %.1f ns/op %.1f bytes/op, punto fijo: %.1f ns/op %.1f bytes/op",
+                nanosBigDecimal / (2.0 * operaciones), bytesBigDecimal / (2.0 * operaciones),
+                nanosFijo / (2.0 * operaciones), bytesFijo / (2.0 * operaciones)));
+
+        assertMismoSaldo(cuenta, cuentaFija);
+        assertTrue(bytesFijo < bytesBigDecimal);
+    }
+
+}
@@ -0,0 +1,214 @@
+package org.angelfg.ejemplos.models;
+
+import org.junit.jupiter.api.*;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.math.BigDecimal;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class HistorialMovimientosTest {
+
+    private TestReporter reporter;
+
+    @BeforeEach
+    void initMetodoTest(TestReporter reporter) {
+        this.reporter = reporter;
+    }
+
+    @Test
+    void test_historial_registra_debitos_creditos_y_transferencias() {
+        Banco banco = new Banco();
+        Cuenta cuenta1 = new Cuenta("Luis", BigDecimal.valueOf(2500));
+        Cuenta cuenta2 = new CuentaPuntoFijo("Angel", BigDecimal.valueOf(1500));
+        banco.addCuenta(cuenta1);
+        banco.addCuenta(cuenta2);
+        AtomicLong reloj = new AtomicLong(1_000);
+
+        try (HistorialMovimientos historial = new HistorialMovimientos(banco, reloj::get, 4)) {
+            cuenta1.debito(new BigDecimal("100.25"));
+            reloj.addAndGet(10);
+            cuenta1.credito(BigDecimal.TEN);
+            reloj.addAndGet(10);
+            banco.transferir(cuenta1, cuenta2, BigDecimal.valueOf(500));
+            cuenta1.setSaldo(BigDecimal.ONE); // los ajustes no son movimientos
+
+            List<Movimiento> movimientos = historial.buscar(cuenta1.getId(), 0, Long.MAX_VALUE);
+            assertEquals(3, movimientos.size());
+            assertEquals(new BigDecimal("-100.25"), movimientos.get(0).getMonto());
+            assertEquals(1_000, movimientos.get(0).getInstante());
+            assertEquals(0, movimientos.get(0).getContraparte());
+            assertEquals(BigDecimal.TEN, movimientos.get(1).getMonto());
+            assertEquals(0, BigDecimal.valueOf(-500).compareTo(movimientos.get(2).getMonto()));
+            assertEquals(cuenta2.getId(), movimientos.get(2).getContraparte());
+
+            List<Movimiento> recibidos = historial.buscar(cuenta2.getId(), 1_020, 1_021);
+            assertEquals(1, recibidos.size());
+            assertEquals(cuenta1.getId(), recibidos.get(0).getContraparte());
+            assertEquals(0, BigDecimal.valueOf(500).compareTo(recibidos.get(0).getMonto()));
+
+            assertEquals(1, historial.buscar(cuenta1.getId(), 1_010, 1_020).size());
+            assertTrue(historial.buscar(cuenta1.getId(), 1_021, 2_000).isEmpty());
+            assertTrue(historial.buscar(99, 0, Long.MAX_VALUE).isEmpty());
+            assertEquals(4, historial.getMovimientos());
+        }
+        assertFalse(banco.tieneObservadores());
+    }
+
+    @Test
+    void test_operaciones_revertidas_no_quedan_en_el_historial() {
+        Banco banco = new Banco();
+        Cuenta cuenta1 = new Cuenta("Luis", BigDecimal.valueOf(2500));
+        Cuenta cuenta2 = new CuentaAtomica("Angel", BigDecimal.valueOf(1500));
+        banco.addCuenta(cuenta1);
+        banco.addCuenta(cuenta2);
+        AtomicLong reloj = new AtomicLong(1_000);
+
+        try (HistorialMovimientos historial = new HistorialMovimientos(banco, reloj::get, 2)) {
+            cuenta1.debito(BigDecimal.ONE);
+            ObservadorMovimientos falla = (tipo, origen, destino, monto) -> {
+                throw new IllegalStateException("Observador caido");
+            };
+            banco.agregarObservador(falla); // recibe las operaciones despues del historial
+
+            assertThrows(IllegalStateException.class, () -> banco.transferir(cuenta1, cuenta2, BigDecimal.valueOf(500)));
+            assertThrows(IllegalStateException.class, () -> cuenta2.debito(BigDecimal.TEN));
+            banco.quitarObservador(falla);
+            reloj.addAndGet(10);
+            cuenta1.credito(BigDecimal.TEN);
+
+            List<Movimiento> movimientos = historial.buscar(cuenta1.getId(), 0, Long.MAX_VALUE);
+            assertEquals(2, movimientos.size());
+            assertEquals(0, BigDecimal.ONE.negate().compareTo(movimientos.get(0).getMonto()));
+            assertEquals(BigDecimal.TEN, movimientos.get(1).getMonto());
+            assertEquals(1_010, movimientos.get(1).getInstante());
+            assertTrue(historial.buscar(cuenta2.getId(), 0, Long.MAX_VALUE).isEmpty());
+            assertEquals(2, historial.getMovimientos());
+        }
+    }
+
+    @Test
+    void test_montos_que_no_entran_en_un_long() {
+        Banco banco = new Banco();
+        Cuenta cuenta = new Cuenta("Maria", BigDecimal.ZERO);
+        banco.addCuenta(cuenta);
+        BigDecimal enorme = new BigDecimal("123456789012345678901234567890.123");
+
+        try (HistorialMovimientos historial = new HistorialMovimientos(banco)) {
+            cuenta.credito(enorme);
+            cuenta.credito(new BigDecimal("1E+3"));
+            List<Movimiento> movimientos = historial.buscar(cuenta.getId(), 0, Long.MAX_VALUE);
+            assertEquals(enorme, movimientos.get(0).getMonto());
+            assertEquals(new BigDecimal("1E+3"), movimientos.get(1).getMonto());
+        }
+    }
+
+    @Test
+    void test_rango_recorre_muchos_bloques() {
+        Banco banco = new Banco();
+        Cuenta cuenta = new Cuenta("Luis", BigDecimal.ZERO);
+        banco.addCuenta(cuenta);
+        AtomicLong reloj = new AtomicLong();
+
+        try (HistorialMovimientos historial = new HistorialMovimientos(banco, reloj::get, 16)) {
+            for (int i = 0; i < 10_000; i++) {
+                reloj.set(i * 3L);
+                cuenta.credito(BigDecimal.valueOf(i));
+            }
+            List<Movimiento> movimientos = historial.buscar(cuenta.getId(), 3_000, 3_300);
+            assertEquals(100, movimientos.size());
+            assertEquals(BigDecimal.valueOf(1_000), movimientos.get(0).getMonto());
+            assertEquals(BigDecimal.valueOf(1_099), movimientos.get(99).getMonto());
+        }
+    }
+
+    @Nested
+    class CompactacionTest {
+
+        private Banco banco;
+        private Cuenta cuenta;
+        private AtomicLong reloj;
+        private HistorialMovimientos historial;
+
+        @BeforeEach
+        void initBanco() {
+            banco = new Banco();
+            cuenta = new Cuenta("Angel", BigDecimal.ZERO);
+            banco.addCuenta(cuenta);
+            reloj = new AtomicLong();
+            historial = new HistorialMovimientos(banco, reloj::get, 10);
+            for (int i = 0; i < 100; i++) {
+                reloj.set(i);
+                cuenta.credito(BigDecimal.ONE);
+            }
+        }
+
+        @AfterEach
+        void cerrar() {
+            historial.close();
+        }
+
+        @Test
+        void test_compactar_descarta_bloques_viejos() {
+            long bytes = historial.getBytesEnMemoria();
+            assertEquals(5, historial.compactar(50));
+            assertEquals(0, historial.compactar(50));
+            assertTrue(historial.getBytesEnMemoria() < bytes);
+            assertTrue(historial.buscar(cuenta.getId(), 0, 50).isEmpty());
+            assertEquals(50, historial.buscar(cuenta.getId(), 0, 100).size());
+        }
+
+        @Test
+        void test_compactar_archiva_en_disco(@TempDir Path directorio) throws Exception {
+            historial.setDirectorioArchivo(directorio);
+            assertEquals(9, historial.compactar(1_000)); // el bloque abierto queda en memoria
+            assertEquals(0, historial.compactar(1_000));
+            assertTrue(Files.size(directorio.resolve("movimientos-" + cuenta.getId() + ".bin")) > 0);
+
+            reloj.set(200);
+            cuenta.debito(BigDecimal.TEN);
+            List<Movimiento> movimientos = historial.buscar(cuenta.getId(), 0, Long.MAX_VALUE);
+            assertEquals(101, movimientos.size());
+            assertEquals(42, movimientos.get(42).getInstante());
+            assertEquals(BigDecimal.valueOf(-10), movimientos.get(100).getMonto());
+            assertEquals(10, historial.buscar(cuenta.getId(), 35, 45).size());
+        }
+
+    }
+
+    @Test
+    @Tag("rendimiento")
+    @DisplayName("Bytes por movimiento en el historial")
+    void test_bytes_por_movimiento() {
+        Banco banco = new Banco();
+        Cuenta[] cuentas = new Cuenta[100];
+        for (int i = 0; i < cuentas.length; i++) {
+            cuentas[i] = new CuentaPuntoFijo("Persona " + i, BigDecimal.valueOf(1_000_000));
+            banco.addCuenta(cuentas[i]);
+        }
+        SplittableRandom random = new SplittableRandom(19);
+        AtomicLong reloj = new AtomicLong(System.currentTimeMillis());
+
+        try (HistorialMovimientos historial = new HistorialMovimientos(banco, reloj::get, HistorialMovimientos.MOVIMIENTOS_POR_BLOQUE)) {
+            int transferencias = 200_000;
+            for (int i = 0; i < transferencias; i++) {
+                reloj.addAndGet(random.nextInt(50));
+                Cuenta origen = cuentas[random.nextInt(cuentas.length)];
+                Cuenta destino = cuentas[random.nextInt(cuentas.length)];
+                if (origen != destino) {
+                    banco.tryTransferir(origen, destino, BigDecimal.valueOf(random.nextInt(1, 100_000), 2));
+                }
+            }
+            double porMovimiento = (double) historial.getBytesEnMemoria() / historial.getMovimientos();
+            reporter.publishEntry("Movimientos", String.valueOf(historial.getMovimientos()));
+            reporter.publishEntry("Bytes por movimiento", String.format("%.2f", porMovimiento));
+            assertTrue(porMovimiento < 12);
+        }
+    }
+
+}
@@ -0,0 +1,197 @@
+package org.angelfg.ejemplos.models;
+
+import org.junit.jupiter.api.*;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class LiquidacionMasivaTest {
+
+    private static final BigDecimal TASA = new BigDecimal("0.000137");
+    private static final ReglaAjuste INTERES = ReglaAjuste.interes(TASA, 2, RoundingMode.HALF_EVEN);
+    private static final ReglaAjuste COMISION = ReglaAjuste.comisionDebajoDe(BigDecimal.valueOf(100), new BigDecimal("2.50"));
+
+    private TestReporter reporter;
+
+    @BeforeEach
+    void initMetodoTest(TestReporter reporter) {
+        this.reporter = reporter;
+    }
+
+    private static Banco crearBanco(int cuentas, long semilla) {
+        Banco banco = new Banco();
+        SplittableRandom random = new SplittableRandom(semilla);
+        for (int i = 0; i < cuentas; i++) {
+            BigDecimal saldo = BigDecimal.valueOf(random.nextLong(0, 1_000_000), 2);
+            switch (i % 3) {
+                case 0: banco.addCuenta(new Cuenta("Persona " + i, saldo)); break;
+                case 1: banco.addCuenta(new CuentaPuntoFijo("Persona " + i, saldo)); break;
+                default: banco.addCuenta(new CuentaAtomica("Persona " + i, saldo));
+            }
+        }
+        return banco;
+    }
+
+    private static BigDecimal total(Banco banco) {
+        return banco.getCuentas().stream().map(Cuenta::getSaldo).reduce(BigDecimal.ZERO, BigDecimal::add);
+    }
+
+    @Test
+    void test_interes_y_comision() throws Exception {
+        Banco banco = new Banco();
+        Cuenta cuenta1 = new Cuenta("Luis", new BigDecimal("1000.00"));
+        Cuenta cuenta2 = new CuentaPuntoFijo("Angel", new BigDecimal("50.00"));
+        Cuenta cuenta3 = new CuentaAtomica("Maria", new BigDecimal("1.00"));
+        banco.addCuenta(cuenta1);
+        banco.addCuenta(cuenta2);
+        banco.addCuenta(cuenta3);
+
+        ResultadoLiquidacion resultado = new LiquidacionMasiva(banco, ReglaAjuste.interes(new BigDecimal("0.015"), 2, RoundingMode.HALF_EVEN), COMISION).ejecutar();
+
+        assertEquals(new BigDecimal("1015.00"), cuenta1.getSaldo());
+        assertEquals(0, new BigDecimal("48.25").compareTo(cuenta2.getSaldo())); // 50.75 - 2.50
+        assertEquals(0, new BigDecimal("1.02").compareTo(cuenta3.getSaldo())); // 0.015 redondea a 0.02, la comision no alcanza
+        assertEquals(3, resultado.getCuentas());
+        assertEquals(4, resultado.getAjustes());
+        assertEquals(List.of(cuenta3.getId()), resultado.getRechazadas());
+        assertTrue(resultado.getConError().isEmpty());
+        assertEquals(0, new BigDecimal("15.77").compareTo(resultado.getAcreditado()));
+        assertEquals(0, new BigDecimal("2.50").compareTo(resultado.getDebitado()));
+    }
+
+    @Test
+    void test_mismo_resultado_que_secuencial() throws Exception {
+        Banco paralelo = crearBanco(20_000, 5);
+        Banco secuencial = crearBanco(20_000, 5);
+
+        LiquidacionMasiva liquidacion = new LiquidacionMasiva(paralelo, INTERES, COMISION);
+        liquidacion.setCuentasPorParticion(64);
+        ResultadoLiquidacion resultado = liquidacion.ejecutar();
+
+        int rechazadas = 0;
+        for (Cuenta cuenta : secuencial.getCuentas()) {
+            cuenta.credito(cuenta.getSaldo().multiply(TASA).setScale(2, RoundingMode.HALF_EVEN).max(BigDecimal.ZERO));
+            if (cuenta.getSaldo().compareTo(BigDecimal.valueOf(100)) < 0
+                    && !cuenta.tryDebito(new BigDecimal("2.50")).isExitosa()) {
+                rechazadas++;
+            }
+        }
+        for (int i = 0; i < secuencial.getCuentas().size(); i++) {
+            assertEquals(0, secuencial.getCuentas().get(i).getSaldo().compareTo(paralelo.getCuentas().get(i).getSaldo()));
+        }
+        assertEquals(rechazadas, resultado.getRechazadas().size());
+        assertEquals(20_000, liquidacion.getProcesadas());
+        assertEquals(1.0, liquidacion.getAvance());
+    }
+
+    @Test
+    void test_redondeo_no_permitido() throws Exception {
+        Banco banco = new Banco();
+        Cuenta exacta = new CuentaPuntoFijo("Luis", BigDecimal.TEN, 2, RoundingMode.UNNECESSARY);
+        Cuenta decimal = new Cuenta("Angel", BigDecimal.TEN);
+        banco.addCuenta(exacta);
+        banco.addCuenta(decimal);
+
+        ResultadoLiquidacion resultado = new LiquidacionMasiva(banco, ReglaAjuste.interes(new BigDecimal("0.00123"), 4, RoundingMode.HALF_UP)).ejecutar();
+        assertEquals(List.of(exacta.getId()), resultado.getConError());
+        assertEquals(0, BigDecimal.TEN.compareTo(exacta.getSaldo()));
+        assertEquals(new BigDecimal("10.0123"), decimal.getSaldo());
+    }
+
+    @Test
+    void test_liquidacion_con_transferencias_en_linea() throws Exception {
+        Banco banco = crearBanco(5_000, 9);
+        BigDecimal inicial = total(banco);
+        List<Cuenta> cuentas = new ArrayList<>(banco.getCuentas());
+        AtomicBoolean corriendo = new AtomicBoolean(true);
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        List<Future<?>> futuros = new ArrayList<>();
+        for (int h = 0; h < 4; h++) {
+            long semilla = h;
+            futuros.add(executor.submit(() -> {
+                SplittableRandom random = new SplittableRandom(semilla);
+                while (corriendo.get()) {
+                    Cuenta origen = cuentas.get(random.nextInt(cuentas.size()));
+                    Cuenta destino = cuentas.get(random.nextInt(cuentas.size()));
+                    banco.tryTransferir(origen, destino, BigDecimal.valueOf(random.nextInt(1, 5_000), 2));
+                }
+            }));
+        }
+
+        ResultadoLiquidacion resultado;
+        try {
+            LiquidacionMasiva liquidacion = new LiquidacionMasiva(banco, INTERES, COMISION);
+            liquidacion.setCuentasPorParticion(16);
+            resultado = liquidacion.ejecutar();
+        } finally {
+            corriendo.set(false);
+            for (Future<?> futuro : futuros) futuro.get();
+            executor.shutdown();
+        }
+
+        assertEquals(0, inicial.add(resultado.getAcreditado()).subtract(resultado.getDebitado()).compareTo(total(banco)));
+        banco.getCuentas().forEach(cuenta -> assertTrue(cuenta.getSaldo().signum() >= 0));
+    }
+
+    @Test
+    void test_informe_de_avance() throws Exception {
+        Banco banco = crearBanco(200, 3);
+        ReglaAjuste lenta = (cuenta, saldo) -> {
+            try {
+                Thread.sleep(1);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            return BigDecimal.ZERO;
+        };
+        LiquidacionMasiva liquidacion = new LiquidacionMasiva(banco, lenta);
+        liquidacion.setCuentasPorParticion(5);
+        ForkJoinPool pool = new ForkJoinPool(2);
+        liquidacion.setPool(pool);
+
+        List<Double> avances = new ArrayList<>();
+        ResultadoLiquidacion resultado;
+        try {
+            resultado = liquidacion.ejecutar(Duration.ofMillis(10), l -> avances.add(l.getAvance()));
+        } finally {
+            pool.shutdown();
+        }
+        assertFalse(avances.isEmpty());
+        for (int i = 1; i < avances.size(); i++) {
+            assertTrue(avances.get(i) >= avances.get(i - 1));
+        }
+        assertEquals(0, resultado.getAjustes());
+        assertEquals(200, resultado.getCuentas());
+    }
+
+    @Test
+    @Tag("rendimiento")
+    @DisplayName("Liquidacion secuencial contra paralela")
+    void test_rendimiento_liquidacion() throws Exception {
+        Banco secuencial = crearBanco(300_000, 1);
+        long inicio = System.nanoTime();
+        for (Cuenta cuenta : secuencial.getCuentas()) {
+            BigDecimal interes = cuenta.getSaldo().multiply(TASA).setScale(2, RoundingMode.HALF_EVEN);
+            if (interes.signum() > 0) cuenta.credito(interes);
+            if (cuenta.getSaldo().compareTo(BigDecimal.valueOf(100)) < 0) cuenta.tryDebito(new BigDecimal("2.50"));
+        }
+        long nanosSecuencial = System.nanoTime() - inicio;
+
+        ResultadoLiquidacion resultado = new LiquidacionMasiva(crearBanco(300_000, 1), INTERES, COMISION).ejecutar();
+        reporter.publishEntry("Secuencial cuentas/s", String.valueOf(Math.round(300_000 * 1e9 / nanosSecuencial)));
+        reporter.publishEntry("Paralela", resultado.toString());
+        assertEquals(300_000, resultado.getCuentas());
+    }
+
+}
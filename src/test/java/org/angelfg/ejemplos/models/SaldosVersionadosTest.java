@@ -0,0 +1,190 @@
+package org.angelfg.ejemplos.models;
+
+import org.junit.jupiter.api.*;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class SaldosVersionadosTest {
+
+    private TestReporter reporter;
+
+    @BeforeEach
+    void initMetodoTest(TestReporter reporter) {
+        this.reporter = reporter;
+    }
+
+    private static Cuenta[] crear(Banco banco, int cantidad, BigDecimal saldo) {
+        Cuenta[] arreglo = new Cuenta[cantidad];
+        for (int i = 0; i < cantidad; i++) {
+            arreglo[i] = new Cuenta("Persona " + i, saldo);
+            banco.addCuenta(arreglo[i]);
+        }
+        return arreglo;
+    }
+
+    @Test
+    void test_foto_no_ve_operaciones_posteriores() {
+        Banco banco = new Banco();
+        Cuenta cuenta1 = new Cuenta("Luis", BigDecimal.valueOf(2500));
+        banco.addCuenta(cuenta1); // antes de versionar
+
+        try (SaldosVersionados saldos = new SaldosVersionados(banco)) {
+            Cuenta cuenta2 = new CuentaPuntoFijo("Angel", BigDecimal.valueOf(1500));
+            banco.addCuenta(cuenta2);
+            SaldosVersionados.Foto antes = saldos.tomarFoto();
+
+            banco.transferir(cuenta1, cuenta2, BigDecimal.valueOf(500));
+            cuenta1.debito(BigDecimal.valueOf(100));
+            Cuenta cuenta3 = new Cuenta("Maria", BigDecimal.TEN);
+            banco.addCuenta(cuenta3);
+
+            try (SaldosVersionados.Foto despues = saldos.tomarFoto()) {
+                assertEquals("2500", antes.getSaldo(cuenta1).orElseThrow().toPlainString());
+                assertEquals(0, BigDecimal.valueOf(1500).compareTo(antes.getSaldo(cuenta2).orElseThrow()));
+                assertTrue(antes.getSaldo(cuenta3).isEmpty());
+                assertEquals(0, BigDecimal.valueOf(4000).compareTo(antes.sumarSaldos()));
+
+                assertEquals("1900", despues.getSaldo(cuenta1).orElseThrow().toPlainString());
+                assertEquals(0, BigDecimal.valueOf(2000).compareTo(despues.getSaldo(cuenta2).orElseThrow()));
+                assertEquals(0, BigDecimal.valueOf(3910).compareTo(despues.sumarSaldos()));
+                assertTrue(despues.getVersion() > antes.getVersion());
+            }
+            antes.close();
+            assertThrows(IllegalStateException.class, () -> antes.getSaldo(cuenta1));
+
+            // Sin fotos abiertas la siguiente foto ve el ultimo saldo
+            cuenta1.credito(BigDecimal.ONE);
+            try (SaldosVersionados.Foto ultima = saldos.tomarFoto()) {
+                assertEquals("1901", ultima.getSaldo(cuenta1).orElseThrow().toPlainString());
+            }
+        }
+    }
+
+    @Test
+    void test_operaciones_revertidas_no_dejan_versiones() {
+        Banco banco = new Banco();
+        Cuenta[] arreglo = crear(banco, 2, BigDecimal.valueOf(100));
+        try (SaldosVersionados saldos = new SaldosVersionados(banco)) {
+            ObservadorMovimientos falla = (tipo, origen, destino, monto) -> {
+                throw new IllegalStateException("Observador caido");
+            };
+            banco.agregarObservador(falla); // recibe las operaciones despues del versionado
+            Cuenta nueva = new Cuenta("Maria", BigDecimal.TEN);
+
+            try (SaldosVersionados.Foto abierta = saldos.tomarFoto()) {
+                assertThrows(IllegalStateException.class, () -> banco.transferir(arreglo[0], arreglo[1], BigDecimal.valueOf(40)));
+                assertThrows(IllegalStateException.class, () -> banco.addCuenta(nueva));
+                assertEquals(0, BigDecimal.valueOf(200).compareTo(abierta.sumarSaldos()));
+            }
+            assertThrows(IllegalStateException.class, () -> arreglo[0].credito(BigDecimal.valueOf(50)));
+
+            try (SaldosVersionados.Foto foto = saldos.tomarFoto()) {
+                assertEquals("100", foto.getSaldo(arreglo[0]).orElseThrow().toPlainString());
+                assertEquals("100", foto.getSaldo(arreglo[1]).orElseThrow().toPlainString());
+                assertNotEquals(0, nueva.getId());
+                assertTrue(foto.getSaldo(nueva).isEmpty());
+                assertEquals(0, BigDecimal.valueOf(200).compareTo(foto.sumarSaldos()));
+            }
+        }
+    }
+
+    @Test
+    @Tag("banco")
+    @DisplayName("Cada foto suma el mismo total mientras corren transferencias")
+    void test_fotos_consistentes_con_transferencias_concurrentes() throws Exception {
+        int cuentas = 300;
+        Banco banco = new Banco();
+        Cuenta[] arreglo = crear(banco, cuentas, BigDecimal.valueOf(1000));
+        BigDecimal esperado = BigDecimal.valueOf(1000L * cuentas);
+        SaldosVersionados saldos = new SaldosVersionados(banco);
+
+        ExecutorService executor = Executors.newFixedThreadPool(5);
+        AtomicBoolean terminado = new AtomicBoolean();
+        try {
+            List<Future<?>> escritores = new ArrayList<>();
+            for (int h = 0; h < 3; h++) {
+                int semilla = h;
+                escritores.add(executor.submit(() -> {
+                    SplittableRandom random = new SplittableRandom(semilla);
+                    for (int i = 0; i < 100_000; i++) {
+                        banco.tryTransferir(arreglo[random.nextInt(cuentas)], arreglo[random.nextInt(cuentas)],
+                                BigDecimal.valueOf(random.nextInt(1, 400)));
+                    }
+                }));
+            }
+            List<Future<Long>> lectores = new ArrayList<>();
+            for (int h = 0; h < 2; h++) {
+                lectores.add(executor.submit(() -> {
+                    long fotos = 0;
+                    while (!terminado.get()) {
+                        try (SaldosVersionados.Foto foto = saldos.tomarFoto()) {
+                            assertEquals(0, esperado.compareTo(foto.sumarSaldos()));
+                            Thread.yield(); // la foto sigue abierta mientras otros escriben
+                            assertEquals(0, esperado.compareTo(foto.sumarSaldos()));
+                        }
+                        fotos++;
+                    }
+                    return fotos;
+                }));
+            }
+            for (Future<?> escritor : escritores) {
+                escritor.get();
+            }
+            terminado.set(true);
+            long fotos = 0;
+            for (Future<Long> lector : lectores) {
+                fotos += lector.get();
+            }
+            reporter.publishEntry("Fotos consistentes durante las transferencias: " + fotos);
+        } finally {
+            executor.shutdown();
+            saldos.close();
+        }
+    }
+
+    @Test
+    @Tag("rendimiento")
+    @DisplayName("Transferencias por segundo con un reporte largo abierto")
+    void test_rendimiento_con_reporte_largo() throws Exception {
+        int cuentas = 10_000;
+        int transferencias = 500_000;
+        long[] nanos = new long[2];
+        for (int versionar = 0; versionar < 2; versionar++) {
+            Banco banco = new Banco();
+            Cuenta[] arreglo = crear(banco, cuentas, BigDecimal.valueOf(1_000_000));
+            SaldosVersionados saldos = versionar == 1 ? new SaldosVersionados(banco) : null;
+            SaldosVersionados.Foto foto = saldos == null ? null : saldos.tomarFoto(); // el reporte queda abierto
+
+            SplittableRandom random = new SplittableRandom(37);
+            long inicio = System.nanoTime();
+            for (int i = 0; i < transferencias; i++) {
+                banco.transferir(arreglo[random.nextInt(cuentas)], arreglo[random.nextInt(cuentas)], BigDecimal.ONE);
+            }
+            nanos[versionar] = System.nanoTime() - inicio;
+
+            if (foto != null) {
+                AtomicLong leidas = new AtomicLong();
+                foto.recorrer((cuenta, saldo) -> {
+                    assertEquals(0, BigDecimal.valueOf(1_000_000).compareTo(saldo));
+                    leidas.incrementAndGet();
+                });
+                assertEquals(cuentas, leidas.get());
+                foto.close();
+                saldos.close();
+            }
+        }
+        reporter.publishEntry(String.format("Por transferencia: sin versiones %.0f ns, con versiones y una foto abierta %.0f ns",
+                (double) nanos[0] / transferencias, (double) nanos[1] / transferencias));
+    }
+
+}
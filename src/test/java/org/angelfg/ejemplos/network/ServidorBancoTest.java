@@ -0,0 +1,232 @@
+package org.angelfg.ejemplos.network;
+
+import org.angelfg.ejemplos.models.Banco;
+import org.angelfg.ejemplos.models.Cuenta;
+import org.angelfg.ejemplos.models.CuentaPuntoFijo;
+import org.angelfg.ejemplos.workload.Carga;
+import org.angelfg.ejemplos.workload.EjecutorCarga;
+import org.angelfg.ejemplos.workload.GeneradorCarga;
+import org.junit.jupiter.api.*;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@Timeout(value = 60, unit = TimeUnit.SECONDS)
+class ServidorBancoTest {
+
+    private Banco banco;
+    private Cuenta cuenta1;
+    private Cuenta cuenta2;
+    private ServidorBanco servidor;
+    private TestReporter reporter;
+
+    @BeforeEach
+    void initMetodoTest(TestReporter reporter) throws IOException {
+        this.reporter = reporter;
+        banco = new Banco();
+        cuenta1 = new Cuenta("Luis", new BigDecimal("1000.12345"));
+        cuenta2 = new CuentaPuntoFijo("Angel", new BigDecimal("1500"));
+        banco.addCuenta(cuenta1);
+        banco.addCuenta(cuenta2);
+        servidor = new ServidorBanco(banco, new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 2);
+    }
+
+    @AfterEach
+    void cerrar() throws IOException {
+        servidor.close();
+    }
+
+    @Test
+    void test_operaciones_en_una_trama() throws Exception {
+        try (ClienteBanco cliente = new ClienteBanco(servidor.getDireccion())) {
+            ClienteBanco.Trama trama = new ClienteBanco.Trama()
+                    .transferir(cuenta1.getId(), cuenta2.getId(), new BigDecimal("100.00"))
+                    .debitar(cuenta2.getId(), BigDecimal.valueOf(5_000))
+                    .acreditar(cuenta1.getId(), new BigDecimal("0.5"))
+                    .consultarSaldo(cuenta1.getId())
+                    .consultarSaldo(cuenta2.getId())
+                    .consultarSaldo(99)
+                    .debitar(cuenta1.getId(), BigDecimal.valueOf(-1));
+            cliente.enviar(trama);
+            ClienteBanco.Respuesta respuesta = cliente.recibir();
+
+            assertEquals(7, respuesta.getCantidad());
+            assertEquals(Protocolo.EXITOSA, respuesta.getEstado(0));
+            assertEquals(Protocolo.DINERO_INSUFICIENTE, respuesta.getEstado(1));
+            assertEquals(Protocolo.EXITOSA, respuesta.getEstado(2));
+            assertEquals(Protocolo.SALDO_CONSULTADO, respuesta.getEstado(3));
+            assertEquals(new BigDecimal("900.62345"), respuesta.getSaldo(3));
+            assertEquals(0, BigDecimal.valueOf(1600).compareTo(respuesta.getSaldo(4)));
+            assertEquals(Protocolo.CUENTA_INEXISTENTE, respuesta.getEstado(5));
+            assertNull(respuesta.getSaldo(5));
+            assertEquals(Protocolo.ERROR, respuesta.getEstado(6));
+        }
+        assertEquals(0, BigDecimal.valueOf(1600).compareTo(cuenta2.getSaldo()));
+        assertEquals(1, servidor.getTramas());
+        assertEquals(7, servidor.getOperaciones());
+    }
+
+    @Test
+    void test_tramas_encadenadas_responden_en_orden() throws Exception {
+        try (ClienteBanco cliente = new ClienteBanco(servidor.getDireccion())) {
+            ClienteBanco.Trama trama = new ClienteBanco.Trama();
+            for (int i = 1; i <= 50; i++) {
+                cliente.enviar(trama.limpiar().acreditar(cuenta1.getId(), i, 0).consultarSaldo(cuenta1.getId()));
+            }
+            BigDecimal esperado = new BigDecimal("1000.12345");
+            for (int i = 1; i <= 50; i++) {
+                ClienteBanco.Respuesta respuesta = cliente.recibir();
+                assertEquals(2, respuesta.getCantidad());
+                assertEquals(Protocolo.EXITOSA, respuesta.getEstado(0));
+                esperado = esperado.add(BigDecimal.valueOf(i));
+                assertEquals(0, esperado.compareTo(respuesta.getSaldo(1)), "Respuesta " + i + " fuera de orden");
+            }
+        }
+    }
+
+    @Test
+    void test_trama_no_valida_cierra_la_conexion() throws Exception {
+        try (SocketChannel canal = SocketChannel.open(servidor.getDireccion())) {
+            ByteBuffer basura = ByteBuffer.allocate(16).putInt(7).putShort((short) 1).put((byte) 42).putInt(0).flip();
+            canal.write(basura);
+            assertEquals(-1, canal.read(ByteBuffer.allocate(16)));
+        }
+        // El servidor sigue atendiendo a los demas
+        try (ClienteBanco cliente = new ClienteBanco(servidor.getDireccion())) {
+            cliente.enviar(new ClienteBanco.Trama().consultarSaldo(cuenta2.getId()));
+            assertEquals(Protocolo.SALDO_CONSULTADO, cliente.recibir().getEstado(0));
+        }
+    }
+
+    @Test
+    void test_trama_no_valida_no_aplica_ninguna_operacion() throws Exception {
+        BigDecimal antes = cuenta1.getSaldo();
+        try (SocketChannel canal = SocketChannel.open(servidor.getDireccion())) {
+            ByteBuffer trama = ByteBuffer.allocate(32).putInt(2 + Protocolo.LARGO_MOVIMIENTO + 1).putShort((short) 2)
+                    .put(Protocolo.DEBITO).putLong(cuenta1.getId()).putLong(1).put((byte) 0)
+                    .put((byte) 42).flip();
+            canal.write(trama);
+            assertEquals(-1, canal.read(ByteBuffer.allocate(16)));
+        }
+        assertEquals(antes, cuenta1.getSaldo()); // el debito que venia antes de la operacion desconocida no se aplico
+        assertEquals(0, servidor.getErroresAceptar());
+    }
+
+    @Test
+    void test_error_en_una_conexion_no_detiene_su_bucle() throws Exception {
+        Cuenta sinSaldo = new Cuenta("Pedro", null); // consultarla falla dentro del bucle
+        banco.addCuenta(sinSaldo);
+        for (int i = 0; i < 4; i++) { // pasa por los dos bucles
+            try (SocketChannel canal = SocketChannel.open(servidor.getDireccion())) {
+                canal.write(new ClienteBanco.Trama().consultarSaldo(sinSaldo.getId()).preparar());
+                assertEquals(-1, canal.read(ByteBuffer.allocate(16)));
+            }
+        }
+        assertEquals(2, servidor.getBuclesVivos());
+
+        for (int i = 0; i < 4; i++) {
+            try (ClienteBanco cliente = new ClienteBanco(servidor.getDireccion())) {
+                cliente.enviar(new ClienteBanco.Trama().consultarSaldo(cuenta2.getId()));
+                assertEquals(Protocolo.SALDO_CONSULTADO, cliente.recibir().getEstado(0));
+            }
+        }
+    }
+
+    @Test
+    void test_contrapresion_con_cliente_que_no_lee() throws Exception {
+        int tramas = 400;
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try (ClienteBanco cliente = new ClienteBanco(servidor.getDireccion())) {
+            ClienteBanco.Trama trama = new ClienteBanco.Trama();
+            for (int i = 0; i < Protocolo.MAXIMO_OPERACIONES; i++) {
+                trama.consultarSaldo(cuenta1.getId());
+            }
+            Future<?> envio = executor.submit(() -> {
+                for (int i = 0; i < tramas; i++) {
+                    cliente.enviar(trama);
+                }
+                return null;
+            });
+
+            // Sin leer respuestas el servidor deja de leer la conexion y el envio queda frenado
+            long limite = System.nanoTime() + TimeUnit.SECONDS.toNanos(30);
+            while (servidor.getPausas() == 0 && System.nanoTime() < limite) {
+                Thread.sleep(10);
+            }
+            assertTrue(servidor.getPausas() > 0);
+            assertFalse(envio.isDone());
+            assertTrue(servidor.getTramas() < tramas);
+
+            for (int i = 0; i < tramas; i++) {
+                assertEquals(Protocolo.MAXIMO_OPERACIONES, cliente.recibir().getCantidad());
+            }
+            envio.get();
+            assertEquals(tramas, servidor.getTramas());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    void test_cliente_de_carga_conserva_el_dinero() throws Exception {
+        try (ServidorBanco otro = new ServidorBanco(EjecutorCarga.crearBanco(1_000, BigDecimal.valueOf(100)),
+                new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 2)) {
+            GeneradorCarga generador = new GeneradorCarga(1_000, 3);
+            generador.setMezcla(0, 0, 1);
+            Carga carga = generador.generar(100_000);
+
+            ClienteCarga cliente = new ClienteCarga(otro.getDireccion());
+            cliente.setConexiones(3);
+            cliente.setOperacionesPorTrama(100);
+            cliente.setTramasEnVuelo(8);
+            ResultadoClienteCarga resultado = cliente.ejecutar(carga);
+
+            assertEquals(100_000, resultado.getOperaciones());
+            assertEquals(1_000, resultado.getTramas());
+            assertEquals(1_000, resultado.getLatencias().getCantidad());
+            assertTrue(resultado.getRechazadas() > 0);
+            assertEquals(0, resultado.getErrores() + resultado.getSinCuenta());
+            assertEquals(100_000, otro.getOperaciones());
+
+            // Consulta todos los saldos por la red
+            BigDecimal total = BigDecimal.ZERO;
+            try (ClienteBanco consulta = new ClienteBanco(otro.getDireccion())) {
+                ClienteBanco.Trama trama = new ClienteBanco.Trama();
+                for (int id = 1; id <= 1_000; id++) trama.consultarSaldo(id);
+                consulta.enviar(trama);
+                ClienteBanco.Respuesta respuesta = consulta.recibir();
+                for (int i = 0; i < respuesta.getCantidad(); i++) total = total.add(respuesta.getSaldo(i));
+            }
+            assertEquals(0, BigDecimal.valueOf(100_000).compareTo(total));
+        }
+    }
+
+    @Test
+    @Tag("rendimiento")
+    @DisplayName("Pedidos por segundo por loopback")
+    void test_rendimiento_loopback() throws Exception {
+        try (ServidorBanco otro = new ServidorBanco(EjecutorCarga.crearBanco(100_000, BigDecimal.valueOf(1_000)),
+                new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 4)) {
+            Carga carga = new GeneradorCarga(100_000, 42).generar(200_000);
+            for (int operacionesPorTrama : new int[] { 1, 64 }) {
+                ClienteCarga cliente = new ClienteCarga(otro.getDireccion());
+                cliente.setOperacionesPorTrama(operacionesPorTrama);
+                cliente.ejecutar(carga); // calentamiento
+                ResultadoClienteCarga resultado = cliente.ejecutar(carga);
+                reporter.publishEntry(operacionesPorTrama + " operaciones por trama", resultado.toString());
+                assertEquals(0, resultado.getErrores());
+            }
+        }
+    }
+
+}
@@ -0,0 +1,205 @@
+package org.angelfg.ejemplos.persistence;
+
+import org.angelfg.ejemplos.exceptions.DineroInsuficienteException;
+import org.angelfg.ejemplos.models.Banco;
+import org.angelfg.ejemplos.models.Cuenta;
+import org.angelfg.ejemplos.models.CuentaPuntoFijo;
+import org.angelfg.ejemplos.models.TipoOperacion;
+import org.junit.jupiter.api.*;
+import org.junit.jupiter.api.io.TempDir;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.EnumSource;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class BitacoraTest {
+
+    @TempDir
+    Path directorio;
+
+    private Path archivo;
+    private TestReporter reporter;
+
+    @BeforeEach
+    void initMetodoTest(TestReporter reporter) {
+        this.reporter = reporter;
+        this.archivo = directorio.resolve("banco.bitacora");
+    }
+
+    private List<EntradaBitacora> leerTodo() throws IOException {
+        List<EntradaBitacora> entradas = new ArrayList<>();
+        Bitacora.leer(archivo, 0, entradas::add);
+        return entradas;
+    }
+
+    @ParameterizedTest(name = "Modo {0}")
+    @EnumSource(ModoDurabilidad.class)
+    void test_registra_operaciones_con_saldos(ModoDurabilidad modo) throws IOException {
+        try (Bitacora bitacora = new Bitacora(archivo, modo)) {
+            Banco banco = new Banco();
+            banco.agregarObservador(bitacora);
+            Cuenta cuenta1 = new Cuenta("Luis", BigDecimal.valueOf(2500));
+            Cuenta cuenta2 = new CuentaPuntoFijo("Angel", new BigDecimal("1500.8989"));
+            banco.addCuenta(cuenta1);
+            banco.addCuenta(cuenta2);
+
+            banco.transferir(cuenta2, cuenta1, BigDecimal.valueOf(500));
+            cuenta1.debito(BigDecimal.valueOf(100));
+            ((CuentaPuntoFijo) cuenta2).credito(5L);
+            assertThrows(DineroInsuficienteException.class, () -> cuenta1.debito(BigDecimal.valueOf(10_000)));
+        }
+
+        List<EntradaBitacora> entradas = leerTodo();
+
+        assertEquals(5, entradas.size(), "Los debitos rechazados no se registran");
+        assertEquals(TipoOperacion.ALTA, entradas.get(0).getTipo());
+        assertEquals("Luis", entradas.get(0).getPersona());
+        EntradaBitacora transferencia = entradas.get(2);
+        assertEquals(TipoOperacion.TRANSFERENCIA, transferencia.getTipo());
+        assertEquals(2, transferencia.getIdOrigen());
+        assertEquals(1, transferencia.getIdDestino());
+        assertEquals("1000.8989", transferencia.getSaldoOrigen().toPlainString());
+        assertEquals("3000", transferencia.getSaldoDestino().toPlainString());
+        assertEquals("2900", entradas.get(3).getSaldoOrigen().toPlainString());
+        assertEquals("1000.89895", entradas.get(4).getSaldoDestino().toPlainString());
+        for (int i = 0; i < entradas.size(); i++) {
+            assertEquals(i + 1, entradas.get(i).getSecuencia());
+        }
+    }
+
+    @Test
+    void test_reabrir_descarta_entrada_incompleta() throws IOException {
+        try (Bitacora bitacora = new Bitacora(archivo, ModoDurabilidad.GRUPO)) {
+            Banco banco = new Banco();
+            banco.agregarObservador(bitacora);
+            banco.addCuenta(new Cuenta("Luis", BigDecimal.TEN));
+        }
+        // Simula una caida a mitad de escribir la siguiente entrada
+        try (FileChannel canal = FileChannel.open(archivo, StandardOpenOption.WRITE, StandardOpenOption.APPEND)) {
+            canal.write(ByteBuffer.wrap(new byte[] { 0, 0, 0, 40, 1, 2, 3 }));
+        }
+
+        try (Bitacora bitacora = new Bitacora(archivo, ModoDurabilidad.GRUPO)) {
+            assertEquals(1, bitacora.getUltimaSecuencia());
+            Banco banco = new Banco();
+            banco.agregarObservador(bitacora);
+            banco.addCuenta(new Cuenta("Angel", BigDecimal.ONE));
+        }
+
+        List<EntradaBitacora> entradas = leerTodo();
+        assertEquals(2, entradas.size());
+        assertEquals("Angel", entradas.get(1).getPersona());
+        assertEquals(2, entradas.get(1).getSecuencia());
+    }
+
+    @Test
+    @DisplayName("Una operacion que revierte otro observador queda anulada y no se reaplica")
+    void test_operacion_revertida_queda_anulada() throws IOException {
+        try (Bitacora bitacora = new Bitacora(archivo, ModoDurabilidad.GRUPO)) {
+            Banco banco = new Banco();
+            banco.agregarObservador(bitacora);
+            Cuenta cuenta1 = new Cuenta("Luis", BigDecimal.valueOf(100));
+            Cuenta cuenta2 = new Cuenta("Angel", BigDecimal.valueOf(100));
+            banco.addCuenta(cuenta1);
+            banco.addCuenta(cuenta2);
+
+            boolean[] escribirAntes = new boolean[1];
+            banco.agregarObservador((tipo, origen, destino, monto) -> {
+                if (monto.compareTo(BigDecimal.valueOf(7)) == 0) {
+                    if (escribirAntes[0]) {
+                        try {
+                            bitacora.asegurarDurable(bitacora.getUltimaSecuencia()); // la entrada ya llego al archivo
+                        } catch (IOException e) {
+                            throw new IllegalStateException(e);
+                        }
+                    }
+                    throw new IllegalStateException("Rechazada por el segundo observador");
+                }
+            });
+
+            assertThrows(IllegalStateException.class, () -> banco.transferir(cuenta1, cuenta2, BigDecimal.valueOf(7)));
+            escribirAntes[0] = true;
+            assertThrows(IllegalStateException.class, () -> cuenta1.debito(BigDecimal.valueOf(7)));
+            banco.transferir(cuenta1, cuenta2, BigDecimal.ONE);
+            assertEquals("99", cuenta1.getSaldo().toPlainString());
+        }
+
+        List<EntradaBitacora> entradas = leerTodo();
+        assertEquals(5, entradas.size());
+        assertTrue(entradas.get(2).isAnulada(), "Anulada en memoria");
+        assertTrue(entradas.get(3).isAnulada(), "Anulada en el archivo");
+        assertFalse(entradas.get(4).isAnulada());
+        assertEquals(5, entradas.get(4).getSecuencia());
+
+        Recuperacion recuperacion = new Instantaneas(directorio.resolve("instantaneas")).recuperar(archivo, ModoDurabilidad.GRUPO);
+        try (Bitacora bitacora = recuperacion.getBitacora()) {
+            assertEquals(3, recuperacion.getEntradasReaplicadas());
+            assertEquals("99", recuperacion.getBanco().buscarPorId(1).orElseThrow().getSaldo().toPlainString());
+            assertEquals("101", recuperacion.getBanco().buscarPorId(2).orElseThrow().getSaldo().toPlainString());
+            assertEquals(5, bitacora.getUltimaSecuencia());
+        }
+    }
+
+    @Test
+    @Tag("rendimiento")
+    @DisplayName("Con commit en grupo varias transferencias comparten un fsync")
+    void test_commit_en_grupo() throws Exception {
+        int hilos = 16;
+        int porHilo = 2_000;
+        long sincronizaciones;
+        long inicio = System.nanoTime();
+
+        try (Bitacora bitacora = new Bitacora(archivo, ModoDurabilidad.GRUPO)) {
+            Banco banco = new Banco();
+            banco.agregarObservador(bitacora);
+            List<Cuenta> cuentas = new ArrayList<>();
+            for (int i = 0; i < hilos * 2; i++) {
+                Cuenta cuenta = new Cuenta("Persona " + i, BigDecimal.valueOf(1_000_000));
+                banco.addCuenta(cuenta);
+                cuentas.add(cuenta);
+            }
+
+            ExecutorService executor = Executors.newFixedThreadPool(hilos);
+            try {
+                List<Future<?>> futuros = new ArrayList<>();
+                for (int h = 0; h < hilos; h++) {
+                    Cuenta origen = cuentas.get(h * 2);
+                    Cuenta destino = cuentas.get(h * 2 + 1);
+                    futuros.add(executor.submit(() -> {
+                        for (int i = 0; i < porHilo; i++) {
+                            banco.transferir(origen, destino, BigDecimal.ONE);
+                        }
+                    }));
+                }
+                for (Future<?> futuro : futuros) {
+                    futuro.get();
+                }
+            } finally {
+                executor.shutdownNow();
+            }
+            sincronizaciones = bitacora.getSincronizaciones();
+            assertEquals(bitacora.getUltimaSecuencia(), bitacora.getSecuenciaDurable());
+        }
+        long nanos = System.nanoTime() - inicio;
+
+        int operaciones = hilos * porHilo;
+        reporter.publishEntry(String.format("%d transferencias durables en %.1f ms (%.0f ops/s) con %d fsync",
+                operaciones, nanos / 1e6, operaciones * 1e9 / nanos, sincronizaciones));
+
+        assertEquals(operaciones + hilos * 2, leerTodo().size());
+        assertTrue(sincronizaciones < operaciones, () -> "Se esperaban menos fsync que operaciones: " + sincronizaciones);
+    }
+
+}
@@ -0,0 +1,247 @@
+package org.angelfg.ejemplos.persistence;
+
+import org.angelfg.ejemplos.exceptions.DineroInsuficienteException;
+import org.angelfg.ejemplos.models.Banco;
+import org.angelfg.ejemplos.models.BancoColumnar;
+import org.angelfg.ejemplos.models.Cuenta;
+import org.angelfg.ejemplos.models.CuentaPuntoFijo;
+import org.junit.jupiter.api.*;
+import org.junit.jupiter.api.io.TempDir;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.SplittableRandom;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class InstantaneasTest {
+
+    @TempDir
+    Path directorio;
+
+    private Path archivoBitacora;
+    private TestReporter reporter;
+
+    @BeforeEach
+    void initMetodoTest(TestReporter reporter) {
+        this.reporter = reporter;
+        this.archivoBitacora = directorio.resolve("banco.bitacora");
+    }
+
+    private static Map<Long, BigDecimal> saldos(Banco banco) {
+        Map<Long, BigDecimal> saldos = new HashMap<>();
+        banco.recorrerCuentas(cuenta -> saldos.put(cuenta.getId(), cuenta.getSaldo()));
+        return saldos;
+    }
+
+    @Test
+    void test_recupera_instantanea_y_cola_de_bitacora() throws IOException {
+        Map<Long, BigDecimal> esperados;
+        try (Instantaneas instantaneas = new Instantaneas(directorio.resolve("instantaneas"));
+             Bitacora bitacora = new Bitacora(archivoBitacora, ModoDurabilidad.GRUPO)) {
+            Banco banco = new Banco();
+            banco.agregarObservador(bitacora);
+            Cuenta cuenta1 = new Cuenta("Luis", BigDecimal.valueOf(2500));
+            Cuenta cuenta2 = new CuentaPuntoFijo("Angel", new BigDecimal("1500.8989"), 4, RoundingMode.HALF_EVEN);
+            banco.addCuenta(cuenta1);
+            banco.addCuenta(cuenta2);
+            banco.addCuenta(new Cuenta(null, new BigDecimal("0.5")));
+            banco.transferir(cuenta2, cuenta1, BigDecimal.valueOf(500));
+
+            instantaneas.tomar(banco, bitacora);
+
+            banco.transferir(cuenta1, cuenta2, BigDecimal.valueOf(100));
+            banco.addCuenta(new Cuenta("Pedro", BigDecimal.TEN));
+            cuenta2.credito(new BigDecimal("0.00004"));
+            esperados = saldos(banco);
+        }
+
+        try (Instantaneas instantaneas = new Instantaneas(directorio.resolve("instantaneas"))) {
+            Recuperacion recuperacion = instantaneas.recuperar(archivoBitacora, ModoDurabilidad.GRUPO);
+            Banco banco = recuperacion.getBanco();
+
+            assertTrue(recuperacion.getInstantanea().isPresent());
+            assertEquals(3, recuperacion.getEntradasReaplicadas());
+            assertEquals(esperados, saldos(banco));
+            Cuenta angel = banco.buscarPorPersona("Angel").orElseThrow();
+            assertTrue(angel instanceof CuentaPuntoFijo);
+            assertEquals(4, ((CuentaPuntoFijo) angel).getEscala());
+            assertEquals("2900", banco.buscarPorId(1).orElseThrow().getSaldo().toPlainString());
+            assertNull(banco.buscarPorId(3).orElseThrow().getPersona());
+            assertEquals(4, banco.buscarPorPersona("Pedro").orElseThrow().getId());
+
+            // La bitacora sigue donde quedo y el banco recuperado sigue registrando
+            banco.addCuenta(new Cuenta("Ana", BigDecimal.ONE));
+            assertEquals(5, banco.buscarPorPersona("Ana").orElseThrow().getId());
+            assertEquals(8, recuperacion.getBitacora().getUltimaSecuencia());
+            recuperacion.getBitacora().close();
+        }
+    }
+
+    @ParameterizedTest(name = "Fuera del heap: {0}")
+    @ValueSource(booleans = { false, true })
+    void test_banco_columnar(boolean fueraDelHeap) throws IOException {
+        Map<Long, BigDecimal> esperados;
+        try (Instantaneas instantaneas = new Instantaneas(directorio);
+             Bitacora bitacora = new Bitacora(archivoBitacora, ModoDurabilidad.ASINCRONO)) {
+            BancoColumnar banco = new BancoColumnar(2, fueraDelHeap);
+            banco.agregarObservador(bitacora);
+            for (int i = 0; i < 70_000; i++) {
+                banco.agregarCuenta(i % 7 == 0 ? null : "Persona " + (i % 100), BigDecimal.valueOf(i, 2));
+            }
+            instantaneas.tomar(banco, bitacora);
+            banco.transferir(banco.buscarPorId(69_000).orElseThrow(), banco.buscarPorId(2).orElseThrow(), BigDecimal.ONE);
+            banco.agregarCuenta("Nueva", BigDecimal.TEN);
+            esperados = saldos(banco);
+        }
+
+        try (Instantaneas instantaneas = new Instantaneas(directorio)) {
+            Recuperacion recuperacion = instantaneas.recuperar(archivoBitacora, ModoDurabilidad.GRUPO);
+            recuperacion.getBitacora().close();
+            BancoColumnar banco = (BancoColumnar) recuperacion.getBanco();
+
+            assertEquals(fueraDelHeap, banco.isFueraDelHeap());
+            assertEquals(esperados, saldos(banco));
+            assertEquals("Persona 43", banco.getCuentas().get(43).getPersona());
+            assertNull(banco.getCuentas().get(49).getPersona());
+            assertEquals(44, banco.buscarPorPersona("Persona 43").orElseThrow().getId());
+            assertEquals(70_001, banco.buscarPorPersona("Nueva").orElseThrow().getId());
+        }
+    }
+
+    @Test
+    void test_instantanea_danada_usa_la_anterior() throws IOException {
+        Instantaneas instantaneas = new Instantaneas(directorio);
+        Banco banco;
+        try (Bitacora bitacora = new Bitacora(archivoBitacora, ModoDurabilidad.POR_OPERACION)) {
+            banco = new Banco();
+            banco.agregarObservador(bitacora);
+            banco.addCuenta(new Cuenta("Luis", BigDecimal.valueOf(100)));
+            Path primera = instantaneas.tomar(banco, bitacora);
+            banco.buscarPorId(1).orElseThrow().debito(BigDecimal.TEN);
+            Path segunda = instantaneas.tomar(banco, bitacora);
+            assertNotEquals(primera, segunda);
+
+            byte[] bytes = Files.readAllBytes(segunda);
+            bytes[bytes.length / 2] ^= 0x7F;
+            Files.write(segunda, bytes);
+        }
+
+        Recuperacion recuperacion = instantaneas.recuperar(archivoBitacora, ModoDurabilidad.POR_OPERACION);
+        recuperacion.getBitacora().close();
+
+        assertTrue(recuperacion.getInstantanea().orElseThrow().getFileName().toString().endsWith("01.bin"));
+        assertEquals(1, recuperacion.getEntradasReaplicadas());
+        assertEquals(0, BigDecimal.valueOf(90).compareTo(recuperacion.getBanco().buscarPorId(1).orElseThrow().getSaldo()));
+    }
+
+    @Test
+    @Tag("concurrencia")
+    @DisplayName("Instantaneas tomadas durante transferencias recuperan el mismo estado")
+    void test_instantaneas_sin_detener_transferencias() throws Exception {
+        int hilos = 4;
+        Map<Long, BigDecimal> esperados;
+        Instantaneas instantaneas = new Instantaneas(directorio); // se cierra a mitad de la prueba, close es idempotente
+        try (Bitacora bitacora = new Bitacora(archivoBitacora, ModoDurabilidad.ASINCRONO)) {
+            Banco banco = new Banco();
+            banco.agregarObservador(bitacora);
+            for (int i = 0; i < 500; i++) {
+                banco.addCuenta(new Cuenta("Persona " + i, BigDecimal.valueOf(1000)));
+            }
+
+            AtomicBoolean detener = new AtomicBoolean();
+            ExecutorService executor = Executors.newFixedThreadPool(hilos);
+            try {
+                List<Future<?>> futuros = new ArrayList<>();
+                for (int h = 0; h < hilos; h++) {
+                    int semilla = h;
+                    futuros.add(executor.submit(() -> {
+                        SplittableRandom random = new SplittableRandom(semilla);
+                        while (!detener.get()) {
+                            Cuenta origen = banco.buscarPorId(random.nextInt(1, 501)).orElseThrow();
+                            Cuenta destino = banco.buscarPorId(random.nextInt(1, 501)).orElseThrow();
+                            try {
+                                banco.transferir(origen, destino, BigDecimal.valueOf(random.nextInt(1, 300)));
+                            } catch (DineroInsuficienteException e) {
+                                // rechazada
+                            }
+                        }
+                    }));
+                }
+                instantaneas.programar(banco, bitacora, Duration.ofMillis(20));
+                Thread.sleep(300);
+                instantaneas.close();
+                Thread.sleep(50);
+                detener.set(true);
+                for (Future<?> futuro : futuros) {
+                    futuro.get();
+                }
+            } finally {
+                executor.shutdownNow();
+            }
+            esperados = saldos(banco);
+        } finally {
+            instantaneas.close();
+        }
+
+        Recuperacion recuperacion = new Instantaneas(directorio).recuperar(archivoBitacora, ModoDurabilidad.GRUPO);
+        recuperacion.getBitacora().close();
+
+        reporter.publishEntry(recuperacion.toString());
+        assertTrue(recuperacion.getInstantanea().isPresent());
+        assertTrue(recuperacion.getEntradasReaplicadas() > 0);
+        assertEquals(esperados, saldos(recuperacion.getBanco()));
+        try (var archivos = Files.list(directorio)) {
+            assertTrue(archivos.filter(archivo -> archivo.toString().endsWith(".bin")).count() <= 2);
+        }
+    }
+
+    @Test
+    @Tag("rendimiento")
+    @DisplayName("Arranque con instantanea contra reaplicar toda la bitacora")
+    void test_tiempo_de_arranque() throws IOException {
+        int cantidad = 200_000;
+        int operaciones = 200_000;
+        try (Bitacora bitacora = new Bitacora(archivoBitacora, ModoDurabilidad.ASINCRONO)) {
+            Banco banco = new Banco();
+            banco.agregarObservador(bitacora);
+            for (int i = 0; i < cantidad; i++) {
+                banco.addCuenta(new Cuenta("Persona " + i, BigDecimal.valueOf(1000)));
+            }
+            SplittableRandom random = new SplittableRandom(7);
+            for (int i = 0; i < operaciones; i++) {
+                banco.transferir(banco.buscarPorId(random.nextInt(1, cantidad + 1)).orElseThrow(),
+                        banco.buscarPorId(random.nextInt(1, cantidad + 1)).orElseThrow(), BigDecimal.ONE);
+            }
+            new Instantaneas(directorio.resolve("con")).tomar(banco, bitacora);
+        }
+
+        Recuperacion completa = new Instantaneas(directorio.resolve("sin")).recuperar(archivoBitacora, ModoDurabilidad.ASINCRONO);
+        completa.getBitacora().close();
+        Recuperacion rapida = new Instantaneas(directorio.resolve("con")).recuperar(archivoBitacora, ModoDurabilidad.ASINCRONO);
+        rapida.getBitacora().close();
+
+        reporter.publishEntry(String.format("%d cuentas, %d operaciones: bitacora completa %d ms (%d entradas), instantanea %d ms + %d ms",
+                cantidad, operaciones, completa.getDuracionReaplicacion().toMillis(), completa.getEntradasReaplicadas(),
+                rapida.getDuracionCarga().toMillis(), rapida.getDuracionReaplicacion().toMillis()));
+
+        assertEquals(cantidad + operaciones, completa.getEntradasReaplicadas());
+        assertEquals(0, rapida.getEntradasReaplicadas());
+        assertEquals(saldos(completa.getBanco()), saldos(rapida.getBanco()));
+    }
+
+}
@@ -0,0 +1,205 @@
+package org.angelfg.ejemplos.services;
+
+import org.angelfg.ejemplos.exceptions.DineroInsuficienteException;
+import org.angelfg.ejemplos.models.Cuenta;
+import org.angelfg.ejemplos.models.CuentaPuntoFijo;
+import org.junit.jupiter.api.*;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class BancoParticionadoTest {
+
+    private TestReporter reporter;
+
+    @BeforeEach
+    void initMetodoTest(TestReporter reporter) {
+        this.reporter = reporter;
+    }
+
+    // Primera cuenta, sin contar la indicada, que cae o no en su misma particion
+    private static Cuenta buscar(BancoParticionado banco, Cuenta[] cuentas, Cuenta referencia, boolean misma) {
+        for (Cuenta cuenta : cuentas) {
+            if (cuenta != referencia && (banco.particionDe(cuenta) == banco.particionDe(referencia)) == misma) return cuenta;
+        }
+        throw new IllegalStateException("No hay cuentas en esa particion");
+    }
+
+    @Test
+    void test_transferencias_en_la_misma_y_entre_particiones() throws Exception {
+        Cuenta[] cuentas = new Cuenta[20];
+        try (BancoParticionado banco = new BancoParticionado(4)) {
+            for (int i = 0; i < cuentas.length; i++) {
+                cuentas[i] = new Cuenta("Persona " + i, BigDecimal.valueOf(100));
+                banco.addCuenta(cuentas[i]);
+            }
+            Cuenta origen = cuentas[0];
+            Cuenta misma = buscar(banco, cuentas, origen, true);
+            Cuenta otra = buscar(banco, cuentas, origen, false);
+
+            banco.transferir(origen, misma, BigDecimal.valueOf(30)).get();
+            banco.transferir(origen, otra, BigDecimal.valueOf(50)).get();
+
+            assertEquals("20", origen.getSaldo().toPlainString());
+            assertEquals("130", misma.getSaldo().toPlainString());
+            assertEquals("150", otra.getSaldo().toPlainString());
+            assertSame(otra, banco.buscarPorId(otra.getId()).orElseThrow());
+            assertEquals(0, banco.getEnTransito().signum());
+
+            // Sin fondos no se reserva nada, en ninguna de las dos rutas
+            ExecutionException exception = assertThrows(ExecutionException.class,
+                    () -> banco.transferir(origen, otra, BigDecimal.valueOf(21)).get());
+            assertTrue(exception.getCause() instanceof DineroInsuficienteException);
+            exception = assertThrows(ExecutionException.class,
+                    () -> banco.transferir(origen, misma, BigDecimal.valueOf(21)).get());
+            assertTrue(exception.getCause() instanceof DineroInsuficienteException);
+            assertEquals("20", origen.getSaldo().toPlainString());
+            assertEquals(0, BigDecimal.valueOf(2000).compareTo(banco.sumarSaldos()));
+        }
+    }
+
+    @Test
+    void test_credito_fallido_devuelve_la_reserva() {
+        Cuenta[] cuentas = new Cuenta[20];
+        try (BancoParticionado banco = new BancoParticionado(2)) {
+            for (int i = 0; i < cuentas.length; i++) {
+                // Escala 0 sin redondeo: un monto con decimales no se puede acreditar
+                cuentas[i] = new CuentaPuntoFijo("Persona " + i, BigDecimal.valueOf(100), i % 2 == 0 ? 2 : 0, RoundingMode.UNNECESSARY);
+                banco.addCuenta(cuentas[i]);
+            }
+            Cuenta origen = null;
+            Cuenta destino = null;
+            for (int i = 0; i < cuentas.length && destino == null; i += 2) {
+                for (int j = 1; j < cuentas.length; j += 2) {
+                    if (banco.particionDe(cuentas[i]) != banco.particionDe(cuentas[j])) {
+                        origen = cuentas[i];
+                        destino = cuentas[j];
+                        break;
+                    }
+                }
+            }
+            assertNotNull(destino);
+
+            CompletableFuture<Void> resultado = banco.transferir(origen, destino, new BigDecimal("10.50"));
+            CompletionException exception = assertThrows(CompletionException.class, resultado::join);
+            assertTrue(exception.getCause() instanceof ArithmeticException);
+            assertEquals(0, BigDecimal.valueOf(100).compareTo(origen.getSaldo()));
+            assertEquals(0, banco.getEnTransito().signum());
+        }
+    }
+
+    @Test
+    @Tag("banco")
+    @DisplayName("El dinero se conserva con transferencias cruzadas concurrentes")
+    void test_total_se_conserva() {
+        int cuentas = 500;
+        int transferencias = 200_000;
+        try (BancoParticionado banco = new BancoParticionado(8)) {
+            Cuenta[] arreglo = crear(banco, cuentas, BigDecimal.valueOf(100));
+            CompletableFuture<?>[] futuros = new CompletableFuture<?>[transferencias];
+            SplittableRandom random = new SplittableRandom(23);
+            for (int i = 0; i < transferencias; i++) {
+                futuros[i] = banco.transferir(arreglo[random.nextInt(cuentas)], arreglo[random.nextInt(cuentas)],
+                        BigDecimal.valueOf(random.nextInt(1, 80)));
+            }
+            long rechazadas = 0;
+            for (CompletableFuture<?> futuro : futuros) {
+                try {
+                    futuro.join();
+                } catch (CompletionException e) {
+                    assertTrue(e.getCause() instanceof DineroInsuficienteException);
+                    rechazadas++;
+                }
+            }
+            reporter.publishEntry("Rechazadas por fondos: " + rechazadas);
+            assertEquals(0, banco.getEnTransito().signum());
+            assertEquals(0, BigDecimal.valueOf(100L * cuentas).compareTo(banco.sumarSaldos()));
+            for (Cuenta cuenta : arreglo) {
+                assertTrue(cuenta.getSaldo().signum() >= 0);
+            }
+        }
+    }
+
+    @Test
+    @Tag("banco")
+    @DisplayName("Cerrar con transferencias cruzadas en curso no deja dinero reservado")
+    void test_cerrar_con_transferencias_en_curso() throws Exception {
+        int cuentas = 200;
+        BancoParticionado banco = new BancoParticionado(8);
+        Cuenta[] arreglo = crear(banco, cuentas, BigDecimal.valueOf(100));
+        List<CompletableFuture<Void>> futuros = new ArrayList<>();
+        Thread productor = new Thread(() -> {
+            SplittableRandom random = new SplittableRandom(31);
+            CompletableFuture<Void> futuro;
+            do {
+                futuro = banco.transferir(arreglo[random.nextInt(cuentas)], arreglo[random.nextInt(cuentas)],
+                        BigDecimal.valueOf(random.nextInt(1, 80)));
+                futuros.add(futuro);
+            } while (!futuro.isDone() || !rechazada(futuro)); // despues del cierre vuelve ya rechazada
+        });
+        productor.start();
+        Thread.sleep(100);
+        banco.close();
+        productor.join();
+
+        long rechazadas = futuros.stream().filter(BancoParticionadoTest::rechazada).count();
+        reporter.publishEntry(futuros.size() + " transferencias, " + rechazadas + " rechazadas por el cierre");
+        for (CompletableFuture<Void> futuro : futuros) {
+            assertTrue(futuro.isDone());
+        }
+        assertEquals(0, banco.getEnTransito().signum());
+        assertEquals(0, BigDecimal.valueOf(100L * cuentas).compareTo(banco.sumarSaldos()));
+    }
+
+    private static boolean rechazada(CompletableFuture<Void> futuro) {
+        try {
+            futuro.join();
+            return false;
+        } catch (CompletionException e) {
+            return e.getCause() instanceof RejectedExecutionException;
+        }
+    }
+
+    private static Cuenta[] crear(BancoParticionado banco, int cantidad, BigDecimal saldo) {
+        Cuenta[] arreglo = new Cuenta[cantidad];
+        for (int i = 0; i < cantidad; i++) {
+            arreglo[i] = new Cuenta("Persona " + i, saldo);
+            banco.addCuenta(arreglo[i]);
+        }
+        return arreglo;
+    }
+
+    @ParameterizedTest(name = "{0} particiones")
+    @ValueSource(ints = { 1, 4, 16, 64 })
+    @Tag("rendimiento")
+    void test_rendimiento_por_particiones(int particiones) {
+        int cuentas = 10_000;
+        int transferencias = 400_000;
+        try (BancoParticionado banco = new BancoParticionado(particiones)) {
+            Cuenta[] arreglo = crear(banco, cuentas, BigDecimal.valueOf(1_000_000));
+            SplittableRandom random = new SplittableRandom(29);
+            CompletableFuture<?>[] futuros = new CompletableFuture<?>[transferencias];
+            long inicio = System.nanoTime();
+            for (int i = 0; i < transferencias; i++) {
+                futuros[i] = banco.transferir(arreglo[random.nextInt(cuentas)], arreglo[random.nextInt(cuentas)], BigDecimal.ONE);
+            }
+            CompletableFuture.allOf(futuros).join();
+            long nanos = System.nanoTime() - inicio;
+
+            reporter.publishEntry(String.format("%d particiones: %.0f transferencias/s", particiones, transferencias * 1e9 / nanos));
+            assertEquals(0, BigDecimal.valueOf(1_000_000L * cuentas).compareTo(banco.sumarSaldos()));
+        }
+    }
+
+}
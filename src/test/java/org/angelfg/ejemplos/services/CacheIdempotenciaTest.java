@@ -0,0 +1,76 @@
+package org.angelfg.ejemplos.services;
+
+import org.junit.jupiter.api.*;
+
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class CacheIdempotenciaTest {
+
+    private final AtomicLong reloj = new AtomicLong();
+
+    @Test
+    void test_agregar_y_buscar() {
+        CacheIdempotencia<String, String> cache = new CacheIdempotencia<>(100, Duration.ofMinutes(1), reloj::get);
+
+        assertNull(cache.agregarSiFalta("a", "primero"));
+        assertEquals("primero", cache.agregarSiFalta("a", "segundo"));
+        assertEquals("primero", cache.buscar("a"));
+        assertNull(cache.buscar("b"));
+        assertEquals(2, cache.getAciertos());
+        assertEquals(2, cache.getFallos());
+
+        cache.quitar("a", "otro"); // no es el valor guardado
+        assertEquals("primero", cache.buscar("a"));
+        cache.quitar("a", "primero");
+        assertNull(cache.buscar("a"));
+    }
+
+    @Test
+    void test_vencimiento() {
+        CacheIdempotencia<String, String> cache = new CacheIdempotencia<>(100, Duration.ofSeconds(10), reloj::get);
+        cache.agregarSiFalta("a", "uno");
+        cache.buscar("a"); // pasa a la parte protegida
+        cache.agregarSiFalta("b", "dos");
+
+        reloj.addAndGet(Duration.ofSeconds(9).toNanos());
+        assertEquals("uno", cache.buscar("a"));
+        reloj.addAndGet(Duration.ofSeconds(2).toNanos());
+        assertNull(cache.buscar("a"));
+        assertNull(cache.agregarSiFalta("b", "tres"));
+        assertEquals("tres", cache.buscar("b"));
+    }
+
+    @Test
+    void test_tamanio_acotado() {
+        CacheIdempotencia<Integer, Integer> cache = new CacheIdempotencia<>(1000, Duration.ofHours(1), reloj::get);
+        for (int i = 0; i < 100_000; i++) {
+            cache.agregarSiFalta(i, i);
+        }
+        assertTrue(cache.getTamanio() <= cache.getCapacidad());
+        assertTrue(cache.getCapacidad() < 1100);
+        assertEquals(100_000 - cache.getTamanio(), cache.getDesalojadas());
+        assertEquals(99_999, cache.buscar(99_999));
+    }
+
+    @Test
+    @DisplayName("Una rafaga de claves nuevas no desaloja a las que se vuelven a pedir")
+    void test_resistente_a_rafagas() {
+        CacheIdempotencia<Integer, Integer> cache = new CacheIdempotencia<>(1000, Duration.ofHours(1), reloj::get);
+        for (int i = 0; i < 500; i++) {
+            cache.agregarSiFalta(-i - 1, i);
+            cache.buscar(-i - 1);
+        }
+        for (int i = 0; i < 50_000; i++) {
+            cache.agregarSiFalta(i, i);
+        }
+        int presentes = 0;
+        for (int i = 0; i < 500; i++) {
+            if (cache.buscar(-i - 1) != null) presentes++;
+        }
+        assertEquals(500, presentes);
+    }
+
+}
@@ -0,0 +1,239 @@
+package org.angelfg.ejemplos.services;
+
+import org.angelfg.ejemplos.models.Banco;
+import org.angelfg.ejemplos.models.Cuenta;
+import org.angelfg.ejemplos.models.CuentaPuntoFijo;
+import org.angelfg.ejemplos.models.ResultadoOperacion;
+import org.junit.jupiter.api.*;
+
+import java.lang.management.ManagementFactory;
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BiConsumer;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class SecuenciadorTransferenciasTest {
+
+    private TestReporter reporter;
+
+    @BeforeEach
+    void initMetodoTest(TestReporter reporter) {
+        this.reporter = reporter;
+    }
+
+    private static Cuenta[] crear(Banco banco, int cantidad, BigDecimal saldo) {
+        Cuenta[] arreglo = new Cuenta[cantidad];
+        for (int i = 0; i < cantidad; i++) {
+            arreglo[i] = new Cuenta("Persona " + i, saldo);
+            banco.addCuenta(arreglo[i]);
+        }
+        return arreglo;
+    }
+
+    @Test
+    void test_resultados_por_callback() throws Exception {
+        Banco banco = new Banco();
+        Cuenta cuenta1 = new Cuenta("Luis", BigDecimal.valueOf(100));
+        Cuenta cuenta2 = new CuentaPuntoFijo("Angel", BigDecimal.ZERO, 0, RoundingMode.UNNECESSARY);
+        banco.addCuenta(cuenta1);
+        banco.addCuenta(cuenta2);
+
+        try (SecuenciadorTransferencias secuenciador = new SecuenciadorTransferencias(banco, 3)) {
+            assertEquals(4, secuenciador.getCapacidad());
+            CompletableFuture<ResultadoOperacion> exitosa = secuenciador.transferir(cuenta1, cuenta2, BigDecimal.valueOf(60));
+            CompletableFuture<ResultadoOperacion> sinFondos = secuenciador.transferir(cuenta1, cuenta2, BigDecimal.valueOf(60));
+            CompletableFuture<ResultadoOperacion> conDecimales = secuenciador.transferir(cuenta1, cuenta2, new BigDecimal("0.5"));
+
+            assertEquals(ResultadoOperacion.EXITOSA, exitosa.get());
+            assertEquals(ResultadoOperacion.DINERO_INSUFICIENTE, sinFondos.get());
+            ExecutionException exception = assertThrows(ExecutionException.class, conDecimales::get);
+            assertTrue(exception.getCause() instanceof ArithmeticException);
+        }
+        assertEquals(0, BigDecimal.valueOf(40).compareTo(cuenta1.getSaldo())); // el debito revertido deja la escala del monto
+        assertEquals("60", cuenta2.getSaldo().toPlainString());
+    }
+
+    @Test
+    void test_publicar_despues_de_cerrar() {
+        SecuenciadorTransferencias secuenciador = new SecuenciadorTransferencias(new Banco(), 8);
+        secuenciador.close();
+        assertThrows(IllegalStateException.class, () -> secuenciador.transferir(new Cuenta(), new Cuenta(), BigDecimal.ONE));
+    }
+
+    @Test
+    @Tag("banco")
+    @DisplayName("Cerrar mientras se publica: cada transferencia se rechaza o termina")
+    void test_cerrar_mientras_se_publica() throws Exception {
+        Banco banco = new Banco();
+        Cuenta[] arreglo = crear(banco, 10, BigDecimal.valueOf(1_000));
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            for (int vuelta = 0; vuelta < 50; vuelta++) {
+                SecuenciadorTransferencias secuenciador = new SecuenciadorTransferencias(banco, 64);
+                List<Future<List<CompletableFuture<ResultadoOperacion>>>> productores = new ArrayList<>();
+                for (int p = 0; p < 4; p++) {
+                    productores.add(executor.submit(() -> {
+                        List<CompletableFuture<ResultadoOperacion>> aceptadas = new ArrayList<>();
+                        try {
+                            while (true) {
+                                aceptadas.add(secuenciador.transferir(arreglo[0], arreglo[1], BigDecimal.ZERO));
+                            }
+                        } catch (IllegalStateException e) {
+                            return aceptadas;
+                        }
+                    }));
+                }
+                Thread.sleep(1);
+                secuenciador.close();
+                long aceptadas = 0;
+                for (Future<List<CompletableFuture<ResultadoOperacion>>> productor : productores) {
+                    for (CompletableFuture<ResultadoOperacion> futuro : productor.get()) {
+                        assertTrue(futuro.isDone(), "Transferencia aceptada sin aplicar");
+                        aceptadas++;
+                    }
+                }
+                assertEquals(aceptadas, secuenciador.getProcesadas());
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    void test_callbacks_con_error() {
+        Banco banco = new Banco();
+        Cuenta[] arreglo = crear(banco, 2, BigDecimal.TEN);
+        try (SecuenciadorTransferencias secuenciador = new SecuenciadorTransferencias(banco, 8)) {
+            secuenciador.publicar(arreglo[0], arreglo[1], BigDecimal.ONE, (resultado, error) -> {
+                throw new IllegalStateException("callback");
+            });
+            secuenciador.publicar(arreglo[0], arreglo[1], BigDecimal.ONE, (resultado, error) -> {
+                throw new AssertionError("callback"); // un Error tampoco detiene al consumidor
+            });
+            CompletableFuture<ResultadoOperacion> siguiente = secuenciador.transferir(arreglo[0], arreglo[1], BigDecimal.ONE);
+            assertEquals(ResultadoOperacion.EXITOSA, siguiente.join());
+            assertEquals(2, secuenciador.getCallbacksConError());
+        }
+        assertEquals(0, BigDecimal.valueOf(7).compareTo(arreglo[0].getSaldo()));
+    }
+
+    @Test
+    @DisplayName("Mismo resultado que aplicar las transferencias en el orden en que se publicaron")
+    void test_orden_determinista() {
+        int cuentas = 50;
+        int transferencias = 100_000;
+        Banco banco = new Banco();
+        Banco esperado = new Banco();
+        Cuenta[] arreglo = crear(banco, cuentas, BigDecimal.valueOf(100));
+        Cuenta[] copias = crear(esperado, cuentas, BigDecimal.valueOf(100));
+        ResultadoOperacion[] resultados = new ResultadoOperacion[transferencias];
+        ResultadoOperacion[] esperados = new ResultadoOperacion[transferencias];
+
+        SplittableRandom random = new SplittableRandom(31);
+        try (SecuenciadorTransferencias secuenciador = new SecuenciadorTransferencias(banco, 1024)) {
+            for (int i = 0; i < transferencias; i++) {
+                int origen = random.nextInt(cuentas);
+                int destino = random.nextInt(cuentas);
+                BigDecimal monto = BigDecimal.valueOf(random.nextInt(1, 150));
+                int indice = i;
+                secuenciador.publicar(arreglo[origen], arreglo[destino], monto, (resultado, error) -> resultados[indice] = resultado);
+                esperados[i] = esperado.tryTransferir(copias[origen], copias[destino], monto);
+            }
+        } // close espera al consumidor, los resultados ya estan escritos
+        assertArrayEquals(esperados, resultados);
+        for (int i = 0; i < cuentas; i++) {
+            assertEquals(0, copias[i].getSaldo().compareTo(arreglo[i].getSaldo()), "Cuenta " + i);
+        }
+    }
+
+    @Test
+    @Tag("banco")
+    @DisplayName("Varios productores, un solo consumidor y lotes bajo carga")
+    void test_varios_productores() throws Exception {
+        int cuentas = 1000;
+        int productores = 4;
+        int porProductor = 250_000;
+        Banco banco = new Banco();
+        Cuenta[] arreglo = crear(banco, cuentas, BigDecimal.valueOf(1_000));
+        AtomicLong exitosas = new AtomicLong();
+        AtomicLong rechazadas = new AtomicLong();
+        BiConsumer<ResultadoOperacion, RuntimeException> contar = (resultado, error) -> {
+            if (resultado == ResultadoOperacion.EXITOSA) exitosas.incrementAndGet(); else rechazadas.incrementAndGet();
+        };
+
+        ExecutorService executor = Executors.newFixedThreadPool(productores);
+        long inicio = System.nanoTime();
+        SecuenciadorTransferencias secuenciador = new SecuenciadorTransferencias(banco, 4096);
+        try {
+            List<Future<?>> futuros = new ArrayList<>();
+            for (int p = 0; p < productores; p++) {
+                int semilla = p;
+                futuros.add(executor.submit(() -> {
+                    SplittableRandom random = new SplittableRandom(semilla);
+                    for (int i = 0; i < porProductor; i++) {
+                        secuenciador.publicar(arreglo[random.nextInt(cuentas)], arreglo[random.nextInt(cuentas)],
+                                BigDecimal.valueOf(random.nextInt(1, 500)), contar);
+                    }
+                }));
+            }
+            for (Future<?> futuro : futuros) {
+                futuro.get();
+            }
+            secuenciador.close(); // espera lo publicado, para medir el tiempo total
+            long nanos = System.nanoTime() - inicio;
+
+            long total = (long) productores * porProductor;
+            reporter.publishEntry(String.format("%d transferencias en %d ms (%.0f/s), %d lotes, lote maximo %d, esperas por lugar %d",
+                    total, nanos / 1_000_000, total * 1e9 / nanos, secuenciador.getLotes(), secuenciador.getLoteMaximo(),
+                    secuenciador.getEsperasPorLugar()));
+            assertEquals(total, secuenciador.getProcesadas());
+            assertEquals(total, exitosas.get() + rechazadas.get());
+            assertTrue(secuenciador.getLotes() < total); // con carga el consumidor toma varias por vuelta
+        } finally {
+            secuenciador.close();
+            executor.shutdown();
+        }
+        BigDecimal suma = BigDecimal.ZERO;
+        for (Cuenta cuenta : arreglo) {
+            assertTrue(cuenta.getSaldo().signum() >= 0);
+            suma = suma.add(cuenta.getSaldo());
+        }
+        assertEquals(0, BigDecimal.valueOf(1_000L * cuentas).compareTo(suma));
+    }
+
+    @Test
+    @DisplayName("Publicar con un callback reutilizado no crea objetos")
+    void test_publicar_sin_asignaciones() {
+        java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        Assumptions.assumeTrue(bean instanceof com.sun.management.ThreadMXBean);
+        com.sun.management.ThreadMXBean hilos = (com.sun.management.ThreadMXBean) bean;
+
+        Banco banco = new Banco();
+        Cuenta[] arreglo = crear(banco, 2, BigDecimal.valueOf(1_000_000_000));
+        BiConsumer<ResultadoOperacion, RuntimeException> ignorar = (resultado, error) -> { };
+        BigDecimal monto = BigDecimal.ONE;
+        try (SecuenciadorTransferencias secuenciador = new SecuenciadorTransferencias(banco, 1024)) {
+            for (int i = 0; i < 200_000; i++) { // calienta el JIT
+                secuenciador.publicar(arreglo[i & 1], arreglo[(i + 1) & 1], monto, ignorar);
+            }
+            long antes = hilos.getCurrentThreadAllocatedBytes();
+            for (int i = 0; i < 100_000; i++) {
+                secuenciador.publicar(arreglo[i & 1], arreglo[(i + 1) & 1], monto, ignorar);
+            }
+            long asignados = hilos.getCurrentThreadAllocatedBytes() - antes;
+            reporter.publishEntry("Bytes asignados por el productor en 100000 publicaciones: " + asignados);
+            assertTrue(asignados < 100_000, "Asignados: " + asignados); // menos de un byte por publicacion
+        }
+    }
+
+}
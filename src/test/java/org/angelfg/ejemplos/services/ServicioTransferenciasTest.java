@@ -0,0 +1,141 @@
+package org.angelfg.ejemplos.services;
+
+import org.angelfg.ejemplos.exceptions.DineroInsuficienteException;
+import org.angelfg.ejemplos.models.Banco;
+import org.angelfg.ejemplos.models.Cuenta;
+import org.junit.jupiter.api.*;
+
+import java.math.BigDecimal;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeoutException;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ServicioTransferenciasTest {
+
+    private Banco banco;
+    private Cuenta cuenta1;
+    private Cuenta cuenta2;
+    private TestReporter reporter;
+
+    @BeforeEach
+    void initMetodoTest(TestReporter reporter) {
+        this.reporter = reporter;
+        banco = new Banco();
+        cuenta1 = new Cuenta("Luis", BigDecimal.valueOf(2500));
+        cuenta2 = new Cuenta("Angel", BigDecimal.valueOf(1500));
+        banco.addCuenta(cuenta1);
+        banco.addCuenta(cuenta2);
+    }
+
+    @Test
+    void test_transferencia_asincrona() throws Exception {
+        try (ServicioTransferencias servicio = new ServicioTransferencias(banco)) {
+            servicio.transferir(cuenta2, cuenta1, BigDecimal.valueOf(500)).get();
+
+            CompletableFuture<Void> sinFondos = servicio.transferir(cuenta2, cuenta1, BigDecimal.valueOf(5000));
+            ExecutionException exception = assertThrows(ExecutionException.class, sinFondos::get);
+            assertTrue(exception.getCause() instanceof DineroInsuficienteException);
+        }
+        assertEquals("3000", cuenta1.getSaldo().toPlainString());
+        assertEquals("1000", cuenta2.getSaldo().toPlainString());
+    }
+
+    @Test
+    void test_executor_propio_con_timeout() throws Exception {
+        ServicioTransferencias servicio = new ServicioTransferencias(banco, 100, Duration.ofSeconds(5));
+        try (servicio) {
+            servicio.transferir(cuenta2, cuenta1, BigDecimal.valueOf(500)).get();
+            assertEquals(0, servicio.getVencidas());
+        }
+        // El servicio cerro el executor que creo
+        ExecutionException exception = assertThrows(ExecutionException.class,
+                () -> servicio.transferir(cuenta2, cuenta1, BigDecimal.ONE).get());
+        assertTrue(exception.getCause() instanceof RejectedExecutionException);
+        assertEquals(0, servicio.getEnVuelo());
+        assertEquals("3000", cuenta1.getSaldo().toPlainString());
+    }
+
+    @Test
+    void test_admision_acotada() throws Exception {
+        List<Runnable> encoladas = new ArrayList<>();
+        try (ServicioTransferencias servicio = new ServicioTransferencias(banco, encoladas::add, 2, null)) {
+            CompletableFuture<Void> primera = servicio.transferir(cuenta1, cuenta2, BigDecimal.ONE);
+            servicio.transferir(cuenta1, cuenta2, BigDecimal.ONE);
+            CompletableFuture<Void> tercera = servicio.transferir(cuenta1, cuenta2, BigDecimal.ONE);
+
+            assertEquals(2, servicio.getEnVuelo());
+            ExecutionException exception = assertThrows(ExecutionException.class, tercera::get);
+            assertTrue(exception.getCause() instanceof RejectedExecutionException);
+            assertEquals(1, servicio.getRechazadas());
+
+            encoladas.forEach(Runnable::run);
+            primera.get();
+            assertEquals(0, servicio.getEnVuelo());
+        }
+        assertEquals("2498", cuenta1.getSaldo().toPlainString());
+    }
+
+    @Test
+    void test_vencida_antes_de_empezar_no_se_aplica() throws Exception {
+        List<Runnable> encoladas = new ArrayList<>();
+        try (ServicioTransferencias servicio = new ServicioTransferencias(banco, encoladas::add, 10, Duration.ofMillis(20))) {
+            CompletableFuture<Void> resultado = servicio.transferir(cuenta1, cuenta2, BigDecimal.TEN);
+
+            ExecutionException exception = assertThrows(ExecutionException.class, resultado::get);
+            assertTrue(exception.getCause() instanceof TimeoutException);
+            encoladas.forEach(Runnable::run); // el executor la toma tarde
+
+            assertEquals(1, servicio.getVencidas());
+            assertEquals(0, servicio.getEnVuelo());
+        }
+        assertEquals("2500", cuenta1.getSaldo().toPlainString());
+    }
+
+    @Test
+    @Tag("rendimiento")
+    @DisplayName("Cientos de miles de transferencias en vuelo")
+    void test_muchas_transferencias_en_vuelo() {
+        int cuentas = 1000;
+        int transferencias = 300_000;
+        Banco grande = new Banco();
+        Cuenta[] arreglo = new Cuenta[cuentas];
+        for (int i = 0; i < cuentas; i++) {
+            arreglo[i] = new Cuenta("Persona " + i, BigDecimal.valueOf(1_000_000));
+            grande.addCuenta(arreglo[i]);
+        }
+
+        long[] latencias = new long[transferencias];
+        CompletableFuture<?>[] futuros = new CompletableFuture<?>[transferencias];
+        SplittableRandom random = new SplittableRandom(5);
+        long inicio = System.nanoTime();
+        try (ServicioTransferencias servicio = new ServicioTransferencias(grande)) {
+            for (int i = 0; i < transferencias; i++) {
+                int indice = i;
+                long enviada = System.nanoTime();
+                futuros[i] = servicio.transferir(arreglo[random.nextInt(cuentas)], arreglo[random.nextInt(cuentas)], BigDecimal.ONE)
+                        .whenComplete((sinValor, error) -> latencias[indice] = System.nanoTime() - enviada);
+            }
+            CompletableFuture.allOf(futuros).join();
+            assertEquals(0, servicio.getRechazadas());
+        }
+        long nanos = System.nanoTime() - inicio;
+
+        Arrays.sort(latencias);
+        reporter.publishEntry(String.format("%d transferencias (hilos virtuales: %b) en %d ms, p50 %.2f ms, p99 %.2f ms, p99.9 %.2f ms",
+                transferencias, ServicioTransferencias.hayHilosVirtuales(), nanos / 1_000_000,
+                latencias[transferencias / 2] / 1e6, latencias[transferencias * 99 / 100] / 1e6,
+                latencias[transferencias * 999 / 1000] / 1e6));
+
+        BigDecimal total = grande.getCuentas().stream().map(Cuenta::getSaldo).reduce(BigDecimal.ZERO, BigDecimal::add);
+        assertEquals(0, BigDecimal.valueOf(1_000_000L * cuentas).compareTo(total));
+    }
+
+}
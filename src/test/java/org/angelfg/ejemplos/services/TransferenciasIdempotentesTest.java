@@ -0,0 +1,137 @@
+package org.angelfg.ejemplos.services;
+
+import org.angelfg.ejemplos.models.Banco;
+import org.angelfg.ejemplos.models.Cuenta;
+import org.angelfg.ejemplos.models.CuentaPuntoFijo;
+import org.angelfg.ejemplos.models.ResultadoOperacion;
+import org.junit.jupiter.api.*;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class TransferenciasIdempotentesTest {
+
+    private Banco banco;
+    private Cuenta cuenta1;
+    private Cuenta cuenta2;
+    private TestReporter reporter;
+
+    @BeforeEach
+    void initMetodoTest(TestReporter reporter) {
+        this.reporter = reporter;
+        banco = new Banco();
+        cuenta1 = new Cuenta("Luis", BigDecimal.valueOf(2500));
+        cuenta2 = new CuentaPuntoFijo("Angel", BigDecimal.valueOf(1500), 0, RoundingMode.UNNECESSARY);
+        banco.addCuenta(cuenta1);
+        banco.addCuenta(cuenta2);
+    }
+
+    @Test
+    void test_reintento_no_mueve_dinero() {
+        TransferenciasIdempotentes transferencias = new TransferenciasIdempotentes(banco);
+
+        assertEquals(ResultadoOperacion.EXITOSA, transferencias.transferir("solicitud-1", cuenta1, cuenta2, BigDecimal.valueOf(500)));
+        assertEquals(ResultadoOperacion.EXITOSA, transferencias.transferir("solicitud-1", cuenta1, cuenta2, BigDecimal.valueOf(500)));
+        assertEquals(ResultadoOperacion.DINERO_INSUFICIENTE, transferencias.transferir("solicitud-2", cuenta2, cuenta1, BigDecimal.valueOf(5000)));
+        cuenta2.credito(BigDecimal.valueOf(5000));
+        assertEquals(ResultadoOperacion.DINERO_INSUFICIENTE, transferencias.transferir("solicitud-2", cuenta2, cuenta1, BigDecimal.valueOf(5000)));
+
+        assertEquals("2000", cuenta1.getSaldo().toPlainString());
+        assertEquals("7000", cuenta2.getSaldo().toPlainString());
+        assertEquals(2, transferencias.getReintentos());
+        assertThrows(IllegalArgumentException.class, () -> transferencias.transferir("solicitud-1", cuenta1, cuenta2, BigDecimal.ONE));
+    }
+
+    @Test
+    void test_error_olvida_la_clave() {
+        TransferenciasIdempotentes transferencias = new TransferenciasIdempotentes(banco);
+
+        assertThrows(ArithmeticException.class, () -> transferencias.transferir("solicitud-1", cuenta1, cuenta2, new BigDecimal("0.5")));
+        assertEquals(0, BigDecimal.valueOf(2500).compareTo(cuenta1.getSaldo()));
+        assertThrows(ArithmeticException.class, () -> transferencias.transferir("solicitud-1", cuenta1, cuenta2, new BigDecimal("0.5")));
+        assertEquals(0, transferencias.getReintentos()); // se volvio a intentar, no se tomo de la cache
+    }
+
+    @Test
+    void test_error_no_bloquea_los_reintentos() {
+        TransferenciasIdempotentes transferencias = new TransferenciasIdempotentes(banco);
+        AtomicBoolean fallar = new AtomicBoolean(true);
+        banco.agregarObservador((tipo, origen, destino, monto) -> {
+            if (fallar.getAndSet(false)) throw new AssertionError("Observador caido");
+        });
+
+        assertThrows(AssertionError.class, () -> transferencias.transferir("solicitud-1", cuenta1, cuenta2, BigDecimal.ONE));
+        ResultadoOperacion resultado = assertTimeoutPreemptively(Duration.ofSeconds(5),
+                () -> transferencias.transferir("solicitud-1", cuenta1, cuenta2, BigDecimal.ONE));
+        assertEquals(ResultadoOperacion.EXITOSA, resultado);
+        assertEquals(0, transferencias.getReintentos());
+    }
+
+    @Test
+    @DisplayName("Reintentos concurrentes de la misma solicitud se aplican una sola vez")
+    void test_reintentos_concurrentes() throws Exception {
+        TransferenciasIdempotentes transferencias = new TransferenciasIdempotentes(banco);
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            List<Future<ResultadoOperacion>> futuros = new ArrayList<>();
+            for (int i = 0; i < 8_000; i++) {
+                String clave = "solicitud-" + (i % 100);
+                futuros.add(executor.submit(() -> transferencias.transferir(clave, cuenta1, cuenta2, BigDecimal.ONE)));
+            }
+            for (Future<ResultadoOperacion> futuro : futuros) {
+                assertEquals(ResultadoOperacion.EXITOSA, futuro.get());
+            }
+        } finally {
+            executor.shutdown();
+        }
+        assertEquals("2400", cuenta1.getSaldo().toPlainString());
+        assertEquals(7_900, transferencias.getReintentos());
+    }
+
+    @Test
+    @Tag("rendimiento")
+    @DisplayName("Busquedas por segundo con millones de claves")
+    void test_rendimiento_busquedas() throws Exception {
+        CacheIdempotencia<String, TransferenciasIdempotentes.Solicitud> cache = new CacheIdempotencia<>(1_000_000, Duration.ofMinutes(10));
+        TransferenciasIdempotentes transferencias = new TransferenciasIdempotentes(banco, cache);
+        int hilos = 4;
+        int porHilo = 500_000;
+
+        ExecutorService executor = Executors.newFixedThreadPool(hilos);
+        long inicio = System.nanoTime();
+        try {
+            List<Future<?>> futuros = new ArrayList<>();
+            for (int h = 0; h < hilos; h++) {
+                int hilo = h;
+                futuros.add(executor.submit(() -> {
+                    SplittableRandom random = new SplittableRandom(hilo);
+                    for (int i = 0; i < porHilo; i++) {
+                        // La mitad son reintentos de claves recientes
+                        int numero = random.nextBoolean() && i > 0 ? random.nextInt(Math.max(0, i - 1000), i) : i;
+                        transferencias.transferir(hilo + "-" + numero, cuenta1, cuenta2, BigDecimal.ZERO);
+                    }
+                }));
+            }
+            for (Future<?> futuro : futuros) {
+                futuro.get();
+            }
+        } finally {
+            executor.shutdown();
+        }
+        long nanos = System.nanoTime() - inicio;
+        reporter.publishEntry(String.format("%.0f solicitudes/min, %d reintentos, %d en cache, %d desalojadas",
+                hilos * porHilo * 60e9 / nanos, transferencias.getReintentos(), cache.getTamanio(), cache.getDesalojadas()));
+        assertTrue(cache.getTamanio() <= cache.getCapacidad());
+    }
+
+}
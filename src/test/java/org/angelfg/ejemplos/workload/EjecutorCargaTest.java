@@ -0,0 +1,89 @@
+package org.angelfg.ejemplos.workload;
+
+import org.angelfg.ejemplos.models.Banco;
+import org.angelfg.ejemplos.models.Cuenta;
+import org.angelfg.ejemplos.models.TipoOperacion;
+import org.junit.jupiter.api.*;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+import java.math.BigDecimal;
+import java.nio.file.Path;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class EjecutorCargaTest {
+
+    private TestReporter reporter;
+
+    @BeforeEach
+    void initMetodoTest(TestReporter reporter) {
+        this.reporter = reporter;
+    }
+
+    private static BigDecimal total(Banco banco) {
+        return banco.getCuentas().stream().map(Cuenta::getSaldo).reduce(BigDecimal.ZERO, BigDecimal::add);
+    }
+
+    @ParameterizedTest(name = "sinExcepciones={0}")
+    @ValueSource(booleans = { false, true })
+    void test_transferencias_conservan_el_dinero(boolean sinExcepciones) throws Exception {
+        Banco banco = EjecutorCarga.crearBanco(200, BigDecimal.valueOf(100));
+        GeneradorCarga generador = new GeneradorCarga(200, 9);
+        generador.setMezcla(0, 0, 1);
+        generador.setMontoMaximo(BigDecimal.valueOf(80));
+        Carga carga = generador.generar(50_000);
+
+        EjecutorCarga ejecutor = new EjecutorCarga(banco);
+        ejecutor.setHilos(4);
+        ejecutor.setSinExcepciones(sinExcepciones);
+        ResultadoCarga resultado = ejecutor.ejecutar(carga);
+
+        assertEquals(50_000, resultado.getOperaciones());
+        assertEquals(50_000, resultado.getLatencias().getCantidad());
+        assertTrue(resultado.getRechazadas() > 0, "Las cuentas calientes se quedan sin fondos");
+        assertEquals(0, resultado.getSinCuenta());
+        assertEquals(0, BigDecimal.valueOf(20_000).compareTo(total(banco)));
+        banco.getCuentas().forEach(cuenta -> assertTrue(cuenta.getSaldo().signum() >= 0));
+    }
+
+    @Test
+    void test_repetir_data_csv() throws Exception {
+        Carga carga = Carga.leer(Path.of("src/main/resources/data.csv"));
+        Banco banco = EjecutorCarga.crearBanco((int) carga.getMayorId(), BigDecimal.valueOf(100_000));
+        BigDecimal esperado = BigDecimal.valueOf(100_000);
+        for (int i = 0; i < carga.getOperaciones(); i++) {
+            assertEquals(TipoOperacion.DEBITO, carga.getTipo(i));
+            esperado = esperado.subtract(carga.getMonto(i));
+        }
+
+        ResultadoCarga resultado = new EjecutorCarga(banco).ejecutar(carga);
+        assertEquals(carga.getOperaciones(), resultado.getOperaciones());
+        assertEquals(0, esperado.compareTo(banco.buscarPorId(1).orElseThrow().getSaldo()));
+    }
+
+    @Test
+    void test_cuentas_que_no_existen() throws Exception {
+        Banco banco = EjecutorCarga.crearBanco(10, BigDecimal.TEN);
+        Carga carga = new GeneradorCarga(20, 4).generar(1_000);
+        ResultadoCarga resultado = new EjecutorCarga(banco).ejecutar(carga);
+        assertTrue(resultado.getSinCuenta() > 0);
+    }
+
+    @Test
+    @Tag("rendimiento")
+    @DisplayName("Carga sesgada con y sin excepciones")
+    void test_rendimiento_carga_sesgada() throws Exception {
+        GeneradorCarga generador = new GeneradorCarga(100_000, 42);
+        Carga carga = generador.generar(500_000);
+        for (boolean sinExcepciones : new boolean[] { false, true }) {
+            EjecutorCarga ejecutor = new EjecutorCarga(EjecutorCarga.crearBanco(100_000, BigDecimal.valueOf(500)));
+            ejecutor.setSinExcepciones(sinExcepciones);
+            ejecutor.ejecutar(carga); // calentamiento
+            ResultadoCarga resultado = ejecutor.ejecutar(carga);
+            reporter.publishEntry(sinExcepciones ? "Sin excepciones" : "Con excepciones", resultado.toString());
+            assertEquals(500_000, resultado.getOperaciones());
+        }
+    }
+
+}
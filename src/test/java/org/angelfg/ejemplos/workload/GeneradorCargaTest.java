@@ -0,0 +1,139 @@
+package org.angelfg.ejemplos.workload;
+
+import org.angelfg.ejemplos.models.TipoOperacion;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.math.BigDecimal;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+import java.util.SplittableRandom;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class GeneradorCargaTest {
+
+    @Test
+    void test_misma_semilla_misma_carga() {
+        Carga primera = new GeneradorCarga(1_000, 7).generar(10_000);
+        Carga segunda = new GeneradorCarga(1_000, 7).generar(10_000);
+        Carga otra = new GeneradorCarga(1_000, 8).generar(10_000);
+
+        boolean distintas = false;
+        for (int i = 0; i < primera.getOperaciones(); i++) {
+            assertEquals(primera.getTipo(i), segunda.getTipo(i));
+            assertEquals(primera.getOrigen(i), segunda.getOrigen(i));
+            assertEquals(primera.getDestino(i), segunda.getDestino(i));
+            assertEquals(primera.getMontoSinEscala(i), segunda.getMontoSinEscala(i));
+            distintas |= primera.getOrigen(i) != otra.getOrigen(i) || primera.getMontoSinEscala(i) != otra.getMontoSinEscala(i);
+        }
+        assertTrue(distintas);
+    }
+
+    @Test
+    void test_mezcla_montos_y_cuentas_validas() {
+        GeneradorCarga generador = new GeneradorCarga(500, 1);
+        generador.setMezcla(1, 1, 2);
+        generador.setMontoMaximo(BigDecimal.valueOf(50));
+        Carga carga = generador.generar(100_000);
+
+        int[] porTipo = new int[TipoOperacion.values().length];
+        for (int i = 0; i < carga.getOperaciones(); i++) {
+            TipoOperacion tipo = carga.getTipo(i);
+            porTipo[tipo.ordinal()]++;
+            assertTrue(carga.getMontoSinEscala(i) >= 1 && carga.getMontoSinEscala(i) <= 5_000);
+            if (tipo != TipoOperacion.CREDITO) assertTrue(carga.getOrigen(i) >= 1 && carga.getOrigen(i) <= 500);
+            if (tipo != TipoOperacion.DEBITO) assertTrue(carga.getDestino(i) >= 1 && carga.getDestino(i) <= 500);
+            if (tipo == TipoOperacion.TRANSFERENCIA) assertNotEquals(carga.getOrigen(i), carga.getDestino(i));
+        }
+        assertEquals(25_000, porTipo[TipoOperacion.DEBITO.ordinal()], 1_000);
+        assertEquals(25_000, porTipo[TipoOperacion.CREDITO.ordinal()], 1_000);
+        assertEquals(50_000, porTipo[TipoOperacion.TRANSFERENCIA.ordinal()], 1_000);
+        assertTrue(carga.getMayorId() <= 500);
+    }
+
+    @Test
+    void test_zipf_concentra_las_operaciones() {
+        int cuentas = 100_000;
+        assertTrue(porcentajeEnCalientes(cuentas, 1.0) > 50);
+        assertTrue(porcentajeEnCalientes(cuentas, 0) < 10);
+    }
+
+    // Porcentaje de las operaciones que cae en el 1% de cuentas mas usado
+    private static double porcentajeEnCalientes(int cuentas, double exponente) {
+        GeneradorCarga generador = new GeneradorCarga(cuentas, 3);
+        generador.setExponenteZipf(exponente);
+        generador.setMezcla(1, 0, 0);
+        Carga carga = generador.generar(200_000);
+        int[] usos = new int[cuentas + 1];
+        for (int i = 0; i < carga.getOperaciones(); i++) {
+            usos[(int) carga.getOrigen(i)]++;
+        }
+        Arrays.sort(usos);
+        long enCalientes = 0;
+        for (int i = usos.length - cuentas / 100; i < usos.length; i++) {
+            enCalientes += usos[i];
+        }
+        return enCalientes * 100.0 / carga.getOperaciones();
+    }
+
+    @Test
+    void test_zipf_respeta_el_rango() {
+        GeneradorCarga.Zipf zipf = new GeneradorCarga.Zipf(10, 1.2);
+        SplittableRandom random = new SplittableRandom(5);
+        int[] usos = new int[11];
+        for (int i = 0; i < 100_000; i++) {
+            usos[zipf.muestra(random)]++;
+        }
+        assertEquals(0, usos[0]);
+        for (int k = 2; k <= 10; k++) {
+            assertTrue(usos[k - 1] > usos[k], "El puesto " + (k - 1) + " debe salir mas que el " + k);
+        }
+    }
+
+    @Test
+    void test_grabar_y_leer(@TempDir Path directorio) throws Exception {
+        Carga carga = new GeneradorCarga(50, 11).generar(1_000);
+        Path archivo = directorio.resolve("carga.csv");
+        carga.escribir(archivo);
+        Carga leida = Carga.leer(archivo);
+
+        assertEquals(carga.getOperaciones(), leida.getOperaciones());
+        for (int i = 0; i < carga.getOperaciones(); i++) {
+            assertEquals(carga.getTipo(i), leida.getTipo(i));
+            assertEquals(carga.getOrigen(i), leida.getOrigen(i));
+            assertEquals(carga.getDestino(i), leida.getDestino(i));
+            assertEquals(carga.getMonto(i), leida.getMonto(i));
+        }
+    }
+
+    @Test
+    void test_leer_formato_data_csv(@TempDir Path directorio) throws Exception {
+        Path archivo = directorio.resolve("data.csv");
+        Files.write(archivo, List.of("100", "", "3,-20.5", "2,3,7.25", " 1000.12345 "));
+        Carga carga = Carga.leer(archivo);
+
+        assertEquals(4, carga.getOperaciones());
+        assertEquals(TipoOperacion.DEBITO, carga.getTipo(0)); // como en los demas usos de data.csv
+        assertEquals(1, carga.getOrigen(0));
+        assertEquals(TipoOperacion.CREDITO, carga.getTipo(1));
+        assertEquals(3, carga.getDestino(1));
+        assertEquals(new BigDecimal("20.5"), carga.getMonto(1));
+        assertEquals(TipoOperacion.TRANSFERENCIA, carga.getTipo(2));
+        assertEquals(725, carga.getMontoSinEscala(2));
+        assertEquals(2, carga.getEscala(2));
+        assertEquals(new BigDecimal("1000.12345"), carga.getMonto(3)); // cada fila conserva su escala
+        assertEquals(3, carga.getMayorId());
+
+        Files.write(archivo, List.of("1,2,-5"));
+        assertThrows(IllegalArgumentException.class, () -> Carga.leer(archivo));
+        Files.write(archivo, List.of("1.5,2"));
+        assertThrows(IllegalArgumentException.class, () -> Carga.leer(archivo));
+        Files.write(archivo, List.of("1,2,3,4"));
+        IllegalArgumentException exception = assertThrows(IllegalArgumentException.class, () -> Carga.leer(archivo));
+        assertTrue(exception.getMessage().contains("byte 0"), exception.getMessage());
+    }
+
+}